@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2018, The University of Memphis, MD2K Center of Excellence
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.md2k.datakitapi;
+
+import android.app.Application;
+import android.content.pm.PackageManager;
+import android.test.ApplicationTestCase;
+import android.util.Log;
+
+import org.md2k.datakitapi.messagehandler.OnConnectionListener;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long a full connect and disconnect cycle against an installed <code>DataKit</code> takes.
+ *
+ * <p>
+ *     Each cycle binds the service, waits for the connection, and tears it down again. The median
+ *     and 95th percentile are written to the log under the <code>ReconnectBenchmark</code> tag. The
+ *     benchmark is skipped when <code>DataKit</code> is not installed on the device.
+ * </p>
+ */
+public class ReconnectBenchmark extends ApplicationTestCase<Application> {
+    private static final String TAG = ReconnectBenchmark.class.getSimpleName();
+
+    /** Number of cycles run before measuring. */
+    private static final int WARMUP_CYCLES = 5;
+
+    /** Number of measured cycles. */
+    private static final int CYCLES = 50;
+
+    /** Maximum time in milliseconds to wait for a connection. */
+    private static final long CONNECT_TIMEOUT = 10000;
+
+    public ReconnectBenchmark() {
+        super(Application.class);
+    }
+
+    /**
+     * Runs the connect and disconnect cycles and logs their duration.
+     *
+     * @throws Exception Thrown when <code>DataKit</code> cannot be bound.
+     */
+    public void testReconnectCycle() throws Exception {
+        try {
+            getContext().getPackageManager().getPackageInfo(Constants.PACKAGE_NAME, 0);
+        } catch (PackageManager.NameNotFoundException e) {
+            Log.w(TAG, "DataKit is not installed, skipping");
+            return;
+        }
+        DataKitAPIExecute execute = new DataKitAPIExecute(getContext());
+        OnConnectionListener onConnectionListener = new OnConnectionListener() {
+            @Override
+            public void onConnected() {
+            }
+        };
+        for (int i = 0; i < WARMUP_CYCLES; i++)
+            cycle(execute, onConnectionListener);
+
+        long[] nanos = new long[CYCLES];
+        for (int i = 0; i < CYCLES; i++)
+            nanos[i] = cycle(execute, onConnectionListener);
+        Arrays.sort(nanos);
+        Log.i(TAG, "connect+disconnect over " + CYCLES + " cycles: median "
+                + TimeUnit.NANOSECONDS.toMicros(nanos[CYCLES / 2]) + " us, p95 "
+                + TimeUnit.NANOSECONDS.toMicros(nanos[CYCLES * 95 / 100]) + " us");
+    }
+
+    /**
+     * Connects, waits for the connection and disconnects.
+     *
+     * @param execute Connection to cycle.
+     * @param onConnectionListener Callback for connection verification.
+     * @return Duration of the cycle in nanoseconds.
+     * @throws Exception Thrown when <code>DataKit</code> cannot be bound.
+     */
+    private long cycle(DataKitAPIExecute execute, OnConnectionListener onConnectionListener) throws Exception {
+        long start = System.nanoTime();
+        execute.connect(onConnectionListener);
+        assertTrue("DataKit did not connect", execute.awaitConnected(CONNECT_TIMEOUT, TimeUnit.MILLISECONDS));
+        execute.disconnect();
+        return System.nanoTime() - start;
+    }
+}
@@ -0,0 +1,421 @@
+/*
+ * Copyright (c) 2018, The University of Memphis, MD2K Center of Excellence
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.md2k.datakitapi;
+
+import android.util.Log;
+
+import org.md2k.datakitapi.messagehandler.ConnectionState;
+import org.md2k.datakitapi.messagehandler.OnConnectionStateListener;
+import org.md2k.datakitapi.source.datasource.DataSource;
+import org.md2k.datakitapi.source.datasource.DataSourceClient;
+import org.md2k.datakitapi.status.Status;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Restores the connection to <code>DataKit</code> after it is lost.
+ *
+ * <p>
+ *     When the service goes away without <code>disconnect()</code> having been called, for example
+ *     because <code>DataKit</code> crashed or was upgraded, the supervisor binds the service again
+ *     with exponential backoff. The delays start at <code>INITIAL_BACKOFF</code>, double up to
+ *     <code>MAX_BACKOFF</code> and are spread by <code>JITTER</code> either way, so the apps that
+ *     lost <code>DataKit</code> at the same moment do not all bind again at the same moment.
+ * </p>
+ * <p>
+ *     Once bound, the session is resumed under a new <code>sessionId</code>: every data source
+ *     registered in the previous session is registered again and every subscription is sent again,
+ *     and only then is the connection reported as connected. Should <code>DataKit</code> hand out a
+ *     different <code>ds_id</code> for a data source, outgoing and incoming identifiers are mapped so
+ *     that the caller keeps using the one it was given first.
+ * </p>
+ */
+class ConnectionSupervisor {
+    private static final String TAG = ConnectionSupervisor.class.getSimpleName();
+
+    /** Delay in milliseconds before the first attempt to bind again. <p>Default is 500 milliseconds.</p> */
+    static final long INITIAL_BACKOFF = 500;
+
+    /** Longest delay in milliseconds between attempts to bind again. <p>Default is 30 seconds.</p> */
+    static final long MAX_BACKOFF = 30000;
+
+    /** Fraction by which each delay is randomly lengthened or shortened. <p>Default is 0.2.</p> */
+    static final double JITTER = 0.2;
+
+    /** Time in seconds the idle supervisor thread is kept alive. */
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    /** Connection being supervised. */
+    private final DataKitAPIExecute execute;
+
+    /** Runs the attempts to bind again and the session resumption, one at a time. */
+    private final ScheduledThreadPoolExecutor executor;
+
+    /** Source of the jitter. */
+    private final Random random = new Random();
+
+    /** Data sources registered by the caller, keyed by the <code>ds_id</code> the caller was given. */
+    private final ConcurrentMap<Integer, DataSource> registrations = new ConcurrentHashMap<>();
+
+    /** <code>ds_id</code> in the current session keyed by the one the caller was given, if they differ. */
+    private final ConcurrentMap<Integer, Integer> currentIds = new ConcurrentHashMap<>();
+
+    /** <code>ds_id</code> the caller was given keyed by the one in the current session, if they differ. */
+    private final ConcurrentMap<Integer, Integer> originalIds = new ConcurrentHashMap<>();
+
+    /** Current <code>ConnectionState</code>. Written while holding <code>this</code>. */
+    private volatile int state = ConnectionState.DISCONNECTED;
+
+    /** Callback for connection state changes, may be null. */
+    private volatile OnConnectionStateListener onConnectionStateListener;
+
+    /** Delay before the next attempt to bind again. Guarded by <code>this</code>. */
+    private long backoff = INITIAL_BACKOFF;
+
+    /** Next scheduled attempt, or null. Guarded by <code>this</code>. */
+    private ScheduledFuture<?> pending;
+
+    /** Incremented whenever the service connects, is lost or is closed, so that work begun before
+     * is abandoned. Guarded by <code>this</code>. */
+    private int epoch;
+
+    /**
+     * Constructor
+     *
+     * @param execute Connection being supervised.
+     */
+    ConnectionSupervisor(DataKitAPIExecute execute) {
+        this.execute = execute;
+        executor = new ScheduledThreadPoolExecutor(1, new SubscriptionDispatcher.NamedThreadFactory("datakit-supervisor"));
+        executor.setKeepAliveTime(KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @return The current <code>ConnectionState</code>.
+     */
+    int getState() {
+        return state;
+    }
+
+    /**
+     * Sets the callback for connection state changes. It is called on the thread that changed the state.
+     *
+     * @param onConnectionStateListener Callback, or null to remove it.
+     */
+    void setOnConnectionStateListener(OnConnectionStateListener onConnectionStateListener) {
+        this.onConnectionStateListener = onConnectionStateListener;
+    }
+
+    /**
+     * Called when <code>connect()</code> starts binding the service.
+     */
+    void onConnecting() {
+        synchronized (this) {
+            epoch++;
+            cancelPending();
+            backoff = INITIAL_BACKOFF;
+            state = ConnectionState.CONNECTING;
+        }
+        notifyState(ConnectionState.CONNECTING);
+    }
+
+    /**
+     * Called when the service has been bound.
+     *
+     * <p>
+     *     A first connection is complete right away. After the connection was lost, the session is
+     *     resumed on the supervisor thread first.
+     * </p>
+     *
+     * @return Whether the caller should complete the connection now.
+     */
+    boolean onServiceConnected() {
+        synchronized (this) {
+            cancelPending();
+            if (state == ConnectionState.RECONNECTING) {
+                final int resumeEpoch = ++epoch;
+                pending = executor.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        resume(resumeEpoch);
+                    }
+                }, 0, TimeUnit.MILLISECONDS);
+                return false;
+            }
+            if (state != ConnectionState.CONNECTING)
+                return false;
+            state = ConnectionState.CONNECTED;
+        }
+        notifyState(ConnectionState.CONNECTED);
+        return true;
+    }
+
+    /**
+     * Called when the service went away without <code>disconnect()</code> having been called.
+     * Schedules the first attempt to bind it again.
+     */
+    void onServiceDisconnected() {
+        synchronized (this) {
+            if (state == ConnectionState.DISCONNECTED)
+                return;
+            epoch++;
+            cancelPending();
+            boolean changed = state != ConnectionState.RECONNECTING;
+            state = ConnectionState.RECONNECTING;
+            scheduleRebind();
+            if (!changed)
+                return;
+        }
+        Log.w(TAG, "Connection to DataKit lost, reconnecting...");
+        notifyState(ConnectionState.RECONNECTING);
+    }
+
+    /**
+     * Called by <code>disconnect()</code>. Stops reconnecting and forgets the registered data sources.
+     */
+    void onDisconnected() {
+        synchronized (this) {
+            epoch++;
+            cancelPending();
+            registrations.clear();
+            currentIds.clear();
+            originalIds.clear();
+            if (state == ConnectionState.DISCONNECTED)
+                return;
+            state = ConnectionState.DISCONNECTED;
+        }
+        notifyState(ConnectionState.DISCONNECTED);
+    }
+
+    /**
+     * Records a data source registered by the caller and translates the reply to the identifier
+     * the caller knows the data source by.
+     *
+     * @param dataSource The data source as sent to <code>DataKit</code>.
+     * @param dataSourceClient The reply, may be null.
+     * @return The reply as handed to the caller.
+     */
+    DataSourceClient registered(DataSource dataSource, DataSourceClient dataSourceClient) {
+        if (dataSourceClient == null)
+            return null;
+        dataSourceClient = toOriginal(dataSourceClient);
+        registrations.put(dataSourceClient.getDs_id(), dataSource);
+        return dataSourceClient;
+    }
+
+    /**
+     * Forgets a data source unregistered by the caller.
+     *
+     * @param ds_id Data source identifier as known by the caller.
+     */
+    void unregistered(int ds_id) {
+        registrations.remove(ds_id);
+        Integer current = currentIds.remove(ds_id);
+        if (current != null)
+            originalIds.remove(current);
+    }
+
+    /**
+     * @param ds_id Data source identifier as known by the caller.
+     * @return The identifier of the data source in the current session.
+     */
+    int toCurrent(int ds_id) {
+        if (currentIds.isEmpty())
+            return ds_id;
+        Integer current = currentIds.get(ds_id);
+        return current == null ? ds_id : current;
+    }
+
+    /**
+     * @param ds_id Data source identifier in the current session.
+     * @return The identifier the caller knows the data source by.
+     */
+    int toOriginal(int ds_id) {
+        if (originalIds.isEmpty())
+            return ds_id;
+        Integer original = originalIds.get(ds_id);
+        return original == null ? ds_id : original;
+    }
+
+    /**
+     * @param dataSourceClient Data source as known in the current session.
+     * @return The data source with the identifier the caller knows it by.
+     */
+    DataSourceClient toOriginal(DataSourceClient dataSourceClient) {
+        int original = toOriginal(dataSourceClient.getDs_id());
+        if (original == dataSourceClient.getDs_id())
+            return dataSourceClient;
+        return new DataSourceClient(original, dataSourceClient.getDataSource(), dataSourceClient.getStatus());
+    }
+
+    /**
+     * Schedules the next attempt to bind the service again and doubles the delay for the one after.
+     * Must be called holding <code>this</code>.
+     */
+    private void scheduleRebind() {
+        final int rebindEpoch = epoch;
+        long delay = (long) (backoff * (1 + JITTER * (2 * random.nextDouble() - 1)));
+        backoff = Math.min(backoff * 2, MAX_BACKOFF);
+        pending = executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                rebind(rebindEpoch);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Binds the service again and schedules the next attempt in case this one does not connect.
+     *
+     * @param rebindEpoch Epoch the attempt was scheduled in.
+     */
+    private void rebind(int rebindEpoch) {
+        synchronized (this) {
+            if (rebindEpoch != epoch || state != ConnectionState.RECONNECTING)
+                return;
+        }
+        boolean bound = execute.rebind();
+        if (!bound)
+            Log.w(TAG, "Could not bind DataKit, retrying in " + backoff + " ms");
+        synchronized (this) {
+            if (rebindEpoch == epoch && state == ConnectionState.RECONNECTING)
+                scheduleRebind();
+        }
+    }
+
+    /**
+     * Resumes the session on a freshly bound service and reports the connection as connected,
+     * or schedules the next attempt to bind again if that fails.
+     *
+     * @param resumeEpoch Epoch the resumption was scheduled in.
+     */
+    private void resume(int resumeEpoch) {
+        boolean resumed;
+        try {
+            resumed = restore(resumeEpoch);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Could not resume session", e);
+            resumed = false;
+        }
+        synchronized (this) {
+            if (resumeEpoch != epoch || state != ConnectionState.RECONNECTING)
+                return;
+            if (!resumed) {
+                scheduleRebind();
+                return;
+            }
+            backoff = INITIAL_BACKOFF;
+            state = ConnectionState.CONNECTED;
+        }
+        notifyState(ConnectionState.CONNECTED);
+        execute.onResumed();
+    }
+
+    /**
+     * Starts a new session and registers and subscribes everything the caller had before.
+     *
+     * @param resumeEpoch Epoch the resumption was scheduled in.
+     * @return Whether every request succeeded before the connection was lost again.
+     */
+    private boolean restore(int resumeEpoch) {
+        execute.newSession();
+        for (Map.Entry<Integer, DataSource> registration : registrations.entrySet()) {
+            if (isStale(resumeEpoch))
+                return false;
+            DataSourceClient dataSourceClient = execute.sendRegister(registration.getValue()).await();
+            if (dataSourceClient == null)
+                return false;
+            remap(registration.getKey(), dataSourceClient.getDs_id());
+        }
+        for (int ds_id : execute.getSubscribedIds()) {
+            if (isStale(resumeEpoch))
+                return false;
+            Status status = execute.sendSubscribe(ds_id).await();
+            if (status == null)
+                return false;
+        }
+        return !isStale(resumeEpoch);
+    }
+
+    /**
+     * Records the identifier a data source got in the current session.
+     *
+     * @param original Identifier the caller knows the data source by.
+     * @param current Identifier in the current session.
+     */
+    private void remap(int original, int current) {
+        Integer previous = currentIds.remove(original);
+        if (previous != null)
+            originalIds.remove(previous);
+        if (original == current)
+            return;
+        currentIds.put(original, current);
+        originalIds.put(current, original);
+    }
+
+    /**
+     * @param resumeEpoch Epoch the work was scheduled in.
+     * @return Whether the connection was lost or closed since.
+     */
+    private synchronized boolean isStale(int resumeEpoch) {
+        return resumeEpoch != epoch;
+    }
+
+    /**
+     * Cancels the next scheduled attempt. Must be called holding <code>this</code>.
+     */
+    private void cancelPending() {
+        if (pending != null) {
+            pending.cancel(false);
+            pending = null;
+        }
+    }
+
+    /**
+     * Reports a state change to the callback, keeping a failing callback from stopping the supervisor.
+     *
+     * @param newState The new <code>ConnectionState</code>.
+     */
+    private void notifyState(int newState) {
+        OnConnectionStateListener listener = onConnectionStateListener;
+        if (listener == null)
+            return;
+        try {
+            listener.onConnectionStateChanged(newState);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Connection state listener failed", e);
+        }
+    }
+}
@@ -111,4 +111,94 @@ public class Constants {
      * </p>
      */
     public static final String RC_DATASOURCE_CLIENT = "data_source_client";
+
+    /**
+     * Timestamp of the first sample of a packed frame.
+     * <p>
+     *     <code>"timestamp"</code>
+     * </p>
+     */
+    public static final String RC_TIMESTAMP = "timestamp";
+
+    /**
+     * Timestamp differences between consecutive samples of a packed frame.
+     * <p>
+     *     <code>"timestamp_deltas"</code>
+     * </p>
+     */
+    public static final String RC_TIMESTAMP_DELTAS = "timestamp_deltas";
+
+    /**
+     * Time zone offset shared by the samples of a packed frame.
+     * <p>
+     *     <code>"offset"</code>
+     * </p>
+     */
+    public static final String RC_OFFSET = "offset";
+
+    /**
+     * Number of values per sample of a packed frame.
+     * <p>
+     *     <code>"width"</code>
+     * </p>
+     */
+    public static final String RC_WIDTH = "width";
+
+    /**
+     * Values of the samples of a packed frame.
+     * <p>
+     *     <code>"samples"</code>
+     * </p>
+     */
+    public static final String RC_SAMPLES = "samples";
+
+    /**
+     * <code>ParcelFileDescriptor</code> a cursor query result is streamed through.
+     * <p>
+     *     <code>"file_descriptor"</code>
+     * </p>
+     */
+    public static final String RC_FILE_DESCRIPTOR = "file_descriptor";
+
+    /**
+     * Sequence number of an acknowledged insert, counted per data source. In the reply, the highest
+     * sequence number up to which every insert has been stored.
+     * <p>
+     *     <code>"sequence"</code>
+     * </p>
+     */
+    public static final String RC_SEQUENCE = "sequence";
+
+    /**
+     * Random identifier of the sequence numbers of one client process, so that <code>DataKit</code>
+     * can tell a resent insert from a new one.
+     * <p>
+     *     <code>"insert_stream"</code>
+     * </p>
+     */
+    public static final String RC_INSERT_STREAM = "insert_stream";
+
+    /**
+     * Width in milliseconds of the buckets of an aggregate query.
+     * <p>
+     *     <code>"bucket"</code>
+     * </p>
+     */
+    public static final String RC_BUCKET = "bucket";
+
+    /**
+     * Maximum number of samples returned by a downsampled query.
+     * <p>
+     *     <code>"points"</code>
+     * </p>
+     */
+    public static final String RC_POINTS = "points";
+
+    /**
+     * Index of the value within each sample a downsampled query is based on.
+     * <p>
+     *     <code>"column"</code>
+     * </p>
+     */
+    public static final String RC_COLUMN = "column";
 }
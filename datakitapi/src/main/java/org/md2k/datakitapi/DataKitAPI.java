@@ -29,86 +29,91 @@ package org.md2k.datakitapi;
 
 import android.content.Context;
 import android.content.pm.PackageManager;
-import android.os.Handler;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
 
+import org.md2k.datakitapi.datatype.AggregateBlock;
 import org.md2k.datakitapi.datatype.DataType;
+import org.md2k.datakitapi.datatype.DataTypeCursor;
 import org.md2k.datakitapi.datatype.DataTypeDoubleArray;
 import org.md2k.datakitapi.datatype.DataTypeLong;
+import org.md2k.datakitapi.datatype.DoubleBlock;
 import org.md2k.datakitapi.datatype.RowObject;
 import org.md2k.datakitapi.exception.DataKitException;
 import org.md2k.datakitapi.exception.DataKitNotFoundException;
+import org.md2k.datakitapi.messagehandler.AsyncPendingResult;
+import org.md2k.datakitapi.messagehandler.ConnectionState;
+import org.md2k.datakitapi.messagehandler.DeliveryPolicy;
 import org.md2k.datakitapi.messagehandler.OnConnectionListener;
+import org.md2k.datakitapi.messagehandler.OnConnectionStateListener;
+import org.md2k.datakitapi.messagehandler.OnReceiveBatchListener;
 import org.md2k.datakitapi.messagehandler.OnReceiveListener;
+import org.md2k.datakitapi.metrics.MetricsRegistry;
+import org.md2k.datakitapi.source.METADATA;
 import org.md2k.datakitapi.source.datasource.DataSourceBuilder;
 import org.md2k.datakitapi.source.datasource.DataSourceClient;
 import org.md2k.datakitapi.status.Status;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 /**
  * Handles exception checks and handles outside method calls for <code>DataKitAPIExecute</code>.
+ *
+ * <p>
+ *     Methods may be called from any thread. Only <code>connect()</code> and <code>disconnect()</code>
+ *     are serialized against each other; inserts, queries and subscriptions never wait for each
+ *     other, and high-frequency buffers are only locked per data source.
+ * </p>
  */
 public class DataKitAPI {
     private static final String TAG = DataKitAPI.class.getSimpleName();
 
-    /** Size of the buffer.
-     * <p>
-     *     The buffer size is set to 8KB using a bitwise shift operation.
-     * </p>
-     */
-    private static final int BUFFER_SIZE = 1 << 13;
-    private static DataKitAPI instance = null;
+    private static volatile DataKitAPI instance = null;
     DataKitAPIExecute dataKitAPIExecute;
 
     /** Android context */
     Context context;
 
-    /** Handler for runnable messages */
-    Handler handler;
+    /** Runs the deadline flushes of the high-frequency buffers on a thread of its own. */
+    private final HFFlusher hfFlusher = new HFFlusher(this);
 
-    /**
-     * Maximum time in milliseconds to wait when transmitting high-frequency data
+    /** Serializes <code>connect()</code> and <code>disconnect()</code>. */
+    private final Object connectionLock = new Object();
+
+    /** Flush policy of data sources without one of their own. */
+    private volatile HFFlushPolicy defaultHFFlushPolicy = HFFlushPolicy.DEFAULT;
+
+
+    /** Buffers for temporarily storing high frequency data, one per <code>ds_id</code>.
      *
      * <p>
-     *     Default is 1000 milliseconds.
+     *     The array is copied when a data source is added, so looking up a buffer needs neither a lock
+     *     nor a boxed key. Each buffer is its own lock, so producers of different data sources never
+     *     contend.
      * </p>
      */
-    private static final long SYNC_TIME_HF = 1000;
+    private volatile HFBuffer[] hfBuffers = new HFBuffer[0];
 
+    /** Serializes adding buffers to <code>hfBuffers</code>. */
+    private final Object hfBuffersLock = new Object();
 
-    /** HashMap for temporarily storing high frequency data. */
-    HashMap<Integer, HFBuffer> hmHFBuffer;
+    /** Whether high-frequency batches are sent as packed frames. <p>Default is false.</p> */
+    private volatile boolean packedHighFrequency = false;
 
-    /** Embedded class for creating high frequency buffer objects. */
-    class HFBuffer {
-
-        /** ArrayList of data collected from the data source. */
-        ArrayList<DataTypeDoubleArray> data;
-
-        /** Size of the ArrayList. */
-        int size;
-
-        /** Constructor
-         *
-         * <p>
-         *     Creates a <code>HFBuffer</code> object containing an ArrayList of size 0.
-         * </p>
-         */
-        HFBuffer() {
-            data = new ArrayList<>();
-            size = 0;
-        }
-    }
+    /** Spool for samples that cannot be sent, null unless enabled. */
+    private volatile InsertSpool spool;
 
 
     /**
      * Constructor
      *
      * <p>
-     *     Calls the <code>DataKitAPIExecute</code> constructor and creates a new <code>Handler</code>
-     *     and a new <code>HFBuffer</code>.
+     *     Calls the <code>DataKitAPIExecute</code> constructor. It does not need a
+     *     <code>Looper</code>, so the instance may be created on any thread.
      * </p>
      *
      * @param context Android context
@@ -116,8 +121,6 @@ public class DataKitAPI {
     private DataKitAPI(Context context) {
         this.context = context;
         dataKitAPIExecute = new DataKitAPIExecute(context);
-        handler = new Handler();
-        hmHFBuffer = new HashMap<>();
     }
 
     /**
@@ -149,22 +152,52 @@ public class DataKitAPI {
         return !(dataKitAPIExecute == null || !dataKitAPIExecute.isConnected());
     }
 
+    /**
+     * @return The current <code>ConnectionState</code> of the connection to <code>DataKit</code>.
+     */
+    public int getConnectionState() {
+        return dataKitAPIExecute.getConnectionState();
+    }
+
+    /**
+     * Sets the callback for changes of the connection to <code>DataKit</code>.
+     *
+     * <p>
+     *     When the connection is lost without <code>disconnect()</code> having been called, it is
+     *     restored in the background: the state changes to <code>RECONNECTING</code>, and back to
+     *     <code>CONNECTED</code> once all data sources have been registered and all listeners
+     *     subscribed again. The connection listener given to <code>connect()</code> is then called
+     *     again. The callback is called on the thread that changed the state.
+     * </p>
+     *
+     * @param onConnectionStateListener Callback, or null to remove it.
+     */
+    public void setOnConnectionStateListener(OnConnectionStateListener onConnectionStateListener) {
+        dataKitAPIExecute.setOnConnectionStateListener(onConnectionStateListener);
+    }
+
     /**
      * Connects <code>DataKit</code> to an outside calling application.
      *
+     * <p>
+     *     While a lost connection is being restored, the listener replaces the previous one and is
+     *     called once the connection is back.
+     * </p>
+     *
      * @param callerOnConnectionListener Callback for connection verification.
      * @throws DataKitException Thrown when <code>DataKit</code> is not installed.
      */
-    public synchronized void connect(OnConnectionListener callerOnConnectionListener) throws DataKitException {
+    public void connect(OnConnectionListener callerOnConnectionListener) throws DataKitException {
         if (!isInstalled(context, Constants.PACKAGE_NAME)) {
             throw new DataKitNotFoundException(new Status(Status.ERROR_NOT_INSTALLED));
         }
-        else if (isConnected())
-            callerOnConnectionListener.onConnected();
+        synchronized (connectionLock) {
+            if (isConnected())
+                callerOnConnectionListener.onConnected();
 
-        else {
-            dataKitAPIExecute.connect(callerOnConnectionListener);
-            handler.postDelayed(runnableSyncHF,SYNC_TIME_HF);
+            else {
+                dataKitAPIExecute.connect(replayingListener(callerOnConnectionListener));
+            }
         }
     }
 
@@ -177,20 +210,31 @@ public class DataKitAPI {
      * @throws DataKitException Thrown if Data Kit is not connected, the builder is null, or the
      *                          clients are null.
      */
-    public synchronized ArrayList<DataSourceClient> find(DataSourceBuilder dataSourceBuilder) throws DataKitException {
+    public ArrayList<DataSourceClient> find(DataSourceBuilder dataSourceBuilder) throws DataKitException {
+        ArrayList<DataSourceClient> dataSourceClients = findAsync(dataSourceBuilder).await();
 
+        if (dataSourceClients == null || !dataKitAPIExecute.isConnected())
+            throw new DataKitNotFoundException(new Status(Status.ERROR_BOUND));
+
+        else return dataSourceClients;
+    }
+
+    /**
+     * Asynchronously finds the <code>DataSourceClient</code> objects that match the given
+     * <code>DataSourceBuilder</code>.
+     *
+     * @param dataSourceBuilder Builder object for the desired <code>DataSourceClient</code> objects.
+     * @return The pending ArrayList of <code>DataSourceClient</code> objects, null if the request failed.
+     * @throws DataKitException Thrown if Data Kit is not connected or the builder is null.
+     */
+    public AsyncPendingResult<ArrayList<DataSourceClient>> findAsync(DataSourceBuilder dataSourceBuilder) throws DataKitException {
         if (!dataKitAPIExecute.isConnected())
             throw new DataKitNotFoundException(new Status(Status.ERROR_BOUND));
 
         if (dataSourceBuilder == null)
             throw new DataKitException(new Status(Status.DATA_INVALID).getStatusMessage());
 
-        ArrayList<DataSourceClient> dataSourceClients = dataKitAPIExecute.find(dataSourceBuilder).await();
-
-        if (dataSourceClients == null || !dataKitAPIExecute.isConnected())
-            throw new DataKitNotFoundException(new Status(Status.ERROR_BOUND));
-
-        else return dataSourceClients;
+        return dataKitAPIExecute.find(dataSourceBuilder);
     }
 
     /**
@@ -201,9 +245,9 @@ public class DataKitAPI {
      * @throws DataKitException Thrown if <code>DataKit</code> is not connected and if the <code>DataSourceClient</code>
      *                          or the <code>DataType</code> are null.
      */
-    public synchronized void insert(DataSourceClient dataSourceClient, DataType dataType) throws DataKitException {
+    public void insert(DataSourceClient dataSourceClient, DataType dataType) throws DataKitException {
 
-        if (!dataKitAPIExecute.isConnected())
+        if (spool == null && !dataKitAPIExecute.isConnected())
             throw new DataKitNotFoundException(new Status(Status.ERROR_BOUND));
 
         if (dataSourceClient == null || dataType == null)
@@ -211,7 +255,7 @@ public class DataKitAPI {
 
         else {
             DataType[] dataTypes=new DataType[]{dataType};
-            dataKitAPIExecute.insert(dataSourceClient, dataTypes);
+            insertOrSpool(dataSourceClient, dataTypes);
         }
     }
 
@@ -222,7 +266,7 @@ public class DataKitAPI {
      * @param dataType Type of the data in <code>dataSourceClient</code>.
      * @throws DataKitException Thrown if <code>DataKit</code> is not connected or the data is invalid.
      */
-    public synchronized void setSummary(DataSourceClient dataSourceClient, DataType dataType) throws DataKitException {
+    public void setSummary(DataSourceClient dataSourceClient, DataType dataType) throws DataKitException {
         if (!dataKitAPIExecute.isConnected())
             throw new DataKitNotFoundException(new Status(Status.ERROR_BOUND));
 
@@ -241,14 +285,38 @@ public class DataKitAPI {
      * @param dataTypes Array of <code>DataType</code> objects.
      * @throws DataKitException Thrown if <code>DataKit</code> is not connected or the data is invalid.
      */
-    public synchronized void insert(DataSourceClient dataSourceClient, DataType[] dataTypes) throws DataKitException {
-        if (!dataKitAPIExecute.isConnected())
+    public void insert(DataSourceClient dataSourceClient, DataType[] dataTypes) throws DataKitException {
+        if (spool == null && !dataKitAPIExecute.isConnected())
             throw new DataKitNotFoundException(new Status(Status.ERROR_BOUND));
 
         if (dataSourceClient == null || dataTypes == null)
             throw new DataKitException(new Status(Status.DATA_INVALID).getStatusMessage());
 
-        else dataKitAPIExecute.insert(dataSourceClient, dataTypes);
+        else insertOrSpool(dataSourceClient, dataTypes);
+    }
+
+    /**
+     * Sends samples to <code>DataKit</code>, or appends them to the spool if it is enabled and
+     * they cannot be sent yet.
+     *
+     * @param dataSourceClient Data source to insert.
+     * @param dataTypes Array of <code>DataType</code> objects.
+     * @throws DataKitException Thrown if the samples could not be sent and there is no spool.
+     */
+    private void insertOrSpool(DataSourceClient dataSourceClient, DataType[] dataTypes) throws DataKitException {
+        InsertSpool spool = this.spool;
+        if (spool == null) {
+            dataKitAPIExecute.insert(dataSourceClient, dataTypes);
+            return;
+        }
+        int ds_id = dataSourceClient.getDs_id();
+        if (spool.offer(ds_id, InsertSpool.KIND_INSERT, dataTypes, dataKitAPIExecute.isConnected()))
+            return;
+        try {
+            dataKitAPIExecute.insert(ds_id, dataTypes);
+        } catch (DataKitException e) {
+            spool.append(ds_id, InsertSpool.KIND_INSERT, dataTypes, dataKitAPIExecute);
+        }
     }
 
     /**
@@ -258,9 +326,9 @@ public class DataKitAPI {
      * @param dataType Double array of <code>DataType</code> objects.
      * @throws DataKitException Thrown if <code>DataKit</code> is not connected or the data is invalid.
      */
-    public synchronized void insertHighFrequency(final DataSourceClient dataSourceClient,
+    public void insertHighFrequency(final DataSourceClient dataSourceClient,
                                                  final DataTypeDoubleArray[] dataType) throws DataKitException {
-        if (!dataKitAPIExecute.isConnected())
+        if (spool == null && !dataKitAPIExecute.isConnected())
             throw new DataKitNotFoundException(new Status(Status.ERROR_BOUND));
 
         if (dataSourceClient == null || dataType == null)
@@ -279,9 +347,9 @@ public class DataKitAPI {
      * @param dataType Double array of <code>DataType</code> objects.
      * @throws DataKitException Thrown if <code>DataKit</code> is not connected or the data is invalid.
      */
-    public synchronized void insertHighFrequency(final DataSourceClient dataSourceClient,
+    public void insertHighFrequency(final DataSourceClient dataSourceClient,
                                                  final DataTypeDoubleArray dataType) throws DataKitException {
-        if (!dataKitAPIExecute.isConnected())
+        if (spool == null && !dataKitAPIExecute.isConnected())
             throw new DataKitNotFoundException(new Status(Status.ERROR_BOUND));
 
         if (dataSourceClient == null || dataType == null)
@@ -296,57 +364,362 @@ public class DataKitAPI {
      *
      * <p>
      *     If the buffer doesn't have enough room for the array to be stored, then it is first synced
-     *     with <code>DataKit</code>.
+     *     with <code>DataKit</code>. A buffer that reaches the byte or sample limit of its
+     *     <code>HFFlushPolicy</code> is synced right away; the first sample added to an empty buffer
+     *     schedules the sync for its latency limit. The buffer is not locked while it is synced, so
+     *     other threads adding to it only wait for the sync when they fill it again.
      * </p>
      *
      * @param ds_id Data source identifier.
      * @param dataTypeDoubleArray Array of <code>DataType</code> objects to add to the buffer.
      */
-    synchronized void addToBuffer(int ds_id, DataTypeDoubleArray dataTypeDoubleArray) {
-        HFBuffer hfBuffer;
-        if (hmHFBuffer.containsKey(ds_id))
-            hfBuffer = hmHFBuffer.get(ds_id);
-        else
-            hfBuffer = new HFBuffer();
+    void addToBuffer(int ds_id, DataTypeDoubleArray dataTypeDoubleArray) {
+        HFBuffer hfBuffer = getHFBuffer(ds_id);
+        double[] sample = dataTypeDoubleArray.getSample();
+        long offset = dataTypeDoubleArray.getOffset();
+        long deadline = Long.MAX_VALUE;
+        boolean full;
+
+        while (true) {
+            synchronized (hfBuffer) {
+                if (hfBuffer.fits(dataTypeDoubleArray.getDateTime(), sample.length, offset)) {
+                    boolean wasEmpty = hfBuffer.isEmpty();
+                    hfBuffer.append(dataTypeDoubleArray.getDateTime(), offset, sample);
+                    hfBuffer.metrics.onDepth(hfBuffer.size());
+                    full = hfBuffer.isFull();
+                    if (!full && wasEmpty)
+                        deadline = hfBuffer.getDeadline();
+                    break;
+                }
+            }
+            syncHFData(hfBuffer);
+        }
+        if (full)
+            syncHFData(hfBuffer);
+        else if (deadline != Long.MAX_VALUE)
+            hfFlusher.schedule(deadline);
+    }
 
-        if(hfBuffer.size + dataTypeDoubleArray.getSample().length * 8 >= BUFFER_SIZE){
-            syncHFData(ds_id);
-            hfBuffer = hmHFBuffer.get(ds_id);
+    /**
+     * Sets the flush policy of every data source that has none of its own.
+     *
+     * @param hfFlushPolicy The policy.
+     * @throws DataKitException Thrown when the policy is null or one of its limits is out of range.
+     */
+    public void setDefaultHFFlushPolicy(HFFlushPolicy hfFlushPolicy) throws DataKitException {
+        if (hfFlushPolicy == null || !hfFlushPolicy.isValid())
+            throw new DataKitException(new Status(Status.DATA_INVALID).getStatusMessage());
+        defaultHFFlushPolicy = hfFlushPolicy;
+        long deadline = Long.MAX_VALUE;
+        for (HFBuffer hfBuffer : hfBuffers) {
+            synchronized (hfBuffer) {
+                if (!hfBuffer.hasOwnPolicy())
+                    hfBuffer.setPolicy(hfFlushPolicy, false, 0);
+                deadline = Math.min(deadline, hfBuffer.getDeadline());
+            }
         }
-        hfBuffer.data.add(dataTypeDoubleArray);
-        hfBuffer.size += dataTypeDoubleArray.getSample().length * 8;
-        hmHFBuffer.put(ds_id, hfBuffer);
+        if (deadline != Long.MAX_VALUE)
+            hfFlusher.schedule(deadline);
     }
 
     /**
-     * Transfers the buffer data to an array and sends it to <code>DataKit</code>.
+     * Sets the flush policy of one data source.
+     *
+     * <p>
+     *     An adaptive policy takes the initial sample rate from <code>METADATA.FREQUENCY</code> of
+     *     the data source, if it is set.
+     * </p>
+     *
+     * @param dataSourceClient The data source.
+     * @param hfFlushPolicy The policy.
+     * @throws DataKitException Thrown when the data source or policy is null or one of the limits
+     * is out of range.
+     */
+    public void setHFFlushPolicy(DataSourceClient dataSourceClient, HFFlushPolicy hfFlushPolicy) throws DataKitException {
+        if (dataSourceClient == null || hfFlushPolicy == null || !hfFlushPolicy.isValid())
+            throw new DataKitException(new Status(Status.DATA_INVALID).getStatusMessage());
+        double declaredRate = 0;
+        if (dataSourceClient.getDataSource() != null && dataSourceClient.getDataSource().getMetadata() != null)
+            declaredRate = HFFlushPolicy.parseFrequency(dataSourceClient.getDataSource().getMetadata().get(METADATA.FREQUENCY));
+        HFBuffer hfBuffer = getHFBuffer(dataSourceClient.getDs_id());
+        long deadline;
+        synchronized (hfBuffer) {
+            hfBuffer.setPolicy(hfFlushPolicy, true, declaredRate);
+            deadline = hfBuffer.getDeadline();
+        }
+        if (deadline != Long.MAX_VALUE)
+            hfFlusher.schedule(deadline);
+    }
+
+    /**
+     * Returns the buffer of the given data source, creating it on first use.
      *
      * @param ds_id Data source identifier.
+     * @return The buffer of the data source.
      */
-    synchronized void syncHFData(int ds_id) {
-        HFBuffer hfBuffer = hmHFBuffer.get(ds_id);
-        if (hfBuffer.size == 0)
-            return;
-        DataTypeDoubleArray[] dataTypeDoubleArrays = new DataTypeDoubleArray[hfBuffer.data.size()];
+    private HFBuffer getHFBuffer(int ds_id) {
+        for (HFBuffer hfBuffer : hfBuffers) {
+            if (hfBuffer.ds_id == ds_id)
+                return hfBuffer;
+        }
+        synchronized (hfBuffersLock) {
+            HFBuffer[] current = hfBuffers;
+            for (HFBuffer hfBuffer : current) {
+                if (hfBuffer.ds_id == ds_id)
+                    return hfBuffer;
+            }
+            HFBuffer hfBuffer = new HFBuffer(ds_id, defaultHFFlushPolicy,
+                    dataKitAPIExecute.getMetrics().getBuffer(ds_id));
+            HFBuffer[] added = Arrays.copyOf(current, current.length + 1);
+            added[current.length] = hfBuffer;
+            hfBuffers = added;
+            return hfBuffer;
+        }
+    }
+
+    /**
+     * Sets whether high-frequency batches are sent as packed frames.
+     *
+     * <p>
+     *     A packed frame (<code>MessageType.INSERT_HIGH_FREQUENCY_PACKED</code>) carries a whole batch
+     *     in three primitive arrays instead of one parcelable per sample. Only enable it when the
+     *     installed <code>DataKit</code> understands that message type.
+     * </p>
+     *
+     * @param packedHighFrequency Whether to send packed frames.
+     */
+    public void setPackedHighFrequency(boolean packedHighFrequency) {
+        this.packedHighFrequency = packedHighFrequency;
+    }
+
+    /**
+     * Sets whether inserts are acknowledged by <code>DataKit</code>, and how many may wait for it.
+     *
+     * <p>
+     *     Acknowledged inserts carry a sequence number per data source, and <code>DataKit</code>
+     *     replies with the sequence number up to which it has stored them. Inserts are still sent
+     *     right away, without waiting for a reply, until <code>window</code> batches of one data
+     *     source are unacknowledged; only then does the next insert of that data source wait for room,
+     *     for at most 10 seconds. A high-frequency batch that finds no room in time is spooled if the
+     *     spool is enabled, and dropped and counted by <code>BufferMetrics.getDropped()</code>
+     *     otherwise. Unacknowledged batches are sent again after a lost connection has been restored, and
+     *     <code>disconnect()</code> waits briefly for the last acknowledgements, handing what is left
+     *     to the spool if it is enabled. Only enable it when the installed <code>DataKit</code>
+     *     acknowledges inserts.
+     * </p>
+     *
+     * @param window Maximum number of unacknowledged batches per data source, or 0 to turn
+     *               acknowledgements off.
+     * @throws DataKitException Thrown when <code>window</code> is negative.
+     */
+    public void setAcknowledgedInserts(int window) throws DataKitException {
+        if (window < 0)
+            throw new DataKitException(new Status(Status.DATA_INVALID).getStatusMessage());
+        dataKitAPIExecute.getInsertWindow().setSize(window);
+    }
+
+    /**
+     * @return Number of samples <code>DataKit</code> has acknowledged as stored.
+     */
+    public long getAcknowledgedSamples() {
+        return dataKitAPIExecute.getInsertWindow().getAcknowledged();
+    }
+
+    /**
+     * @param dataSourceClient The data source.
+     * @return Number of samples of the data source <code>DataKit</code> has acknowledged as stored.
+     */
+    public long getAcknowledgedSamples(DataSourceClient dataSourceClient) {
+        return dataKitAPIExecute.getInsertWindow().getAcknowledged(dataSourceClient.getDs_id());
+    }
+
+    /**
+     * @return Number of samples sent and not yet acknowledged by <code>DataKit</code>.
+     */
+    public long getUnacknowledgedSamples() {
+        return dataKitAPIExecute.getInsertWindow().getUnacknowledged();
+    }
 
-        for (int i = 0; i < hfBuffer.data.size(); i++)
-            dataTypeDoubleArrays[i] = hfBuffer.data.get(i);
+    /**
+     * Enables the local spool, which keeps inserts that cannot be sent to <code>DataKit</code>
+     * and replays them in order on the next connection.
+     *
+     * <p>
+     *     Same as <code>enableSpool(directory, maxBytesPerDataSource, maxBytes)</code> with room for
+     *     the files of 16 data sources.
+     * </p>
+     *
+     * @param directory Directory for the spool files, such as one under <code>getFilesDir()</code>.
+     * @param maxBytesPerDataSource Size of the spool file of each data source.
+     * @throws DataKitException Thrown when the spool files cannot be created or opened.
+     */
+    public void enableSpool(File directory, int maxBytesPerDataSource) throws DataKitException {
+        enableSpool(directory, maxBytesPerDataSource, (long) maxBytesPerDataSource * InsertSpool.DEFAULT_SEGMENTS);
+    }
 
-        hfBuffer.data.clear();
-        hfBuffer.size = 0;
-        hmHFBuffer.put(ds_id, hfBuffer);
+    /**
+     * Enables the local spool, which keeps inserts that cannot be sent to <code>DataKit</code>
+     * and replays them in order on the next connection.
+     *
+     * <p>
+     *     While the spool is enabled, <code>insert()</code> and <code>insertHighFrequency()</code> also
+     *     accept samples while <code>DataKit</code> is not connected. Each data source with a backlog
+     *     gets a memory-mapped file of <code>maxBytesPerDataSource</code> bytes in
+     *     <code>directory</code>, which is deleted once its backlog has been replayed, and no more
+     *     files are created than fit in <code>maxBytes</code>. Samples that do not fit are dropped and
+     *     counted by <code>getSpoolDropped()</code>. A backlog left by an earlier process is replayed
+     *     as well.
+     * </p>
+     *
+     * @param directory Directory for the spool files, such as one under <code>getFilesDir()</code>.
+     * @param maxBytesPerDataSource Size of the spool file of each data source.
+     * @param maxBytes Maximum total size of the spool files, at least <code>maxBytesPerDataSource</code>.
+     * @throws DataKitException Thrown when the spool files cannot be created or opened, or the sizes are invalid.
+     */
+    public void enableSpool(File directory, int maxBytesPerDataSource, long maxBytes) throws DataKitException {
+        if (maxBytes < maxBytesPerDataSource)
+            throw new DataKitException(new Status(Status.DATA_INVALID).getStatusMessage());
         try {
-            dataKitAPIExecute.insertHighFrequency(ds_id, dataTypeDoubleArrays);
+            spool = new InsertSpool(directory, maxBytesPerDataSource, maxBytes);
+        } catch (IOException e) {
+            throw new DataKitException(e);
+        }
+        if (dataKitAPIExecute.isConnected())
+            spool.replay(dataKitAPIExecute);
+    }
+
+    /**
+     * @return Number of bytes held in the spool and not yet sent, 0 if the spool is not enabled.
+     */
+    public long getSpoolBacklog() {
+        InsertSpool spool = this.spool;
+        return spool == null ? 0 : spool.getBacklog();
+    }
+
+    /**
+     * @param dataSourceClient The data source.
+     * @return Number of bytes of the data source held in the spool and not yet sent.
+     */
+    public long getSpoolBacklog(DataSourceClient dataSourceClient) {
+        InsertSpool spool = this.spool;
+        return spool == null ? 0 : spool.getBacklog(dataSourceClient.getDs_id());
+    }
+
+    /**
+     * @return Counters of the batches sent from the high-frequency buffers so far.
+     */
+    public HFFlushStats getHFFlushStats() {
+        return hfFlusher.getStats();
+    }
+
+    /**
+     * Returns the metrics of the calls made to <code>DataKit</code>.
+     *
+     * <p>
+     *     They count calls, timeouts, errors, late replies and, if enabled, marshalled bytes per
+     *     <code>MessageType</code>, record reply latencies, and track the depth and flush sizes of
+     *     every high-frequency buffer. Add a <code>MetricsExporter</code> to send them to logcat,
+     *     a file or a listener of your own.
+     * </p>
+     *
+     * @return The metrics.
+     */
+    public MetricsRegistry getMetrics() {
+        return dataKitAPIExecute.getMetrics();
+    }
+
+    /**
+     * @return Number of samples dropped because the spool of their data source was full or there was
+     *         no room left for it.
+     */
+    public long getSpoolDropped() {
+        InsertSpool spool = this.spool;
+        return spool == null ? 0 : spool.getDropped();
+    }
+
+    /**
+     * Wraps the caller's connection listener so that the spool is replayed on every connection
+     * before the caller is notified.
+     *
+     * @param callerOnConnectionListener Callback for connection verification.
+     * @return The wrapping listener.
+     */
+    private OnConnectionListener replayingListener(final OnConnectionListener callerOnConnectionListener) {
+        return new OnConnectionListener() {
+            @Override
+            public void onConnected() {
+                InsertSpool spool = DataKitAPI.this.spool;
+                if (spool != null)
+                    spool.replay(dataKitAPIExecute);
+                callerOnConnectionListener.onConnected();
+            }
+        };
+    }
+
+    /**
+     * Transfers the buffer data to an array and sends it to <code>DataKit</code>.
+     *
+     * <p>
+     *     The buffer is locked only while it is drained. The batch is sent under the send lock of the
+     *     buffer, which is taken before the buffer is drained, so that batches of one data source are
+     *     sent in order while other threads keep adding to the buffer. A batch that cannot be sent,
+     *     for example because the insert window stayed full, is appended to the spool if it is
+     *     enabled, and dropped, logged and counted by <code>BufferMetrics.getDropped()</code>
+     *     otherwise.
+     * </p>
+     *
+     * @param hfBuffer Buffer of the data source.
+     */
+    void syncHFData(HFBuffer hfBuffer) {
+        synchronized (hfBuffer.sendLock) {
+            InsertSpool spool = this.spool;
+            boolean connected = dataKitAPIExecute.isConnected();
+            boolean spooled = spool != null && (!connected || spool.getBacklog(hfBuffer.ds_id) > 0);
+            DataTypeDoubleArray[] batch = null;
+            Bundle bundle = null;
+            int samples;
+            int bytes;
+            synchronized (hfBuffer) {
+                if (hfBuffer.isEmpty())
+                    return;
+                samples = hfBuffer.size();
+                bytes = hfBuffer.byteSize();
+                if (packedHighFrequency && !spooled) {
+                    bundle = new Bundle();
+                    hfBuffer.drainTo(bundle);
+                } else
+                    batch = hfBuffer.drain();
+                hfBuffer.metrics.onFlush(samples, bytes);
+            }
+            long start = System.nanoTime();
+            try {
+                if (spooled) {
+                    if (!spool.offer(hfBuffer.ds_id, InsertSpool.KIND_HIGH_FREQUENCY, batch, connected))
+                        dataKitAPIExecute.insertHighFrequency(hfBuffer.ds_id, batch);
+                } else if (bundle != null)
+                    dataKitAPIExecute.insertHighFrequencyPacked(bundle);
+                else
+                    dataKitAPIExecute.insertHighFrequency(hfBuffer.ds_id, batch);
+            }
+            catch (DataKitException e) {
+                if (spool != null)
+                    spool.append(hfBuffer.ds_id, InsertSpool.KIND_HIGH_FREQUENCY,
+                            batch != null ? batch : HFFrame.read(bundle), dataKitAPIExecute);
+                else {
+                    hfBuffer.metrics.onDrop(samples);
+                    Log.w(TAG, "Dropped " + samples + " samples of ds_id=" + hfBuffer.ds_id, e);
+                }
+            }
+            hfFlusher.record(samples, bytes, System.nanoTime() - start);
         }
-        catch (DataKitException ignored) {}
     }
 
     /**
-     * Iterates through the entire buffer hashMap and syncs all entries to <code>DataKit</code>.
+     * Iterates through all of the buffers and syncs them to <code>DataKit</code>.
      */
-    synchronized void syncHFDataAll() {
-        for (Map.Entry<Integer, HFBuffer> entry : hmHFBuffer.entrySet())
-            syncHFData(entry.getKey());
+    void syncHFDataAll() {
+        for (HFBuffer hfBuffer : hfBuffers)
+            syncHFData(hfBuffer);
     }
 
     /**
@@ -356,19 +729,30 @@ public class DataKitAPI {
      * @return The registered <code>DataSourceClient</code>.
      * @throws DataKitException Thrown when <code>DataKit</code> is not installed or the data is invalid.
      */
-    public synchronized DataSourceClient register(final DataSourceBuilder dataSourceBuilder) throws DataKitException {
+    public DataSourceClient register(final DataSourceBuilder dataSourceBuilder) throws DataKitException {
+        DataSourceClient dataSourceClient = registerAsync(dataSourceBuilder).await();
+
+        if (dataSourceClient == null || !dataKitAPIExecute.isConnected())
+            throw new DataKitNotFoundException(new Status(Status.ERROR_BOUND));
+
+        else return dataSourceClient;
+    }
+
+    /**
+     * Asynchronously registers a <code>DataSourceClient</code> with <code>DataKit</code>.
+     *
+     * @param dataSourceBuilder Builder object of the desired <code>DataSourceClient</code>.
+     * @return The pending registered <code>DataSourceClient</code>, null if the request failed.
+     * @throws DataKitException Thrown when <code>DataKit</code> is not connected or the data is invalid.
+     */
+    public AsyncPendingResult<DataSourceClient> registerAsync(final DataSourceBuilder dataSourceBuilder) throws DataKitException {
         if (!dataKitAPIExecute.isConnected())
             throw new DataKitNotFoundException(new Status(Status.ERROR_BOUND));
 
         if (dataSourceBuilder == null)
             throw new DataKitException(new Status(Status.DATA_INVALID).getStatusMessage());
 
-        DataSourceClient dataSourceClient = dataKitAPIExecute.register(dataSourceBuilder).await();
-
-        if (dataSourceClient == null || !dataKitAPIExecute.isConnected())
-            throw new DataKitNotFoundException(new Status(Status.ERROR_BOUND));
-
-        else return dataSourceClient;
+        return dataKitAPIExecute.register(dataSourceBuilder);
     }
 
     /**
@@ -378,19 +762,30 @@ public class DataKitAPI {
      * @return The status of the unregistering operation.
      * @throws DataKitException Thrown when <code>DataKit</code> is not installed or the data is invalid.
      */
-    public synchronized Status unregister(final DataSourceClient dataSourceClient) throws DataKitException {
+    public Status unregister(final DataSourceClient dataSourceClient) throws DataKitException {
+        Status status = unregisterAsync(dataSourceClient).await();
+
+        if (status == null || !dataKitAPIExecute.isConnected())
+            throw new DataKitNotFoundException(new Status(Status.ERROR_BOUND));
+
+        else return status;
+    }
+
+    /**
+     * Asynchronously unregisters the given data source from <code>DataKit</code>.
+     *
+     * @param dataSourceClient The data source to unregister.
+     * @return The pending status of the unregistering operation, null if the request failed.
+     * @throws DataKitException Thrown when <code>DataKit</code> is not connected or the data is invalid.
+     */
+    public AsyncPendingResult<Status> unregisterAsync(final DataSourceClient dataSourceClient) throws DataKitException {
         if (!dataKitAPIExecute.isConnected())
             throw new DataKitNotFoundException(new Status(Status.ERROR_BOUND));
 
         if (dataSourceClient == null)
             throw new DataKitException(new Status(Status.DATA_INVALID).getStatusMessage());
 
-        Status status = dataKitAPIExecute.unregister(dataSourceClient).await();
-
-        if (status == null || !dataKitAPIExecute.isConnected())
-            throw new DataKitNotFoundException(new Status(Status.ERROR_BOUND));
-
-        else return status;
+        return dataKitAPIExecute.unregister(dataSourceClient);
     }
 
     /**
@@ -401,15 +796,47 @@ public class DataKitAPI {
      * @return An arrayList of the query results.
      * @throws DataKitException Thrown when <code>DataKit</code> is not installed or the data is invalid.
      */
-    public synchronized ArrayList<DataType> query(final DataSourceClient dataSourceClient,
+    public ArrayList<DataType> query(final DataSourceClient dataSourceClient,
                                                   final int last_n_sample) throws DataKitException {
+        ArrayList<DataType> dataTypes = queryAsync(dataSourceClient, last_n_sample).await();
+
+        if (dataTypes == null || !dataKitAPIExecute.isConnected())
+            throw new DataKitNotFoundException(new Status(Status.ERROR_BOUND));
+
+        else return dataTypes;
+    }
+
+    /**
+     * Asynchronously queries <code>DataKit</code> for the last given number of sample from the given data source.
+     *
+     * @param dataSourceClient The data source whose data is being queried for.
+     * @param last_n_sample Last n samples to retrieve, n is a nonzero positive integer.
+     * @return The pending arrayList of the query results, null if the request failed.
+     * @throws DataKitException Thrown when <code>DataKit</code> is not connected or the data is invalid.
+     */
+    public AsyncPendingResult<ArrayList<DataType>> queryAsync(final DataSourceClient dataSourceClient,
+                                                         final int last_n_sample) throws DataKitException {
         if (!dataKitAPIExecute.isConnected())
             throw new DataKitNotFoundException(new Status(Status.ERROR_BOUND));
 
         if (dataSourceClient == null || last_n_sample == 0)
             throw new DataKitException(new Status(Status.DATA_INVALID).getStatusMessage());
 
-        ArrayList<DataType> dataTypes = dataKitAPIExecute.query(dataSourceClient, last_n_sample).await();
+        return dataKitAPIExecute.query(dataSourceClient, last_n_sample);
+    }
+
+    /**
+     * Queries <code>DataKit</code> for samples from the given data source within the given time window.
+     *
+     * @param dataSourceClient The data source whose data is being queried for.
+     * @param starttimestamp The starting timestamp for the desired sampling window.
+     * @param endtimestamp The ending timestamp for the desired sampling window.
+     * @return An arrayList of the query results.
+     * @throws DataKitException Thrown when <code>DataKit</code> is not installed or the data is invalid.
+     */
+    public ArrayList<DataType> query(DataSourceClient dataSourceClient,
+                                                  long starttimestamp, long endtimestamp) throws DataKitException {
+        ArrayList<DataType> dataTypes = queryAsync(dataSourceClient, starttimestamp, endtimestamp).await();
 
         if (dataTypes == null || !dataKitAPIExecute.isConnected())
             throw new DataKitNotFoundException(new Status(Status.ERROR_BOUND));
@@ -418,28 +845,144 @@ public class DataKitAPI {
     }
 
     /**
-     * Queries <code>DataKit</code> for samples from the given data source within the given time window.
+     * Asynchronously queries <code>DataKit</code> for samples from the given data source within the
+     * given time window.
      *
      * @param dataSourceClient The data source whose data is being queried for.
      * @param starttimestamp The starting timestamp for the desired sampling window.
      * @param endtimestamp The ending timestamp for the desired sampling window.
-     * @return An arrayList of the query results.
-     * @throws DataKitException Thrown when <code>DataKit</code> is not installed or the data is invalid.
+     * @return The pending arrayList of the query results, null if the request failed.
+     * @throws DataKitException Thrown when <code>DataKit</code> is not connected or the data is invalid.
      */
-    public synchronized ArrayList<DataType> query(DataSourceClient dataSourceClient,
-                                                  long starttimestamp, long endtimestamp) throws DataKitException {
+    public AsyncPendingResult<ArrayList<DataType>> queryAsync(DataSourceClient dataSourceClient,
+                                                         long starttimestamp, long endtimestamp) throws DataKitException {
         if (!dataKitAPIExecute.isConnected())
             throw new DataKitNotFoundException(new Status(Status.ERROR_BOUND));
 
         if (dataSourceClient == null || starttimestamp > endtimestamp)
             throw new DataKitException(new Status(Status.DATA_INVALID).getStatusMessage());
 
-        ArrayList<DataType> dataTypes = dataKitAPIExecute.query(dataSourceClient, starttimestamp, endtimestamp).await();
+        return dataKitAPIExecute.query(dataSourceClient, starttimestamp, endtimestamp);
+    }
 
-        if (dataTypes == null || !dataKitAPIExecute.isConnected())
+    /**
+     * Queries <code>DataKit</code> for the count, minimum, maximum and mean of every value of the
+     * samples from the given data source per time bucket, instead of the samples themselves.
+     *
+     * <p>
+     *     Buckets start at <code>starttimestamp</code> and are <code>bucket</code> milliseconds wide.
+     *     Buckets without samples are left out. The data source must hold numeric samples.
+     * </p>
+     *
+     * @param dataSourceClient The data source whose data is being queried for.
+     * @param starttimestamp The starting timestamp for the desired sampling window.
+     * @param endtimestamp The ending timestamp for the desired sampling window.
+     * @param bucket Width of each bucket in milliseconds, greater than 0.
+     * @return The aggregates of the non-empty buckets.
+     * @throws DataKitException Thrown when <code>DataKit</code> is not installed or the data is invalid.
+     */
+    public AggregateBlock queryAggregate(DataSourceClient dataSourceClient, long starttimestamp,
+                                         long endtimestamp, long bucket) throws DataKitException {
+        AggregateBlock aggregateBlock = queryAggregateAsync(dataSourceClient, starttimestamp, endtimestamp,
+                bucket).await();
+
+        if (aggregateBlock == null || !dataKitAPIExecute.isConnected())
             throw new DataKitNotFoundException(new Status(Status.ERROR_BOUND));
 
-        else return dataTypes;
+        else return aggregateBlock;
+    }
+
+    /**
+     * Asynchronously queries <code>DataKit</code> for the count, minimum, maximum and mean of every
+     * value of the samples from the given data source per time bucket.
+     *
+     * @param dataSourceClient The data source whose data is being queried for.
+     * @param starttimestamp The starting timestamp for the desired sampling window.
+     * @param endtimestamp The ending timestamp for the desired sampling window.
+     * @param bucket Width of each bucket in milliseconds, greater than 0.
+     * @return The pending aggregates, null if the request failed.
+     * @throws DataKitException Thrown when <code>DataKit</code> is not connected or the data is invalid.
+     */
+    public AsyncPendingResult<AggregateBlock> queryAggregateAsync(DataSourceClient dataSourceClient,
+                                                             long starttimestamp, long endtimestamp,
+                                                             long bucket) throws DataKitException {
+        if (!dataKitAPIExecute.isConnected())
+            throw new DataKitNotFoundException(new Status(Status.ERROR_BOUND));
+
+        if (dataSourceClient == null || starttimestamp > endtimestamp || bucket <= 0)
+            throw new DataKitException(new Status(Status.DATA_INVALID).getStatusMessage());
+
+        return dataKitAPIExecute.queryAggregate(dataSourceClient, starttimestamp, endtimestamp, bucket);
+    }
+
+    /**
+     * Queries <code>DataKit</code> for at most <code>points</code> samples from the given data source
+     * within the given time window, chosen to preserve the visual shape of the first value of each
+     * sample. Meant for plotting a long time window without transferring every sample.
+     *
+     * @param dataSourceClient The data source whose data is being queried for.
+     * @param starttimestamp The starting timestamp for the desired sampling window.
+     * @param endtimestamp The ending timestamp for the desired sampling window.
+     * @param points Maximum number of samples to return, at least 3.
+     * @return The chosen samples.
+     * @throws DataKitException Thrown when <code>DataKit</code> is not installed or the data is invalid.
+     */
+    public DoubleBlock queryDownsample(DataSourceClient dataSourceClient, long starttimestamp,
+                                       long endtimestamp, int points) throws DataKitException {
+        return queryDownsample(dataSourceClient, starttimestamp, endtimestamp, points, 0);
+    }
+
+    /**
+     * Queries <code>DataKit</code> for at most <code>points</code> samples from the given data source
+     * within the given time window, chosen to preserve the visual shape of one value.
+     *
+     * <p>
+     *     The selection follows <code>Downsampling.downsample()</code>: the first and last samples
+     *     are always returned, and every returned sample carries all of its values. The data source
+     *     must hold numeric samples.
+     * </p>
+     *
+     * @param dataSourceClient The data source whose data is being queried for.
+     * @param starttimestamp The starting timestamp for the desired sampling window.
+     * @param endtimestamp The ending timestamp for the desired sampling window.
+     * @param points Maximum number of samples to return, at least 3.
+     * @param column Index of the value within each sample the selection is based on.
+     * @return The chosen samples.
+     * @throws DataKitException Thrown when <code>DataKit</code> is not installed or the data is invalid.
+     */
+    public DoubleBlock queryDownsample(DataSourceClient dataSourceClient, long starttimestamp,
+                                       long endtimestamp, int points, int column) throws DataKitException {
+        DoubleBlock doubleBlock = queryDownsampleAsync(dataSourceClient, starttimestamp, endtimestamp,
+                points, column).await();
+
+        if (doubleBlock == null || !dataKitAPIExecute.isConnected())
+            throw new DataKitNotFoundException(new Status(Status.ERROR_BOUND));
+
+        else return doubleBlock;
+    }
+
+    /**
+     * Asynchronously queries <code>DataKit</code> for at most <code>points</code> samples from the
+     * given data source within the given time window, chosen to preserve the visual shape of one value.
+     *
+     * @param dataSourceClient The data source whose data is being queried for.
+     * @param starttimestamp The starting timestamp for the desired sampling window.
+     * @param endtimestamp The ending timestamp for the desired sampling window.
+     * @param points Maximum number of samples to return, at least 3.
+     * @param column Index of the value within each sample the selection is based on.
+     * @return The pending samples, null if the request failed.
+     * @throws DataKitException Thrown when <code>DataKit</code> is not connected or the data is invalid.
+     */
+    public AsyncPendingResult<DoubleBlock> queryDownsampleAsync(DataSourceClient dataSourceClient,
+                                                           long starttimestamp, long endtimestamp,
+                                                           int points, int column) throws DataKitException {
+        if (!dataKitAPIExecute.isConnected())
+            throw new DataKitNotFoundException(new Status(Status.ERROR_BOUND));
+
+        if (dataSourceClient == null || starttimestamp > endtimestamp || points < 3 || column < 0)
+            throw new DataKitException(new Status(Status.DATA_INVALID).getStatusMessage());
+
+        return dataKitAPIExecute.queryDownsample(dataSourceClient, starttimestamp, endtimestamp, points, column);
     }
 
     /**
@@ -452,33 +995,135 @@ public class DataKitAPI {
      * @return An arrayList of the query results.
      * @throws DataKitException Thrown when <code>DataKit</code> is not installed or the data is invalid.
      */
-    public synchronized ArrayList<RowObject> queryFromPrimaryKey(DataSourceClient dataSourceClient,
+    public ArrayList<RowObject> queryFromPrimaryKey(DataSourceClient dataSourceClient,
                                                                  long lastSyncedKey, int limit) throws DataKitException {
+        ArrayList<RowObject> rowObjects = queryFromPrimaryKeyAsync(dataSourceClient, lastSyncedKey, limit).await();
+
+        if (rowObjects == null || !dataKitAPIExecute.isConnected())
+            throw new DataKitNotFoundException(new Status(Status.ERROR_BOUND));
+
+        else return rowObjects;
+    }
+
+    /**
+     * Asynchronously queries for rows from the database corresponding to the given
+     * <code>DataSourceClient</code> and <code>lastSyncedKey</code>.
+     *
+     * @param dataSourceClient The data source whose data is being queried for.
+     * @param lastSyncedKey Most recent key that was synce to <code>DataKit</code>.
+     * @param limit Number of rows to return.
+     * @return The pending arrayList of the query results, null if the request failed.
+     * @throws DataKitException Thrown when <code>DataKit</code> is not connected or the data is invalid.
+     */
+    public AsyncPendingResult<ArrayList<RowObject>> queryFromPrimaryKeyAsync(DataSourceClient dataSourceClient,
+                                                                        long lastSyncedKey, int limit) throws DataKitException {
         if (!dataKitAPIExecute.isConnected())
             throw new DataKitNotFoundException(new Status(Status.ERROR_BOUND));
 
         if (dataSourceClient == null)
             throw new DataKitException(new Status(Status.DATA_INVALID).getStatusMessage());
 
-        ArrayList<RowObject> rowObjects = dataKitAPIExecute.queryFromPrimaryKey(dataSourceClient, lastSyncedKey, limit).await();
+        return dataKitAPIExecute.queryFromPrimaryKey(dataSourceClient, lastSyncedKey, limit);
+    }
 
-        if (rowObjects == null || !dataKitAPIExecute.isConnected())
+    /**
+     * Queries for data from the given <code>DataSourceClient</code> within the given time frame and
+     * returns a cursor over the result.
+     *
+     * <p>
+     *     The rows are streamed from <code>DataKit</code> through a file descriptor and decoded one
+     *     at a time, so the whole result never has to fit in a single Binder transaction or in memory.
+     *     The caller must close the cursor.
+     * </p>
+     *
+     * @param dataSourceClient The data source whose data is being queried for.
+     * @param starttimestamp Beginning of the time frame.
+     * @param endtimestamp End of the time frame.
+     * @return A cursor over the matching rows.
+     * @throws DataKitException Thrown when <code>DataKit</code> is not installed or the data is invalid.
+     */
+    public DataTypeCursor queryCursor(DataSourceClient dataSourceClient, long starttimestamp,
+                                      long endtimestamp) throws DataKitException {
+        if (!dataKitAPIExecute.isConnected())
             throw new DataKitNotFoundException(new Status(Status.ERROR_BOUND));
 
-        else return rowObjects;
+        if (dataSourceClient == null)
+            throw new DataKitException(new Status(Status.DATA_INVALID).getStatusMessage());
+
+        return openCursor(dataKitAPIExecute.queryCursor(dataSourceClient, starttimestamp, endtimestamp).await());
     }
 
     /**
-     * Queries <code>DataKit</code> for the size of the database.
+     * Queries for rows after <code>lastSyncedKey</code> from the given <code>DataSourceClient</code>
+     * and returns a cursor over the result.
      *
-     * @return The number of columns in the database.
+     * <p>
+     *     The caller must close the cursor.
+     * </p>
+     *
+     * @param dataSourceClient The data source whose data is being queried for.
+     * @param lastSyncedKey Most recent key that was synced to <code>DataKit</code>.
+     * @param limit Number of rows to return.
+     * @return A cursor over the matching rows.
      * @throws DataKitException Thrown when <code>DataKit</code> is not installed or the data is invalid.
      */
-    public synchronized DataTypeLong querySize() throws DataKitException {
+    public DataTypeCursor queryFromPrimaryKeyCursor(DataSourceClient dataSourceClient,
+                                                    long lastSyncedKey, int limit) throws DataKitException {
         if (!dataKitAPIExecute.isConnected())
             throw new DataKitNotFoundException(new Status(Status.ERROR_BOUND));
 
-        DataTypeLong dataTypeLong = dataKitAPIExecute.querySize().await();
+        if (dataSourceClient == null)
+            throw new DataKitException(new Status(Status.DATA_INVALID).getStatusMessage());
+
+        return openCursor(dataKitAPIExecute.queryFromPrimaryKeyCursor(dataSourceClient, lastSyncedKey, limit).await());
+    }
+
+    /**
+     * Creates a query that walks the rows after <code>lastSyncedKey</code> one page at a time.
+     *
+     * <p>
+     *     Rows are walked in key order, not time order. Use <code>queryCursor</code> for the rows of
+     *     a time frame.
+     * </p>
+     *
+     * @param dataSourceClient The data source whose data is being queried for.
+     * @param lastSyncedKey Key after which to start.
+     * @param pageSize Number of rows fetched per page.
+     * @return The paged query. Nothing is fetched until it is advanced.
+     * @throws DataKitException Thrown when <code>DataKit</code> is not installed or the data is invalid.
+     */
+    public PagedQuery queryPaged(DataSourceClient dataSourceClient, long lastSyncedKey,
+                                 int pageSize) throws DataKitException {
+        if (!dataKitAPIExecute.isConnected())
+            throw new DataKitNotFoundException(new Status(Status.ERROR_BOUND));
+
+        if (dataSourceClient == null || pageSize <= 0)
+            throw new DataKitException(new Status(Status.DATA_INVALID).getStatusMessage());
+
+        return new PagedQuery(this, dataSourceClient, lastSyncedKey, pageSize);
+    }
+
+    /**
+     * Wraps the file descriptor of a cursor query result in a <code>DataTypeCursor</code>.
+     *
+     * @param fileDescriptor Read end of the result, null if the request failed.
+     * @return The cursor.
+     * @throws DataKitException Thrown when the request failed.
+     */
+    private DataTypeCursor openCursor(ParcelFileDescriptor fileDescriptor) throws DataKitException {
+        if (fileDescriptor == null)
+            throw new DataKitNotFoundException(new Status(Status.ERROR_BOUND));
+        return new DataTypeCursor(new ParcelFileDescriptor.AutoCloseInputStream(fileDescriptor));
+    }
+
+    /**
+     * Queries <code>DataKit</code> for the size of the database.
+     *
+     * @return The number of columns in the database.
+     * @throws DataKitException Thrown when <code>DataKit</code> is not installed or the data is invalid.
+     */
+    public DataTypeLong querySize() throws DataKitException {
+        DataTypeLong dataTypeLong = querySizeAsync().await();
 
         if (dataTypeLong == null || !dataKitAPIExecute.isConnected())
             throw new DataKitNotFoundException(new Status(Status.ERROR_BOUND));
@@ -486,6 +1131,19 @@ public class DataKitAPI {
         else return dataTypeLong;
     }
 
+    /**
+     * Asynchronously queries <code>DataKit</code> for the size of the database.
+     *
+     * @return The pending number of columns in the database, null if the request failed.
+     * @throws DataKitException Thrown when <code>DataKit</code> is not connected.
+     */
+    public AsyncPendingResult<DataTypeLong> querySizeAsync() throws DataKitException {
+        if (!dataKitAPIExecute.isConnected())
+            throw new DataKitNotFoundException(new Status(Status.ERROR_BOUND));
+
+        return dataKitAPIExecute.querySize();
+    }
+
     /**
      * Subscribes the given <code>DataSourceClient</code> to the given <code>OnReceiveListener</code>.
      *
@@ -494,19 +1152,134 @@ public class DataKitAPI {
      * @throws DataKitException Thrown when <code>DataKit</code> isn't connected, when
      *                          <code>DataSourceClient</code> or <code>onReceiveListener</code> is null.
      */
-    public synchronized void subscribe(DataSourceClient dataSourceClient, OnReceiveListener onReceiveListener) throws DataKitException {
+    public void subscribe(DataSourceClient dataSourceClient, OnReceiveListener onReceiveListener) throws DataKitException {
+        subscribe(dataSourceClient, onReceiveListener, SubscriptionDispatcher.DEFAULT_CAPACITY, DeliveryPolicy.BLOCK);
+    }
+
+    /**
+     * Subscribes the given <code>DataSourceClient</code> to the given <code>OnReceiveListener</code>,
+     * queueing at most <code>capacity</code> samples for it.
+     *
+     * <p>
+     *     Listeners run on a dispatch thread, never on the thread that receives replies from
+     *     <code>DataKit</code>. Each listener receives its samples in order.
+     * </p>
+     *
+     * @param dataSourceClient The <code>DataSourceClient</code> to subscribe.
+     * @param onReceiveListener The message handler <code>DataSourceClient</code> is subscribing to.
+     * @param capacity Maximum number of samples queued for the listener.
+     * @param policy <code>DeliveryPolicy</code> applied when the queue is full.
+     * @throws DataKitException Thrown when <code>DataKit</code> isn't connected, when
+     *                          <code>DataSourceClient</code> or <code>onReceiveListener</code> is null,
+     *                          or when <code>capacity</code> or <code>policy</code> is invalid.
+     */
+    public void subscribe(DataSourceClient dataSourceClient, OnReceiveListener onReceiveListener,
+                          int capacity, int policy) throws DataKitException {
+        Status status = subscribeAsync(dataSourceClient, onReceiveListener, capacity, policy).await();
+
+        if (status == null || !dataKitAPIExecute.isConnected())
+            throw new DataKitNotFoundException(new Status(Status.ERROR_BOUND));
+    }
+
+    /**
+     * Asynchronously subscribes the given <code>DataSourceClient</code> to the given <code>OnReceiveListener</code>.
+     *
+     * @param dataSourceClient The <code>DataSourceClient</code> to subscribe.
+     * @param onReceiveListener The message handler <code>DataSourceClient</code> is subscribing to.
+     * @return The pending status of the subscription, null if the request failed.
+     * @throws DataKitException Thrown when <code>DataKit</code> isn't connected, when
+     *                          <code>DataSourceClient</code> or <code>onReceiveListener</code> is null.
+     */
+    public AsyncPendingResult<Status> subscribeAsync(DataSourceClient dataSourceClient, OnReceiveListener onReceiveListener) throws DataKitException {
+        return subscribeAsync(dataSourceClient, onReceiveListener, SubscriptionDispatcher.DEFAULT_CAPACITY,
+                DeliveryPolicy.BLOCK);
+    }
+
+    /**
+     * Asynchronously subscribes the given <code>DataSourceClient</code> to the given
+     * <code>OnReceiveListener</code>, queueing at most <code>capacity</code> samples for it.
+     *
+     * @param dataSourceClient The <code>DataSourceClient</code> to subscribe.
+     * @param onReceiveListener The message handler <code>DataSourceClient</code> is subscribing to.
+     * @param capacity Maximum number of samples queued for the listener.
+     * @param policy <code>DeliveryPolicy</code> applied when the queue is full.
+     * @return The pending status of the subscription, null if the request failed.
+     * @throws DataKitException Thrown when <code>DataKit</code> isn't connected, when
+     *                          <code>DataSourceClient</code> or <code>onReceiveListener</code> is null,
+     *                          or when <code>capacity</code> or <code>policy</code> is invalid.
+     */
+    public AsyncPendingResult<Status> subscribeAsync(DataSourceClient dataSourceClient, OnReceiveListener onReceiveListener,
+                                                int capacity, int policy) throws DataKitException {
         if (!dataKitAPIExecute.isConnected())
             throw new DataKitNotFoundException(new Status(Status.ERROR_BOUND));
 
-        if (dataSourceClient == null || onReceiveListener == null)
+        if (dataSourceClient == null || onReceiveListener == null || capacity <= 0 || !DeliveryPolicy.isValid(policy))
             throw new DataKitException(new Status(Status.DATA_INVALID).getStatusMessage());
 
-        Status status = dataKitAPIExecute.subscribe(dataSourceClient, onReceiveListener);
+        return dataKitAPIExecute.subscribe(dataSourceClient, onReceiveListener, capacity, policy);
+    }
+
+    /**
+     * Subscribes the given <code>DataSourceClient</code> to the given <code>OnReceiveBatchListener</code>.
+     *
+     * <p>
+     *     The listener receives every sample queued since its previous call as one array, instead of
+     *     one call per sample.
+     * </p>
+     *
+     * @param dataSourceClient The <code>DataSourceClient</code> to subscribe.
+     * @param onReceiveBatchListener The message handler <code>DataSourceClient</code> is subscribing to.
+     * @throws DataKitException Thrown when <code>DataKit</code> isn't connected, when
+     *                          <code>DataSourceClient</code> or <code>onReceiveBatchListener</code> is null.
+     */
+    public void subscribe(DataSourceClient dataSourceClient, OnReceiveBatchListener onReceiveBatchListener) throws DataKitException {
+        subscribe(dataSourceClient, onReceiveBatchListener, SubscriptionDispatcher.DEFAULT_CAPACITY, DeliveryPolicy.BLOCK);
+    }
+
+    /**
+     * Subscribes the given <code>DataSourceClient</code> to the given <code>OnReceiveBatchListener</code>,
+     * queueing at most <code>capacity</code> samples for it.
+     *
+     * @param dataSourceClient The <code>DataSourceClient</code> to subscribe.
+     * @param onReceiveBatchListener The message handler <code>DataSourceClient</code> is subscribing to.
+     * @param capacity Maximum number of samples queued for the listener.
+     * @param policy <code>DeliveryPolicy</code> applied when the queue is full.
+     * @throws DataKitException Thrown when <code>DataKit</code> isn't connected, when
+     *                          <code>DataSourceClient</code> or <code>onReceiveBatchListener</code> is null,
+     *                          or when <code>capacity</code> or <code>policy</code> is invalid.
+     */
+    public void subscribe(DataSourceClient dataSourceClient, OnReceiveBatchListener onReceiveBatchListener,
+                          int capacity, int policy) throws DataKitException {
+        Status status = subscribeAsync(dataSourceClient, onReceiveBatchListener, capacity, policy).await();
 
         if (status == null || !dataKitAPIExecute.isConnected())
             throw new DataKitNotFoundException(new Status(Status.ERROR_BOUND));
     }
 
+    /**
+     * Asynchronously subscribes the given <code>DataSourceClient</code> to the given
+     * <code>OnReceiveBatchListener</code>, queueing at most <code>capacity</code> samples for it.
+     *
+     * @param dataSourceClient The <code>DataSourceClient</code> to subscribe.
+     * @param onReceiveBatchListener The message handler <code>DataSourceClient</code> is subscribing to.
+     * @param capacity Maximum number of samples queued for the listener.
+     * @param policy <code>DeliveryPolicy</code> applied when the queue is full.
+     * @return The pending status of the subscription, null if the request failed.
+     * @throws DataKitException Thrown when <code>DataKit</code> isn't connected, when
+     *                          <code>DataSourceClient</code> or <code>onReceiveBatchListener</code> is null,
+     *                          or when <code>capacity</code> or <code>policy</code> is invalid.
+     */
+    public AsyncPendingResult<Status> subscribeAsync(DataSourceClient dataSourceClient, OnReceiveBatchListener onReceiveBatchListener,
+                                                int capacity, int policy) throws DataKitException {
+        if (!dataKitAPIExecute.isConnected())
+            throw new DataKitNotFoundException(new Status(Status.ERROR_BOUND));
+
+        if (dataSourceClient == null || onReceiveBatchListener == null || capacity <= 0 || !DeliveryPolicy.isValid(policy))
+            throw new DataKitException(new Status(Status.DATA_INVALID).getStatusMessage());
+
+        return dataKitAPIExecute.subscribe(dataSourceClient, onReceiveBatchListener, capacity, policy);
+    }
+
     /**
      * Unsubscribes the given <code>DataSourceClient</code> from <code>DataKit</code>.
      *
@@ -515,31 +1288,69 @@ public class DataKitAPI {
      * @throws DataKitException Thrown when <code>DataKit</code> is not connected or
      *                          <code>dataSourceClient</code> is null.
      */
-    public synchronized Status unsubscribe(DataSourceClient dataSourceClient) throws DataKitException {
+    public Status unsubscribe(DataSourceClient dataSourceClient) throws DataKitException {
+        Status status = unsubscribeAsync(dataSourceClient).await();
+
+        if (status == null || !dataKitAPIExecute.isConnected())
+            throw new DataKitNotFoundException(new Status(Status.ERROR_BOUND));
+
+        else return status;
+    }
+
+    /**
+     * Asynchronously unsubscribes the given <code>DataSourceClient</code> from <code>DataKit</code>.
+     *
+     * @param dataSourceClient The <code>DataSourceClient</code> to unsubscribe.
+     * @return The pending new status, null if the request failed.
+     * @throws DataKitException Thrown when <code>DataKit</code> is not connected or
+     *                          <code>dataSourceClient</code> is null.
+     */
+    public AsyncPendingResult<Status> unsubscribeAsync(DataSourceClient dataSourceClient) throws DataKitException {
         if (!dataKitAPIExecute.isConnected())
             throw new DataKitNotFoundException(new Status(Status.ERROR_BOUND));
 
         if (dataSourceClient == null)
             throw new DataKitException(new Status(Status.DATA_INVALID).getStatusMessage());
 
-        Status status = dataKitAPIExecute.unsubscribe(dataSourceClient.getDs_id()).await();
-
-        if (status == null || !dataKitAPIExecute.isConnected())
-            throw new DataKitNotFoundException(new Status(Status.ERROR_BOUND));
-
-        else return status;
+        return dataKitAPIExecute.unsubscribe(dataSourceClient.getDs_id());
     }
 
     /**
      * Disconnects <code>DataKit</code> by removing any remaining messages from the Handler, syncing
-     * all the data and calls <code>DataKitAPIExecute.disconnect()</code>.
+     * all the data and calls <code>DataKitAPIExecute.disconnect()</code>. This also stops restoring
+     * a lost connection.
      */
-    public synchronized void disconnect() {
-        if (dataKitAPIExecute.isConnected()) {
-            handler.removeCallbacks(runnableSyncHF);
-            syncHFDataAll();
-            dataKitAPIExecute.disconnect();
+    public void disconnect() {
+        synchronized (connectionLock) {
+            if (dataKitAPIExecute.getConnectionState() != ConnectionState.DISCONNECTED) {
+                hfFlusher.quit();
+                syncHFDataAll();
+                keepUnacknowledged();
+                dataKitAPIExecute.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Waits briefly for the outstanding acknowledgements, then moves the inserts that are still
+     * unacknowledged to the spool, or drops them if there is none.
+     */
+    private void keepUnacknowledged() {
+        InsertWindow insertWindow = dataKitAPIExecute.getInsertWindow();
+        if (dataKitAPIExecute.isConnected())
+            insertWindow.awaitAcknowledged(DataKitAPIExecute.TEARDOWN_TIMEOUT);
+        ArrayList<InsertWindow.Batch> batches = insertWindow.takeUnacknowledged();
+        if (batches.isEmpty())
+            return;
+        InsertSpool spool = this.spool;
+        long samples = 0;
+        for (InsertWindow.Batch batch : batches) {
+            if (spool != null)
+                spool.append(batch.ds_id, batch.getSpoolKind(), batch.getDataTypes());
+            samples += batch.samples;
         }
+        if (spool == null)
+            Log.w(TAG, "Dropped " + samples + " unacknowledged samples");
     }
 
     /**
@@ -559,15 +1370,25 @@ public class DataKitAPI {
         }
     }
 
-    Runnable runnableSyncHF = new Runnable() {
-
-        /**
-         * Initiates the high-frequency data transmit procedure.
-         */
-        @Override
-        public void run() {
-            syncHFDataAll();
-            handler.postDelayed(runnableSyncHF, SYNC_TIME_HF);
+    /**
+     * Sends every buffer whose latency limit has been reached. Runs on the flusher thread.
+     *
+     * @param now Current <code>SystemClock.uptimeMillis()</code>.
+     * @return Earliest deadline of the buffers that are left, or <code>Long.MAX_VALUE</code> if all are empty.
+     */
+    long flushDue(long now) {
+        long next = Long.MAX_VALUE;
+        for (HFBuffer hfBuffer : hfBuffers) {
+            boolean due;
+            synchronized (hfBuffer) {
+                due = hfBuffer.getDeadline() <= now;
+            }
+            if (due)
+                syncHFData(hfBuffer);
+            synchronized (hfBuffer) {
+                next = Math.min(next, hfBuffer.getDeadline());
+            }
         }
-    };
+        return next;
+    }
 }
@@ -34,26 +34,39 @@ import android.content.ServiceConnection;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.os.Bundle;
+import android.os.DeadObjectException;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.IBinder;
 import android.os.Looper;
 import android.os.Message;
 import android.os.Messenger;
+import android.os.Parcel;
+import android.os.ParcelFileDescriptor;
 import android.os.Parcelable;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.util.Log;
 
+import org.md2k.datakitapi.datatype.AggregateBlock;
 import org.md2k.datakitapi.datatype.DataType;
 import org.md2k.datakitapi.datatype.DataTypeDoubleArray;
 import org.md2k.datakitapi.datatype.DataTypeLong;
+import org.md2k.datakitapi.datatype.DoubleBlock;
 import org.md2k.datakitapi.datatype.RowObject;
 import org.md2k.datakitapi.exception.DataKitException;
 import org.md2k.datakitapi.exception.DataKitNotFoundException;
+import org.md2k.datakitapi.messagehandler.AsyncPendingResult;
 import org.md2k.datakitapi.messagehandler.MessageType;
+import org.md2k.datakitapi.messagehandler.ConnectionState;
 import org.md2k.datakitapi.messagehandler.OnConnectionListener;
+import org.md2k.datakitapi.messagehandler.OnConnectionStateListener;
+import org.md2k.datakitapi.messagehandler.OnReceiveBatchListener;
 import org.md2k.datakitapi.messagehandler.OnReceiveListener;
-import org.md2k.datakitapi.messagehandler.PendingResult;
+import org.md2k.datakitapi.messagehandler.ResultCallback;
+import org.md2k.datakitapi.messagehandler.ResultTransform;
+import org.md2k.datakitapi.metrics.MetricsRegistry;
+import org.md2k.datakitapi.metrics.OperationMetrics;
 import org.md2k.datakitapi.source.METADATA;
 import org.md2k.datakitapi.source.application.Application;
 import org.md2k.datakitapi.source.application.ApplicationBuilder;
@@ -62,90 +75,95 @@ import org.md2k.datakitapi.source.datasource.DataSourceBuilder;
 import org.md2k.datakitapi.source.datasource.DataSourceClient;
 import org.md2k.datakitapi.status.Status;
 
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.Random;
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Executes calls to <code>DataKit</code>.
  */
-class DataKitAPIExecute {
-    /** Time in milliseconds that a thread should sleep while waiting for other processes to terminate. */
-    public static final int THREAD_SLEEP_MILLI = 1000;
+class DataKitAPIExecute implements InsertSpool.Sender {
+    /** Maximum time in milliseconds to wait for the listener thread to finish or for a disconnect
+     * running on another thread to complete. */
+    static final long TEARDOWN_TIMEOUT = 1000;
     private static final String TAG = DataKitAPIExecute.class.getSimpleName();
-    private boolean isConnected;
+    private volatile boolean isConnected;
 
     /** Session identifier. <p>Default is -1.</p> */
-    int sessionId = -1;
+    volatile int sessionId = -1;
 
-    /** ArrayList of <code>RowObject</code>s matching the primary key query. */
-    private ArrayList<RowObject> queryPrimaryKeyData;
+    /** Source of the correlation identifiers carried in <code>Message.arg2</code>. */
+    private final AtomicInteger nextRequestId = new AtomicInteger();
 
-    /** Size of a query. */
-    private DataTypeLong querySizeData;
+    /** Requests that have been sent and are waiting for their reply, keyed by request identifier. */
+    private final ConcurrentMap<Integer, PendingRequest<?>> pendingRequests = new ConcurrentHashMap<>();
 
-    /** ArrayList of data types matching the query. */
-    private ArrayList<DataType> queryData;
+    /** Listens for messages from remote threads */
+    HandlerThread threadRemoteListener;
 
-    /** Status after a data source has been unregistered. */
-    private Status unregisterData;
+    /** Handles incoming messages. */
+    volatile IncomingHandler incomingHandler;
 
-    /** Status after a data source has been unsubscribed. */
-    private Status unsubscribeData;
+    /** Delivers subscribed data to the listeners of all currently subscribed data sources. */
+    private final SubscriptionDispatcher subscriptionDispatcher = new SubscriptionDispatcher();
 
-    /** ArrayList of <code>DataSourceClient</code>s to be found. */
-    private ArrayList<DataSourceClient> findData;
+    /** Cached results of <code>register</code> and <code>find</code>. */
+    private final DataSourceRegistry registry = new DataSourceRegistry();
 
-    /** The registered <code>DataSourceClient</code>. */
-    private DataSourceClient registerData;
+    /** Version name of the calling application, read from the <code>PackageManager</code> once. */
+    private String versionName;
 
-    /** Status after a data source that been subscribed. */
-    private Status subscribeData;
+    /** Version code of the calling application, read from the <code>PackageManager</code> once. */
+    private int versionNumber;
 
-    /** Listens for messages from remote threads */
-    HandlerThread threadRemoteListener;
+    /** Whether <code>versionName</code> and <code>versionNumber</code> have been read. */
+    private volatile boolean packageInfoLoaded;
 
-    /** Handles incoming messages. */
-    IncomingHandler incomingHandler;
+    /** Inserts waiting to be acknowledged, if inserts are acknowledged. */
+    private final InsertWindow insertWindow = new InsertWindow();
 
-    /** Semaphore that waits for receipt of a permit. */
-    private Semaphore semaphoreReceive;
+    /** Counters and latencies of the messages exchanged with <code>DataKit</code>. */
+    private final MetricsRegistry metrics = new MetricsRegistry();
 
-    /** Contains <code>ds_id</code>, <code>DataType</code> pairs.
-     * <p>
-     *     Contains all currently subscribed <code>DataType</code>s.
-     *     <code>OnReceiveListener</code> takes a <code>DataType</code> parameter.
-     * </p>
-     */
-    private HashMap<Integer, OnReceiveListener> ds_idOnReceiveListenerHashMap;
+    /** Binds the service again and resumes the session when the connection is lost. */
+    private final ConnectionSupervisor supervisor = new ConnectionSupervisor(this);
 
     /** Android context. */
     private Context context;
 
     /** Receives callbacks from bind and unbind invocations. */
-    private ServiceConnection connection;
+    private volatile ServiceConnection connection;
 
     /** Handles outbound messages. */
-    private Messenger sendMessenger = null;
+    private volatile Messenger sendMessenger = null;
 
     /** Processes invocation replies. */
-    private Messenger replyMessenger = null;
+    private volatile Messenger replyMessenger = null;
 
     /** Callback interface that listens for <code>DataKit</code> connections. */
-    private OnConnectionListener onConnectionListener;
+    private volatile OnConnectionListener onConnectionListener;
 
-    /** Wait time for <code>semaphoreReceive</code> in milliseconds.
+    /** Wait time for a reply in milliseconds.
      *
      * <p>
-     *     Default is 30,000 milliseconds.
+     *     Default is 10,000 milliseconds.
      * </p>
      */
     private static final long WAIT_TIME = 10000;
 
     /** Whether <code>DataKit</code> is being disconnected or not. */
-    private boolean isDisconnecting;
+    private volatile boolean isDisconnecting;
+
+    /** Released when the running <code>disconnect()</code> has completed. */
+    private volatile CountDownLatch disconnected = new CountDownLatch(0);
+
+    /** Released when the service of the current connection is connected and the session is ready. */
+    private volatile CountDownLatch connected = new CountDownLatch(1);
 
 
     /**
@@ -158,7 +176,6 @@ class DataKitAPIExecute {
      *         <li><code>sessionId</code> is -1</li>
      *         <li><code>sendMessenger</code> is null</li>
      *         <li><code>isDisconnecting</code> is false</li>
-     *         <li><code>ds_idOnReceiveListenerHashMap</code> a new HashMap</li>
      *     </ul>
      * </p>
      *
@@ -170,12 +187,12 @@ class DataKitAPIExecute {
         sessionId = -1;
         sendMessenger = null;
         isDisconnecting = false;
-        ds_idOnReceiveListenerHashMap = new HashMap<>();
     }
 
     /**
      * @return Whether <code>DataKit</code> is connected or not.
      */
+    @Override
     public boolean isConnected() {
         return sendMessenger != null && isConnected && sessionId != -1;
     }
@@ -205,6 +222,18 @@ class DataKitAPIExecute {
      * @throws DataKitNotFoundException Thrown if <code>DataKit</code> is disconnected.
      */
     private void startRemoteService() throws DataKitNotFoundException {
+        if (!bindRemoteService()) {
+            disconnect();
+            throw new DataKitNotFoundException(new Status(Status.ERROR_BOUND));
+        }
+    }
+
+    /**
+     * Binds the remote service with a new <code>RemoteServiceConnection</code>.
+     *
+     * @return Whether the service could be bound.
+     */
+    private boolean bindRemoteService() {
         Intent intent = new Intent();
         intent.setClassName(Constants.PACKAGE_NAME, Constants.SERVICE_NAME);
 
@@ -213,9 +242,24 @@ class DataKitAPIExecute {
         intent.putExtra("name", context.getPackageName());
         intent.putExtra("messenger", this.replyMessenger);
 
-        if (!context.bindService(intent, this.connection, Context.BIND_AUTO_CREATE)) {
-            disconnect();
-            throw new DataKitNotFoundException(new Status(Status.ERROR_BOUND));
+        return context.bindService(intent, this.connection, Context.BIND_AUTO_CREATE);
+    }
+
+    /**
+     * Drops the current binding of the remote service and binds it again. Called by the
+     * <code>ConnectionSupervisor</code> after the connection was lost.
+     *
+     * @return Whether the service could be bound.
+     */
+    boolean rebind() {
+        try {
+            context.unbindService(connection);
+        } catch (IllegalArgumentException ignored) {}
+        try {
+            return bindRemoteService();
+        } catch (SecurityException e) {
+            Log.e(TAG, "Could not bind DataKit", e);
+            return false;
         }
     }
 
@@ -224,57 +268,48 @@ class DataKitAPIExecute {
      * Attempts to connect the caller to <code>DataKit</code>.
      *
      * <p>
-     *     If <code>DataKit</code> is disconnecting, the thread should sleep for 1000 milliseconds.
-     *     This is continually tried until <code>DataKit</code> is not disconnecting.
+     *     If <code>DataKit</code> is being disconnected on another thread, this waits for that to
+     *     complete, for at most <code>TEARDOWN_TIMEOUT</code>.
+     *
+     *     If the connection was lost and is being restored, only the <code>onConnectionListener</code>
+     *     is updated; it is called once the session has been resumed.
      *
      *     When trying to connect the following occurs:
      *     <ol>
      *         <li>The <code>onConnectionListener</code> is updated.</li>
-     *         <li>The <code>ds_idOnReceiveListenerHashMap</code> is cleared.</li>
+     *         <li>All subscriptions are removed.</li>
      *         <li>A new <code>sessionId</code> is randomly generated.</li>
-     *         <li>A new semaphore is created with 0 permits and a true fairness setting.</li>
      *         <li><code>createThreadRemoteListener()</code> is called.</li>
      *         <li><code>startRemoteService()</code> is called.</li>
      *     </ol>
      * </p>
      *
      * @param onConnectionListener Callback interface listening for connection verification.
-     * @throws DataKitException Is ignored.
+     * @throws DataKitException Thrown if the service cannot be bound.
      */
     protected void connect(OnConnectionListener onConnectionListener) throws DataKitException {
         try {
-            while (isDisconnecting) {
-                try {
-                    Thread.sleep(THREAD_SLEEP_MILLI);
-                } catch (Exception ignored) {}
-            }
-            this.onConnectionListener = onConnectionListener;
-            ds_idOnReceiveListenerHashMap.clear();
-            sessionId = new Random().nextInt();
-            semaphoreReceive = new Semaphore(0, true);
-            createThreadRemoteListener();
-            startRemoteService();
-        } catch (Exception ignored) {
+            disconnected.await(TEARDOWN_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
-
-    }
-
-    /**
-     * Locks the thread.
-     */
-    void lock() {
+        this.onConnectionListener = onConnectionListener;
+        if (supervisor.getState() == ConnectionState.RECONNECTING)
+            return;
+        connected = new CountDownLatch(1);
+        subscriptionDispatcher.clear();
+        registry.clear();
+        supervisor.onConnecting();
+        newSession();
+        createThreadRemoteListener();
         try {
-            if (!isConnected) return;
-        } catch (Exception e) {
-            e.printStackTrace();
+            startRemoteService();
+        } catch (SecurityException e) {
+            disconnect();
+            throw new DataKitNotFoundException(new Status(Status.ERROR_BOUND));
         }
     }
 
-    /**
-     * Unlocks the thread.
-     */
-    void unlock() {}
-
     /**
      * Disconnects the caller from <code>DataKit</code>.
      *
@@ -283,39 +318,74 @@ class DataKitAPIExecute {
      *     <ol>
      *         <li><code>isConnected</code> is set to false.</li>
      *         <li><code>isDisconnecting</code> is set to true.</li>
+     *         <li>Reconnecting is stopped and the registered data sources are forgotten.</li>
      *         <li><code>sessionId</code> is set to -1.</li>
-     *         <li><code>ds_idOnReceiveListenerHashMap</code> is cleared.</li>
+     *         <li>All subscriptions are removed.</li>
+     *         <li>All pending requests are completed with a null result.</li>
      *         <li>If <code>threadRemoteListener</code> is not null and alive then it calls
-     *         <code>quitSafely()</code></li>
+     *         <code>quitSafely()</code> and waits for the thread to finish, for at most
+     *         <code>TEARDOWN_TIMEOUT</code>.</li>
      *         <li>If <code>threadRemoteListener</code> is null and <code>incomingHandler</code>
      *         is null, then remaining callbacks are removed.</li>
      *         <li><code>threadRemoteListener</code> and <code>incomingHandler</code> are then set
      *         to null.</li>
-     *         <li>The remote service is unbound and <code>isDisconnecting</code> is set to false.</li>
+     *         <li>The remote service is unbound and <code>isDisconnecting</code> is set to false.
+     *         Unbinding takes effect right away, so there is nothing to wait for.</li>
      *     </ol>
      * </p>
      */
     public void disconnect() {
+        CountDownLatch done = new CountDownLatch(1);
+        disconnected = done;
         isConnected = false;
         isDisconnecting = true;
+        supervisor.onDisconnected();
         sessionId = -1;
-        ds_idOnReceiveListenerHashMap.clear();
+        subscriptionDispatcher.clear();
+        registry.clear();
+        failPendingRequests();
 
-        if (threadRemoteListener != null && threadRemoteListener.isAlive())
-            threadRemoteListener.quitSafely();
-
-        if (threadRemoteListener != null && incomingHandler != null)
-            incomingHandler.removeCallbacks(threadRemoteListener);
+        HandlerThread thread = threadRemoteListener;
+        if (thread != null && incomingHandler != null)
+            incomingHandler.removeCallbacks(thread);
 
         threadRemoteListener = null;
         incomingHandler = null;
 
         try {
             context.unbindService(connection);
-            Thread.sleep(THREAD_SLEEP_MILLI);
         } catch (Exception ignored) {}
 
+        if (thread != null && thread.isAlive()) {
+            thread.quitSafely();
+            if (thread != Thread.currentThread()) {
+                try {
+                    thread.join(TEARDOWN_TIMEOUT);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
         isDisconnecting = false;
+        connected.countDown();
+        done.countDown();
+    }
+
+    /**
+     * Waits until the service of the current connection is connected and the session is ready.
+     *
+     * @param time Maximum time to wait.
+     * @param unit Unit of <code>time</code>.
+     * @return Whether the connection is ready.
+     */
+    boolean awaitConnected(long time, TimeUnit unit) {
+        try {
+            return connected.await(time, unit) && isConnected();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
     }
 
 
@@ -327,43 +397,347 @@ class DataKitAPIExecute {
      * @throws RemoteException Thrown when the message is not sent successfully
      */
     private void prepareAndSend(Bundle bundle, int messageType) throws RemoteException {
+        prepareAndSend(bundle, messageType, 0);
+    }
+
+    /**
+     * @return Inserts waiting to be acknowledged.
+     */
+    InsertWindow getInsertWindow() {
+        return insertWindow;
+    }
+
+    /**
+     * @return Counters and latencies of the messages exchanged with <code>DataKit</code>.
+     */
+    MetricsRegistry getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return The current <code>ConnectionState</code>.
+     */
+    int getConnectionState() {
+        return supervisor.getState();
+    }
+
+    /**
+     * Sets the callback for connection state changes.
+     *
+     * @param onConnectionStateListener Callback, or null to remove it.
+     */
+    void setOnConnectionStateListener(OnConnectionStateListener onConnectionStateListener) {
+        supervisor.setOnConnectionStateListener(onConnectionStateListener);
+    }
+
+    /**
+     * Starts a new session. Replies to requests of the previous session are dropped from now on.
+     */
+    void newSession() {
+        int newSessionId;
+        do {
+            newSessionId = new Random().nextInt();
+        } while (newSessionId == -1 || newSessionId == sessionId);
+        sessionId = newSessionId;
+    }
+
+    /**
+     * Reports a resumed session as connected. Called by the <code>ConnectionSupervisor</code>.
+     * Inserts that were not acknowledged are sent again first.
+     */
+    void onResumed() {
+        if (sendMessenger == null || sessionId == -1)
+            return;
+        registry.invalidateFound();
+        insertWindow.resend(this);
+        isConnected = true;
+        connected.countDown();
+        OnConnectionListener listener = onConnectionListener;
+        if (listener != null)
+            listener.onConnected();
+    }
+
+    /**
+     * @return Data source identifiers of all current subscriptions.
+     */
+    ArrayList<Integer> getSubscribedIds() {
+        return subscriptionDispatcher.getSubscribedIds();
+    }
+
+    /**
+     * Sends a registration without recording it for session resumption.
+     *
+     * @param dataSource The prepared data source.
+     * @return The registered <code>DataSourceClient</code>.
+     */
+    AsyncPendingResult<DataSourceClient> sendRegister(DataSource dataSource) {
+        Bundle bundle = new Bundle();
+        bundle.putParcelable(DataSource.class.getSimpleName(), dataSource);
+        return send(bundle, MessageType.REGISTER);
+    }
+
+    /**
+     * Sends a subscription for a data source whose listener is already in place.
+     *
+     * @param ds_id Data source identifier.
+     * @return The status of the subscription.
+     */
+    AsyncPendingResult<Status> sendSubscribe(int ds_id) {
+        Bundle bundle = new Bundle();
+        bundle.putInt(Constants.RC_DSID, ds_id);
+        bundle.putString(Constants.PACKAGE_NAME, context.getPackageName());
+        return send(bundle, MessageType.SUBSCRIBE);
+    }
+
+    /**
+     * Constructs a message and sends it to <code>DataKit</code>.
+     *
+     * <p>
+     *     The request identifier is carried in <code>Message.arg2</code>. <code>DataKit</code>
+     *     echoes it in <code>arg2</code> of the reply, which is how the reply finds its request.
+     *     Data source identifiers in the bundle are translated to the ones of the current session.
+     *     The message is counted in the <code>MetricsRegistry</code>, and so is a failure to send it.
+     * </p>
+     *
+     * @param bundle
+     * @param messageType Type of message being sent.
+     * @param requestId Correlation identifier of the request, or 0 if no reply is expected.
+     * @throws RemoteException Thrown when the message is not sent successfully
+     */
+    private void prepareAndSend(Bundle bundle, int messageType, int requestId) throws RemoteException {
+        OperationMetrics operationMetrics = metrics.getOperation(messageType);
+        operationMetrics.onCall();
         Message message = Message.obtain(null, 0, 0, 0);
         message.what = messageType;
         message.arg1 = sessionId;
+        message.arg2 = requestId;
+        toCurrentSession(bundle);
+        if (metrics.isCountBytes())
+            operationMetrics.onBytes(marshalledSize(bundle));
         message.setData(bundle);
         message.replyTo = replyMessenger;
-        sendMessenger.send(message);
+        Messenger messenger = sendMessenger;
+        try {
+            if (messenger == null)
+                throw new DeadObjectException();
+            messenger.send(message);
+        } catch (RemoteException e) {
+            operationMetrics.onError();
+            throw e;
+        }
+    }
+
+    /**
+     * @param bundle Payload of a message.
+     * @return Size of the payload in bytes once marshalled.
+     */
+    private static int marshalledSize(Bundle bundle) {
+        Parcel parcel = Parcel.obtain();
+        try {
+            parcel.writeBundle(bundle);
+            return parcel.dataSize();
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    /**
+     * Replaces the data source identifiers in a bundle with the ones of the current session.
+     *
+     * @param bundle Payload of a message.
+     */
+    private void toCurrentSession(Bundle bundle) {
+        int ds_id = bundle.getInt(Constants.RC_DSID, -1);
+        if (ds_id != -1) {
+            int current = supervisor.toCurrent(ds_id);
+            if (current != ds_id)
+                bundle.putInt(Constants.RC_DSID, current);
+        }
+        DataSourceClient dataSourceClient = bundle.getParcelable(Constants.RC_DATASOURCE_CLIENT);
+        if (dataSourceClient != null) {
+            int current = supervisor.toCurrent(dataSourceClient.getDs_id());
+            if (current != dataSourceClient.getDs_id())
+                bundle.putParcelable(Constants.RC_DATASOURCE_CLIENT,
+                        new DataSourceClient(current, dataSourceClient.getDataSource(), dataSourceClient.getStatus()));
+        }
+    }
+
+    /**
+     * Sends a request to <code>DataKit</code> without waiting for its reply.
+     *
+     * <p>
+     *     Each call gets its own <code>PendingRequest</code>, so concurrent callers do not wait on
+     *     each other and a late reply can never be handed to a different caller. If no reply arrives
+     *     within <code>WAIT_TIME</code>, the request is completed with a null result on the reply thread.
+     *     The timeout is posted with the request as its token and removed as soon as the request
+     *     completes, so a completed request and its result are not kept until the timeout would fire.
+     * </p>
+     *
+     * @param bundle Payload of the request.
+     * @param messageType Type of message being sent.
+     * @param <R> Type of the reply payload.
+     * @return The pending reply. Its result is null if the request failed or timed out.
+     */
+    private <R> PendingRequest<R> send(Bundle bundle, int messageType) {
+        final PendingRequest<R> request = new PendingRequest<>(newRequestId(), messageType, WAIT_TIME);
+        IncomingHandler handler = incomingHandler;
+        if (handler == null) {
+            OperationMetrics operationMetrics = metrics.getOperation(messageType);
+            operationMetrics.onCall();
+            operationMetrics.onError();
+            request.complete(null);
+            return request;
+        }
+        pendingRequests.put(request.requestId, request);
+        try {
+            prepareAndSend(bundle, messageType, request.requestId);
+            handler.postAtTime(new Runnable() {
+                @Override
+                public void run() {
+                    if (pendingRequests.remove(request.requestId, request)) {
+                        metrics.getOperation(request.messageType).onTimeout();
+                        request.complete(null);
+                    }
+                }
+            }, request, SystemClock.uptimeMillis() + WAIT_TIME);
+        } catch (Exception e) {
+            pendingRequests.remove(request.requestId);
+            cancelTimeout(request);
+            request.complete(null);
+        }
+        return request;
+    }
+
+    /**
+     * Removes the timeout posted for a request that no longer needs it.
+     *
+     * @param request The request.
+     */
+    private void cancelTimeout(PendingRequest<?> request) {
+        IncomingHandler handler = incomingHandler;
+        if (handler != null)
+            handler.removeCallbacksAndMessages(request);
+    }
+
+    /**
+     * @return A new request identifier. Zero is never returned as it marks a message without one.
+     */
+    private int newRequestId() {
+        int requestId;
+        do {
+            requestId = nextRequestId.incrementAndGet();
+        } while (requestId == 0);
+        return requestId;
+    }
+
+    /**
+     * Finds and removes the pending request a reply belongs to.
+     *
+     * <p>
+     *     Replies from a <code>DataKit</code> that does not echo the request identifier arrive in the
+     *     order the requests were sent, so they are matched to the oldest pending request of the same
+     *     type.
+     * </p>
+     *
+     * @param messageType Type of the reply.
+     * @param requestId Request identifier carried by the reply, or 0 if there was none.
+     * @return The matching pending request, or null if it has already timed out.
+     */
+    private PendingRequest<?> removePendingRequest(int messageType, int requestId) {
+        if (requestId != 0)
+            return pendingRequests.remove(requestId);
+
+        while (true) {
+            PendingRequest<?> oldest = null;
+            for (PendingRequest<?> request : pendingRequests.values()) {
+                if (request.messageType == messageType
+                        && (oldest == null || request.requestId - oldest.requestId < 0))
+                    oldest = request;
+            }
+            if (oldest == null || pendingRequests.remove(oldest.requestId, oldest))
+                return oldest;
+        }
+    }
+
+    /**
+     * Completes the pending request a reply belongs to with the reply's payload.
+     *
+     * <p>
+     *     The latency of the reply is recorded. A reply without payload also counts as an error, and
+     *     a reply whose request has already timed out as late.
+     * </p>
+     *
+     * @param msg The reply.
+     * @param result Payload of the reply.
+     * @return Whether a waiting request took the payload.
+     */
+    @SuppressWarnings("unchecked")
+    private boolean completePendingRequest(Message msg, Object result) {
+        PendingRequest<Object> request = (PendingRequest<Object>) removePendingRequest(msg.what, msg.arg2);
+        OperationMetrics operationMetrics = metrics.getOperation(msg.what);
+        if (request == null) {
+            operationMetrics.onLateReply();
+            return false;
+        }
+        cancelTimeout(request);
+        operationMetrics.onReply(System.nanoTime() - request.startNanos);
+        if (result == null)
+            operationMetrics.onError();
+        return request.complete(result);
+    }
+
+    /**
+     * Completes every pending request with a null result.
+     */
+    private void failPendingRequests() {
+        for (PendingRequest<?> request : pendingRequests.values()) {
+            if (pendingRequests.remove(request.requestId, request)) {
+                cancelTimeout(request);
+                request.complete(null);
+            }
+        }
+    }
+
+    /**
+     * Closes a file descriptor nobody is waiting for.
+     *
+     * @param fileDescriptor The file descriptor to close.
+     */
+    private static void closeQuietly(ParcelFileDescriptor fileDescriptor) {
+        try {
+            fileDescriptor.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Could not close file descriptor", e);
+        }
     }
 
 
     /**
      * Registers the desired <code>DataSourceClient</code> with <code>DataKit</code>.
      *
+     * <p>
+     *     This and the other request methods send their message right away and return a
+     *     <code>AsyncPendingResult</code> for the reply. A data source that is already registered, or
+     *     being registered, is not sent again; its registration is returned instead.
+     * </p>
+     *
      * @param dataSourceBuilder Builder object of the data source to register.
      * @return The registered <code>DataSourceClient</code>.
      * @throws DataKitException
      */
-    public PendingResult<DataSourceClient> register(final DataSourceBuilder dataSourceBuilder) throws DataKitException {
-        PendingResult<DataSourceClient> pendingResult = new PendingResult<DataSourceClient>() {
+    public AsyncPendingResult<DataSourceClient> register(final DataSourceBuilder dataSourceBuilder) throws DataKitException {
+        final DataSource dataSource = prepareDataSource(dataSourceBuilder);
+        return registry.register(dataSource, WAIT_TIME, new DataSourceRegistry.Registration() {
             @Override
-            public DataSourceClient await() {
-                try {
-                    registerData = null;
-                    lock();
-                    DataSource dataSource = prepareDataSource(dataSourceBuilder);
-                    Bundle bundle = new Bundle();
-                    bundle.putParcelable(DataSource.class.getSimpleName(), dataSource);
-                    prepareAndSend(bundle, MessageType.REGISTER);
-                    semaphoreReceive.tryAcquire(WAIT_TIME, TimeUnit.MILLISECONDS);
-                } catch (Exception e) {
-                    registerData = null;
-                } finally {
-                    unlock();
-                }
-                return registerData;
+            public AsyncPendingResult<DataSourceClient> start() {
+                return sendRegister(dataSource).map(new ResultTransform<DataSourceClient, DataSourceClient>() {
+                    @Override
+                    public DataSourceClient apply(DataSourceClient dataSourceClient) {
+                        return supervisor.registered(dataSource, dataSourceClient);
+                    }
+                });
             }
-        };
-        return pendingResult;
+        });
     }
 
     /**
@@ -373,30 +747,14 @@ class DataKitAPIExecute {
      * @return The status of the application after the data source is unsubscribed.
      * @throws DataKitException Thrown if the <code>context</code> or it's package name are null.
      */
-    public PendingResult<Status> unsubscribe(final int ds_id) throws DataKitException {
-        PendingResult<Status> pendingResult = new PendingResult<Status>() {
-            @Override
-            public Status await() {
-                try {
-                    unsubscribeData = null;
-                    lock();
-                    ds_idOnReceiveListenerHashMap.remove(ds_id);
-                    Bundle bundle = new Bundle();
-                    bundle.putInt(Constants.RC_DSID, ds_id);
-                    if (context == null || context.getPackageName() == null)
-                        throw new Exception("abc");
-                    bundle.putString(Constants.PACKAGE_NAME, context.getPackageName());
-                    prepareAndSend(bundle, MessageType.UNSUBSCRIBE);
-                    semaphoreReceive.tryAcquire(WAIT_TIME, TimeUnit.MILLISECONDS);
-                } catch (Exception e) {
-                    unsubscribeData = null;
-                } finally {
-                    unlock();
-                }
-                return unsubscribeData;
-            }
-        };
-        return pendingResult;
+    public AsyncPendingResult<Status> unsubscribe(final int ds_id) throws DataKitException {
+        subscriptionDispatcher.unsubscribe(ds_id);
+        if (context == null || context.getPackageName() == null)
+            return PendingRequest.completed(MessageType.UNSUBSCRIBE, null);
+        Bundle bundle = new Bundle();
+        bundle.putInt(Constants.RC_DSID, ds_id);
+        bundle.putString(Constants.PACKAGE_NAME, context.getPackageName());
+        return send(bundle, MessageType.UNSUBSCRIBE);
     }
 
     /**
@@ -406,86 +764,85 @@ class DataKitAPIExecute {
      * @return The status of the application after the data source is unregistered.
      * @throws DataKitException
      */
-    public PendingResult<Status> unregister(final DataSourceClient dataSourceClient) throws DataKitException {
-        PendingResult<Status> pendingResult = new PendingResult<Status>() {
-            @Override
-            public Status await() {
-                try {
-                    unregisterData = null;
-                    lock();
-                    Bundle bundle = new Bundle();
-                    bundle.putInt(Constants.RC_DSID, dataSourceClient.getDs_id());
-                    prepareAndSend(bundle, MessageType.UNREGISTER);
-                    semaphoreReceive.tryAcquire(WAIT_TIME, TimeUnit.MILLISECONDS);
-                } catch (Exception e) {
-                    unregisterData = null;
-                } finally {
-                    unlock();
-                }
-                return unregisterData;
-            }
-        };
-        return pendingResult;
+    public AsyncPendingResult<Status> unregister(final DataSourceClient dataSourceClient) throws DataKitException {
+        supervisor.unregistered(dataSourceClient.getDs_id());
+        registry.invalidate(dataSourceClient.getDs_id());
+        Bundle bundle = new Bundle();
+        bundle.putInt(Constants.RC_DSID, dataSourceClient.getDs_id());
+        return send(bundle, MessageType.UNREGISTER);
     }
 
     /**
-     * Subscribes the given data source to <code>DataKit</code>.
+     * Subscribes the given data source to <code>DataKit</code>, delivering one sample at a time.
      *
      * @param dataSourceClient Data source to subscribe to <code>DataKit</code>.
      * @param onReceiveListener Callback listening for receipt of the subscription.
+     * @param capacity Maximum number of samples queued for the listener.
+     * @param policy <code>DeliveryPolicy</code> applied when the queue is full.
      * @return The status of the application after the data source is subscribed.
      * @throws DataKitException
      */
-    public Status subscribe(final DataSourceClient dataSourceClient, OnReceiveListener onReceiveListener) throws DataKitException {
-        try {
-            subscribeData = null;
-            lock();
-            ds_idOnReceiveListenerHashMap.put(dataSourceClient.getDs_id(), onReceiveListener);
+    public AsyncPendingResult<Status> subscribe(final DataSourceClient dataSourceClient, OnReceiveListener onReceiveListener,
+                                           int capacity, int policy) throws DataKitException {
+        return subscribe(dataSourceClient, SubscriptionDispatcher.perSample(onReceiveListener), capacity, policy);
+    }
 
-            Bundle bundle = new Bundle();
-            bundle.putInt(Constants.RC_DSID, dataSourceClient.getDs_id());
-            bundle.putString(Constants.PACKAGE_NAME, context.getPackageName());
-            prepareAndSend(bundle, MessageType.SUBSCRIBE);
+    /**
+     * Subscribes the given data source to <code>DataKit</code>, delivering samples in batches.
+     *
+     * @param dataSourceClient Data source to subscribe to <code>DataKit</code>.
+     * @param onReceiveBatchListener Callback listening for receipt of the subscription.
+     * @param capacity Maximum number of samples queued for the listener.
+     * @param policy <code>DeliveryPolicy</code> applied when the queue is full.
+     * @return The status of the application after the data source is subscribed.
+     * @throws DataKitException
+     */
+    public AsyncPendingResult<Status> subscribe(final DataSourceClient dataSourceClient, OnReceiveBatchListener onReceiveBatchListener,
+                                           int capacity, int policy) throws DataKitException {
+        subscriptionDispatcher.subscribe(dataSourceClient.getDs_id(), onReceiveBatchListener, capacity, policy);
 
-            semaphoreReceive.tryAcquire(WAIT_TIME, TimeUnit.MILLISECONDS);
-        } catch (Exception e) {
-            Log.e(TAG, "Subscribe error..." + dataSourceClient.getDs_id());
-            subscribeData = null;
-        } finally {
-            unlock();
-        }
-        return subscribeData;
+        AsyncPendingResult<Status> pendingResult = sendSubscribe(dataSourceClient.getDs_id());
+        pendingResult.setResultCallback(new ResultCallback<Status>() {
+            @Override
+            public void onResult(Status status) {
+                if (status == null)
+                    Log.e(TAG, "Subscribe error..." + dataSourceClient.getDs_id());
+            }
+        });
+        return pendingResult;
     }
 
 
     /**
      * Finds the desired data sources in the database.
      *
+     * <p>
+     *     A result is reused for the same search for up to <code>DataSourceRegistry.FIND_TTL</code>.
+     * </p>
+     *
      * @param dataSourceBuilder Builder object for the desired data source
      * @return ArrayList of <code>DataSourceClient</code> objects.
      * @throws DataKitException
      */
-    public PendingResult<ArrayList<DataSourceClient>> find(final DataSourceBuilder dataSourceBuilder) throws DataKitException {
-        PendingResult<ArrayList<DataSourceClient>> pendingResult = new PendingResult<ArrayList<DataSourceClient>>() {
+    public AsyncPendingResult<ArrayList<DataSourceClient>> find(final DataSourceBuilder dataSourceBuilder) throws DataKitException {
+        final DataSource dataSource = dataSourceBuilder.build();
+        ArrayList<DataSourceClient> cached = registry.find(dataSource);
+        if (cached != null)
+            return PendingRequest.completed(MessageType.FIND, cached);
+        Bundle bundle = new Bundle();
+        bundle.putParcelable(DataSource.class.getSimpleName(), dataSource);
+        AsyncPendingResult<ArrayList<DataSourceClient>> pendingResult = send(bundle, MessageType.FIND);
+        return pendingResult.map(new ResultTransform<ArrayList<DataSourceClient>, ArrayList<DataSourceClient>>() {
             @Override
-            public ArrayList<DataSourceClient> await() {
-                try {
-                    findData = null;
-                    lock();
-                    final DataSource dataSource = dataSourceBuilder.build();
-                    Bundle bundle = new Bundle();
-                    bundle.putParcelable(DataSource.class.getSimpleName(), dataSource);
-                    prepareAndSend(bundle, MessageType.FIND);
-                    semaphoreReceive.tryAcquire(WAIT_TIME, TimeUnit.MILLISECONDS);
-                } catch (Exception e) {
-                    findData = null;
-                } finally {
-                    unlock();
+            public ArrayList<DataSourceClient> apply(ArrayList<DataSourceClient> dataSourceClients) {
+                if (dataSourceClients != null) {
+                    for (int i = 0; i < dataSourceClients.size(); i++)
+                        dataSourceClients.set(i, supervisor.toOriginal(dataSourceClients.get(i)));
+                    registry.found(dataSource, dataSourceClients);
                 }
-                return findData;
+                return dataSourceClients;
             }
-        };
-        return pendingResult;
+        });
     }
 
     /**
@@ -497,31 +854,14 @@ class DataKitAPIExecute {
      * @return An ArrayList of data types matching the query.
      * @throws DataKitException
      */
-    public PendingResult<ArrayList<DataType>> query(final DataSourceClient dataSourceClient,
+    public AsyncPendingResult<ArrayList<DataType>> query(final DataSourceClient dataSourceClient,
                                                     final long starttimestamp,
                                                     final long endtimestamp) throws DataKitException {
-        return new PendingResult<ArrayList<DataType>>() {
-            @Override
-            public ArrayList<DataType> await() {
-                try {
-                    queryData = null;
-                    lock();
-
-                    Bundle bundle = new Bundle();
-                    bundle.putInt(Constants.RC_DSID, dataSourceClient.getDs_id());
-                    bundle.putLong(Constants.RC_STARTTIMESTAMP, starttimestamp);
-                    bundle.putLong(Constants.RC_ENDTIMESTAMP, endtimestamp);
-                    prepareAndSend(bundle, MessageType.QUERY);
-
-                    semaphoreReceive.tryAcquire(WAIT_TIME, TimeUnit.MILLISECONDS);
-                } catch (Exception e) {
-                    queryData = null;
-                } finally {
-                    unlock();
-                }
-                return queryData;
-            }
-        };
+        Bundle bundle = new Bundle();
+        bundle.putInt(Constants.RC_DSID, dataSourceClient.getDs_id());
+        bundle.putLong(Constants.RC_STARTTIMESTAMP, starttimestamp);
+        bundle.putLong(Constants.RC_ENDTIMESTAMP, endtimestamp);
+        return send(bundle, MessageType.QUERY);
     }
 
     /**
@@ -532,30 +872,12 @@ class DataKitAPIExecute {
      * @return An ArrayList of data types matching the query.
      * @throws DataKitException
      */
-    public PendingResult<ArrayList<DataType>> query(final DataSourceClient dataSourceClient,
+    public AsyncPendingResult<ArrayList<DataType>> query(final DataSourceClient dataSourceClient,
                                                     final int last_n_sample) throws DataKitException {
-
-        return new PendingResult<ArrayList<DataType>>() {
-            @Override
-            public ArrayList<DataType> await() {
-                try {
-                    queryData = null;
-                    lock();
-
-                    Bundle bundle = new Bundle();
-                    bundle.putInt(Constants.RC_DSID, dataSourceClient.getDs_id());
-                    bundle.putInt(Constants.RC_LAST_N_SAMPLE, last_n_sample);
-                    prepareAndSend(bundle, MessageType.QUERY);
-
-                    semaphoreReceive.tryAcquire(WAIT_TIME, TimeUnit.MILLISECONDS);
-                } catch (Exception e) {
-                    queryData = null;
-                } finally {
-                    unlock();
-                }
-                return queryData;
-            }
-        };
+        Bundle bundle = new Bundle();
+        bundle.putInt(Constants.RC_DSID, dataSourceClient.getDs_id());
+        bundle.putInt(Constants.RC_LAST_N_SAMPLE, last_n_sample);
+        return send(bundle, MessageType.QUERY);
     }
 
     /**
@@ -567,59 +889,114 @@ class DataKitAPIExecute {
      * @return An ArrayList of rows from the database.
      * @throws DataKitException
      */
-    public PendingResult<ArrayList<RowObject>> queryFromPrimaryKey(final DataSourceClient dataSourceClient,
+    public AsyncPendingResult<ArrayList<RowObject>> queryFromPrimaryKey(final DataSourceClient dataSourceClient,
                                                                    final long lastSyncedValue,
                                                                    final int limit) throws DataKitException {
-        return new PendingResult<ArrayList<RowObject>>() {
-            @Override
-            public ArrayList<RowObject> await() {
-                try {
-                    queryPrimaryKeyData = null;
-                    lock();
-
-                    Bundle bundle = new Bundle();
-                    bundle.putInt(Constants.RC_DSID, dataSourceClient.getDs_id());
-                    bundle.putLong(Constants.RC_LAST_KEY, lastSyncedValue);
-                    bundle.putInt(Constants.RC_LIMIT, limit);
-                    prepareAndSend(bundle, MessageType.QUERYPRIMARYKEY);
-
-                    semaphoreReceive.tryAcquire(WAIT_TIME, TimeUnit.MILLISECONDS);
-                } catch (Exception e) {
-                    queryPrimaryKeyData = null;
-                } finally {
-                    unlock();
-                }
-                return queryPrimaryKeyData;
-            }
-        };
+        Bundle bundle = new Bundle();
+        bundle.putInt(Constants.RC_DSID, dataSourceClient.getDs_id());
+        bundle.putLong(Constants.RC_LAST_KEY, lastSyncedValue);
+        bundle.putInt(Constants.RC_LIMIT, limit);
+        return send(bundle, MessageType.QUERYPRIMARYKEY);
     }
 
     /**
-     * Determines the size of the query in number of columns.
+     * Queries the database for samples from the given data source during the given time frame,
+     * streaming the rows back through a file descriptor instead of a parcel.
      *
-     * @return The size of the query.
+     * @param dataSourceClient Data source of the samples
+     * @param starttimestamp Beginning of the desired time frame.
+     * @param endtimestamp End of the desired time frame.
+     * @return Read end of the stream of rows in the <code>DataTypeBinary</code> format.
      * @throws DataKitException
      */
-    public PendingResult<DataTypeLong> querySize() throws DataKitException {
-        return new PendingResult<DataTypeLong>() {
-            @Override
-            public DataTypeLong await() {
-                try {
-                    querySizeData = null;
-                    lock();
+    public AsyncPendingResult<ParcelFileDescriptor> queryCursor(final DataSourceClient dataSourceClient,
+                                                           final long starttimestamp,
+                                                           final long endtimestamp) throws DataKitException {
+        Bundle bundle = new Bundle();
+        bundle.putInt(Constants.RC_DSID, dataSourceClient.getDs_id());
+        bundle.putLong(Constants.RC_STARTTIMESTAMP, starttimestamp);
+        bundle.putLong(Constants.RC_ENDTIMESTAMP, endtimestamp);
+        return send(bundle, MessageType.QUERY_CURSOR);
+    }
+
+    /**
+     * Queries the database for certain rows, streaming them back through a file descriptor
+     * instead of a parcel.
+     *
+     * @param dataSourceClient Data source of desired samples
+     * @param lastSyncedValue Key of the desired row.
+     * @param limit Number of rows to return.
+     * @return Read end of the stream of rows in the <code>DataTypeBinary</code> format.
+     * @throws DataKitException
+     */
+    public AsyncPendingResult<ParcelFileDescriptor> queryFromPrimaryKeyCursor(final DataSourceClient dataSourceClient,
+                                                                         final long lastSyncedValue,
+                                                                         final int limit) throws DataKitException {
+        Bundle bundle = new Bundle();
+        bundle.putInt(Constants.RC_DSID, dataSourceClient.getDs_id());
+        bundle.putLong(Constants.RC_LAST_KEY, lastSyncedValue);
+        bundle.putInt(Constants.RC_LIMIT, limit);
+        return send(bundle, MessageType.QUERYPRIMARYKEY_CURSOR);
+    }
 
-                    Bundle bundle = new Bundle();
-                    prepareAndSend(bundle, MessageType.QUERYSIZE);
+    /**
+     * Queries the database for the count, minimum, maximum and mean of every value of the samples
+     * from the given data source per time bucket during the given time frame.
+     *
+     * @param dataSourceClient Data source of the samples
+     * @param starttimestamp Beginning of the desired time frame and of the first bucket.
+     * @param endtimestamp End of the desired time frame.
+     * @param bucket Width in milliseconds of each bucket.
+     * @return The non-empty buckets.
+     * @throws DataKitException
+     */
+    public AsyncPendingResult<AggregateBlock> queryAggregate(final DataSourceClient dataSourceClient,
+                                                        final long starttimestamp,
+                                                        final long endtimestamp,
+                                                        final long bucket) throws DataKitException {
+        Bundle bundle = new Bundle();
+        bundle.putInt(Constants.RC_DSID, dataSourceClient.getDs_id());
+        bundle.putLong(Constants.RC_STARTTIMESTAMP, starttimestamp);
+        bundle.putLong(Constants.RC_ENDTIMESTAMP, endtimestamp);
+        bundle.putLong(Constants.RC_BUCKET, bucket);
+        return send(bundle, MessageType.QUERY_AGGREGATE);
+    }
 
-                    semaphoreReceive.tryAcquire(WAIT_TIME, TimeUnit.MILLISECONDS);
-                } catch (Exception e) {
-                    querySizeData = null;
-                } finally {
-                    unlock();
-                }
-                return querySizeData;
-            }
-        };
+    /**
+     * Queries the database for at most the given number of samples from the given data source
+     * during the given time frame, chosen to preserve the shape of one value.
+     *
+     * @param dataSourceClient Data source of the samples
+     * @param starttimestamp Beginning of the desired time frame.
+     * @param endtimestamp End of the desired time frame.
+     * @param points Maximum number of samples to return.
+     * @param column Index of the value within each sample the selection is based on.
+     * @return The chosen samples.
+     * @throws DataKitException
+     */
+    public AsyncPendingResult<DoubleBlock> queryDownsample(final DataSourceClient dataSourceClient,
+                                                      final long starttimestamp,
+                                                      final long endtimestamp,
+                                                      final int points,
+                                                      final int column) throws DataKitException {
+        Bundle bundle = new Bundle();
+        bundle.putInt(Constants.RC_DSID, dataSourceClient.getDs_id());
+        bundle.putLong(Constants.RC_STARTTIMESTAMP, starttimestamp);
+        bundle.putLong(Constants.RC_ENDTIMESTAMP, endtimestamp);
+        bundle.putInt(Constants.RC_POINTS, points);
+        bundle.putInt(Constants.RC_COLUMN, column);
+        return send(bundle, MessageType.QUERY_DOWNSAMPLE);
+    }
+
+    /**
+     * Determines the size of the query in number of columns.
+     *
+     * @return The size of the query.
+     * @throws DataKitException
+     */
+    public AsyncPendingResult<DataTypeLong> querySize() throws DataKitException {
+        Bundle bundle = new Bundle();
+        return send(bundle, MessageType.QUERYSIZE);
     }
 
 
@@ -631,16 +1008,30 @@ class DataKitAPIExecute {
      * @throws DataKitException
      */
     public void insert(final DataSourceClient dataSourceClient, final DataType[] dataTypes) throws DataKitException {
+        insert(dataSourceClient.getDs_id(), dataTypes);
+    }
+
+    /**
+     * Bundles samples of a data source and sends them to <code>DataKit</code>.
+     *
+     * @param ds_id Data source identifier.
+     * @param dataTypes Array of data types to insert.
+     * @throws DataKitException
+     */
+    @Override
+    public void insert(int ds_id, final DataType[] dataTypes) throws DataKitException {
+        if (insertWindow.isEnabled()) {
+            insertWindow.send(this, new InsertWindow.Batch(ds_id, MessageType.INSERT, dataTypes.clone(), null,
+                    dataTypes.length));
+            return;
+        }
         try {
-            lock();
             Bundle bundle = new Bundle();
             bundle.putParcelableArray(DataType.class.getSimpleName(), dataTypes);
-            bundle.putInt(Constants.RC_DSID, dataSourceClient.getDs_id());
+            bundle.putInt(Constants.RC_DSID, ds_id);
             prepareAndSend(bundle, MessageType.INSERT);
         } catch (Exception e) {
             throw new DataKitException(e.getCause());
-        } finally {
-            unlock();
         }
     }
 
@@ -653,15 +1044,12 @@ class DataKitAPIExecute {
      */
     public void setSummary(final DataSourceClient dataSourceClient, final DataType dataType) throws DataKitException {
         try {
-            lock();
             Bundle bundle = new Bundle();
             bundle.putParcelable(DataType.class.getSimpleName(), dataType);
             bundle.putParcelable(Constants.RC_DATASOURCE_CLIENT, dataSourceClient);
             prepareAndSend(bundle, MessageType.SUMMARY);
         } catch (Exception e) {
             throw new DataKitException(e.getCause());
-        } finally {
-            unlock();
         }
     }
 
@@ -672,45 +1060,95 @@ class DataKitAPIExecute {
      * @param dataTypes Array of high frequency samples.
      * @throws DataKitException
      */
+    @Override
     public void insertHighFrequency(int ds_id, final DataTypeDoubleArray[] dataTypes) throws DataKitException {
+        if (insertWindow.isEnabled()) {
+            insertWindow.send(this, new InsertWindow.Batch(ds_id, MessageType.INSERT_HIGH_FREQUENCY, dataTypes.clone(),
+                    null, dataTypes.length));
+            return;
+        }
         try {
-            lock();
             Bundle bundle = new Bundle();
             bundle.putParcelableArray(DataTypeDoubleArray.class.getSimpleName(), dataTypes);
             bundle.putInt(Constants.RC_DSID, ds_id);
             prepareAndSend(bundle, MessageType.INSERT_HIGH_FREQUENCY);
         } catch (Exception e) {
             throw new DataKitException(e.getCause());
-        } finally {
-            unlock();
         }
     }
 
+    /**
+     * Sends a packed frame of high frequency samples to <code>DataKit</code>.
+     *
+     * @param bundle Bundle holding the frame written by <code>HFFrame</code>.
+     * @throws DataKitException
+     */
+    public void insertHighFrequencyPacked(final Bundle bundle) throws DataKitException {
+        if (insertWindow.isEnabled()) {
+            int[] deltas = bundle.getIntArray(Constants.RC_TIMESTAMP_DELTAS);
+            insertWindow.send(this, new InsertWindow.Batch(bundle.getInt(Constants.RC_DSID),
+                    MessageType.INSERT_HIGH_FREQUENCY_PACKED, null, new Bundle(bundle), deltas == null ? 0 : deltas.length));
+            return;
+        }
+        try {
+            prepareAndSend(bundle, MessageType.INSERT_HIGH_FREQUENCY_PACKED);
+        } catch (Exception e) {
+            throw new DataKitException(e.getCause());
+        }
+    }
+
+    /**
+     * Sends a batch of the <code>InsertWindow</code> with its sequence number.
+     *
+     * @param batch The batch.
+     * @param stream Identifier of the sequence numbers of this process.
+     * @throws RemoteException Thrown when the message is not sent successfully
+     */
+    void sendInsert(InsertWindow.Batch batch, long stream) throws RemoteException {
+        Bundle bundle;
+        if (batch.packed != null)
+            bundle = new Bundle(batch.packed);
+        else {
+            bundle = new Bundle();
+            bundle.putParcelableArray(batch.messageType == MessageType.INSERT
+                    ? DataType.class.getSimpleName() : DataTypeDoubleArray.class.getSimpleName(), batch.dataTypes);
+            bundle.putInt(Constants.RC_DSID, batch.ds_id);
+        }
+        bundle.putLong(Constants.RC_INSERT_STREAM, stream);
+        bundle.putLong(Constants.RC_SEQUENCE, batch.sequence);
+        prepareAndSend(bundle, batch.messageType);
+    }
+
     /**
      * Configures and builds the <code>Application</code> of the <code>DataSource</code>.
      *
+     * <p>
+     *     The version of the calling application is read from the <code>PackageManager</code> on
+     *     first use only, and the data source is built once.
+     * </p>
+     *
      * @param dataSourceBuilder Builder for the desired data source.
      * @return The desired data source.
      */
     private DataSource prepareDataSource(DataSourceBuilder dataSourceBuilder) {
-        String versionName = null;
-        int versionNumber = 0;
-
-        try {
-            PackageInfo pInfo = context.getPackageManager().getPackageInfo(context.getPackageName(), 0);
-            versionName = pInfo.versionName;
-            versionNumber = pInfo.versionCode;
-        } catch (PackageManager.NameNotFoundException e) {
-            e.printStackTrace();
+        if (!packageInfoLoaded) {
+            try {
+                PackageInfo pInfo = context.getPackageManager().getPackageInfo(context.getPackageName(), 0);
+                versionName = pInfo.versionName;
+                versionNumber = pInfo.versionCode;
+            } catch (PackageManager.NameNotFoundException e) {
+                e.printStackTrace();
+            }
+            packageInfoLoaded = true;
         }
 
         ApplicationBuilder applicationBuilder;
 
-        if (dataSourceBuilder.build().getApplication() == null)
+        if (dataSourceBuilder.application == null)
             applicationBuilder = new ApplicationBuilder();
 
         else
-            applicationBuilder = new ApplicationBuilder(dataSourceBuilder.build().getApplication());
+            applicationBuilder = new ApplicationBuilder(dataSourceBuilder.application);
 
         Application application = applicationBuilder.setId(context.getPackageName())
                                                     .setMetadata(METADATA.VERSION_NAME, versionName)
@@ -732,20 +1170,33 @@ class DataKitAPIExecute {
          */
         @Override
         public void onServiceConnected(ComponentName component, IBinder binder) {
+            if (this != connection)
+                return;
             sendMessenger = new Messenger(binder);
-            isConnected = true;
-            onConnectionListener.onConnected();
+            if (supervisor.onServiceConnected()) {
+                insertWindow.resend(DataKitAPIExecute.this);
+                isConnected = true;
+                connected.countDown();
+                onConnectionListener.onConnected();
+            }
         }
 
         /**
-         * Sets the service's <code>Messenger</code> to null.
+         * Sets the service's <code>Messenger</code> to null and, unless the caller is disconnecting,
+         * has the <code>ConnectionSupervisor</code> restore the connection.
          *
          * @param component Identifier for the desired component.
          */
         @Override
         public void onServiceDisconnected(ComponentName component) {
+            if (this != connection)
+                return;
             sendMessenger = null;
             isConnected = false;
+            if (!isDisconnecting) {
+                connected = new CountDownLatch(1);
+                supervisor.onServiceDisconnected();
+            }
         }
     }
 
@@ -771,22 +1222,38 @@ class DataKitAPIExecute {
          *     <ul>
          *         <ul>Break without setting variables:
          *             <li><code>INTERNAL_ERROR</code></li>
+         *         </ul>
+         *         <ul>Acknowledge the inserts of the data source up to <code>RC_SEQUENCE</code> in the
+         *         <code>InsertWindow</code>. Acknowledgements from an older session are dropped, as the
+         *         inserts are sent again anyway.
          *             <li><code>INSERT</code></li>
          *             <li><code>INSERT_HIGH_FREQUENCY</code></li>
+         *             <li><code>INSERT_HIGH_FREQUENCY_PACKED</code></li>
          *         </ul>
-         *         <ul>Set their corresponding variables to the appropriate <code>DataType</code>,
-         *         <code>Status</code>, or null.
-         *             <li><code>REGISTER</code> -- <code>registerData</code></li>
-         *             <li><code>UNREGISTER</code> -- <code>unregisterData</code></li>
-         *             <li><code>SUBSCRIBE</code> -- <code>subscribeData</code></li>
-         *             <li><code>UNSUBSCRIBE</code> -- <code>unsubscribeData</code></li>
-         *             <li><code>FIND</code> -- <code>findData</code></li>
-         *             <li><code>QUERY</code> -- <code>queryData</code></li>
-         *             <li><code>QUERYSIZE</code> -- <code>querySizeData</code></li>
-         *             <li><code>QUERYPRIMARYKEY</code> -- <code>queryPrimaryKey</code></li>
+         *         <ul>Complete the pending request identified by <code>arg2</code> with the
+         *         appropriate <code>DataType</code>, <code>Status</code>, or
+         *         <code>DataSourceClient</code>. Replies from an older session are dropped.
+         *             <li><code>REGISTER</code></li>
+         *             <li><code>UNREGISTER</code></li>
+         *             <li><code>SUBSCRIBE</code></li>
+         *             <li><code>UNSUBSCRIBE</code></li>
+         *             <li><code>FIND</code></li>
+         *             <li><code>QUERY</code></li>
+         *             <li><code>QUERYSIZE</code></li>
+         *             <li><code>QUERYPRIMARYKEY</code></li>
+         *             <li><code>QUERY_CURSOR</code></li>
+         *             <li><code>QUERYPRIMARYKEY_CURSOR</code></li>
+         *             <li><code>QUERY_AGGREGATE</code></li>
+         *             <li><code>QUERY_DOWNSAMPLE</code></li>
          *         </ul>
-         *         <code>SUBSCRIBED_DATA</code> populates <code>ds_idOnReceiveListenerHashMap</code>
-         *         with all of the currently subscribed <code>DataTypes</code>.
+         *         <code>DATASOURCE_CHANGED</code> clears the cached results of <code>register</code>
+         *         and <code>find</code>.
+         *         <code>SUBSCRIBED_DATA</code> hands the received samples to the
+         *         <code>SubscriptionDispatcher</code> without waiting for the listeners.
+         *         <code>INTERNAL_ERROR</code> and <code>SUBSCRIBED_DATA</code> are counted in the
+         *         <code>MetricsRegistry</code>, as are the replies.
+         *         Messages are handled while a lost session is being resumed, so that the
+         *         replies to the resumption requests arrive.
          *     </ul>
          * </p>
          *
@@ -794,113 +1261,127 @@ class DataKitAPIExecute {
          */
         @Override
         public void handleMessage(Message msg) {
-            if (!isConnected()) {
+            if (sessionId == -1) {
                 return;
             }
             msg.getData().setClassLoader(Status.class.getClassLoader());
             int curSessionId = msg.arg1;
             switch (msg.what) {
                 case MessageType.INTERNAL_ERROR:
+                    metrics.getOperation(MessageType.INTERNAL_ERROR).onCall();
                     break;
 
                 case MessageType.REGISTER:
-                    msg.getData().setClassLoader(DataSourceClient.class.getClassLoader());
                     if (curSessionId != sessionId)
-                        registerData = null;
-                    else
-                        registerData = msg.getData().getParcelable(DataSourceClient.class.getSimpleName());
-
-                    semaphoreReceive.release();
+                        break;
+                    msg.getData().setClassLoader(DataSourceClient.class.getClassLoader());
+                    completePendingRequest(msg, msg.getData().getParcelable(DataSourceClient.class.getSimpleName()));
                     break;
 
                 case MessageType.UNREGISTER:
-                    msg.getData().setClassLoader(Status.class.getClassLoader());
                     if (curSessionId != sessionId)
-                        unregisterData = null;
-                    else
-                        unregisterData = msg.getData().getParcelable(Status.class.getSimpleName());
-
-                    semaphoreReceive.release();
+                        break;
+                    msg.getData().setClassLoader(Status.class.getClassLoader());
+                    completePendingRequest(msg, msg.getData().getParcelable(Status.class.getSimpleName()));
                     break;
 
                 case MessageType.SUBSCRIBE:
-                    msg.getData().setClassLoader(DataType.class.getClassLoader());
                     if (curSessionId != sessionId)
-                        subscribeData = null;
-                    else
-                        subscribeData = msg.getData().getParcelable(Status.class.getSimpleName());
-
-                    semaphoreReceive.release();
+                        break;
+                    msg.getData().setClassLoader(DataType.class.getClassLoader());
+                    completePendingRequest(msg, msg.getData().getParcelable(Status.class.getSimpleName()));
                     break;
 
                 case MessageType.UNSUBSCRIBE:
-                    msg.getData().setClassLoader(Status.class.getClassLoader());
                     if (curSessionId != sessionId)
-                        unsubscribeData = null;
-                    else
-                        unsubscribeData = msg.getData().getParcelable(Status.class.getSimpleName());
-
-                    semaphoreReceive.release();
+                        break;
+                    msg.getData().setClassLoader(Status.class.getClassLoader());
+                    completePendingRequest(msg, msg.getData().getParcelable(Status.class.getSimpleName()));
                     break;
 
                 case MessageType.FIND:
-                    msg.getData().setClassLoader(DataSourceClient.class.getClassLoader());
                     if (curSessionId != sessionId)
-                        findData = null;
-                    else
-                        findData = msg.getData().getParcelableArrayList(DataSourceClient.class.getSimpleName());
-
-                    semaphoreReceive.release();
+                        break;
+                    msg.getData().setClassLoader(DataSourceClient.class.getClassLoader());
+                    completePendingRequest(msg, msg.getData().getParcelableArrayList(DataSourceClient.class.getSimpleName()));
                     break;
 
                 case MessageType.INSERT:
-                    break;
-
                 case MessageType.INSERT_HIGH_FREQUENCY:
+                case MessageType.INSERT_HIGH_FREQUENCY_PACKED:
+                    if (curSessionId != sessionId)
+                        break;
+                    int acknowledged = msg.getData().getInt(Constants.RC_DSID, -1);
+                    long sequence = msg.getData().getLong(Constants.RC_SEQUENCE, -1);
+                    if (acknowledged != -1 && sequence != -1)
+                        insertWindow.acknowledge(supervisor.toOriginal(acknowledged), sequence);
                     break;
 
                 case MessageType.QUERY:
-                    msg.getData().setClassLoader(DataType.class.getClassLoader());
                     if (curSessionId != sessionId)
-                        queryData = null;
-                    else
-                        queryData = msg.getData().getParcelableArrayList(DataType.class.getSimpleName());
-
-                    semaphoreReceive.release();
+                        break;
+                    msg.getData().setClassLoader(DataType.class.getClassLoader());
+                    completePendingRequest(msg, msg.getData().getParcelableArrayList(DataType.class.getSimpleName()));
                     break;
 
                 case MessageType.QUERYSIZE:
-                    msg.getData().setClassLoader(DataType.class.getClassLoader());
                     if (curSessionId != sessionId)
-                        querySizeData = null;
-                    else
-                        querySizeData = msg.getData().getParcelable(DataTypeLong.class.getSimpleName());
-
-                    semaphoreReceive.release();
+                        break;
+                    msg.getData().setClassLoader(DataType.class.getClassLoader());
+                    completePendingRequest(msg, msg.getData().getParcelable(DataTypeLong.class.getSimpleName()));
                     break;
 
                 case MessageType.QUERYPRIMARYKEY:
+                    if (curSessionId != sessionId)
+                        break;
                     msg.getData().setClassLoader(RowObject.class.getClassLoader());
+                    completePendingRequest(msg, msg.getData().getParcelableArrayList(RowObject.class.getSimpleName()));
+                    break;
+
+                case MessageType.QUERY_AGGREGATE:
                     if (curSessionId != sessionId)
-                        queryPrimaryKeyData = null;
-                    else
-                        queryPrimaryKeyData = msg.getData().getParcelableArrayList(RowObject.class.getSimpleName());
+                        break;
+                    msg.getData().setClassLoader(AggregateBlock.class.getClassLoader());
+                    completePendingRequest(msg, msg.getData().getParcelable(AggregateBlock.class.getSimpleName()));
+                    break;
 
-                    semaphoreReceive.release();
+                case MessageType.QUERY_DOWNSAMPLE:
+                    if (curSessionId != sessionId)
+                        break;
+                    msg.getData().setClassLoader(DoubleBlock.class.getClassLoader());
+                    completePendingRequest(msg, msg.getData().getParcelable(DoubleBlock.class.getSimpleName()));
+                    break;
+
+                case MessageType.QUERY_CURSOR:
+                case MessageType.QUERYPRIMARYKEY_CURSOR:
+                    ParcelFileDescriptor fileDescriptor = msg.getData().getParcelable(Constants.RC_FILE_DESCRIPTOR);
+                    if (fileDescriptor != null
+                            && (curSessionId != sessionId || !completePendingRequest(msg, fileDescriptor)))
+                        closeQuietly(fileDescriptor);
+                    break;
+
+                case MessageType.DATASOURCE_CHANGED:
+                    int changed = msg.getData().getInt(Constants.RC_DSID, -1);
+                    if (changed == -1)
+                        registry.clear();
+                    else
+                        registry.invalidate(supervisor.toOriginal(changed));
                     break;
 
                 case MessageType.SUBSCRIBED_DATA:
+                    metrics.getOperation(MessageType.SUBSCRIBED_DATA).onCall();
                     try {
                         msg.getData().setClassLoader(DataType[].class.getClassLoader());
                         Parcelable[] parcelables = msg.getData().getParcelableArray(DataType.class.getSimpleName());
                         assert parcelables != null;
                         int ds_id = msg.getData().getInt(Constants.RC_DSID, -1);
 
-                        if (sessionId != -1 && ds_id != -1 && ds_idOnReceiveListenerHashMap.containsKey(ds_id)) {
-                            for (Parcelable parcelable : parcelables)
-                                ds_idOnReceiveListenerHashMap.get(ds_id).onReceived((DataType) parcelable);
-                        }
-                    } catch (Exception ignored) {}
+                        if (sessionId != -1 && ds_id != -1)
+                            subscriptionDispatcher.dispatch(supervisor.toOriginal(ds_id), parcelables);
+                    } catch (Exception e) {
+                        metrics.getOperation(MessageType.SUBSCRIBED_DATA).onError();
+                        Log.e(TAG, "Could not read subscribed data", e);
+                    }
                     break;
             }
         }
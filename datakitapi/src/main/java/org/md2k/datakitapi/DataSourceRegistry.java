@@ -0,0 +1,286 @@
+/*
+ * Copyright (c) 2018, The University of Memphis, MD2K Center of Excellence
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.md2k.datakitapi;
+
+import android.os.SystemClock;
+
+import org.md2k.datakitapi.messagehandler.AsyncPendingResult;
+import org.md2k.datakitapi.messagehandler.MessageType;
+import org.md2k.datakitapi.messagehandler.ResultCallback;
+import org.md2k.datakitapi.source.SourceIdentity;
+import org.md2k.datakitapi.source.datasource.DataSource;
+import org.md2k.datakitapi.source.datasource.DataSourceClient;
+import org.md2k.datakitapi.status.Status;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-process cache of the results of <code>register</code> and <code>find</code>.
+ *
+ * <p>
+ *     Both are keyed by the <code>SourceIdentity</code> of the data source: the type and id of the
+ *     data source and of its platform, platform app and application. Metadata is not part of it.
+ * </p>
+ * <p>
+ *     A registration is kept until the data source is unregistered, <code>DataKit</code> reports a
+ *     change, or the caller disconnects. Concurrent registrations of the same data source share one
+ *     request. A registration whose metadata, data descriptors or persistence differ from the cached
+ *     one is sent to <code>DataKit</code> again and replaces it. Find results are kept for at most
+ *     <code>FIND_TTL</code>, and are dropped whenever a data source is registered or unregistered by
+ *     this process, <code>DataKit</code> reports a change, or the session changes.
+ * </p>
+ */
+class DataSourceRegistry {
+
+    /** Time in milliseconds a find result is kept. <p>Default is 5 seconds.</p> */
+    static final long FIND_TTL = 5000;
+
+    /** Registrations, completed or in flight, keyed by data source identity. */
+    private final ConcurrentMap<SourceIdentity, Registered> registered = new ConcurrentHashMap<>();
+
+    /** Find results keyed by the identity of the data source searched for. */
+    private final ConcurrentMap<SourceIdentity, Found> found = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the registration of a data source, or starts one.
+     *
+     * <p>
+     *     A registration that fails, or that <code>DataKit</code> rejects, is not kept. The cached
+     *     registration is returned only if the rest of the data source is unchanged.
+     * </p>
+     *
+     * @param dataSource The prepared data source.
+     * @param waitTime Maximum time in milliseconds <code>await()</code> waits for the registration.
+     * @param registration Starts the registration if there is none.
+     * @return The pending or completed registration.
+     */
+    AsyncPendingResult<DataSourceClient> register(DataSource dataSource, long waitTime, Registration registration) {
+        final SourceIdentity key = dataSource.getIdentity();
+        final Registered shared = new Registered(new PendingRequest<DataSourceClient>(0, MessageType.REGISTER, waitTime),
+                contentOf(dataSource));
+        Registered cached = registered.get(key);
+        while (true) {
+            if (cached == null) {
+                cached = registered.putIfAbsent(key, shared);
+                if (cached == null)
+                    break;
+            } else if (cached.content.equals(shared.content))
+                return cached.request;
+            else if (registered.replace(key, cached, shared))
+                break;
+            else
+                cached = registered.get(key);
+        }
+        found.clear();
+        try {
+            registration.start().setResultCallback(new ResultCallback<DataSourceClient>() {
+                @Override
+                public void onResult(DataSourceClient dataSourceClient) {
+                    if (!isRegistered(dataSourceClient))
+                        registered.remove(key, shared);
+                    shared.request.complete(dataSourceClient);
+                }
+            });
+        } catch (RuntimeException e) {
+            registered.remove(key, shared);
+            shared.request.complete(null);
+            throw e;
+        }
+        return shared.request;
+    }
+
+    /**
+     * Returns a cached find result that has not expired.
+     *
+     * @param dataSource The data source searched for.
+     * @return A copy of the result, or null if there is none.
+     */
+    ArrayList<DataSourceClient> find(DataSource dataSource) {
+        Found entry = found.get(dataSource.getIdentity());
+        if (entry == null)
+            return null;
+        if (SystemClock.uptimeMillis() >= entry.expiresAt) {
+            found.remove(dataSource.getIdentity(), entry);
+            return null;
+        }
+        return new ArrayList<>(entry.dataSourceClients);
+    }
+
+    /**
+     * Caches a find result.
+     *
+     * @param dataSource The data source searched for.
+     * @param dataSourceClients The result, not cached if null.
+     */
+    void found(DataSource dataSource, ArrayList<DataSourceClient> dataSourceClients) {
+        if (dataSourceClients != null)
+            found.put(dataSource.getIdentity(), new Found(new ArrayList<>(dataSourceClients),
+                    SystemClock.uptimeMillis() + FIND_TTL));
+    }
+
+    /**
+     * Drops a data source, after it was unregistered or <code>DataKit</code> reported it changed.
+     *
+     * @param ds_id Data source identifier.
+     */
+    void invalidate(int ds_id) {
+        found.clear();
+        Iterator<Map.Entry<SourceIdentity, Registered>> iterator = registered.entrySet().iterator();
+        while (iterator.hasNext()) {
+            PendingRequest<DataSourceClient> pendingRequest = iterator.next().getValue().request;
+            if (!pendingRequest.isDone())
+                continue;
+            DataSourceClient dataSourceClient = pendingRequest.await(0, TimeUnit.MILLISECONDS);
+            if (dataSourceClient == null || dataSourceClient.getDs_id() == ds_id)
+                iterator.remove();
+        }
+    }
+
+    /**
+     * @param dataSourceClient Reply to a registration, may be null.
+     * @return Whether <code>DataKit</code> accepted the registration.
+     */
+    private static boolean isRegistered(DataSourceClient dataSourceClient) {
+        if (dataSourceClient == null)
+            return false;
+        Status status = dataSourceClient.getStatus();
+        return status == null || status.getStatusCode() == Status.SUCCESS
+                || status.getStatusCode() == Status.DATASOURCE_EXIST;
+    }
+
+    /**
+     * Copies the parts of a data source that are not in its identity, for comparison with a later
+     * registration.
+     *
+     * @param dataSource The prepared data source.
+     * @return The metadata of the data source and its platform, platform app and application, its
+     * data descriptors and whether it is persistent.
+     */
+    private static ArrayList<Object> contentOf(DataSource dataSource) {
+        ArrayList<Object> content = new ArrayList<>();
+        content.add(copy(dataSource.getMetadata()));
+        content.add(dataSource.getPlatform() == null ? null : copy(dataSource.getPlatform().getMetadata()));
+        content.add(dataSource.getPlatformApp() == null ? null : copy(dataSource.getPlatformApp().getMetadata()));
+        content.add(dataSource.getApplication() == null ? null : copy(dataSource.getApplication().getMetadata()));
+        content.add(dataSource.isPersistent());
+        ArrayList<HashMap<String, String>> dataDescriptors = null;
+        if (dataSource.getDataDescriptors() != null) {
+            dataDescriptors = new ArrayList<>();
+            for (HashMap<String, String> dataDescriptor : dataSource.getDataDescriptors())
+                dataDescriptors.add(copy(dataDescriptor));
+        }
+        content.add(dataDescriptors);
+        return content;
+    }
+
+    /**
+     * @param map Map to copy, may be null.
+     * @return A copy of the map, or null.
+     */
+    private static HashMap<String, String> copy(HashMap<String, String> map) {
+        return map == null ? null : new HashMap<>(map);
+    }
+
+    /**
+     * Drops the find results, after the session changed.
+     */
+    void invalidateFound() {
+        found.clear();
+    }
+
+    /**
+     * Drops everything.
+     */
+    void clear() {
+        registered.clear();
+        found.clear();
+    }
+
+    /**
+     * Starts a registration with <code>DataKit</code>.
+     */
+    interface Registration {
+
+        /**
+         * @return The pending registration.
+         */
+        AsyncPendingResult<DataSourceClient> start();
+    }
+
+    /**
+     * A registration with the data source it was sent for.
+     */
+    private static class Registered {
+
+        /** The pending or completed registration. */
+        final PendingRequest<DataSourceClient> request;
+
+        /** Copy of the parts of the data source that are not in its identity. */
+        final ArrayList<Object> content;
+
+        /**
+         * Constructor
+         *
+         * @param request The pending registration.
+         * @param content Copy of the parts of the data source that are not in its identity.
+         */
+        Registered(PendingRequest<DataSourceClient> request, ArrayList<Object> content) {
+            this.request = request;
+            this.content = content;
+        }
+    }
+
+    /**
+     * A find result with its expiry.
+     */
+    private static class Found {
+
+        /** The data sources found. */
+        final ArrayList<DataSourceClient> dataSourceClients;
+
+        /** <code>SystemClock.uptimeMillis()</code> after which the result is stale. */
+        final long expiresAt;
+
+        /**
+         * Constructor
+         *
+         * @param dataSourceClients The data sources found.
+         * @param expiresAt <code>SystemClock.uptimeMillis()</code> after which the result is stale.
+         */
+        Found(ArrayList<DataSourceClient> dataSourceClients, long expiresAt) {
+            this.dataSourceClients = dataSourceClients;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
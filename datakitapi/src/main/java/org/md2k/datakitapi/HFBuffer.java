@@ -0,0 +1,283 @@
+/*
+ * Copyright (c) 2018, The University of Memphis, MD2K Center of Excellence
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.md2k.datakitapi;
+
+import android.os.Bundle;
+import android.os.SystemClock;
+
+import org.md2k.datakitapi.datatype.DataTypeDoubleArray;
+import org.md2k.datakitapi.metrics.BufferMetrics;
+
+import java.util.Arrays;
+
+/**
+ * Preallocated buffer of high-frequency samples for one data source.
+ *
+ * <p>
+ *     Timestamps and values are copied into primitive arrays that are allocated once, so appending a
+ *     sample allocates nothing. A batch holds samples of one width and one time zone offset; a sample
+ *     that does not fit the current batch has to wait until the batch is drained. Callers serialize
+ *     access by locking the buffer, which is uncontended as long as each data source has one producer.
+ * </p>
+ * <p>
+ *     The <code>HFFlushPolicy</code> of the buffer sets its size and when it is due. An adaptive
+ *     policy resizes the arrays between batches, when they are empty, to fit one
+ *     <code>maxLatency</code> worth of samples at the estimated sample rate.
+ * </p>
+ */
+class HFBuffer {
+
+    /** Weight of the newest batch in the estimated sample rate. */
+    private static final double RATE_WEIGHT = 0.25;
+
+    /** Smallest number of samples an adaptive buffer is sized for. */
+    private static final int MIN_SAMPLES = 8;
+
+    /** Data source identifier. */
+    final int ds_id;
+
+    /** Depth and flushes of the buffer. */
+    final BufferMetrics metrics;
+
+    /**
+     * Held from draining a batch until it is sent, so that batches are sent in order. It is taken
+     * before the lock of the buffer, never while holding it.
+     */
+    final Object sendLock = new Object();
+
+    /** Policy deciding the size of the buffer and when it is sent. */
+    private HFFlushPolicy policy;
+
+    /** Whether the policy was set for this data source rather than taken from the default. */
+    private boolean ownPolicy;
+
+    /** Sample rate in samples per second, estimated from the sent batches or declared, 0 if unknown. */
+    private double rate;
+
+    /** <code>SystemClock.uptimeMillis()</code> by which the buffer has to be sent, if not empty. */
+    private long deadline;
+
+    /** Timestamps of the buffered samples. */
+    private long[] timestamps;
+
+    /** Values of the buffered samples, <code>width</code> values per sample. */
+    private double[] values;
+
+    /** Number of buffered samples. */
+    private int count;
+
+    /** Number of values per sample in the current batch. */
+    private int width;
+
+    /** Time zone offset shared by every sample in the current batch. */
+    private long offset;
+
+    /**
+     * Constructor
+     *
+     * @param ds_id Data source identifier.
+     * @param policy Policy deciding the size of the buffer and when it is sent.
+     * @param metrics Depth and flushes of the buffer.
+     */
+    HFBuffer(int ds_id, HFFlushPolicy policy, BufferMetrics metrics) {
+        this.ds_id = ds_id;
+        this.policy = policy;
+        this.metrics = metrics;
+        this.timestamps = new long[0];
+        this.values = new double[0];
+        resize();
+    }
+
+    /**
+     * Sets the policy of the buffer. The new size takes effect once the buffer is empty.
+     *
+     * @param policy Policy deciding the size of the buffer and when it is sent.
+     * @param own Whether the policy was set for this data source rather than taken from the default.
+     * @param declaredRate Sample rate from <code>METADATA.FREQUENCY</code>, 0 if unknown.
+     */
+    void setPolicy(HFFlushPolicy policy, boolean own, double declaredRate) {
+        this.policy = policy;
+        this.ownPolicy = own;
+        if (declaredRate > 0)
+            rate = declaredRate;
+        if (count == 0)
+            resize();
+        else
+            deadline = Math.min(deadline, SystemClock.uptimeMillis() + policy.getMaxLatency());
+    }
+
+    /**
+     * @return Whether the policy was set for this data source rather than taken from the default.
+     */
+    boolean hasOwnPolicy() {
+        return ownPolicy;
+    }
+
+    /**
+     * @return <code>SystemClock.uptimeMillis()</code> by which the buffer has to be sent, or
+     * <code>Long.MAX_VALUE</code> if it is empty.
+     */
+    long getDeadline() {
+        return count == 0 ? Long.MAX_VALUE : deadline;
+    }
+
+    /**
+     * @return Whether the buffer has reached its byte or sample limit.
+     */
+    boolean isFull() {
+        return count >= policy.getMaxSamples() || byteSize() >= policy.getMaxBytes();
+    }
+
+    /**
+     * @return Whether the buffer is empty.
+     */
+    boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * @return Number of buffered samples.
+     */
+    int size() {
+        return count;
+    }
+
+    /**
+     * @return Size of the buffered values in bytes.
+     */
+    int byteSize() {
+        return count * width * 8;
+    }
+
+    /**
+     * Checks whether a sample can be appended to the current batch.
+     *
+     * @param timestamp Timestamp of the sample.
+     * @param sampleWidth Number of values in the sample.
+     * @param sampleOffset Time zone offset of the sample.
+     * @return Whether the sample fits without draining the buffer first.
+     */
+    boolean fits(long timestamp, int sampleWidth, long sampleOffset) {
+        if (count == 0)
+            return true;
+        return sampleWidth == width && sampleOffset == offset
+                && count < timestamps.length && (count + 1) * width <= values.length
+                && HFFrame.canFollow(timestamps[count - 1], timestamp);
+    }
+
+    /**
+     * Appends a sample. The caller must have checked <code>fits()</code>, or drained the buffer.
+     *
+     * @param timestamp Timestamp of the sample.
+     * @param sampleOffset Time zone offset of the sample.
+     * @param sample Values of the sample.
+     */
+    void append(long timestamp, long sampleOffset, double[] sample) {
+        if (count == 0) {
+            deadline = SystemClock.uptimeMillis() + policy.getMaxLatency();
+            if (sample.length != width) {
+                width = sample.length;
+                if (policy.isAdaptive())
+                    resize();
+            }
+            offset = sampleOffset;
+            if (width > values.length)
+                values = new double[width];
+        }
+        System.arraycopy(sample, 0, values, count * width, width);
+        timestamps[count++] = timestamp;
+    }
+
+    /**
+     * Removes every buffered sample and returns them as <code>DataTypeDoubleArray</code> objects.
+     *
+     * @return The buffered samples in the order they were appended.
+     */
+    DataTypeDoubleArray[] drain() {
+        DataTypeDoubleArray[] dataTypeDoubleArrays = new DataTypeDoubleArray[count];
+        for (int i = 0; i < count; i++) {
+            dataTypeDoubleArrays[i] = new DataTypeDoubleArray(timestamps[i], offset,
+                    Arrays.copyOfRange(values, i * width, (i + 1) * width));
+        }
+        drained();
+        return dataTypeDoubleArrays;
+    }
+
+    /**
+     * Removes every buffered sample and writes them into the given bundle as one packed frame.
+     *
+     * @param bundle Bundle to write the frame to.
+     */
+    void drainTo(Bundle bundle) {
+        HFFrame.write(bundle, ds_id, timestamps, offset, width, values, count);
+        drained();
+    }
+
+    /**
+     * Empties the buffer, updating the estimated sample rate from the batch that was just taken out
+     * and resizing the buffer for it.
+     */
+    private void drained() {
+        if (count > 1 && timestamps[count - 1] > timestamps[0]) {
+            double batchRate = (count - 1) * 1000.0 / (timestamps[count - 1] - timestamps[0]);
+            rate = rate == 0 ? batchRate : rate + RATE_WEIGHT * (batchRate - rate);
+        }
+        count = 0;
+        resize();
+    }
+
+    /**
+     * Sizes the empty buffer for its policy.
+     *
+     * <p>
+     *     A fixed policy holds <code>maxBytes</code> worth of values. An adaptive policy holds one
+     *     <code>maxLatency</code> worth of samples at the estimated rate, within the byte and sample
+     *     limits, and is only reallocated once that is off by more than a factor of two.
+     * </p>
+     */
+    private void resize() {
+        int sampleWidth = Math.max(width, 1);
+        int maxValues = Math.max(policy.getMaxBytes() / 8, sampleWidth);
+        if (!policy.isAdaptive()) {
+            int samples = Math.min(policy.getMaxSamples(), maxValues);
+            if (timestamps.length != samples || values.length != maxValues) {
+                timestamps = new long[samples];
+                values = new double[maxValues];
+            }
+            return;
+        }
+        int samples = Math.min(policy.getMaxSamples(), maxValues / sampleWidth);
+        if (rate > 0)
+            samples = (int) Math.min(samples, Math.max(Math.ceil(rate * policy.getMaxLatency() / 1000.0), MIN_SAMPLES));
+        if (timestamps.length >= samples && timestamps.length <= 2 * samples
+                && values.length >= samples * sampleWidth)
+            return;
+        timestamps = new long[samples];
+        values = new double[samples * sampleWidth];
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2018, The University of Memphis, MD2K Center of Excellence
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.md2k.datakitapi;
+
+/**
+ * Decides when the buffered high-frequency samples of a data source are sent to <code>DataKit</code>.
+ *
+ * <p>
+ *     A buffer is sent as soon as any one of these limits is reached:
+ *     <ul>
+ *         <li><code>maxLatency</code> -- milliseconds since the oldest buffered sample was added</li>
+ *         <li><code>maxBytes</code> -- size of the buffered values in bytes</li>
+ *         <li><code>maxSamples</code> -- number of buffered samples</li>
+ *     </ul>
+ *     Nothing is scheduled while a buffer is empty, so a data source that rarely produces samples
+ *     costs nothing in between.
+ * </p>
+ * <p>
+ *     An adaptive policy sizes each buffer for the sample rate of its data source, so that one
+ *     <code>maxLatency</code> worth of samples fits. The rate is taken from the
+ *     <code>METADATA.FREQUENCY</code> of the data source at first, and from the timestamps of the
+ *     samples once some have been sent. A fast data source is then sent in fewer, larger batches and
+ *     a slow one keeps only a small buffer.
+ * </p>
+ */
+public class HFFlushPolicy {
+
+    /** Policy of data sources without one of their own: 1 second, 8 KB, no sample limit, not adaptive. */
+    public static final HFFlushPolicy DEFAULT = new HFFlushPolicy(1000, 1 << 13, Integer.MAX_VALUE, false);
+
+    /** Maximum time in milliseconds a sample waits in the buffer. */
+    private final long maxLatency;
+
+    /** Maximum size of the buffered values in bytes. */
+    private final int maxBytes;
+
+    /** Maximum number of buffered samples. */
+    private final int maxSamples;
+
+    /** Whether buffers are sized for the sample rate. */
+    private final boolean adaptive;
+
+    /**
+     * Constructor
+     *
+     * @param maxLatency Maximum time in milliseconds a sample waits in the buffer. Must be positive.
+     * @param maxBytes Maximum size of the buffered values in bytes. Must be at least 8.
+     * @param maxSamples Maximum number of buffered samples. Must be positive.
+     * @param adaptive Whether buffers are sized for the sample rate.
+     */
+    public HFFlushPolicy(long maxLatency, int maxBytes, int maxSamples, boolean adaptive) {
+        this.maxLatency = maxLatency;
+        this.maxBytes = maxBytes;
+        this.maxSamples = maxSamples;
+        this.adaptive = adaptive;
+    }
+
+    /**
+     * @return Maximum time in milliseconds a sample waits in the buffer.
+     */
+    public long getMaxLatency() {
+        return maxLatency;
+    }
+
+    /**
+     * @return Maximum size of the buffered values in bytes.
+     */
+    public int getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return Maximum number of buffered samples.
+     */
+    public int getMaxSamples() {
+        return maxSamples;
+    }
+
+    /**
+     * @return Whether buffers are sized for the sample rate.
+     */
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    /**
+     * @return Whether every limit is within its allowed range.
+     */
+    boolean isValid() {
+        return maxLatency > 0 && maxBytes >= 8 && maxSamples > 0;
+    }
+
+    /**
+     * Reads a sample rate such as <code>"25"</code>, <code>"25.0 Hz"</code> or <code>"0.5Hz"</code>.
+     *
+     * @param frequency Value of <code>METADATA.FREQUENCY</code>, may be null.
+     * @return The rate in samples per second, or 0 if it cannot be read.
+     */
+    static double parseFrequency(String frequency) {
+        if (frequency == null)
+            return 0;
+        String value = frequency.trim();
+        int end = 0;
+        while (end < value.length() && (Character.isDigit(value.charAt(end)) || value.charAt(end) == '.'))
+            end++;
+        if (end == 0)
+            return 0;
+        try {
+            double rate = Double.parseDouble(value.substring(0, end));
+            return rate > 0 && !Double.isInfinite(rate) ? rate : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
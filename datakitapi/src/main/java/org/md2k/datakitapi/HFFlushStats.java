@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2018, The University of Memphis, MD2K Center of Excellence
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.md2k.datakitapi;
+
+/**
+ * Snapshot of the counters of the high-frequency flusher.
+ *
+ * <p>
+ *     Every batch sent from a high-frequency buffer counts as one flush, whether it was due to the
+ *     latency limit, a full buffer or <code>disconnect()</code>. Times are in nanoseconds.
+ * </p>
+ */
+public class HFFlushStats {
+
+    /** Number of batches sent. */
+    private final long flushes;
+
+    /** Number of samples sent. */
+    private final long samples;
+
+    /** Size of the values sent in bytes. */
+    private final long bytes;
+
+    /** Total time spent sending batches. */
+    private final long flushNanos;
+
+    /** Longest time spent sending one batch. */
+    private final long maxFlushNanos;
+
+    /** Longest time a deadline flush ran after its deadline. */
+    private final long maxLatenessNanos;
+
+    /** Whether the flusher thread is running. */
+    private final boolean running;
+
+    /**
+     * Constructor
+     *
+     * @param flushes Number of batches sent.
+     * @param samples Number of samples sent.
+     * @param bytes Size of the values sent in bytes.
+     * @param flushNanos Total time spent sending batches.
+     * @param maxFlushNanos Longest time spent sending one batch.
+     * @param maxLatenessNanos Longest time a deadline flush ran after its deadline.
+     * @param running Whether the flusher thread is running.
+     */
+    HFFlushStats(long flushes, long samples, long bytes, long flushNanos, long maxFlushNanos,
+                 long maxLatenessNanos, boolean running) {
+        this.flushes = flushes;
+        this.samples = samples;
+        this.bytes = bytes;
+        this.flushNanos = flushNanos;
+        this.maxFlushNanos = maxFlushNanos;
+        this.maxLatenessNanos = maxLatenessNanos;
+        this.running = running;
+    }
+
+    /**
+     * @return Number of batches sent.
+     */
+    public long getFlushes() {
+        return flushes;
+    }
+
+    /**
+     * @return Number of samples sent.
+     */
+    public long getSamples() {
+        return samples;
+    }
+
+    /**
+     * @return Size of the values sent in bytes.
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return Total time spent sending batches in nanoseconds.
+     */
+    public long getFlushNanos() {
+        return flushNanos;
+    }
+
+    /**
+     * @return Longest time spent sending one batch in nanoseconds.
+     */
+    public long getMaxFlushNanos() {
+        return maxFlushNanos;
+    }
+
+    /**
+     * @return Longest time in nanoseconds a deadline flush ran after its deadline.
+     */
+    public long getMaxLatenessNanos() {
+        return maxLatenessNanos;
+    }
+
+    /**
+     * @return Whether the flusher thread is running.
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public String toString() {
+        return "HFFlushStats{flushes=" + flushes + ", samples=" + samples + ", bytes=" + bytes
+                + ", flushNanos=" + flushNanos + ", maxFlushNanos=" + maxFlushNanos
+                + ", maxLatenessNanos=" + maxLatenessNanos + ", running=" + running + "}";
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2018, The University of Memphis, MD2K Center of Excellence
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.md2k.datakitapi;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+
+/**
+ * Runs the deadline flushes of the high-frequency buffers on a thread of their own.
+ *
+ * <p>
+ *     The <code>"datakit-hf-flusher"</code> thread is started with the first scheduled flush, runs at
+ *     background priority so that sending batches never competes with rendering, and is stopped by
+ *     <code>quit()</code> once <code>DataKit</code> is disconnected; a later flush starts a new one.
+ *     Only one flush is posted at a time, for the earliest deadline of all buffers.
+ * </p>
+ * <p>
+ *     The flusher also keeps the counters reported by <code>HFFlushStats</code> for every batch sent,
+ *     including the ones sent on the producer's thread because a buffer was full.
+ * </p>
+ */
+class HFFlusher {
+
+    /** Buffers whose flushes are run. */
+    private final DataKitAPI dataKitAPI;
+
+    /** Serializes starting, stopping and scheduling. */
+    private final Object lock = new Object();
+
+    /** Flusher thread, or null while stopped. Guarded by <code>lock</code>. */
+    private HandlerThread thread;
+
+    /** Handler of the flusher thread, or null while stopped. Guarded by <code>lock</code>. */
+    private Handler handler;
+
+    /** <code>SystemClock.uptimeMillis()</code> the flush is posted for, or <code>Long.MAX_VALUE</code>
+     * if none is. Guarded by <code>lock</code>. */
+    private long nextFlushAt = Long.MAX_VALUE;
+
+    /** Counters, guarded by <code>this</code>. */
+    private long flushes, samples, bytes, flushNanos, maxFlushNanos, maxLatenessNanos;
+
+    /** Flushes the buffers that are due and posts the next flush. */
+    private final Runnable flush = new Runnable() {
+        @Override
+        public void run() {
+            long deadline;
+            synchronized (lock) {
+                deadline = nextFlushAt;
+                nextFlushAt = Long.MAX_VALUE;
+            }
+            long now = SystemClock.uptimeMillis();
+            if (deadline != Long.MAX_VALUE && now > deadline)
+                recordLateness((now - deadline) * 1000000L);
+            long next = dataKitAPI.flushDue(now);
+            if (next != Long.MAX_VALUE)
+                schedule(next);
+        }
+    };
+
+    /**
+     * Constructor
+     *
+     * @param dataKitAPI Buffers whose flushes are run.
+     */
+    HFFlusher(DataKitAPI dataKitAPI) {
+        this.dataKitAPI = dataKitAPI;
+    }
+
+    /**
+     * Makes sure the due buffers are flushed no later than the given time, starting the flusher
+     * thread if needed.
+     *
+     * @param deadline <code>SystemClock.uptimeMillis()</code> by which a buffer has to be sent.
+     */
+    void schedule(long deadline) {
+        synchronized (lock) {
+            if (deadline >= nextFlushAt)
+                return;
+            if (handler == null) {
+                thread = new HandlerThread("datakit-hf-flusher", Process.THREAD_PRIORITY_BACKGROUND);
+                thread.start();
+                handler = new Handler(thread.getLooper());
+            }
+            nextFlushAt = deadline;
+            handler.removeCallbacks(flush);
+            handler.postAtTime(flush, deadline);
+        }
+    }
+
+    /**
+     * Stops the flusher thread. Flushes that were posted are dropped; the caller sends what is left
+     * in the buffers itself.
+     */
+    void quit() {
+        synchronized (lock) {
+            if (handler == null)
+                return;
+            handler.removeCallbacks(flush);
+            thread.quitSafely();
+            thread = null;
+            handler = null;
+            nextFlushAt = Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Counts a batch that was sent.
+     *
+     * @param batchSamples Number of samples in the batch.
+     * @param batchBytes Size of the values in the batch in bytes.
+     * @param nanos Time spent sending the batch.
+     */
+    synchronized void record(int batchSamples, int batchBytes, long nanos) {
+        flushes++;
+        samples += batchSamples;
+        bytes += batchBytes;
+        flushNanos += nanos;
+        maxFlushNanos = Math.max(maxFlushNanos, nanos);
+    }
+
+    /**
+     * Counts how late a deadline flush ran.
+     *
+     * @param nanos Time since the deadline.
+     */
+    private synchronized void recordLateness(long nanos) {
+        maxLatenessNanos = Math.max(maxLatenessNanos, nanos);
+    }
+
+    /**
+     * @return A snapshot of the counters.
+     */
+    HFFlushStats getStats() {
+        boolean running;
+        synchronized (lock) {
+            running = thread != null;
+        }
+        synchronized (this) {
+            return new HFFlushStats(flushes, samples, bytes, flushNanos, maxFlushNanos, maxLatenessNanos, running);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2018, The University of Memphis, MD2K Center of Excellence
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.md2k.datakitapi;
+
+import android.os.Bundle;
+
+import org.md2k.datakitapi.datatype.DataTypeDoubleArray;
+import org.md2k.datakitapi.datatype.DoubleBlock;
+
+/**
+ * Packed columnar frame carrying a batch of high-frequency samples.
+ *
+ * <p>
+ *     A frame is sent with <code>MessageType.INSERT_HIGH_FREQUENCY_PACKED</code> and holds:
+ *     <ul>
+ *         <li><code>RC_DSID</code> -- data source identifier</li>
+ *         <li><code>RC_TIMESTAMP</code> -- timestamp of the first sample</li>
+ *         <li><code>RC_TIMESTAMP_DELTAS</code> -- <code>int[]</code> of differences to the previous
+ *         timestamp, the first entry is 0</li>
+ *         <li><code>RC_OFFSET</code> -- time zone offset shared by every sample</li>
+ *         <li><code>RC_WIDTH</code> -- number of values per sample</li>
+ *         <li><code>RC_SAMPLES</code> -- <code>double[]</code> of all values, sample after sample</li>
+ *     </ul>
+ *     The parcel holds three primitive arrays regardless of the number of samples, so its size and
+ *     unmarshalling cost scale with the sample count rather than the object count.
+ * </p>
+ */
+public class HFFrame {
+
+    /**
+     * Constructor
+     */
+    private HFFrame() {}
+
+    /**
+     * Writes a frame into the given bundle.
+     *
+     * @param bundle Bundle to write to.
+     * @param ds_id Data source identifier.
+     * @param timestamps Timestamps of the samples.
+     * @param offset Time zone offset shared by every sample.
+     * @param width Number of values per sample.
+     * @param samples Values of the samples, <code>width</code> per sample.
+     * @param count Number of samples.
+     */
+    static void write(Bundle bundle, int ds_id, long[] timestamps, long offset, int width,
+                      double[] samples, int count) {
+        int[] deltas = new int[count];
+        for (int i = 1; i < count; i++)
+            deltas[i] = (int) (timestamps[i] - timestamps[i - 1]);
+        double[] packed = new double[count * width];
+        System.arraycopy(samples, 0, packed, 0, packed.length);
+
+        bundle.putInt(Constants.RC_DSID, ds_id);
+        bundle.putLong(Constants.RC_TIMESTAMP, count == 0 ? 0 : timestamps[0]);
+        bundle.putIntArray(Constants.RC_TIMESTAMP_DELTAS, deltas);
+        bundle.putLong(Constants.RC_OFFSET, offset);
+        bundle.putInt(Constants.RC_WIDTH, width);
+        bundle.putDoubleArray(Constants.RC_SAMPLES, packed);
+    }
+
+    /**
+     * Checks whether the difference between two timestamps can be stored in a frame.
+     *
+     * @param previous The earlier timestamp.
+     * @param next The later timestamp.
+     * @return Whether the difference fits in an <code>int</code>.
+     */
+    static boolean canFollow(long previous, long next) {
+        long delta = next - previous;
+        return delta >= Integer.MIN_VALUE && delta <= Integer.MAX_VALUE;
+    }
+
+    /**
+     * Unpacks a frame into <code>DataTypeDoubleArray</code> objects.
+     *
+     * @param bundle Bundle holding the frame.
+     * @return The samples of the frame, or null if the bundle does not hold a frame.
+     */
+    public static DataTypeDoubleArray[] read(Bundle bundle) {
+        int[] deltas = bundle.getIntArray(Constants.RC_TIMESTAMP_DELTAS);
+        double[] samples = bundle.getDoubleArray(Constants.RC_SAMPLES);
+        int width = bundle.getInt(Constants.RC_WIDTH, -1);
+        if (deltas == null || samples == null || width < 0 || samples.length != deltas.length * width)
+            return null;
+        long offset = bundle.getLong(Constants.RC_OFFSET);
+        long timestamp = bundle.getLong(Constants.RC_TIMESTAMP);
+
+        DataTypeDoubleArray[] dataTypeDoubleArrays = new DataTypeDoubleArray[deltas.length];
+        for (int i = 0; i < deltas.length; i++) {
+            timestamp += deltas[i];
+            double[] sample = new double[width];
+            System.arraycopy(samples, i * width, sample, 0, width);
+            dataTypeDoubleArrays[i] = new DataTypeDoubleArray(timestamp, offset, sample);
+        }
+        return dataTypeDoubleArrays;
+    }
+
+    /**
+     * Unpacks a frame into a <code>DoubleBlock</code> without creating an object per sample.
+     *
+     * @param bundle Bundle holding the frame.
+     * @return The samples of the frame, or null if the bundle does not hold a frame.
+     */
+    public static DoubleBlock readBlock(Bundle bundle) {
+        int[] deltas = bundle.getIntArray(Constants.RC_TIMESTAMP_DELTAS);
+        double[] samples = bundle.getDoubleArray(Constants.RC_SAMPLES);
+        int width = bundle.getInt(Constants.RC_WIDTH, -1);
+        if (deltas == null || samples == null || width < 0 || samples.length != deltas.length * width)
+            return null;
+        long timestamp = bundle.getLong(Constants.RC_TIMESTAMP);
+
+        long[] timestamps = new long[deltas.length];
+        for (int i = 0; i < deltas.length; i++) {
+            timestamp += deltas[i];
+            timestamps[i] = timestamp;
+        }
+        return new DoubleBlock(timestamps, bundle.getLong(Constants.RC_OFFSET), width, samples);
+    }
+}
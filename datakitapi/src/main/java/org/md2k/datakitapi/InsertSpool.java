@@ -0,0 +1,597 @@
+/*
+ * Copyright (c) 2018, The University of Memphis, MD2K Center of Excellence
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.md2k.datakitapi;
+
+import android.util.Log;
+
+import org.md2k.datakitapi.datatype.DataType;
+import org.md2k.datakitapi.datatype.DataTypeBinary;
+import org.md2k.datakitapi.datatype.DataTypeCodec;
+import org.md2k.datakitapi.datatype.DataTypeDoubleArray;
+import org.md2k.datakitapi.exception.DataKitException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Append-only local spool for samples that cannot be sent to <code>DataKit</code>.
+ *
+ * <p>
+ *     Each data source with a backlog has its own segment file, <code>ds_&lt;ds_id&gt;.spool</code>, of
+ *     a fixed size mapped into memory. Samples are appended as <code>DataTypeBinary</code> rows whose
+ *     row key holds the kind of insert, and a small header records where the unsent rows start and
+ *     end. Both positions are kept in one aligned <code>long</code>, so every header update is a single
+ *     store, and the header is only updated after the rows it covers are in place. A segment left
+ *     behind by a killed process is therefore replayed on the next connection, and a segment is
+ *     only compacted when its backlog fits in front of it, so the rows the header still points to are
+ *     never overwritten.
+ * </p>
+ *
+ * <p>
+ *     While a segment has a backlog every new sample of that data source is appended to it as well,
+ *     so samples reach <code>DataKit</code> in the order they were inserted. A backlog is replayed
+ *     on every connection, and as soon as it is created if <code>DataKit</code> is connected, such as
+ *     when a send fails because the insert window stayed full. A replay that fails while still
+ *     connected is retried after <code>RETRY_DELAY</code>. A segment whose backlog has been replayed
+ *     is deleted, and no more segments are created than fit in the total size given at construction.
+ *     Samples that do not fit in their segment, or that would need a segment beyond the total size,
+ *     are dropped and counted.
+ * </p>
+ */
+class InsertSpool {
+    private static final String TAG = InsertSpool.class.getSimpleName();
+
+    /** Row key of samples inserted with <code>insert()</code>. */
+    static final int KIND_INSERT = 0;
+
+    /** Row key of samples inserted with <code>insertHighFrequency()</code>. */
+    static final int KIND_HIGH_FREQUENCY = 1;
+
+    /** Default number of segments the total size allows for. */
+    static final int DEFAULT_SEGMENTS = 16;
+
+    /** Maximum number of samples sent per message while replaying. */
+    static final int REPLAY_BATCH = 256;
+
+    /** Time in milliseconds before a replay that failed while connected is tried again. */
+    static final long RETRY_DELAY = 1000;
+
+    /** Identifies a segment file. */
+    private static final int MAGIC = 0x444b5332;
+
+    /** Size of the segment header: magic, unused, and start and end in one <code>long</code>. */
+    static final int HEADER_SIZE = 16;
+
+    /** Directory holding the segment files. */
+    private final File directory;
+
+    /** Size of each segment file in bytes. */
+    private final int segmentSize;
+
+    /** Maximum total size of the segment files in bytes. */
+    private final long maxBytes;
+
+    /** Segments keyed by data source identifier. Created and removed with the map itself locked. */
+    private final ConcurrentMap<Integer, Segment> segments = new ConcurrentHashMap<>();
+
+    /** Runs the replays. */
+    private final ExecutorService replayExecutor;
+
+    /** Whether a replay is queued and has not started yet. */
+    private final AtomicBoolean replayQueued = new AtomicBoolean();
+
+    /** Number of samples dropped because a segment was full. */
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * Receives the samples of a replay.
+     */
+    interface Sender {
+
+        /**
+         * Sends samples inserted with <code>insert()</code>.
+         *
+         * @param ds_id Data source identifier.
+         * @param dataTypes The samples.
+         * @throws DataKitException Thrown when the samples could not be sent.
+         */
+        void insert(int ds_id, DataType[] dataTypes) throws DataKitException;
+
+        /**
+         * Sends samples inserted with <code>insertHighFrequency()</code>.
+         *
+         * @param ds_id Data source identifier.
+         * @param dataTypes The samples.
+         * @throws DataKitException Thrown when the samples could not be sent.
+         */
+        void insertHighFrequency(int ds_id, DataTypeDoubleArray[] dataTypes) throws DataKitException;
+
+        /**
+         * @return Whether <code>DataKit</code> is connected.
+         */
+        boolean isConnected();
+    }
+
+    /**
+     * Constructor
+     *
+     * <p>
+     *     Segments left in the directory by an earlier process are opened so that their backlog is
+     *     replayed, even if together they exceed <code>maxBytes</code>. Empty ones are deleted.
+     * </p>
+     *
+     * @param directory Directory holding the segment files.
+     * @param segmentSize Size of each segment file in bytes.
+     * @param maxBytes Maximum total size of the segment files in bytes, at least <code>segmentSize</code>.
+     * @throws IOException Thrown if the directory or an existing segment cannot be opened.
+     */
+    InsertSpool(File directory, int segmentSize, long maxBytes) throws IOException {
+        if (segmentSize <= HEADER_SIZE)
+            throw new IllegalArgumentException("segmentSize too small");
+        if (maxBytes < segmentSize)
+            throw new IllegalArgumentException("maxBytes smaller than segmentSize");
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Cannot create " + directory);
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxBytes = maxBytes;
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        executor.allowCoreThreadTimeOut(true);
+        replayExecutor = executor;
+
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (!name.startsWith("ds_") || !name.endsWith(".spool"))
+                    continue;
+                int ds_id;
+                try {
+                    ds_id = Integer.parseInt(name.substring(3, name.length() - 6));
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                Segment segment = new Segment(ds_id, file);
+                if (segment.isEmpty())
+                    segment.delete();
+                else
+                    segments.put(ds_id, segment);
+            }
+        }
+    }
+
+    /**
+     * Appends samples if they have to be spooled, which is when <code>DataKit</code> is not connected
+     * or earlier samples of the data source are still spooled.
+     *
+     * @param ds_id Data source identifier.
+     * @param kind <code>KIND_INSERT</code> or <code>KIND_HIGH_FREQUENCY</code>.
+     * @param dataTypes The samples.
+     * @param connected Whether <code>DataKit</code> is connected.
+     * @return Whether the samples were taken by the spool, stored or dropped, and must not be sent.
+     */
+    boolean offer(int ds_id, int kind, DataType[] dataTypes, boolean connected) {
+        while (true) {
+            Segment segment = connected ? segments.get(ds_id) : getSegment(ds_id);
+            if (segment == null) {
+                if (connected)
+                    return false;
+                drop(ds_id, dataTypes.length);
+                return true;
+            }
+            synchronized (segment) {
+                if (segment.deleted)
+                    continue;
+                if (connected && segment.isEmpty())
+                    return false;
+                segment.append(kind, dataTypes);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Appends samples that could not be sent.
+     *
+     * @param ds_id Data source identifier.
+     * @param kind <code>KIND_INSERT</code> or <code>KIND_HIGH_FREQUENCY</code>.
+     * @param dataTypes The samples.
+     */
+    void append(int ds_id, int kind, DataType[] dataTypes) {
+        while (true) {
+            Segment segment = getSegment(ds_id);
+            if (segment == null) {
+                drop(ds_id, dataTypes.length);
+                return;
+            }
+            synchronized (segment) {
+                if (segment.deleted)
+                    continue;
+                segment.append(kind, dataTypes);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Appends samples that could not be sent, and starts a replay if <code>DataKit</code> is still
+     * connected, since no reconnection will start one.
+     *
+     * @param ds_id Data source identifier.
+     * @param kind <code>KIND_INSERT</code> or <code>KIND_HIGH_FREQUENCY</code>.
+     * @param dataTypes The samples.
+     * @param sender Connection to replay the samples over.
+     */
+    void append(int ds_id, int kind, DataType[] dataTypes, Sender sender) {
+        append(ds_id, kind, dataTypes);
+        if (sender.isConnected())
+            replay(sender);
+    }
+
+    /**
+     * Sends the backlog of every segment to <code>DataKit</code> on the replay thread, in order.
+     * A replay that is already queued is not queued again. While the replay fails and
+     * <code>DataKit</code> is still connected, it is tried again every <code>RETRY_DELAY</code>.
+     *
+     * @param sender Connection to send the samples over.
+     */
+    void replay(final Sender sender) {
+        if (!replayQueued.compareAndSet(false, true))
+            return;
+        replayExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                replayQueued.set(false);
+                while (!replayAll(sender) && sender.isConnected()) {
+                    try {
+                        Thread.sleep(RETRY_DELAY);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Sends the backlog of every segment on the calling thread, deleting the segments it empties.
+     * Stops at the first failure; the rest stays spooled for the next replay.
+     *
+     * @param sender Connection to send the samples over.
+     * @return Whether every backlog was sent.
+     */
+    boolean replayAll(Sender sender) {
+        for (Segment segment : segments.values()) {
+            try {
+                segment.replay(sender);
+            } catch (DataKitException e) {
+                Log.w(TAG, "Replay of ds_id " + segment.ds_id + " stopped", e);
+                return false;
+            }
+            release(segment);
+        }
+        return true;
+    }
+
+    /**
+     * @return Number of bytes spooled and not yet sent, over all data sources.
+     */
+    long getBacklog() {
+        long backlog = 0;
+        for (Segment segment : segments.values()) {
+            synchronized (segment) {
+                backlog += segment.backlog();
+            }
+        }
+        return backlog;
+    }
+
+    /**
+     * @param ds_id Data source identifier.
+     * @return Number of bytes spooled and not yet sent for the data source.
+     */
+    long getBacklog(int ds_id) {
+        Segment segment = segments.get(ds_id);
+        if (segment == null)
+            return 0;
+        synchronized (segment) {
+            return segment.backlog();
+        }
+    }
+
+    /**
+     * @return Number of samples dropped because a segment was full or no segment could be created.
+     */
+    long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return Total size in bytes of the segment files.
+     */
+    long getSize() {
+        return (long) segments.size() * segmentSize;
+    }
+
+    /**
+     * Counts and logs dropped samples.
+     *
+     * @param ds_id Data source identifier.
+     * @param samples Number of samples dropped.
+     */
+    private void drop(int ds_id, int samples) {
+        dropped.addAndGet(samples);
+        Log.w(TAG, "Spool of ds_id " + ds_id + " full, dropped " + samples + " samples");
+    }
+
+    /**
+     * Returns the segment of a data source, creating its file on first use if the total size allows.
+     *
+     * @param ds_id Data source identifier.
+     * @return The segment, or null if there is no room for it or its file cannot be created.
+     */
+    private Segment getSegment(int ds_id) {
+        Segment segment = segments.get(ds_id);
+        if (segment != null)
+            return segment;
+        synchronized (segments) {
+            segment = segments.get(ds_id);
+            if (segment == null && (long) (segments.size() + 1) * segmentSize <= maxBytes) {
+                try {
+                    segment = new Segment(ds_id, new File(directory, "ds_" + ds_id + ".spool"));
+                    segments.put(ds_id, segment);
+                } catch (IOException e) {
+                    Log.e(TAG, "Cannot open spool of ds_id " + ds_id, e);
+                }
+            }
+            return segment;
+        }
+    }
+
+    /**
+     * Deletes a segment whose backlog has been sent, unless samples were appended meanwhile.
+     *
+     * @param segment The segment.
+     */
+    private void release(Segment segment) {
+        synchronized (segments) {
+            synchronized (segment) {
+                if (segment.deleted || !segment.isEmpty())
+                    return;
+                segments.remove(segment.ds_id, segment);
+                segment.delete();
+            }
+        }
+    }
+
+    /**
+     * Memory-mapped segment file of one data source. Guarded by itself.
+     */
+    private class Segment {
+
+        /** Data source identifier. */
+        final int ds_id;
+
+        /** The segment file. */
+        private final File file;
+
+        /** The mapped file. */
+        private final MappedByteBuffer buffer;
+
+        /** Position of the first unsent row. */
+        private int start;
+
+        /** Position after the last row. */
+        private int end;
+
+        /** Whether the file has been deleted. A deleted segment takes no more samples. */
+        boolean deleted;
+
+        /** Reused buffer for encoding rows. */
+        private final ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+
+        /** Encodes rows into <code>encoded</code>. */
+        private final DataTypeBinary binary = new DataTypeBinary(encoded);
+
+        /** Reused buffer for the payload of a row being read. */
+        private ByteBuffer payload = ByteBuffer.allocate(256);
+
+        /**
+         * Constructor
+         *
+         * @param ds_id Data source identifier.
+         * @param file The segment file, created if it does not exist.
+         * @throws IOException Thrown if the file cannot be mapped.
+         */
+        Segment(int ds_id, File file) throws IOException {
+            this.ds_id = ds_id;
+            this.file = file;
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+            try {
+                buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            } finally {
+                randomAccessFile.close();
+            }
+            long header = buffer.getLong(8);
+            start = (int) (header >>> 32);
+            end = (int) header;
+            if (buffer.getInt(0) != MAGIC || start < HEADER_SIZE || end < start || end > segmentSize) {
+                start = end = HEADER_SIZE;
+                buffer.putInt(0, MAGIC);
+                writeHeader();
+            }
+        }
+
+        /**
+         * @return Whether every spooled row has been sent.
+         */
+        boolean isEmpty() {
+            return start == end;
+        }
+
+        /**
+         * @return Number of bytes spooled and not yet sent.
+         */
+        int backlog() {
+            return end - start;
+        }
+
+        /**
+         * Appends samples, or drops them if they do not fit.
+         *
+         * @param kind <code>KIND_INSERT</code> or <code>KIND_HIGH_FREQUENCY</code>.
+         * @param dataTypes The samples.
+         */
+        void append(int kind, DataType[] dataTypes) {
+            encoded.reset();
+            try {
+                for (DataType dataType : dataTypes)
+                    binary.write(kind, dataType);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            int length = encoded.size();
+            if (end + length > segmentSize && backlog() <= start - HEADER_SIZE)
+                compact();
+            if (end + length > segmentSize) {
+                drop(ds_id, dataTypes.length);
+                return;
+            }
+            buffer.position(end);
+            buffer.put(encoded.toByteArray(), 0, length);
+            end += length;
+            writeHeader();
+        }
+
+        /**
+         * Sends the backlog in batches of rows of the same kind, advancing the header after each
+         * batch is sent. Returns once the segment is empty. The segment is only locked while reading,
+         * so appends may compact it meanwhile, which keeps the rows in order after <code>start</code>.
+         *
+         * @param sender Connection to send the samples over.
+         * @throws DataKitException Thrown when a batch could not be sent.
+         */
+        void replay(Sender sender) throws DataKitException {
+            ArrayList<DataType> batch = new ArrayList<>();
+            while (true) {
+                int kind;
+                int consumed;
+                synchronized (this) {
+                    if (isEmpty()) {
+                        start = end = HEADER_SIZE;
+                        writeHeader();
+                        return;
+                    }
+                    batch.clear();
+                    int position = start;
+                    kind = (int) buffer.getLong(position + 1);
+                    while (position < end && batch.size() < REPLAY_BATCH
+                            && buffer.getLong(position + 1) == kind)
+                        position = read(position, batch);
+                    consumed = position - start;
+                }
+                if (kind == KIND_HIGH_FREQUENCY)
+                    sender.insertHighFrequency(ds_id, batch.toArray(new DataTypeDoubleArray[batch.size()]));
+                else
+                    sender.insert(ds_id, batch.toArray(new DataType[batch.size()]));
+                synchronized (this) {
+                    start += consumed;
+                    writeHeader();
+                }
+            }
+        }
+
+        /**
+         * Decodes the row at the given position.
+         *
+         * @param position Position of the row.
+         * @param out List to add the sample to.
+         * @return Position of the next row.
+         */
+        private int read(int position, ArrayList<DataType> out) {
+            byte tag = buffer.get(position);
+            long dateTime = buffer.getLong(position + 9);
+            long offset = buffer.getLong(position + 17);
+            int length = buffer.getInt(position + 25);
+            if (payload.capacity() < length)
+                payload = ByteBuffer.allocate(Math.max(length, payload.capacity() * 2));
+            buffer.position(position + 29);
+            buffer.get(payload.array(), 0, length);
+            out.add(DataTypeCodec.forTag(tag).readBinary(dateTime, offset, payload, length));
+            return position + 29 + length;
+        }
+
+        /**
+         * Moves the unsent rows to the front of the segment. Only called when they fit in front of
+         * <code>start</code>, so the rows stay intact at their old position until the header points
+         * to the copy.
+         */
+        private void compact() {
+            byte[] rows = new byte[end - start];
+            buffer.position(start);
+            buffer.get(rows);
+            buffer.position(HEADER_SIZE);
+            buffer.put(rows);
+            start = HEADER_SIZE;
+            end = HEADER_SIZE + rows.length;
+            writeHeader();
+        }
+
+        /**
+         * Deletes the file. The mapping is released once the segment is collected.
+         */
+        void delete() {
+            deleted = true;
+            if (!file.delete())
+                Log.w(TAG, "Cannot delete " + file);
+        }
+
+        /**
+         * Writes <code>start</code> and <code>end</code> to the header in one store.
+         */
+        private void writeHeader() {
+            buffer.putLong(8, ((long) start << 32) | (end & 0xffffffffL));
+        }
+    }
+}
@@ -0,0 +1,354 @@
+/*
+ * Copyright (c) 2018, The University of Memphis, MD2K Center of Excellence
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.md2k.datakitapi;
+
+import android.os.Bundle;
+import android.os.RemoteException;
+import android.util.Log;
+
+import org.md2k.datakitapi.datatype.DataType;
+import org.md2k.datakitapi.exception.DataKitException;
+import org.md2k.datakitapi.messagehandler.MessageType;
+import org.md2k.datakitapi.status.Status;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Bounded window of inserts sent to <code>DataKit</code> and not yet acknowledged.
+ *
+ * <p>
+ *     While enabled, every insert carries a sequence number counted per data source, together with
+ *     <code>stream</code>, a random identifier of this process. <code>DataKit</code> replies with the
+ *     highest sequence number up to which it has stored every insert of the data source, as often as
+ *     it likes; one reply acknowledges every insert up to it. Inserts are not held back for the
+ *     replies, so the message rate stays that of unacknowledged inserts, until a data source has
+ *     <code>size</code> batches waiting for their acknowledgement. Further inserts of that data
+ *     source then wait for room, for at most <code>WAIT_TIME</code>.
+ * </p>
+ * <p>
+ *     When the connection is lost, the batches in the window are sent again, in order, once the
+ *     session has been resumed. <code>DataKit</code> drops the ones it had already stored by their
+ *     sequence number.
+ * </p>
+ */
+class InsertWindow {
+    private static final String TAG = InsertWindow.class.getSimpleName();
+
+    /** Maximum time in milliseconds an insert waits for room in the window. */
+    private static final long WAIT_TIME = 10000;
+
+    /** Random identifier of the sequence numbers of this process. */
+    final long stream = new Random().nextLong();
+
+    /** Windows keyed by data source identifier. */
+    private final ConcurrentMap<Integer, DataSourceWindow> windows = new ConcurrentHashMap<>();
+
+    /** Maximum number of unacknowledged batches per data source, 0 if inserts are not acknowledged. */
+    private volatile int size;
+
+    /**
+     * Sets the size of the window.
+     *
+     * @param size Maximum number of unacknowledged batches per data source, 0 to stop asking for
+     *             acknowledgements.
+     */
+    void setSize(int size) {
+        this.size = size;
+        for (DataSourceWindow window : windows.values()) {
+            synchronized (window) {
+                window.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * @return Whether inserts are acknowledged.
+     */
+    boolean isEnabled() {
+        return size > 0;
+    }
+
+    /**
+     * Sends a batch and keeps it until it is acknowledged, first waiting for room in the window.
+     *
+     * <p>
+     *     Batches of one data source are numbered and sent under the lock of its window, so they
+     *     reach <code>DataKit</code> in the order of their sequence numbers.
+     * </p>
+     *
+     * @param dataKitAPIExecute Sends the batch.
+     * @param batch The batch.
+     * @throws DataKitException Thrown if there was no room in time or the batch could not be sent.
+     */
+    void send(DataKitAPIExecute dataKitAPIExecute, Batch batch) throws DataKitException {
+        DataSourceWindow window = getWindow(batch.ds_id);
+        synchronized (window) {
+            long deadline = System.currentTimeMillis() + WAIT_TIME;
+            while (window.batches.size() >= size && size > 0) {
+                long left = deadline - System.currentTimeMillis();
+                if (left <= 0)
+                    throw new DataKitException(new Status(Status.INTERNAL_ERROR).getStatusMessage());
+                try {
+                    window.wait(left);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new DataKitException(e);
+                }
+            }
+            batch.sequence = window.next++;
+            window.batches.add(batch);
+            window.unacknowledged += batch.samples;
+            try {
+                dataKitAPIExecute.sendInsert(batch, stream);
+            } catch (RemoteException e) {
+                window.batches.removeLast();
+                window.next--;
+                window.unacknowledged -= batch.samples;
+                throw new DataKitException(e);
+            }
+        }
+    }
+
+    /**
+     * Releases every batch of a data source up to the given sequence number.
+     *
+     * @param ds_id Data source identifier.
+     * @param sequence Highest sequence number stored by <code>DataKit</code>.
+     */
+    void acknowledge(int ds_id, long sequence) {
+        DataSourceWindow window = windows.get(ds_id);
+        if (window == null)
+            return;
+        synchronized (window) {
+            Batch batch;
+            while ((batch = window.batches.peek()) != null && batch.sequence <= sequence) {
+                window.batches.poll();
+                window.unacknowledged -= batch.samples;
+                window.acknowledged += batch.samples;
+            }
+            window.notifyAll();
+        }
+    }
+
+    /**
+     * Sends every unacknowledged batch again, in order. Called once a session has been resumed.
+     *
+     * @param dataKitAPIExecute Sends the batches.
+     */
+    void resend(DataKitAPIExecute dataKitAPIExecute) {
+        for (DataSourceWindow window : windows.values()) {
+            synchronized (window) {
+                for (Batch batch : window.batches) {
+                    try {
+                        dataKitAPIExecute.sendInsert(batch, stream);
+                    } catch (RemoteException e) {
+                        Log.e(TAG, "Could not resend inserts", e);
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits until every batch has been acknowledged.
+     *
+     * @param timeoutMillis Maximum time to wait in milliseconds.
+     * @return Whether every batch was acknowledged in time.
+     */
+    boolean awaitAcknowledged(long timeoutMillis) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        for (DataSourceWindow window : windows.values()) {
+            synchronized (window) {
+                while (!window.batches.isEmpty()) {
+                    long left = deadline - System.currentTimeMillis();
+                    if (left <= 0)
+                        return false;
+                    try {
+                        window.wait(left);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Removes every unacknowledged batch from the window.
+     *
+     * @return The batches, in order per data source.
+     */
+    ArrayList<Batch> takeUnacknowledged() {
+        ArrayList<Batch> taken = new ArrayList<>();
+        for (DataSourceWindow window : windows.values()) {
+            synchronized (window) {
+                taken.addAll(window.batches);
+                window.batches.clear();
+                window.unacknowledged = 0;
+                window.notifyAll();
+            }
+        }
+        return taken;
+    }
+
+    /**
+     * @return Number of samples acknowledged as stored so far.
+     */
+    long getAcknowledged() {
+        long acknowledged = 0;
+        for (DataSourceWindow window : windows.values()) {
+            synchronized (window) {
+                acknowledged += window.acknowledged;
+            }
+        }
+        return acknowledged;
+    }
+
+    /**
+     * @param ds_id Data source identifier.
+     * @return Number of samples of the data source acknowledged as stored so far.
+     */
+    long getAcknowledged(int ds_id) {
+        DataSourceWindow window = windows.get(ds_id);
+        if (window == null)
+            return 0;
+        synchronized (window) {
+            return window.acknowledged;
+        }
+    }
+
+    /**
+     * @return Number of samples sent and not yet acknowledged.
+     */
+    long getUnacknowledged() {
+        long unacknowledged = 0;
+        for (DataSourceWindow window : windows.values()) {
+            synchronized (window) {
+                unacknowledged += window.unacknowledged;
+            }
+        }
+        return unacknowledged;
+    }
+
+    /**
+     * Returns the window of a data source, creating it on first use.
+     *
+     * @param ds_id Data source identifier.
+     * @return The window.
+     */
+    private DataSourceWindow getWindow(int ds_id) {
+        DataSourceWindow window = windows.get(ds_id);
+        if (window == null) {
+            DataSourceWindow created = new DataSourceWindow();
+            window = windows.putIfAbsent(ds_id, created);
+            if (window == null)
+                window = created;
+        }
+        return window;
+    }
+
+    /**
+     * Unacknowledged batches of one data source. Guarded by itself.
+     */
+    private static class DataSourceWindow {
+
+        /** Batches sent and not yet acknowledged, oldest first. */
+        final ArrayDeque<Batch> batches = new ArrayDeque<>();
+
+        /** Sequence number of the next batch. */
+        long next = 1;
+
+        /** Number of samples in <code>batches</code>. */
+        long unacknowledged;
+
+        /** Number of samples acknowledged so far. */
+        long acknowledged;
+    }
+
+    /**
+     * One insert message, kept so that it can be sent again.
+     */
+    static class Batch {
+
+        /** Data source identifier the caller knows. */
+        final int ds_id;
+
+        /** <code>MessageType</code> the batch is sent with. */
+        final int messageType;
+
+        /** The samples, or null for a packed frame. */
+        final DataType[] dataTypes;
+
+        /** The packed frame, or null. Copied before each send. */
+        final Bundle packed;
+
+        /** Number of samples. */
+        final int samples;
+
+        /** Sequence number, assigned when the batch is first sent. */
+        long sequence;
+
+        /**
+         * Constructor
+         *
+         * @param ds_id Data source identifier the caller knows.
+         * @param messageType <code>MessageType</code> the batch is sent with.
+         * @param dataTypes The samples, or null for a packed frame.
+         * @param packed The packed frame, or null.
+         * @param samples Number of samples.
+         */
+        Batch(int ds_id, int messageType, DataType[] dataTypes, Bundle packed, int samples) {
+            this.ds_id = ds_id;
+            this.messageType = messageType;
+            this.dataTypes = dataTypes;
+            this.packed = packed;
+            this.samples = samples;
+        }
+
+        /**
+         * @return The samples, read from the packed frame if there is one.
+         */
+        DataType[] getDataTypes() {
+            return packed != null ? HFFrame.read(packed) : dataTypes;
+        }
+
+        /**
+         * @return Kind of insert for the <code>InsertSpool</code>.
+         */
+        int getSpoolKind() {
+            return messageType == MessageType.INSERT ? InsertSpool.KIND_INSERT : InsertSpool.KIND_HIGH_FREQUENCY;
+        }
+    }
+}
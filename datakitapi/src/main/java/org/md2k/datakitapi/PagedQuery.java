@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2018, The University of Memphis, MD2K Center of Excellence
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.md2k.datakitapi;
+
+import org.md2k.datakitapi.datatype.RowObject;
+import org.md2k.datakitapi.exception.DataKitException;
+import org.md2k.datakitapi.exception.DataKitNotFoundException;
+import org.md2k.datakitapi.messagehandler.AsyncPendingResult;
+import org.md2k.datakitapi.source.datasource.DataSourceClient;
+import org.md2k.datakitapi.status.Status;
+
+import java.util.ArrayList;
+import java.util.NoSuchElementException;
+
+/**
+ * Walks the rows of a data source one page at a time.
+ *
+ * <p>
+ *     Pages are fetched with <code>queryFromPrimaryKey</code>, each starting after the last key of
+ *     the page before it. As soon as a page arrives the request for the following page is sent, so
+ *     the consumer works on one page while the next is in flight, and the query references at most
+ *     two pages. Nothing is fetched until <code>hasNext()</code> or <code>next()</code> is called.
+ * </p>
+ *
+ * <p>
+ *     Rows are walked in key order, which is the order <code>DataKit</code> stored them in. That is
+ *     not necessarily time order, for instance for rows that were stored after a reconnection, so
+ *     there is no time frame: use <code>queryCursor</code> to stream the rows of a time frame.
+ * </p>
+ */
+public class PagedQuery {
+
+    /** <code>DataKitAPI</code> the pages are requested from. */
+    private final DataKitAPI dataKitAPI;
+
+    /** Data source being queried. */
+    private final DataSourceClient dataSourceClient;
+
+    /** Number of rows requested per page. */
+    private final int pageSize;
+
+    /** Key of the last row returned so far. */
+    private long lastKey;
+
+    /** Key after which the next page to be requested starts. */
+    private long fetchKey;
+
+    /** Page being consumed. */
+    private ArrayList<RowObject> page;
+
+    /** Index of the next row of <code>page</code>. */
+    private int index;
+
+    /** Request for the page after <code>page</code>, null if none is in flight. */
+    private AsyncPendingResult<ArrayList<RowObject>> nextPage;
+
+    /** Whether the last page has been fetched. */
+    private boolean lastPage;
+
+    /** Whether the query is finished. */
+    private boolean finished;
+
+    /**
+     * Constructor
+     *
+     * @param dataKitAPI <code>DataKitAPI</code> the pages are requested from.
+     * @param dataSourceClient Data source to query.
+     * @param lastKey Key after which to start.
+     * @param pageSize Number of rows requested per page.
+     */
+    PagedQuery(DataKitAPI dataKitAPI, DataSourceClient dataSourceClient, long lastKey, int pageSize) {
+        if (pageSize <= 0)
+            throw new IllegalArgumentException("pageSize must be positive");
+        this.dataKitAPI = dataKitAPI;
+        this.dataSourceClient = dataSourceClient;
+        this.lastKey = lastKey;
+        this.fetchKey = lastKey;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Returns whether there is another row, waiting for the next page if needed.
+     *
+     * @return Whether there is another row.
+     * @throws DataKitException Thrown when a page could not be fetched.
+     */
+    public boolean hasNext() throws DataKitException {
+        while (!finished) {
+            if (page != null && index < page.size())
+                return true;
+            if (lastPage) {
+                close();
+                return false;
+            }
+            fetchPage();
+        }
+        return false;
+    }
+
+    /**
+     * Returns the next row.
+     *
+     * @return The next row.
+     * @throws DataKitException Thrown when a page could not be fetched.
+     */
+    public RowObject next() throws DataKitException {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        RowObject row = page.get(index++);
+        lastKey = row.rowKey;
+        return row;
+    }
+
+    /**
+     * Returns the rest of the current page, fetching the next one if the current page is used up.
+     *
+     * @return The remaining rows of the page, empty if the query is finished.
+     * @throws DataKitException Thrown when a page could not be fetched.
+     */
+    public ArrayList<RowObject> nextPage() throws DataKitException {
+        ArrayList<RowObject> rows = new ArrayList<>();
+        if (!hasNext())
+            return rows;
+        ArrayList<RowObject> current = page;
+        while (page == current && hasNext())
+            rows.add(page.get(index++));
+        lastKey = rows.get(rows.size() - 1).rowKey;
+        return rows;
+    }
+
+    /**
+     * Returns the key of the last row returned by <code>next()</code> or <code>nextPage()</code>,
+     * which is where a new query should start to resume with the first row not yet returned. Rows
+     * that were fetched but not returned yet do not count.
+     *
+     * @return Key of the last row returned so far, the starting key if none was returned.
+     */
+    public long getLastKey() {
+        return lastKey;
+    }
+
+    /**
+     * Stops the query. A page still in flight is discarded when it arrives.
+     */
+    public void close() {
+        finished = true;
+        page = null;
+        nextPage = null;
+    }
+
+    /**
+     * Makes the next page current and sends the request for the one after it.
+     *
+     * @throws DataKitException Thrown when the page could not be fetched.
+     */
+    private void fetchPage() throws DataKitException {
+        AsyncPendingResult<ArrayList<RowObject>> pending = nextPage;
+        if (pending == null)
+            pending = dataKitAPI.queryFromPrimaryKeyAsync(dataSourceClient, fetchKey, pageSize);
+        nextPage = null;
+        ArrayList<RowObject> rows = pending.await();
+        if (rows == null) {
+            close();
+            throw new DataKitNotFoundException(new Status(Status.ERROR_BOUND));
+        }
+        page = rows;
+        index = 0;
+        if (rows.size() < pageSize)
+            lastPage = true;
+        if (!rows.isEmpty())
+            fetchKey = rows.get(rows.size() - 1).rowKey;
+        if (!lastPage)
+            nextPage = dataKitAPI.queryFromPrimaryKeyAsync(dataSourceClient, fetchKey, pageSize);
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright (c) 2018, The University of Memphis, MD2K Center of Excellence
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.md2k.datakitapi;
+
+import android.util.Log;
+
+import org.md2k.datakitapi.messagehandler.AsyncPendingResult;
+import org.md2k.datakitapi.messagehandler.ResultCallback;
+import org.md2k.datakitapi.messagehandler.ResultTransform;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A single request sent to <code>DataKit</code> that is waiting for its reply.
+ *
+ * <p>
+ *     Every outgoing message carries the <code>requestId</code> of its <code>PendingRequest</code> so
+ *     that the reply can be routed back to the caller that sent it, which lets any number of requests
+ *     be in flight over the same <code>Messenger</code>. The reply completes the request on the thread
+ *     that received it, which also runs any callbacks set without an executor.
+ * </p>
+ *
+ * @param <R> Type of the reply payload.
+ */
+class PendingRequest<R> implements AsyncPendingResult<R> {
+    private static final String TAG = PendingRequest.class.getSimpleName();
+
+    /** Correlation identifier sent with the request and echoed back in the reply. */
+    final int requestId;
+
+    /** <code>MessageType</code> of the request. */
+    final int messageType;
+
+    /** Maximum time in milliseconds <code>await()</code> waits for the reply. */
+    private final long waitTime;
+
+    /** <code>System.nanoTime()</code> when the request was created. */
+    final long startNanos = System.nanoTime();
+
+    /** Released once the request has been completed. */
+    private final CountDownLatch latch = new CountDownLatch(1);
+
+    /** Whether the request has been completed. Guarded by <code>this</code>. */
+    private boolean done;
+
+    /** Callbacks waiting for the reply. Guarded by <code>this</code>. */
+    private ArrayList<Listener<R>> listeners;
+
+    /** Payload of the reply, or null if there was none. */
+    private volatile R result;
+
+    /**
+     * Constructor
+     *
+     * @param requestId Correlation identifier of the request.
+     * @param messageType <code>MessageType</code> of the request.
+     * @param waitTime Maximum time in milliseconds <code>await()</code> waits for the reply.
+     */
+    PendingRequest(int requestId, int messageType, long waitTime) {
+        this.requestId = requestId;
+        this.messageType = messageType;
+        this.waitTime = waitTime;
+    }
+
+    /**
+     * Creates a request that has already completed.
+     *
+     * @param messageType <code>MessageType</code> of the request.
+     * @param result The result.
+     * @param <R> Type of the result.
+     * @return The completed request.
+     */
+    static <R> PendingRequest<R> completed(int messageType, R result) {
+        PendingRequest<R> request = new PendingRequest<>(0, messageType, 0);
+        request.complete(result);
+        return request;
+    }
+
+    /**
+     * Completes the request with the given reply payload and runs the waiting callbacks.
+     *
+     * @param result Payload of the reply, or null if the request failed.
+     * @return Whether this call completed the request. Only the first completion counts.
+     */
+    boolean complete(R result) {
+        ArrayList<Listener<R>> waiting;
+        synchronized (this) {
+            if (done)
+                return false;
+            done = true;
+            this.result = result;
+            waiting = listeners;
+            listeners = null;
+        }
+        latch.countDown();
+        if (waiting != null) {
+            for (Listener<R> listener : waiting)
+                listener.dispatch(result);
+        }
+        return true;
+    }
+
+    /**
+     * Waits for the reply for at most the wait time given at construction.
+     *
+     * @return The reply payload, or null if the request failed or timed out.
+     */
+    @Override
+    public R await() {
+        return await(waitTime, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Waits for the reply.
+     *
+     * @param time Maximum time to wait.
+     * @param unit Unit of <code>time</code>.
+     * @return The reply payload, or null if the request failed or timed out.
+     */
+    @Override
+    public R await(long time, TimeUnit unit) {
+        try {
+            latch.await(time, unit);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return result;
+    }
+
+    /**
+     * @return Whether the request has been completed.
+     */
+    @Override
+    public boolean isDone() {
+        return latch.getCount() == 0;
+    }
+
+    /**
+     * Sets the callback to run on the reply thread when the request completes.
+     *
+     * @param callback Callback receiving the result.
+     */
+    @Override
+    public void setResultCallback(ResultCallback<R> callback) {
+        addListener(new Listener<>(callback, null));
+    }
+
+    /**
+     * Sets the callback to run on the given executor when the request completes.
+     *
+     * @param callback Callback receiving the result.
+     * @param executor Executor the callback is run on.
+     */
+    @Override
+    public void setResultCallback(ResultCallback<R> callback, Executor executor) {
+        addListener(new Listener<>(callback, executor));
+    }
+
+    /**
+     * Returns a pending result that completes with this request's result transformed.
+     *
+     * @param transform Function applied to the result.
+     * @param <T> Type of the transformed result.
+     * @return The transformed pending result.
+     */
+    @Override
+    public <T> AsyncPendingResult<T> map(final ResultTransform<R, T> transform) {
+        final PendingRequest<T> mapped = new PendingRequest<>(0, messageType, waitTime);
+        setResultCallback(new ResultCallback<R>() {
+            @Override
+            public void onResult(R result) {
+                T transformed = null;
+                try {
+                    transformed = transform.apply(result);
+                } finally {
+                    mapped.complete(transformed);
+                }
+            }
+        });
+        return mapped;
+    }
+
+    /**
+     * Queues the listener, or runs it right away if the request has already completed.
+     *
+     * @param listener The listener to add.
+     */
+    private void addListener(Listener<R> listener) {
+        synchronized (this) {
+            if (!done) {
+                if (listeners == null)
+                    listeners = new ArrayList<>(1);
+                listeners.add(listener);
+                return;
+            }
+        }
+        listener.dispatch(result);
+    }
+
+    /**
+     * A callback together with the executor it runs on.
+     *
+     * @param <R> Type of the result.
+     */
+    private static class Listener<R> {
+
+        /** Callback receiving the result. */
+        final ResultCallback<R> callback;
+
+        /** Executor the callback runs on, or null to run it on the completing thread. */
+        final Executor executor;
+
+        /**
+         * Constructor
+         *
+         * @param callback Callback receiving the result.
+         * @param executor Executor the callback runs on, or null to run it on the completing thread.
+         */
+        Listener(ResultCallback<R> callback, Executor executor) {
+            this.callback = callback;
+            this.executor = executor;
+        }
+
+        /**
+         * Delivers the result to the callback.
+         *
+         * @param result The result.
+         */
+        void dispatch(final R result) {
+            if (executor == null) {
+                run(result);
+                return;
+            }
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    Listener.this.run(result);
+                }
+            });
+        }
+
+        /**
+         * Runs the callback, keeping a failing callback from taking down the reply thread.
+         *
+         * @param result The result.
+         */
+        private void run(R result) {
+            try {
+                callback.onResult(result);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Result callback failed", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,353 @@
+/*
+ * Copyright (c) 2018, The University of Memphis, MD2K Center of Excellence
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.md2k.datakitapi;
+
+import android.os.Parcelable;
+import android.util.Log;
+
+import org.md2k.datakitapi.datatype.DataType;
+import org.md2k.datakitapi.messagehandler.DeliveryPolicy;
+import org.md2k.datakitapi.messagehandler.OnReceiveBatchListener;
+import org.md2k.datakitapi.messagehandler.OnReceiveListener;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Delivers subscribed data to listeners off the thread that receives messages from <code>DataKit</code>.
+ *
+ * <p>
+ *     The receiving thread only hands each incoming batch to a single intake thread, through a queue
+ *     of at most <code>INTAKE_CAPACITY</code> batches, and never waits, so replies to requests never
+ *     wait behind listeners. The intake thread sorts the samples into a bounded queue per
+ *     subscription according to its <code>DeliveryPolicy</code>. Each queue is drained on a shared
+ *     pool of delivery threads, one drain at a time per subscription, so every listener sees its
+ *     samples in order. A drain hands everything queued so far to the listener as one batch.
+ * </p>
+ * <p>
+ *     Sorting only waits when a <code>BLOCK</code> subscription's queue is full, which holds back
+ *     the intake of every subscription until the listener has taken its queue. Meanwhile incoming
+ *     batches wait in the intake queue; a batch that arrives when that is full as well is dropped,
+ *     logged and counted by <code>getDropped()</code>, whatever the policy of its subscription.
+ * </p>
+ */
+class SubscriptionDispatcher {
+    private static final String TAG = SubscriptionDispatcher.class.getSimpleName();
+
+    /** Default number of samples queued per subscription. */
+    static final int DEFAULT_CAPACITY = 4096;
+
+    /** Maximum number of batches waiting for the intake thread. */
+    static final int INTAKE_CAPACITY = 1024;
+
+    /** Time in seconds an idle dispatch thread is kept alive. */
+    private static final long KEEP_ALIVE_SECONDS = 60;
+
+    /** Subscriptions keyed by data source identifier. */
+    private final ConcurrentMap<Integer, Subscription> subscriptions = new ConcurrentHashMap<>();
+
+    /** Sorts incoming batches into the subscription queues. */
+    private final ThreadPoolExecutor intake;
+
+    /** Runs the listeners. */
+    private final ThreadPoolExecutor delivery;
+
+    /** Number of samples dropped because the intake queue was full. */
+    private final AtomicLong dropped = new AtomicLong();
+
+    /** Whether the last batch was dropped because the intake queue was full. */
+    private volatile boolean overflowing;
+
+    /**
+     * Constructor
+     */
+    SubscriptionDispatcher() {
+        intake = new ThreadPoolExecutor(1, 1, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(INTAKE_CAPACITY), new NamedThreadFactory("datakit-intake"));
+        intake.allowCoreThreadTimeOut(true);
+        delivery = new ThreadPoolExecutor(0, Integer.MAX_VALUE, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), new NamedThreadFactory("datakit-delivery"));
+    }
+
+    /**
+     * Adds a subscription, replacing any previous one for the same data source.
+     *
+     * @param ds_id Data source identifier.
+     * @param onReceiveBatchListener Listener receiving the samples.
+     * @param capacity Maximum number of samples queued for the listener.
+     * @param policy <code>DeliveryPolicy</code> applied when the queue is full.
+     */
+    void subscribe(int ds_id, OnReceiveBatchListener onReceiveBatchListener, int capacity, int policy) {
+        Subscription previous = subscriptions.put(ds_id, new Subscription(onReceiveBatchListener, capacity, policy));
+        if (previous != null)
+            previous.cancel();
+    }
+
+    /**
+     * Adapts a listener taking one sample at a time to batch delivery.
+     *
+     * @param onReceiveListener Listener receiving the samples.
+     * @return Listener passing each sample of a batch to <code>onReceiveListener</code>.
+     */
+    static OnReceiveBatchListener perSample(final OnReceiveListener onReceiveListener) {
+        return new OnReceiveBatchListener() {
+            @Override
+            public void onReceived(DataType[] dataTypes) {
+                for (DataType dataType : dataTypes)
+                    onReceiveListener.onReceived(dataType);
+            }
+        };
+    }
+
+    /**
+     * Removes the subscription of a data source. Samples still queued for it are discarded.
+     *
+     * @param ds_id Data source identifier.
+     */
+    void unsubscribe(int ds_id) {
+        Subscription subscription = subscriptions.remove(ds_id);
+        if (subscription != null)
+            subscription.cancel();
+    }
+
+    /**
+     * @return Data source identifiers of all current subscriptions.
+     */
+    ArrayList<Integer> getSubscribedIds() {
+        return new ArrayList<>(subscriptions.keySet());
+    }
+
+    /**
+     * Removes every subscription.
+     */
+    void clear() {
+        for (Integer ds_id : subscriptions.keySet())
+            unsubscribe(ds_id);
+    }
+
+    /**
+     * @return Number of samples dropped because the intake queue was full.
+     */
+    long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Hands a batch of samples to the intake thread. Returns right away, dropping the batch if the
+     * intake queue is full.
+     *
+     * @param ds_id Data source identifier of the samples.
+     * @param parcelables The samples.
+     */
+    void dispatch(int ds_id, final Parcelable[] parcelables) {
+        final Subscription subscription = subscriptions.get(ds_id);
+        if (subscription == null)
+            return;
+        try {
+            intake.execute(new Runnable() {
+                @Override
+                public void run() {
+                    subscription.offer(parcelables);
+                }
+            });
+            overflowing = false;
+        } catch (RejectedExecutionException e) {
+            dropped.addAndGet(parcelables.length);
+            if (!overflowing)
+                Log.w(TAG, "Intake queue full, dropping subscribed data of ds_id " + ds_id);
+            overflowing = true;
+        }
+    }
+
+    /**
+     * A listener together with its queue of samples waiting to be delivered.
+     */
+    private class Subscription implements Runnable {
+
+        /** Listener receiving the samples. */
+        private final OnReceiveBatchListener onReceiveBatchListener;
+
+        /** Maximum number of queued samples. */
+        private final int capacity;
+
+        /** <code>DeliveryPolicy</code> applied when the queue is full. */
+        private final int policy;
+
+        /** Samples waiting to be delivered. Guarded by <code>this</code>. */
+        private final ArrayDeque<DataType> queue = new ArrayDeque<>();
+
+        /** Whether a drain is scheduled or running. Guarded by <code>this</code>. */
+        private boolean scheduled;
+
+        /** Whether the subscription has been removed. */
+        private volatile boolean cancelled;
+
+        /** Number of samples dropped because the queue was full. Guarded by <code>this</code>. */
+        private long dropped;
+
+        /**
+         * Constructor
+         *
+         * @param onReceiveBatchListener Listener receiving the samples.
+         * @param capacity Maximum number of queued samples.
+         * @param policy <code>DeliveryPolicy</code> applied when the queue is full.
+         */
+        Subscription(OnReceiveBatchListener onReceiveBatchListener, int capacity, int policy) {
+            this.onReceiveBatchListener = onReceiveBatchListener;
+            this.capacity = capacity;
+            this.policy = policy;
+        }
+
+        /**
+         * Queues a batch of samples, applying the policy to each sample that does not fit.
+         *
+         * @param parcelables The samples.
+         */
+        synchronized void offer(Parcelable[] parcelables) {
+            for (Parcelable parcelable : parcelables) {
+                if (cancelled)
+                    return;
+                DataType dataType = (DataType) parcelable;
+                if (policy == DeliveryPolicy.COALESCE) {
+                    dropped += queue.size();
+                    queue.clear();
+                } else if (queue.size() >= capacity) {
+                    if (policy == DeliveryPolicy.DROP_NEWEST) {
+                        dropped++;
+                        continue;
+                    } else if (policy == DeliveryPolicy.DROP_OLDEST) {
+                        queue.poll();
+                        dropped++;
+                    } else {
+                        schedule();
+                        while (queue.size() >= capacity && !cancelled) {
+                            try {
+                                wait();
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                                return;
+                            }
+                        }
+                        if (cancelled)
+                            return;
+                    }
+                }
+                queue.add(dataType);
+            }
+            schedule();
+        }
+
+        /**
+         * Discards the queued samples and releases a blocked intake thread.
+         */
+        synchronized void cancel() {
+            cancelled = true;
+            queue.clear();
+            notifyAll();
+            if (dropped > 0)
+                Log.w(TAG, "Dropped " + dropped + " samples");
+        }
+
+        /**
+         * Starts a drain on the delivery pool unless one is already scheduled.
+         * Called with <code>this</code> held.
+         */
+        private void schedule() {
+            if (scheduled || queue.isEmpty())
+                return;
+            scheduled = true;
+            delivery.execute(this);
+        }
+
+        /**
+         * Delivers queued samples in batches until the queue is empty.
+         */
+        @Override
+        public void run() {
+            while (true) {
+                DataType[] batch;
+                synchronized (this) {
+                    if (queue.isEmpty() || cancelled) {
+                        scheduled = false;
+                        return;
+                    }
+                    batch = queue.toArray(new DataType[queue.size()]);
+                    queue.clear();
+                    notifyAll();
+                }
+                try {
+                    onReceiveBatchListener.onReceived(batch);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Listener failed", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates daemon threads with a common name.
+     */
+    static class NamedThreadFactory implements ThreadFactory {
+
+        /** Prefix of the thread names. */
+        private final String name;
+
+        /** Number of threads created so far. */
+        private final AtomicInteger count = new AtomicInteger();
+
+        /**
+         * Constructor
+         *
+         * @param name Prefix of the thread names.
+         */
+        NamedThreadFactory(String name) {
+            this.name = name;
+        }
+
+        /**
+         * @param runnable Runnable the thread runs.
+         * @return The new thread.
+         */
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2018, The University of Memphis, MD2K Center of Excellence
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.md2k.datakitapi.datatype;
+
+import android.os.Parcel;
+
+/**
+ * Columnar block of per-bucket aggregates of numeric samples, the reply of an aggregate query.
+ *
+ * <p>
+ *     Each row covers one time bucket: the timestamp is the start of the bucket and the row holds
+ *     the number of samples in it and the minimum, maximum and mean of each of the
+ *     <code>width</code> values of those samples. Buckets without samples are left out, so the
+ *     timestamps need not be evenly spaced. <code>get()</code> converts a row to its means.
+ * </p>
+ */
+public class AggregateBlock extends SampleBlock {
+
+    /** Width in milliseconds of each bucket. */
+    final long bucket;
+
+    /** Number of samples in each bucket. */
+    final int[] counts;
+
+    /** Minimum of each value in each bucket, <code>width</code> per bucket, row after row. */
+    final double[] min;
+
+    /** Maximum of each value in each bucket, <code>width</code> per bucket, row after row. */
+    final double[] max;
+
+    /** Mean of each value in each bucket, <code>width</code> per bucket, row after row. */
+    final double[] mean;
+
+    /**
+     * Constructor
+     *
+     * @param timestamps Start of each bucket.
+     * @param offset Time zone offset of every bucket.
+     * @param width Number of values per sample.
+     * @param scalar Whether the means convert to <code>DataTypeDouble</code>.
+     * @param bucket Width in milliseconds of each bucket.
+     * @param counts Number of samples in each bucket.
+     * @param min Minimum of each value in each bucket, <code>width</code> per bucket, row after row.
+     * @param max Maximum of each value in each bucket, <code>width</code> per bucket, row after row.
+     * @param mean Mean of each value in each bucket, <code>width</code> per bucket, row after row.
+     */
+    public AggregateBlock(long[] timestamps, long offset, int width, boolean scalar, long bucket, int[] counts,
+                          double[] min, double[] max, double[] mean) {
+        super(timestamps, offset, null, width, scalar);
+        if (counts.length != timestamps.length)
+            throw new IllegalArgumentException("counts do not match timestamps");
+        int length = timestamps.length * width;
+        if (min.length != length || max.length != length || mean.length != length)
+            throw new IllegalArgumentException("values do not match timestamps and width");
+        this.bucket = bucket;
+        this.counts = counts;
+        this.min = min;
+        this.max = max;
+        this.mean = mean;
+    }
+
+    /**
+     * Constructs an <code>AggregateBlock</code> object from a <code>Parcel</code>.
+     *
+     * @param in Parceled <code>AggregateBlock</code> object.
+     */
+    protected AggregateBlock(Parcel in) {
+        super(in);
+        bucket = in.readLong();
+        counts = in.createIntArray();
+        min = in.createDoubleArray();
+        max = in.createDoubleArray();
+        mean = in.createDoubleArray();
+    }
+
+    /**
+     * Writes the <code>AggregateBlock</code> to a parcel.
+     *
+     * @param dest The parcel to which the application should be written.
+     * @param flags Additional flags about how the object should be written.
+     */
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        super.writeToParcel(dest, flags);
+        dest.writeLong(bucket);
+        dest.writeIntArray(counts);
+        dest.writeDoubleArray(min);
+        dest.writeDoubleArray(max);
+        dest.writeDoubleArray(mean);
+    }
+
+    /**
+     * @return Width in milliseconds of each bucket.
+     */
+    public long getBucket() {
+        return bucket;
+    }
+
+    /**
+     * @param index Index of the bucket.
+     * @return Number of samples in the bucket.
+     */
+    public int getCount(int index) {
+        return counts[index];
+    }
+
+    /**
+     * @return Number of samples in each bucket. The array is shared with the block.
+     */
+    public int[] getCounts() {
+        return counts;
+    }
+
+    /**
+     * @param index Index of the bucket.
+     * @param column Index of the value within the samples.
+     * @return Minimum of the value in the bucket.
+     */
+    public double getMin(int index, int column) {
+        return min[index * width + column];
+    }
+
+    /**
+     * @param index Index of the bucket.
+     * @param column Index of the value within the samples.
+     * @return Maximum of the value in the bucket.
+     */
+    public double getMax(int index, int column) {
+        return max[index * width + column];
+    }
+
+    /**
+     * @param index Index of the bucket.
+     * @param column Index of the value within the samples.
+     * @return Mean of the value in the bucket.
+     */
+    public double getMean(int index, int column) {
+        return mean[index * width + column];
+    }
+
+    /**
+     * Copies the means of one bucket.
+     *
+     * @param index Index of the bucket.
+     * @return The means of the bucket.
+     */
+    public double[] getMeans(int index) {
+        double[] row = new double[width];
+        System.arraycopy(mean, index * width, row, 0, width);
+        return row;
+    }
+
+    /**
+     * Converts the means of one bucket to a new <code>DataTypeDouble</code> or
+     * <code>DataTypeDoubleArray</code> stamped with the start of the bucket.
+     *
+     * @param index Index of the bucket.
+     * @return The means of the bucket.
+     */
+    @Override
+    public DataType get(int index) {
+        if (scalar)
+            return stamp(new DataTypeDouble(timestamps[index], mean[index]), index);
+        return stamp(new DataTypeDoubleArray(timestamps[index], getMeans(index)), index);
+    }
+
+    /**
+     * <code>Creator</code> for <code>AggregateBlock</code> objects.
+     */
+    public static final Creator<AggregateBlock> CREATOR = new Creator<AggregateBlock>() {
+
+        /**
+         * Creates a new <code>AggregateBlock</code> object from a <code>Parcel</code>.
+         *
+         * @param in The parcel holding the block.
+         * @return The constructed <code>AggregateBlock</code> object
+         */
+        @Override
+        public AggregateBlock createFromParcel(Parcel in) {
+            return new AggregateBlock(in);
+        }
+
+        /**
+         * Creates a new array of the specified size for <code>AggregateBlock</code> objects.
+         *
+         * @param size The size of the new <code>AggregateBlock</code> array.
+         * @return The <code>AggregateBlock</code> array.
+         */
+        @Override
+        public AggregateBlock[] newArray(int size) {
+            return new AggregateBlock[size];
+        }
+    };
+}
@@ -60,6 +60,17 @@ public class DataType implements Parcelable{
         this.offset = DateTime.getTimeZoneOffset();
     }
 
+    /**
+     * Constructs a <code>DataType</code> object with a <code>dataTime</code> and time zone offset.
+     *
+     * @param dateTime The timestamp for when the data was collected.
+     * @param offset The time zone offset in milliseconds when the data was collected.
+     */
+    public DataType(long dateTime, long offset) {
+        this.dateTime = dateTime;
+        this.offset = offset;
+    }
+
     /**
      * Constructs a <code>DataType</code> object from a <code>Parcel</code>.
      *
@@ -97,6 +108,26 @@ public class DataType implements Parcelable{
         return dateTime;
     }
 
+    /**
+     * @return The time zone offset in milliseconds of the <code>DataType</code>.
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Returns the type tag of this class, used to look up its <code>DataTypeCodec</code>.
+     *
+     * <p>
+     *     The tag is not written to parcels, which carry the class name already.
+     * </p>
+     *
+     * @return <code>DataTypeBinary.DATA_TYPE</code>
+     */
+    public byte getTypeTag() {
+        return DataTypeBinary.DATA_TYPE;
+    }
+
     /**
      * <code>Creator</code> for <code>DataType</code> objects.
      */
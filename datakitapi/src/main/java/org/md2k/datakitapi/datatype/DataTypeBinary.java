@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2018, The University of Memphis, MD2K Center of Excellence
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.md2k.datakitapi.datatype;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Compact binary encoding of rows, used to stream query results through a file descriptor.
+ *
+ * <p>
+ *     A stream is a sequence of rows followed by <code>END</code>. Each row is:
+ *     <ul>
+ *         <li><code>byte</code> -- type tag of the <code>DataType</code></li>
+ *         <li><code>long</code> -- row key, -1 if the row has none</li>
+ *         <li><code>long</code> -- timestamp</li>
+ *         <li><code>long</code> -- time zone offset</li>
+ *         <li><code>int</code> -- payload length in bytes</li>
+ *         <li>payload -- the sample, big-endian</li>
+ *     </ul>
+ *     Numeric samples are stored as their values back to back, strings as UTF-8, a string array
+ *     as a count followed by length-prefixed strings, and JSON in the <code>JsonBinary</code>
+ *     encoding.
+ * </p>
+ */
+public class DataTypeBinary {
+
+    /** Marks the end of the stream. */
+    public static final byte END = 0;
+
+    /** <code>DataType</code> without a sample. */
+    public static final byte DATA_TYPE = 1;
+
+    /** <code>DataTypeBoolean</code> */
+    public static final byte BOOLEAN = 2;
+
+    /** <code>DataTypeBooleanArray</code> */
+    public static final byte BOOLEAN_ARRAY = 3;
+
+    /** <code>DataTypeByte</code> */
+    public static final byte BYTE = 4;
+
+    /** <code>DataTypeByteArray</code> */
+    public static final byte BYTE_ARRAY = 5;
+
+    /** <code>DataTypeDouble</code> */
+    public static final byte DOUBLE = 6;
+
+    /** <code>DataTypeDoubleArray</code> */
+    public static final byte DOUBLE_ARRAY = 7;
+
+    /** <code>DataTypeFloat</code> */
+    public static final byte FLOAT = 8;
+
+    /** <code>DataTypeFloatArray</code> */
+    public static final byte FLOAT_ARRAY = 9;
+
+    /** <code>DataTypeInt</code> */
+    public static final byte INT = 10;
+
+    /** <code>DataTypeIntArray</code> */
+    public static final byte INT_ARRAY = 11;
+
+    /** <code>DataTypeLong</code> */
+    public static final byte LONG = 12;
+
+    /** <code>DataTypeLongArray</code> */
+    public static final byte LONG_ARRAY = 13;
+
+    /** <code>DataTypeString</code> */
+    public static final byte STRING = 14;
+
+    /** <code>DataTypeStringArray</code> */
+    public static final byte STRING_ARRAY = 15;
+
+    /** <code>DataTypeJSONObject</code> */
+    public static final byte JSON_OBJECT = 16;
+
+    /** <code>DataTypeJSONObjectArray</code> */
+    public static final byte JSON_OBJECT_ARRAY = 17;
+
+    /** Stream the rows are written to. */
+    private final DataOutputStream out;
+
+    /** Reused buffer for encoding a payload before its length is known. */
+    private final ByteArrayOutputStream payload = new ByteArrayOutputStream();
+
+    /** Writes into <code>payload</code>. */
+    private final DataOutputStream payloadOut = new DataOutputStream(payload);
+
+    /**
+     * Constructor
+     *
+     * @param out Stream to write the rows to. It should be buffered.
+     */
+    public DataTypeBinary(OutputStream out) {
+        this.out = new DataOutputStream(out);
+    }
+
+    /**
+     * Writes one row.
+     *
+     * @param rowKey Key of the row, or -1 if it has none.
+     * @param dataType Sample of the row.
+     * @throws IOException Thrown if the stream cannot be written.
+     */
+    public void write(long rowKey, DataType dataType) throws IOException {
+        DataTypeCodec codec = DataTypeCodec.forType(dataType);
+        payload.reset();
+        codec.writeBinary(dataType, payloadOut);
+        out.writeByte(codec.getTypeTag());
+        out.writeLong(rowKey);
+        out.writeLong(dataType.dateTime);
+        out.writeLong(dataType.offset);
+        out.writeInt(payload.size());
+        payload.writeTo(out);
+    }
+
+    /**
+     * Writes the end of the stream and flushes it.
+     *
+     * @throws IOException Thrown if the stream cannot be written.
+     */
+    public void finish() throws IOException {
+        out.writeByte(END);
+        out.flush();
+    }
+
+    /**
+     * Returns the type tag of the given <code>DataType</code>.
+     *
+     * @param dataType The data type.
+     * @return The type tag.
+     */
+    public static byte tagOf(DataType dataType) {
+        return dataType.getTypeTag();
+    }
+
+    /**
+     * Decodes the payload of a row into a new <code>DataType</code>.
+     *
+     * @param tag Type tag of the row.
+     * @param dateTime Timestamp of the row.
+     * @param offset Time zone offset of the row.
+     * @param payload Buffer holding the payload from index 0.
+     * @param length Length of the payload in bytes.
+     * @return The decoded data type.
+     */
+    static DataType decode(byte tag, long dateTime, long offset, ByteBuffer payload, int length) {
+        return DataTypeCodec.forTag(tag).readBinary(dateTime, offset, payload, length);
+    }
+}
@@ -93,6 +93,14 @@ public class DataTypeBoolean extends  DataType implements Parcelable{
         return sample;
     }
 
+    /**
+     * @return <code>DataTypeBinary.BOOLEAN</code>
+     */
+    @Override
+    public byte getTypeTag() {
+        return DataTypeBinary.BOOLEAN;
+    }
+
     /**
      * <code>Creator</code> for <code>DataTypeBoolean</code> objects.
      */
@@ -93,6 +93,14 @@ public class DataTypeBooleanArray extends DataType implements Parcelable {
         return sample;
     }
 
+    /**
+     * @return <code>DataTypeBinary.BOOLEAN_ARRAY</code>
+     */
+    @Override
+    public byte getTypeTag() {
+        return DataTypeBinary.BOOLEAN_ARRAY;
+    }
+
     /**
      * <code>Creator</code> for <code>DataTypeBooleanArray</code> objects.
      */
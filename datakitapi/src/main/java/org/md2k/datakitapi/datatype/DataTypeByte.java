@@ -93,6 +93,14 @@ public class DataTypeByte extends DataType implements Parcelable {
         return sample;
     }
 
+    /**
+     * @return <code>DataTypeBinary.BYTE</code>
+     */
+    @Override
+    public byte getTypeTag() {
+        return DataTypeBinary.BYTE;
+    }
+
     /**
      * <code>Creator</code> for <code>DataTypeByte</code> objects.
      */
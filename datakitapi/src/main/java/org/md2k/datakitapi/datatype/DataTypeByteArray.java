@@ -91,6 +91,14 @@ public class DataTypeByteArray extends  DataType implements Parcelable{
      */
     public byte[] getSample(){ return sample; }
 
+    /**
+     * @return <code>DataTypeBinary.BYTE_ARRAY</code>
+     */
+    @Override
+    public byte getTypeTag() {
+        return DataTypeBinary.BYTE_ARRAY;
+    }
+
     /**
      * <code>Creator</code> for <code>DataTypeByteArray</code> objects.
      */
@@ -0,0 +1,764 @@
+/*
+ * Copyright (c) 2018, The University of Memphis, MD2K Center of Excellence
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.md2k.datakitapi.datatype;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonPrimitive;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Conversions of one <code>DataType</code> class, looked up by its type tag.
+ *
+ * <p>
+ *     Every <code>DataType</code> class reports its tag with <code>getTypeTag()</code>, one of the
+ *     <code>DataTypeBinary</code> constants, and the codec for a sample is a single array lookup
+ *     instead of a chain of <code>instanceof</code> checks. Each codec provides:
+ *     <ul>
+ *         <li><code>toArrayForm()</code> -- the array form of a scalar sample</li>
+ *         <li><code>appendCsv()</code> -- the CSV line of <code>RowObject.csvString()</code></li>
+ *         <li><code>writeBinary()</code>/<code>readBinary()</code> -- the payload of the
+ *         <code>DataTypeBinary</code> format</li>
+ *         <li><code>toJson()</code> -- the value of the sample as a JSON tree</li>
+ *         <li><code>toDoubles()</code> -- the values of a numeric sample, for <code>Downsampling</code></li>
+ *     </ul>
+ *     Code converting many samples of one type should look the codec up once and reuse it while
+ *     <code>accepts()</code> holds.
+ * </p>
+ */
+public abstract class DataTypeCodec {
+
+    /** Upper case hexadecimal digits. */
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    /** Character set of strings. */
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Codecs indexed by type tag. */
+    private static final DataTypeCodec[] CODECS = new DataTypeCodec[]{
+            null,
+            new DataTypeCodec(DataTypeBinary.DATA_TYPE, DataType.class) {
+                @Override
+                void appendCsvSample(DataType dataType, StringBuilder out) {
+                }
+
+                @Override
+                public void writeBinary(DataType dataType, DataOutputStream out) throws IOException {
+                }
+
+                @Override
+                DataType readSample(long dateTime, ByteBuffer payload, int length) {
+                    return new DataType();
+                }
+
+                @Override
+                public JsonElement toJson(DataType dataType) {
+                    return JsonNull.INSTANCE;
+                }
+            },
+            new DataTypeCodec(DataTypeBinary.BOOLEAN, DataTypeBoolean.class) {
+                @Override
+                public DataType toArrayForm(DataType dataType) {
+                    return new DataTypeBooleanArray(dataType.dateTime, new boolean[]{((DataTypeBoolean) dataType).sample});
+                }
+
+                @Override
+                void appendCsvSample(DataType dataType, StringBuilder out) {
+                    out.append(',').append(((DataTypeBoolean) dataType).sample);
+                }
+
+                @Override
+                public void writeBinary(DataType dataType, DataOutputStream out) throws IOException {
+                    out.writeBoolean(((DataTypeBoolean) dataType).sample);
+                }
+
+                @Override
+                DataType readSample(long dateTime, ByteBuffer payload, int length) {
+                    return new DataTypeBoolean(dateTime, payload.get(0) != 0);
+                }
+
+                @Override
+                public JsonElement toJson(DataType dataType) {
+                    return new JsonPrimitive(((DataTypeBoolean) dataType).sample);
+                }
+            },
+            new DataTypeCodec(DataTypeBinary.BOOLEAN_ARRAY, DataTypeBooleanArray.class) {
+                @Override
+                void appendCsvSample(DataType dataType, StringBuilder out) {
+                    for (boolean value : ((DataTypeBooleanArray) dataType).sample)
+                        out.append(',').append(value);
+                }
+
+                @Override
+                public void writeBinary(DataType dataType, DataOutputStream out) throws IOException {
+                    for (boolean value : ((DataTypeBooleanArray) dataType).sample)
+                        out.writeBoolean(value);
+                }
+
+                @Override
+                DataType readSample(long dateTime, ByteBuffer payload, int length) {
+                    boolean[] sample = new boolean[length];
+                    for (int i = 0; i < sample.length; i++)
+                        sample[i] = payload.get(i) != 0;
+                    return new DataTypeBooleanArray(dateTime, sample);
+                }
+
+                @Override
+                public JsonElement toJson(DataType dataType) {
+                    JsonArray array = new JsonArray();
+                    for (boolean value : ((DataTypeBooleanArray) dataType).sample)
+                        array.add(value);
+                    return array;
+                }
+            },
+            new DataTypeCodec(DataTypeBinary.BYTE, DataTypeByte.class) {
+                @Override
+                double[] toDoubles(DataType dataType) {
+                    return new double[]{((DataTypeByte) dataType).sample};
+                }
+
+                @Override
+                public DataType toArrayForm(DataType dataType) {
+                    return new DataTypeByteArray(dataType.dateTime, new byte[]{((DataTypeByte) dataType).sample});
+                }
+
+                @Override
+                void appendCsvSample(DataType dataType, StringBuilder out) {
+                    appendHex(((DataTypeByte) dataType).sample, out.append(','));
+                }
+
+                @Override
+                public void writeBinary(DataType dataType, DataOutputStream out) throws IOException {
+                    out.writeByte(((DataTypeByte) dataType).sample);
+                }
+
+                @Override
+                DataType readSample(long dateTime, ByteBuffer payload, int length) {
+                    return new DataTypeByte(dateTime, payload.get(0));
+                }
+
+                @Override
+                public JsonElement toJson(DataType dataType) {
+                    return new JsonPrimitive(((DataTypeByte) dataType).sample);
+                }
+            },
+            new DataTypeCodec(DataTypeBinary.BYTE_ARRAY, DataTypeByteArray.class) {
+                @Override
+                double[] toDoubles(DataType dataType) {
+                    byte[] sample = ((DataTypeByteArray) dataType).sample;
+                    double[] values = new double[sample.length];
+                    for (int i = 0; i < sample.length; i++)
+                        values[i] = sample[i];
+                    return values;
+                }
+
+                @Override
+                void appendCsvSample(DataType dataType, StringBuilder out) {
+                    for (byte value : ((DataTypeByteArray) dataType).sample)
+                        appendHex(value, out.append(','));
+                }
+
+                @Override
+                public void writeBinary(DataType dataType, DataOutputStream out) throws IOException {
+                    for (byte value : ((DataTypeByteArray) dataType).sample)
+                        out.writeByte(value);
+                }
+
+                @Override
+                DataType readSample(long dateTime, ByteBuffer payload, int length) {
+                    byte[] sample = new byte[length];
+                    for (int i = 0; i < sample.length; i++)
+                        sample[i] = payload.get(i);
+                    return new DataTypeByteArray(dateTime, sample);
+                }
+
+                @Override
+                public JsonElement toJson(DataType dataType) {
+                    JsonArray array = new JsonArray();
+                    for (byte value : ((DataTypeByteArray) dataType).sample)
+                        array.add(value);
+                    return array;
+                }
+            },
+            new DataTypeCodec(DataTypeBinary.DOUBLE, DataTypeDouble.class) {
+                @Override
+                double[] toDoubles(DataType dataType) {
+                    return new double[]{((DataTypeDouble) dataType).sample};
+                }
+
+                @Override
+                public DataType toArrayForm(DataType dataType) {
+                    return new DataTypeDoubleArray(dataType.dateTime, new double[]{((DataTypeDouble) dataType).sample});
+                }
+
+                @Override
+                void appendCsvSample(DataType dataType, StringBuilder out) {
+                    out.append(',').append(((DataTypeDouble) dataType).sample);
+                }
+
+                @Override
+                public void writeBinary(DataType dataType, DataOutputStream out) throws IOException {
+                    out.writeDouble(((DataTypeDouble) dataType).sample);
+                }
+
+                @Override
+                DataType readSample(long dateTime, ByteBuffer payload, int length) {
+                    return new DataTypeDouble(dateTime, payload.getDouble(0));
+                }
+
+                @Override
+                public JsonElement toJson(DataType dataType) {
+                    return new JsonPrimitive(((DataTypeDouble) dataType).sample);
+                }
+            },
+            new DataTypeCodec(DataTypeBinary.DOUBLE_ARRAY, DataTypeDoubleArray.class) {
+                @Override
+                double[] toDoubles(DataType dataType) {
+                    return ((DataTypeDoubleArray) dataType).sample;
+                }
+
+                @Override
+                void appendCsvSample(DataType dataType, StringBuilder out) {
+                    for (double value : ((DataTypeDoubleArray) dataType).sample)
+                        out.append(',').append(value);
+                }
+
+                @Override
+                public void writeBinary(DataType dataType, DataOutputStream out) throws IOException {
+                    for (double value : ((DataTypeDoubleArray) dataType).sample)
+                        out.writeDouble(value);
+                }
+
+                @Override
+                DataType readSample(long dateTime, ByteBuffer payload, int length) {
+                    double[] sample = new double[length / 8];
+                    for (int i = 0; i < sample.length; i++)
+                        sample[i] = payload.getDouble(i * 8);
+                    return new DataTypeDoubleArray(dateTime, sample);
+                }
+
+                @Override
+                public JsonElement toJson(DataType dataType) {
+                    JsonArray array = new JsonArray();
+                    for (double value : ((DataTypeDoubleArray) dataType).sample)
+                        array.add(value);
+                    return array;
+                }
+            },
+            new DataTypeCodec(DataTypeBinary.FLOAT, DataTypeFloat.class) {
+                @Override
+                double[] toDoubles(DataType dataType) {
+                    return new double[]{((DataTypeFloat) dataType).sample};
+                }
+
+                @Override
+                public DataType toArrayForm(DataType dataType) {
+                    return new DataTypeFloatArray(dataType.dateTime, new float[]{((DataTypeFloat) dataType).sample});
+                }
+
+                @Override
+                void appendCsvSample(DataType dataType, StringBuilder out) {
+                    out.append(',').append(((DataTypeFloat) dataType).sample);
+                }
+
+                @Override
+                public void writeBinary(DataType dataType, DataOutputStream out) throws IOException {
+                    out.writeFloat(((DataTypeFloat) dataType).sample);
+                }
+
+                @Override
+                DataType readSample(long dateTime, ByteBuffer payload, int length) {
+                    return new DataTypeFloat(dateTime, payload.getFloat(0));
+                }
+
+                @Override
+                public JsonElement toJson(DataType dataType) {
+                    return new JsonPrimitive(((DataTypeFloat) dataType).sample);
+                }
+            },
+            new DataTypeCodec(DataTypeBinary.FLOAT_ARRAY, DataTypeFloatArray.class) {
+                @Override
+                double[] toDoubles(DataType dataType) {
+                    float[] sample = ((DataTypeFloatArray) dataType).sample;
+                    double[] values = new double[sample.length];
+                    for (int i = 0; i < sample.length; i++)
+                        values[i] = sample[i];
+                    return values;
+                }
+
+                @Override
+                void appendCsvSample(DataType dataType, StringBuilder out) {
+                    for (float value : ((DataTypeFloatArray) dataType).sample)
+                        out.append(',').append(value);
+                }
+
+                @Override
+                public void writeBinary(DataType dataType, DataOutputStream out) throws IOException {
+                    for (float value : ((DataTypeFloatArray) dataType).sample)
+                        out.writeFloat(value);
+                }
+
+                @Override
+                DataType readSample(long dateTime, ByteBuffer payload, int length) {
+                    float[] sample = new float[length / 4];
+                    for (int i = 0; i < sample.length; i++)
+                        sample[i] = payload.getFloat(i * 4);
+                    return new DataTypeFloatArray(dateTime, sample);
+                }
+
+                @Override
+                public JsonElement toJson(DataType dataType) {
+                    JsonArray array = new JsonArray();
+                    for (float value : ((DataTypeFloatArray) dataType).sample)
+                        array.add(value);
+                    return array;
+                }
+            },
+            new DataTypeCodec(DataTypeBinary.INT, DataTypeInt.class) {
+                @Override
+                double[] toDoubles(DataType dataType) {
+                    return new double[]{((DataTypeInt) dataType).sample};
+                }
+
+                @Override
+                public DataType toArrayForm(DataType dataType) {
+                    return new DataTypeIntArray(dataType.dateTime, new int[]{((DataTypeInt) dataType).sample});
+                }
+
+                @Override
+                void appendCsvSample(DataType dataType, StringBuilder out) {
+                    out.append(',').append(((DataTypeInt) dataType).sample);
+                }
+
+                @Override
+                public void writeBinary(DataType dataType, DataOutputStream out) throws IOException {
+                    out.writeInt(((DataTypeInt) dataType).sample);
+                }
+
+                @Override
+                DataType readSample(long dateTime, ByteBuffer payload, int length) {
+                    return new DataTypeInt(dateTime, payload.getInt(0));
+                }
+
+                @Override
+                public JsonElement toJson(DataType dataType) {
+                    return new JsonPrimitive(((DataTypeInt) dataType).sample);
+                }
+            },
+            new DataTypeCodec(DataTypeBinary.INT_ARRAY, DataTypeIntArray.class) {
+                @Override
+                double[] toDoubles(DataType dataType) {
+                    int[] sample = ((DataTypeIntArray) dataType).sample;
+                    double[] values = new double[sample.length];
+                    for (int i = 0; i < sample.length; i++)
+                        values[i] = sample[i];
+                    return values;
+                }
+
+                @Override
+                void appendCsvSample(DataType dataType, StringBuilder out) {
+                    for (int value : ((DataTypeIntArray) dataType).sample)
+                        out.append(',').append(value);
+                }
+
+                @Override
+                public void writeBinary(DataType dataType, DataOutputStream out) throws IOException {
+                    for (int value : ((DataTypeIntArray) dataType).sample)
+                        out.writeInt(value);
+                }
+
+                @Override
+                DataType readSample(long dateTime, ByteBuffer payload, int length) {
+                    int[] sample = new int[length / 4];
+                    for (int i = 0; i < sample.length; i++)
+                        sample[i] = payload.getInt(i * 4);
+                    return new DataTypeIntArray(dateTime, sample);
+                }
+
+                @Override
+                public JsonElement toJson(DataType dataType) {
+                    JsonArray array = new JsonArray();
+                    for (int value : ((DataTypeIntArray) dataType).sample)
+                        array.add(value);
+                    return array;
+                }
+            },
+            new DataTypeCodec(DataTypeBinary.LONG, DataTypeLong.class) {
+                @Override
+                double[] toDoubles(DataType dataType) {
+                    return new double[]{((DataTypeLong) dataType).sample};
+                }
+
+                @Override
+                public DataType toArrayForm(DataType dataType) {
+                    return new DataTypeLongArray(dataType.dateTime, new long[]{((DataTypeLong) dataType).sample});
+                }
+
+                @Override
+                void appendCsvSample(DataType dataType, StringBuilder out) {
+                    out.append(',').append(((DataTypeLong) dataType).sample);
+                }
+
+                @Override
+                public void writeBinary(DataType dataType, DataOutputStream out) throws IOException {
+                    out.writeLong(((DataTypeLong) dataType).sample);
+                }
+
+                @Override
+                DataType readSample(long dateTime, ByteBuffer payload, int length) {
+                    return new DataTypeLong(dateTime, payload.getLong(0));
+                }
+
+                @Override
+                public JsonElement toJson(DataType dataType) {
+                    return new JsonPrimitive(((DataTypeLong) dataType).sample);
+                }
+            },
+            new DataTypeCodec(DataTypeBinary.LONG_ARRAY, DataTypeLongArray.class) {
+                @Override
+                double[] toDoubles(DataType dataType) {
+                    long[] sample = ((DataTypeLongArray) dataType).sample;
+                    double[] values = new double[sample.length];
+                    for (int i = 0; i < sample.length; i++)
+                        values[i] = sample[i];
+                    return values;
+                }
+
+                @Override
+                void appendCsvSample(DataType dataType, StringBuilder out) {
+                    for (long value : ((DataTypeLongArray) dataType).sample)
+                        out.append(',').append(value);
+                }
+
+                @Override
+                public void writeBinary(DataType dataType, DataOutputStream out) throws IOException {
+                    for (long value : ((DataTypeLongArray) dataType).sample)
+                        out.writeLong(value);
+                }
+
+                @Override
+                DataType readSample(long dateTime, ByteBuffer payload, int length) {
+                    long[] sample = new long[length / 8];
+                    for (int i = 0; i < sample.length; i++)
+                        sample[i] = payload.getLong(i * 8);
+                    return new DataTypeLongArray(dateTime, sample);
+                }
+
+                @Override
+                public JsonElement toJson(DataType dataType) {
+                    JsonArray array = new JsonArray();
+                    for (long value : ((DataTypeLongArray) dataType).sample)
+                        array.add(value);
+                    return array;
+                }
+            },
+            new DataTypeCodec(DataTypeBinary.STRING, DataTypeString.class) {
+                @Override
+                public DataType toArrayForm(DataType dataType) {
+                    return new DataTypeStringArray(dataType.dateTime, new String[]{((DataTypeString) dataType).sample});
+                }
+
+                @Override
+                void appendCsvSample(DataType dataType, StringBuilder out) {
+                    out.append(',').append(((DataTypeString) dataType).sample);
+                }
+
+                @Override
+                public void writeBinary(DataType dataType, DataOutputStream out) throws IOException {
+                    out.write(((DataTypeString) dataType).sample.getBytes(UTF_8));
+                }
+
+                @Override
+                DataType readSample(long dateTime, ByteBuffer payload, int length) {
+                    return new DataTypeString(dateTime, new String(payload.array(), 0, length, UTF_8));
+                }
+
+                @Override
+                public JsonElement toJson(DataType dataType) {
+                    return new JsonPrimitive(((DataTypeString) dataType).sample);
+                }
+            },
+            new DataTypeCodec(DataTypeBinary.STRING_ARRAY, DataTypeStringArray.class) {
+                @Override
+                void appendCsvSample(DataType dataType, StringBuilder out) {
+                    for (String value : ((DataTypeStringArray) dataType).sample)
+                        out.append(',').append(value);
+                }
+
+                @Override
+                public void writeBinary(DataType dataType, DataOutputStream out) throws IOException {
+                    String[] strings = ((DataTypeStringArray) dataType).sample;
+                    out.writeInt(strings.length);
+                    for (String string : strings) {
+                        byte[] bytes = string.getBytes(UTF_8);
+                        out.writeInt(bytes.length);
+                        out.write(bytes);
+                    }
+                }
+
+                @Override
+                DataType readSample(long dateTime, ByteBuffer payload, int length) {
+                    String[] strings = new String[payload.getInt(0)];
+                    int position = 4;
+                    for (int i = 0; i < strings.length; i++) {
+                        int size = payload.getInt(position);
+                        strings[i] = new String(payload.array(), position + 4, size, UTF_8);
+                        position += 4 + size;
+                    }
+                    return new DataTypeStringArray(dateTime, strings);
+                }
+
+                @Override
+                public JsonElement toJson(DataType dataType) {
+                    JsonArray array = new JsonArray();
+                    for (String value : ((DataTypeStringArray) dataType).sample)
+                        array.add(value);
+                    return array;
+                }
+            },
+            new DataTypeCodec(DataTypeBinary.JSON_OBJECT, DataTypeJSONObject.class) {
+                @Override
+                public DataType toArrayForm(DataType dataType) {
+                    JsonArray array = new JsonArray();
+                    array.add(((DataTypeJSONObject) dataType).getSample());
+                    return new DataTypeJSONObjectArray(dataType.dateTime, array);
+                }
+
+                @Override
+                void appendCsvSample(DataType dataType, StringBuilder out) {
+                    out.append(',').append(((DataTypeJSONObject) dataType).sampleTree().toString());
+                }
+
+                @Override
+                public void writeBinary(DataType dataType, DataOutputStream out) throws IOException {
+                    JsonBinary.write(((DataTypeJSONObject) dataType).sampleTree(), out);
+                }
+
+                @Override
+                DataType readSample(long dateTime, ByteBuffer payload, int length) {
+                    return DataTypeJSONObject.ofTree(readJson(payload, length).getAsJsonObject());
+                }
+
+                @Override
+                public JsonElement toJson(DataType dataType) {
+                    return ((DataTypeJSONObject) dataType).getSample();
+                }
+            },
+            new DataTypeCodec(DataTypeBinary.JSON_OBJECT_ARRAY, DataTypeJSONObjectArray.class) {
+                @Override
+                void appendCsvSample(DataType dataType, StringBuilder out) {
+                    for (JsonElement value : ((DataTypeJSONObjectArray) dataType).sampleTree())
+                        out.append(',').append(value.toString());
+                }
+
+                @Override
+                public void writeBinary(DataType dataType, DataOutputStream out) throws IOException {
+                    JsonBinary.write(((DataTypeJSONObjectArray) dataType).sampleTree(), out);
+                }
+
+                @Override
+                DataType readSample(long dateTime, ByteBuffer payload, int length) {
+                    return DataTypeJSONObjectArray.ofTree(readJson(payload, length).getAsJsonArray());
+                }
+
+                @Override
+                public JsonElement toJson(DataType dataType) {
+                    return ((DataTypeJSONObjectArray) dataType).getSample();
+                }
+            }
+    };
+
+    /** Type tag of the samples this codec converts. */
+    private final byte tag;
+
+    /** Class of the samples this codec converts. */
+    private final Class<? extends DataType> type;
+
+    /**
+     * Constructor
+     *
+     * @param tag Type tag of the samples this codec converts.
+     * @param type Class of the samples this codec converts.
+     */
+    DataTypeCodec(byte tag, Class<? extends DataType> type) {
+        this.tag = tag;
+        this.type = type;
+    }
+
+    /**
+     * Returns the codec for the given sample.
+     *
+     * @param dataType The sample.
+     * @return The codec.
+     */
+    public static DataTypeCodec forType(DataType dataType) {
+        return CODECS[dataType.getTypeTag()];
+    }
+
+    /**
+     * Returns the codec for the given type tag.
+     *
+     * @param tag Type tag, one of the <code>DataTypeBinary</code> constants other than <code>END</code>.
+     * @return The codec.
+     * @throws IllegalArgumentException Thrown if the tag is unknown.
+     */
+    public static DataTypeCodec forTag(byte tag) {
+        if (tag <= DataTypeBinary.END || tag >= CODECS.length)
+            throw new IllegalArgumentException("Unknown type tag " + tag);
+        return CODECS[tag];
+    }
+
+    /**
+     * @return Type tag of the samples this codec converts.
+     */
+    public byte getTypeTag() {
+        return tag;
+    }
+
+    /**
+     * @param dataType The sample.
+     * @return Whether this codec converts samples of exactly the class of <code>dataType</code>.
+     */
+    public boolean accepts(DataType dataType) {
+        return dataType.getClass() == type;
+    }
+
+    /**
+     * Returns the array form of a sample, for example a <code>DataTypeBooleanArray</code> for a
+     * <code>DataTypeBoolean</code>. Other samples are returned as they are.
+     *
+     * @param dataType The sample.
+     * @return The array form.
+     */
+    public DataType toArrayForm(DataType dataType) {
+        return dataType;
+    }
+
+    /**
+     * Returns the value or values of a numeric sample as doubles.
+     *
+     * @param dataType The sample.
+     * @return The values. May be the sample's own array, so callers must not modify it.
+     * @throws IllegalArgumentException Thrown when the sample is not numeric.
+     */
+    double[] toDoubles(DataType dataType) {
+        throw new IllegalArgumentException("Sample is not numeric");
+    }
+
+    /**
+     * Appends a sample as a CSV line without the line terminator: the timestamp, the time zone
+     * offset and the values, separated by commas.
+     *
+     * @param dataType The sample.
+     * @param out Builder to append to.
+     */
+    public void appendCsv(DataType dataType, StringBuilder out) {
+        out.append(dataType.dateTime).append(',').append(dataType.offset);
+        appendCsvSample(dataType, out);
+    }
+
+    /**
+     * Appends the values of a sample, each preceded by a comma.
+     *
+     * @param dataType The sample.
+     * @param out Builder to append to.
+     */
+    abstract void appendCsvSample(DataType dataType, StringBuilder out);
+
+    /**
+     * Writes the value of a sample as a <code>DataTypeBinary</code> payload, big-endian.
+     *
+     * @param dataType The sample.
+     * @param out Stream to write to.
+     * @throws IOException Thrown if the stream cannot be written.
+     */
+    public abstract void writeBinary(DataType dataType, DataOutputStream out) throws IOException;
+
+    /**
+     * Reads a sample from a <code>DataTypeBinary</code> payload.
+     *
+     * @param dateTime Timestamp of the sample.
+     * @param offset Time zone offset of the sample.
+     * @param payload Buffer holding the payload from index 0.
+     * @param length Length of the payload in bytes.
+     * @return The sample.
+     */
+    public DataType readBinary(long dateTime, long offset, ByteBuffer payload, int length) {
+        DataType dataType = readSample(dateTime, payload, length);
+        dataType.dateTime = dateTime;
+        dataType.offset = offset;
+        return dataType;
+    }
+
+    /**
+     * Reads the value of a sample from a <code>DataTypeBinary</code> payload.
+     *
+     * @param dateTime Timestamp of the sample.
+     * @param payload Buffer holding the payload from index 0.
+     * @param length Length of the payload in bytes.
+     * @return The sample.
+     */
+    abstract DataType readSample(long dateTime, ByteBuffer payload, int length);
+
+    /**
+     * Returns the value of a sample as a JSON tree, without its timestamp.
+     *
+     * @param dataType The sample.
+     * @return The value. Callers may modify it.
+     */
+    public abstract JsonElement toJson(DataType dataType);
+
+    /**
+     * Appends a byte as two upper case hexadecimal digits.
+     *
+     * @param value The byte.
+     * @param out Builder to append to.
+     */
+    static void appendHex(byte value, StringBuilder out) {
+        out.append(HEX[(value >> 4) & 0xF]).append(HEX[value & 0xF]);
+    }
+
+    /**
+     * Reads a JSON tree in the <code>JsonBinary</code> encoding from the start of the payload.
+     *
+     * @param payload Buffer holding the payload from index 0.
+     * @param length Length of the payload in bytes.
+     * @return The tree.
+     */
+    static JsonElement readJson(ByteBuffer payload, int length) {
+        ByteBuffer in = payload.duplicate();
+        in.position(0);
+        in.limit(length);
+        return JsonBinary.read(in);
+    }
+}
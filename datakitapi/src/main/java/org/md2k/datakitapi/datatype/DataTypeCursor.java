@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) 2018, The University of Memphis, MD2K Center of Excellence
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.md2k.datakitapi.datatype;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads rows written by <code>DataTypeBinary</code> one at a time.
+ *
+ * <p>
+ *     Only the current row is held in memory, in a buffer that is reused from row to row. Numeric
+ *     values can be read straight from that buffer with <code>getWidth()</code> and
+ *     <code>getDouble()</code>; a <code>DataType</code> object is only created when
+ *     <code>getDataType()</code> is called. This lets a large query result be scanned in constant
+ *     memory.
+ * </p>
+ */
+public class DataTypeCursor implements Closeable {
+
+    /** Size of the read buffer in bytes. */
+    private static final int STREAM_BUFFER_SIZE = 1 << 16;
+
+    /** Stream the rows are read from. */
+    private final DataInputStream in;
+
+    /** Payload of the current row, starting at index 0. */
+    private ByteBuffer payload = ByteBuffer.allocate(256);
+
+    /** Type tag of the current row, <code>DataTypeBinary.END</code> when there is no current row. */
+    private byte tag = DataTypeBinary.END;
+
+    /** Key of the current row. */
+    private long rowKey;
+
+    /** Timestamp of the current row. */
+    private long dateTime;
+
+    /** Time zone offset of the current row. */
+    private long offset;
+
+    /** Payload length of the current row in bytes. */
+    private int length;
+
+    /** Whether the end of the stream has been reached. */
+    private boolean finished;
+
+    /**
+     * Constructor
+     *
+     * @param in Stream holding the rows. It is closed when the cursor is closed.
+     */
+    public DataTypeCursor(InputStream in) {
+        this.in = new DataInputStream(new BufferedInputStream(in, STREAM_BUFFER_SIZE));
+    }
+
+    /**
+     * Moves to the next row.
+     *
+     * <p>
+     *     A result is only complete once its <code>DataTypeBinary.END</code> tag has been read. A
+     *     stream that ends before it, for example because <code>DataKit</code> stopped while writing,
+     *     is reported as an <code>EOFException</code> rather than as the end of the result.
+     * </p>
+     *
+     * @return Whether there is a next row, false once the end tag has been read.
+     * @throws EOFException Thrown if the stream ends before the end tag.
+     * @throws IOException Thrown if the stream cannot be read or is corrupt.
+     */
+    public boolean moveToNext() throws IOException {
+        if (finished)
+            return false;
+        tag = in.readByte();
+        if (tag == DataTypeBinary.END) {
+            finished = true;
+            return false;
+        }
+        rowKey = in.readLong();
+        dateTime = in.readLong();
+        offset = in.readLong();
+        length = in.readInt();
+        if (length < 0)
+            throw new IOException("Invalid payload length " + length);
+        if (payload.capacity() < length)
+            payload = ByteBuffer.allocate(Math.max(length, payload.capacity() * 2));
+        in.readFully(payload.array(), 0, length);
+        return true;
+    }
+
+    /**
+     * @return Type tag of the current row, one of the <code>DataTypeBinary</code> constants.
+     */
+    public byte getTypeTag() {
+        return tag;
+    }
+
+    /**
+     * @return Key of the current row, -1 if it has none.
+     */
+    public long getRowKey() {
+        return rowKey;
+    }
+
+    /**
+     * @return Timestamp of the current row.
+     */
+    public long getDateTime() {
+        return dateTime;
+    }
+
+    /**
+     * @return Time zone offset of the current row.
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return Number of numeric values in the current row, 0 for strings and JSON.
+     */
+    public int getWidth() {
+        switch (tag) {
+            case DataTypeBinary.BOOLEAN:
+            case DataTypeBinary.BOOLEAN_ARRAY:
+            case DataTypeBinary.BYTE:
+            case DataTypeBinary.BYTE_ARRAY:
+                return length;
+            case DataTypeBinary.FLOAT:
+            case DataTypeBinary.FLOAT_ARRAY:
+            case DataTypeBinary.INT:
+            case DataTypeBinary.INT_ARRAY:
+                return length / 4;
+            case DataTypeBinary.DOUBLE:
+            case DataTypeBinary.DOUBLE_ARRAY:
+            case DataTypeBinary.LONG:
+            case DataTypeBinary.LONG_ARRAY:
+                return length / 8;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Reads a numeric value of the current row without creating any objects.
+     *
+     * @param index Index of the value, less than <code>getWidth()</code>.
+     * @return The value as a double. Booleans are 1 or 0.
+     */
+    public double getDouble(int index) {
+        switch (tag) {
+            case DataTypeBinary.BOOLEAN:
+            case DataTypeBinary.BOOLEAN_ARRAY:
+                return payload.get(index) != 0 ? 1 : 0;
+            case DataTypeBinary.BYTE:
+            case DataTypeBinary.BYTE_ARRAY:
+                return payload.get(index);
+            case DataTypeBinary.FLOAT:
+            case DataTypeBinary.FLOAT_ARRAY:
+                return payload.getFloat(index * 4);
+            case DataTypeBinary.INT:
+            case DataTypeBinary.INT_ARRAY:
+                return payload.getInt(index * 4);
+            case DataTypeBinary.DOUBLE:
+            case DataTypeBinary.DOUBLE_ARRAY:
+                return payload.getDouble(index * 8);
+            case DataTypeBinary.LONG:
+            case DataTypeBinary.LONG_ARRAY:
+                return payload.getLong(index * 8);
+            default:
+                throw new IllegalStateException("Row has no numeric values");
+        }
+    }
+
+    /**
+     * Decodes the current row into a new <code>DataType</code>.
+     *
+     * @return The data type of the current row.
+     */
+    public DataType getDataType() {
+        if (tag == DataTypeBinary.END)
+            throw new IllegalStateException("No current row");
+        return DataTypeBinary.decode(tag, dateTime, offset, payload, length);
+    }
+
+    /**
+     * Decodes the current row into a new <code>RowObject</code>.
+     *
+     * @return The current row.
+     */
+    public RowObject getRowObject() {
+        return new RowObject(rowKey, getDataType());
+    }
+
+    /**
+     * Closes the underlying stream.
+     *
+     * @throws IOException Thrown if the stream cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        finished = true;
+        tag = DataTypeBinary.END;
+        in.close();
+    }
+}
@@ -94,6 +94,14 @@ public class DataTypeDouble extends DataType implements Parcelable {
         return sample;
     }
 
+    /**
+     * @return <code>DataTypeBinary.DOUBLE</code>
+     */
+    @Override
+    public byte getTypeTag() {
+        return DataTypeBinary.DOUBLE;
+    }
+
     /**
      * <code>Creator</code> for <code>DataTypeDouble</code> objects.
      */
@@ -58,6 +58,18 @@ public class DataTypeDoubleArray extends  DataType implements Parcelable{
         this.sample = sample;
     }
 
+    /**
+     * Constructor
+     *
+     * @param timestamp The timestamp for when the data was collected.
+     * @param offset The time zone offset in milliseconds when the data was collected.
+     * @param sample The data point sampled from the data source.
+     */
+    public DataTypeDoubleArray(long timestamp, long offset, double[] sample) {
+        super(timestamp, offset);
+        this.sample = sample;
+    }
+
     /**
      * Constructor
      *
@@ -115,10 +127,7 @@ public class DataTypeDoubleArray extends  DataType implements Parcelable{
      */
     public byte[] toRawBytes() {
         byte[] data = new byte[sample.length * 8];
-
-        for (int i = 0; i < sample.length; i++) {
-            ByteBuffer.wrap(data, i * 8, 8).putDouble(sample[i]);
-        }
+        ByteBuffer.wrap(data).asDoubleBuffer().put(sample);
         return data;
     }
 
@@ -132,12 +141,18 @@ public class DataTypeDoubleArray extends  DataType implements Parcelable{
     static public DataTypeDoubleArray fromRawBytes(long timestamp, byte[] data) {
 
         double[] sample = new double[data.length / 8];
-        for (int i = 0; i < sample.length; i++) {
-            sample[i] = ByteBuffer.wrap(data, i * 8, 8).getDouble();
-        }
+        ByteBuffer.wrap(data, 0, sample.length * 8).asDoubleBuffer().get(sample);
         return new DataTypeDoubleArray(timestamp, sample);
     }
 
+    /**
+     * @return <code>DataTypeBinary.DOUBLE_ARRAY</code>
+     */
+    @Override
+    public byte getTypeTag() {
+        return DataTypeBinary.DOUBLE_ARRAY;
+    }
+
     /**
      * <code>Creator</code> for <code>DataTypeDouble</code> objects.
      */
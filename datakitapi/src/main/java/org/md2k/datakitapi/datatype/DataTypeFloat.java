@@ -93,6 +93,14 @@ public class DataTypeFloat extends  DataType implements Parcelable{
         return sample;
     }
 
+    /**
+     * @return <code>DataTypeBinary.FLOAT</code>
+     */
+    @Override
+    public byte getTypeTag() {
+        return DataTypeBinary.FLOAT;
+    }
+
     /**
      * <code>Creator</code> for <code>DataTypeFloat</code> objects.
      */
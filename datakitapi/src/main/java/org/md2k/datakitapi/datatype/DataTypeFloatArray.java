@@ -93,6 +93,14 @@ public class DataTypeFloatArray extends  DataType implements Parcelable{
         return sample;
     }
 
+    /**
+     * @return <code>DataTypeBinary.FLOAT_ARRAY</code>
+     */
+    @Override
+    public byte getTypeTag() {
+        return DataTypeBinary.FLOAT_ARRAY;
+    }
+
     /**
      * <code>Creator</code> for <code>DataTypeFloatArray</code> objects.
      */
@@ -93,6 +93,14 @@ public class DataTypeInt extends  DataType implements Parcelable{
         return sample;
     }
 
+    /**
+     * @return <code>DataTypeBinary.INT</code>
+     */
+    @Override
+    public byte getTypeTag() {
+        return DataTypeBinary.INT;
+    }
+
     /**
      * <code>Creator</code> for <code>DataTypeInt</code> objects.
      */
@@ -93,6 +93,14 @@ public class DataTypeIntArray extends  DataType implements Parcelable{
         return sample;
     }
 
+    /**
+     * @return <code>DataTypeBinary.INT_ARRAY</code>
+     */
+    @Override
+    public byte getTypeTag() {
+        return DataTypeBinary.INT_ARRAY;
+    }
+
     /**
      * <code>Creator</code> for <code>DataTypeByteArray</code> objects.
      */
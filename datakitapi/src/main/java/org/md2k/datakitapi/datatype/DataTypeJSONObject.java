@@ -39,10 +39,16 @@ import com.google.gson.JsonParser;
 public class DataTypeJSONObject extends DataType implements Parcelable {
 
     /**
-     * The data point collected from the data source.
+     * The data point collected from the data source, as JSON text. Null until needed if the
+     * object was created from a parsed tree.
      */
     String sample;
 
+    /**
+     * The parsed data point, created on first use and never handed out.
+     */
+    private transient volatile JsonObject tree;
+
     /**
      * Constructor
      */
@@ -69,6 +75,19 @@ public class DataTypeJSONObject extends DataType implements Parcelable {
         sample = in.readString();
     }
 
+    /**
+     * Constructs a <code>DataTypeJSONObject</code> around an already parsed tree, which it takes
+     * ownership of.
+     *
+     * @param tree The parsed data point.
+     * @return The new <code>DataTypeJSONObject</code>.
+     */
+    static DataTypeJSONObject ofTree(JsonObject tree) {
+        DataTypeJSONObject dataTypeJSONObject = new DataTypeJSONObject();
+        dataTypeJSONObject.tree = tree;
+        return dataTypeJSONObject;
+    }
+
     /**
      * Writes the <code>DataTypeJSONObject</code> to a parcel.
      *
@@ -78,7 +97,7 @@ public class DataTypeJSONObject extends DataType implements Parcelable {
     @Override
     public void writeToParcel(Parcel dest, int flags) {
         super.writeToParcel(dest, flags);
-        dest.writeString(sample);
+        dest.writeString(getRawSample());
     }
 
     /**
@@ -90,10 +109,51 @@ public class DataTypeJSONObject extends DataType implements Parcelable {
     }
 
     /**
+     * Returns the value of the sample.
+     *
+     * <p>
+     *     The JSON text is parsed once and kept; each call returns a copy of that tree, so callers
+     *     may modify it.
+     * </p>
+     *
      * @return The the value of the sample.
      */
     public JsonObject getSample() {
-        return new JsonParser().parse(sample).getAsJsonObject();
+        return sampleTree().deepCopy();
+    }
+
+    /**
+     * @return The value of the sample as JSON text.
+     */
+    public String getRawSample() {
+        String raw = sample;
+        if (raw == null) {
+            raw = tree.toString();
+            sample = raw;
+        }
+        return raw;
+    }
+
+    /**
+     * Returns the parsed sample shared by every caller, parsing it on first use. Must not be modified.
+     *
+     * @return The parsed sample.
+     */
+    JsonObject sampleTree() {
+        JsonObject parsed = tree;
+        if (parsed == null) {
+            parsed = new JsonParser().parse(sample).getAsJsonObject();
+            tree = parsed;
+        }
+        return parsed;
+    }
+
+    /**
+     * @return <code>DataTypeBinary.JSON_OBJECT</code>
+     */
+    @Override
+    public byte getTypeTag() {
+        return DataTypeBinary.JSON_OBJECT;
     }
 
     /**
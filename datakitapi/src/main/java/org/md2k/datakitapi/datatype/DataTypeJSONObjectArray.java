@@ -39,9 +39,15 @@ import com.google.gson.JsonParser;
 public class DataTypeJSONObjectArray extends DataType implements Parcelable {
 
     /**
-     * The data point collected from the data source.
+     * The data point collected from the data source, as JSON text. Null until needed if the
+     * object was created from a parsed tree.
      */
-    JsonArray sample;
+    String sample;
+
+    /**
+     * The parsed data point, created on first use and never handed out.
+     */
+    private transient volatile JsonArray tree;
 
     /**
      * Constructor
@@ -56,7 +62,7 @@ public class DataTypeJSONObjectArray extends DataType implements Parcelable {
      */
     public DataTypeJSONObjectArray(long timestamp, JsonArray sample) {
         super(timestamp);
-        this.sample = sample;
+        this.sample = sample.toString();
     }
 
     /**
@@ -66,7 +72,20 @@ public class DataTypeJSONObjectArray extends DataType implements Parcelable {
      */
     protected DataTypeJSONObjectArray(Parcel in) {
         super(in);
-        sample = new JsonParser().parse(in.readString()).getAsJsonArray();
+        sample = in.readString();
+    }
+
+    /**
+     * Constructs a <code>DataTypeJSONObjectArray</code> around an already parsed tree, which it
+     * takes ownership of.
+     *
+     * @param tree The parsed data point.
+     * @return The new <code>DataTypeJSONObjectArray</code>.
+     */
+    static DataTypeJSONObjectArray ofTree(JsonArray tree) {
+        DataTypeJSONObjectArray dataTypeJSONObjectArray = new DataTypeJSONObjectArray();
+        dataTypeJSONObjectArray.tree = tree;
+        return dataTypeJSONObjectArray;
     }
 
     /**
@@ -78,7 +97,7 @@ public class DataTypeJSONObjectArray extends DataType implements Parcelable {
     @Override
     public void writeToParcel(Parcel dest, int flags) {
         super.writeToParcel(dest, flags);
-        dest.writeString(sample.toString());
+        dest.writeString(getRawSample());
     }
 
     /**
@@ -90,10 +109,51 @@ public class DataTypeJSONObjectArray extends DataType implements Parcelable {
     }
 
     /**
+     * Returns the value of the sample.
+     *
+     * <p>
+     *     The JSON text is parsed once and kept; each call returns a copy of that tree, so callers
+     *     may modify it.
+     * </p>
+     *
      * @return The the value of the sample.
      */
     public JsonArray getSample() {
-        return sample;
+        return sampleTree().deepCopy();
+    }
+
+    /**
+     * @return The value of the sample as JSON text.
+     */
+    public String getRawSample() {
+        String raw = sample;
+        if (raw == null) {
+            raw = tree.toString();
+            sample = raw;
+        }
+        return raw;
+    }
+
+    /**
+     * Returns the parsed sample shared by every caller, parsing it on first use. Must not be modified.
+     *
+     * @return The parsed sample.
+     */
+    JsonArray sampleTree() {
+        JsonArray parsed = tree;
+        if (parsed == null) {
+            parsed = new JsonParser().parse(sample).getAsJsonArray();
+            tree = parsed;
+        }
+        return parsed;
+    }
+
+    /**
+     * @return <code>DataTypeBinary.JSON_OBJECT_ARRAY</code>
+     */
+    @Override
+    public byte getTypeTag() {
+        return DataTypeBinary.JSON_OBJECT_ARRAY;
     }
 
     /**
@@ -93,6 +93,14 @@ public class DataTypeLong extends  DataType implements Parcelable{
         return sample;
     }
 
+    /**
+     * @return <code>DataTypeBinary.LONG</code>
+     */
+    @Override
+    public byte getTypeTag() {
+        return DataTypeBinary.LONG;
+    }
+
     /**
      * <code>Creator</code> for <code>DataTypeLong</code> objects.
      */
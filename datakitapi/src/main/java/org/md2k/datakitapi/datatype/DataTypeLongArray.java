@@ -93,6 +93,14 @@ public class DataTypeLongArray extends DataType implements Parcelable {
         return sample;
     }
 
+    /**
+     * @return <code>DataTypeBinary.LONG_ARRAY</code>
+     */
+    @Override
+    public byte getTypeTag() {
+        return DataTypeBinary.LONG_ARRAY;
+    }
+
     /**
      * <code>Creator</code> for <code>DataTypeLongArray</code> objects.
      */
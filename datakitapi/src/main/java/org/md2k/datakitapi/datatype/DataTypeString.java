@@ -93,6 +93,14 @@ public class DataTypeString extends  DataType implements Parcelable{
         return sample;
     }
 
+    /**
+     * @return <code>DataTypeBinary.STRING</code>
+     */
+    @Override
+    public byte getTypeTag() {
+        return DataTypeBinary.STRING;
+    }
+
     /**
      * <code>Creator</code> for <code>DataTypeString</code> objects.
      */
@@ -94,6 +94,14 @@ public class DataTypeStringArray extends DataType implements Parcelable {
         return sample;
     }
 
+    /**
+     * @return <code>DataTypeBinary.STRING_ARRAY</code>
+     */
+    @Override
+    public byte getTypeTag() {
+        return DataTypeBinary.STRING_ARRAY;
+    }
+
     /**
      * <code>Creator</code> for <code>DataTypeStringArray</code> objects.
      */
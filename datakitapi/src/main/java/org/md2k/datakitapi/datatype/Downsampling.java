@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) 2018, The University of Memphis, MD2K Center of Excellence
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.md2k.datakitapi.datatype;
+
+import java.util.Arrays;
+
+/**
+ * Reduces numeric samples for plotting, as done by <code>DataKit</code> for the
+ * <code>QUERY_AGGREGATE</code> and <code>QUERY_DOWNSAMPLE</code> message types.
+ *
+ * <p>
+ *     <code>aggregate()</code> summarizes the samples in fixed time buckets.
+ *     <code>downsample()</code> keeps the samples that best preserve the visual shape of one value
+ *     using Largest-Triangle-Three-Buckets (LTTB): the first and last samples are always kept, the
+ *     rest are split into <code>points - 2</code> buckets of about the same number of samples, and from
+ *     each bucket the sample forming the largest triangle with the previously kept sample and the
+ *     mean of the next bucket is kept.
+ * </p>
+ *
+ * <p>
+ *     Samples must be in time order and of one numeric <code>DataType</code> class: byte, int, long,
+ *     float or double, scalar or array, all of the same width.
+ * </p>
+ */
+public class Downsampling {
+
+    /**
+     * Constructor
+     */
+    private Downsampling() {
+    }
+
+    /**
+     * Computes the count, minimum, maximum and mean of every value per time bucket.
+     *
+     * @param dataTypes Samples in time order.
+     * @param starttimestamp Start of the first bucket.
+     * @param bucket Width in milliseconds of each bucket, greater than 0.
+     * @return The non-empty buckets in time order.
+     * @throws IllegalArgumentException Thrown when the samples are not numeric or differ in width.
+     */
+    public static AggregateBlock aggregate(DataType[] dataTypes, long starttimestamp, long bucket) {
+        if (bucket <= 0)
+            throw new IllegalArgumentException("bucket must be greater than 0");
+        boolean scalar = dataTypes.length == 0 || isScalar(dataTypes[0]);
+        int width = dataTypes.length == 0 ? 1 : valuesOf(dataTypes[0]).length;
+        long[] timestamps = new long[dataTypes.length];
+        int[] counts = new int[dataTypes.length];
+        double[] min = new double[dataTypes.length * width];
+        double[] max = new double[dataTypes.length * width];
+        double[] mean = new double[dataTypes.length * width];
+        int size = 0;
+        long current = 0;
+        for (int i = 0; i < dataTypes.length; i++) {
+            double[] values = valuesOf(dataTypes[i]);
+            if (values.length != width)
+                throw new IllegalArgumentException("Sample " + i + " has width " + values.length);
+            long start = starttimestamp + floorDiv(dataTypes[i].dateTime - starttimestamp, bucket) * bucket;
+            if (size == 0 || start != current) {
+                current = start;
+                timestamps[size] = start;
+                System.arraycopy(values, 0, min, size * width, width);
+                System.arraycopy(values, 0, max, size * width, width);
+                size++;
+            }
+            int row = (size - 1) * width;
+            counts[size - 1]++;
+            for (int column = 0; column < width; column++) {
+                double value = values[column];
+                if (value < min[row + column])
+                    min[row + column] = value;
+                if (value > max[row + column])
+                    max[row + column] = value;
+                mean[row + column] += value;
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            for (int column = 0; column < width; column++)
+                mean[i * width + column] /= counts[i];
+        }
+        return new AggregateBlock(Arrays.copyOf(timestamps, size), SampleBlock.offsetOf(dataTypes), width,
+                scalar, bucket, Arrays.copyOf(counts, size), Arrays.copyOf(min, size * width),
+                Arrays.copyOf(max, size * width), Arrays.copyOf(mean, size * width));
+    }
+
+    /**
+     * Keeps at most <code>points</code> samples that preserve the visual shape of one value.
+     * Every value of a kept sample is returned, not only the one the selection is based on.
+     *
+     * @param dataTypes Samples in time order.
+     * @param points Maximum number of samples to keep, at least 3.
+     * @param column Index of the value within each sample the selection is based on.
+     * @return The kept samples in time order, all of them if there are no more than <code>points</code>.
+     * @throws IllegalArgumentException Thrown when the samples are not numeric or differ in width.
+     */
+    public static DoubleBlock downsample(DataType[] dataTypes, int points, int column) {
+        if (points < 3)
+            throw new IllegalArgumentException("points must be at least 3");
+        boolean scalar = dataTypes.length == 0 || isScalar(dataTypes[0]);
+        int width = dataTypes.length == 0 ? 1 : valuesOf(dataTypes[0]).length;
+        if (column < 0 || column >= width)
+            throw new IllegalArgumentException("column " + column + " is out of range");
+        int size = dataTypes.length;
+        double[] values = new double[size * width];
+        double[] y = new double[size];
+        for (int i = 0; i < size; i++) {
+            double[] sample = valuesOf(dataTypes[i]);
+            if (sample.length != width)
+                throw new IllegalArgumentException("Sample " + i + " has width " + sample.length);
+            System.arraycopy(sample, 0, values, i * width, width);
+            y[i] = sample[column];
+        }
+        long[] timestamps = SampleBlock.timestampsOf(dataTypes);
+        long offset = SampleBlock.offsetOf(dataTypes);
+        if (size <= points)
+            return new DoubleBlock(timestamps, offset, null, width, scalar, values);
+
+        int[] kept = new int[points];
+        double every = (double) (size - 2) / (points - 2);
+        int previous = 0;
+        for (int i = 0; i < points - 2; i++) {
+            int nextStart = (int) ((i + 1) * every) + 1;
+            int nextEnd = Math.min((int) ((i + 2) * every) + 1, size);
+            double nextX = 0;
+            double nextY = 0;
+            for (int j = nextStart; j < nextEnd; j++) {
+                nextX += timestamps[j] - timestamps[0];
+                nextY += y[j];
+            }
+            nextX /= nextEnd - nextStart;
+            nextY /= nextEnd - nextStart;
+
+            double previousX = timestamps[previous] - timestamps[0];
+            double previousY = y[previous];
+            int start = (int) (i * every) + 1;
+            int end = (int) ((i + 1) * every) + 1;
+            double largest = -1;
+            int selected = start;
+            for (int j = start; j < end; j++) {
+                double area = Math.abs((previousX - nextX) * (y[j] - previousY)
+                        - (previousX - (timestamps[j] - timestamps[0])) * (nextY - previousY));
+                if (area > largest) {
+                    largest = area;
+                    selected = j;
+                }
+            }
+            kept[i + 1] = selected;
+            previous = selected;
+        }
+        kept[points - 1] = size - 1;
+
+        long[] keptTimestamps = new long[points];
+        long[] offsets = SampleBlock.offsetsOf(dataTypes);
+        long[] keptOffsets = offsets == null ? null : new long[points];
+        double[] keptValues = new double[points * width];
+        for (int i = 0; i < points; i++) {
+            keptTimestamps[i] = timestamps[kept[i]];
+            if (keptOffsets != null)
+                keptOffsets[i] = offsets[kept[i]];
+            System.arraycopy(values, kept[i] * width, keptValues, i * width, width);
+        }
+        return new DoubleBlock(keptTimestamps, offset, keptOffsets, width, scalar, keptValues);
+    }
+
+    /**
+     * Converts the value or values of a numeric sample to doubles.
+     *
+     * @param dataType The sample.
+     * @return The values of the sample, not to be modified.
+     * @throws IllegalArgumentException Thrown when the sample is not numeric.
+     */
+    static double[] valuesOf(DataType dataType) {
+        return DataTypeCodec.forType(dataType).toDoubles(dataType);
+    }
+
+    /**
+     * @param dataType The sample.
+     * @return Whether the sample is a scalar <code>DataType</code> rather than an array one.
+     */
+    private static boolean isScalar(DataType dataType) {
+        switch (dataType.getTypeTag()) {
+            case DataTypeBinary.DOUBLE:
+            case DataTypeBinary.FLOAT:
+            case DataTypeBinary.LONG:
+            case DataTypeBinary.INT:
+            case DataTypeBinary.BYTE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Divides rounding toward negative infinity, so that samples before
+     * <code>starttimestamp</code> fall into earlier buckets.
+     *
+     * @param x Dividend.
+     * @param y Divisor, greater than 0.
+     * @return The quotient rounded down.
+     */
+    private static long floorDiv(long x, long y) {
+        long quotient = x / y;
+        return x % y < 0 ? quotient - 1 : quotient;
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright (c) 2018, The University of Memphis, MD2K Center of Excellence
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.md2k.datakitapi.datatype;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Map;
+
+/**
+ * Binary encoding of a JSON tree in the spirit of MessagePack.
+ *
+ * <p>
+ *     Every value starts with a one byte tag followed by its body, big-endian:
+ *     <ul>
+ *         <li><code>NULL</code>, <code>FALSE</code>, <code>TRUE</code> -- no body</li>
+ *         <li><code>LONG</code> -- <code>long</code></li>
+ *         <li><code>DOUBLE</code> -- <code>double</code></li>
+ *         <li><code>NUMBER</code> -- UTF-8 text of a number that is neither, kept exact</li>
+ *         <li><code>STRING</code> -- <code>int</code> length and UTF-8 bytes</li>
+ *         <li><code>ARRAY</code> -- <code>int</code> count and the elements</li>
+ *         <li><code>OBJECT</code> -- <code>int</code> count and, per member, the name as a
+ *         <code>STRING</code> body followed by the value</li>
+ *     </ul>
+ *     Decoding builds the tree directly, without tokenizing and parsing JSON text.
+ * </p>
+ */
+public class JsonBinary {
+
+    /** <code>null</code> */
+    static final byte NULL = 0;
+
+    /** <code>false</code> */
+    static final byte FALSE = 1;
+
+    /** <code>true</code> */
+    static final byte TRUE = 2;
+
+    /** Integral number that fits in a <code>long</code>. */
+    static final byte LONG = 3;
+
+    /** Floating point number. */
+    static final byte DOUBLE = 4;
+
+    /** Any other number, as text. */
+    static final byte NUMBER = 5;
+
+    /** String */
+    static final byte STRING = 6;
+
+    /** Array */
+    static final byte ARRAY = 7;
+
+    /** Object */
+    static final byte OBJECT = 8;
+
+    /** Character set of strings. */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Constructor
+     */
+    private JsonBinary() {}
+
+    /**
+     * Writes a JSON tree.
+     *
+     * @param element The tree to write.
+     * @param out Stream to write to.
+     * @throws IOException Thrown if the stream cannot be written.
+     */
+    public static void write(JsonElement element, DataOutputStream out) throws IOException {
+        if (element == null || element.isJsonNull()) {
+            out.writeByte(NULL);
+        } else if (element.isJsonObject()) {
+            out.writeByte(OBJECT);
+            out.writeInt(element.getAsJsonObject().size());
+            for (Map.Entry<String, JsonElement> member : element.getAsJsonObject().entrySet()) {
+                writeString(member.getKey(), out);
+                write(member.getValue(), out);
+            }
+        } else if (element.isJsonArray()) {
+            JsonArray array = element.getAsJsonArray();
+            out.writeByte(ARRAY);
+            out.writeInt(array.size());
+            for (JsonElement item : array)
+                write(item, out);
+        } else {
+            JsonPrimitive primitive = element.getAsJsonPrimitive();
+            if (primitive.isBoolean()) {
+                out.writeByte(primitive.getAsBoolean() ? TRUE : FALSE);
+            } else if (primitive.isString()) {
+                out.writeByte(STRING);
+                writeString(primitive.getAsString(), out);
+            } else {
+                writeNumber(primitive, out);
+            }
+        }
+    }
+
+    /**
+     * Reads a JSON tree from the position of the buffer, advancing it past the tree.
+     *
+     * @param in Buffer to read from.
+     * @return The tree.
+     * @throws IllegalArgumentException Thrown if the buffer does not hold a valid tree.
+     */
+    public static JsonElement read(ByteBuffer in) {
+        byte tag = in.get();
+        switch (tag) {
+            case NULL:
+                return JsonNull.INSTANCE;
+            case FALSE:
+                return new JsonPrimitive(false);
+            case TRUE:
+                return new JsonPrimitive(true);
+            case LONG:
+                return new JsonPrimitive(in.getLong());
+            case DOUBLE:
+                return new JsonPrimitive(in.getDouble());
+            case NUMBER:
+                return new JsonPrimitive(new BigDecimal(readString(in)));
+            case STRING:
+                return new JsonPrimitive(readString(in));
+            case ARRAY:
+                int length = in.getInt();
+                JsonArray array = new JsonArray(length);
+                for (int i = 0; i < length; i++)
+                    array.add(read(in));
+                return array;
+            case OBJECT:
+                int size = in.getInt();
+                JsonObject object = new JsonObject();
+                for (int i = 0; i < size; i++) {
+                    String name = readString(in);
+                    object.add(name, read(in));
+                }
+                return object;
+            default:
+                throw new IllegalArgumentException("Unknown JSON tag " + tag);
+        }
+    }
+
+    /**
+     * Writes a number with the smallest exact encoding.
+     *
+     * <p>
+     *     Numbers parsed by Gson, the usual case for samples read from a parcel, are lazily parsed
+     *     text. They are written as <code>LONG</code> or <code>DOUBLE</code> whenever that keeps their
+     *     value, so that decoding does not need to parse text, and as <code>NUMBER</code> otherwise.
+     * </p>
+     *
+     * @param primitive The number.
+     * @param out Stream to write to.
+     * @throws IOException Thrown if the stream cannot be written.
+     */
+    private static void writeNumber(JsonPrimitive primitive, DataOutputStream out) throws IOException {
+        Number number = primitive.getAsNumber();
+        if (number instanceof Long || number instanceof Integer || number instanceof Short
+                || number instanceof Byte) {
+            out.writeByte(LONG);
+            out.writeLong(number.longValue());
+        } else if (number instanceof Double || number instanceof Float) {
+            out.writeByte(DOUBLE);
+            out.writeDouble(number.doubleValue());
+        } else {
+            String text = primitive.getAsString();
+            try {
+                long value = Long.parseLong(text);
+                out.writeByte(LONG);
+                out.writeLong(value);
+                return;
+            } catch (NumberFormatException ignored) {
+            }
+            if (isExactDouble(text)) {
+                out.writeByte(DOUBLE);
+                out.writeDouble(Double.parseDouble(text));
+            } else {
+                out.writeByte(NUMBER);
+                writeString(text, out);
+            }
+        }
+    }
+
+    /**
+     * Checks whether a number read as a <code>double</code> keeps its value, which is the case when
+     * the shortest text of that <code>double</code> has the same value as the original text.
+     *
+     * @param text Text of the number, as held by a lazily parsed number.
+     * @return Whether the number can be written as a <code>DOUBLE</code> without losing precision.
+     */
+    static boolean isExactDouble(String text) {
+        try {
+            double value = Double.parseDouble(text);
+            return !Double.isInfinite(value) && !Double.isNaN(value)
+                    && new BigDecimal(text).compareTo(new BigDecimal(Double.toString(value))) == 0;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Writes a length-prefixed UTF-8 string.
+     *
+     * @param string The string.
+     * @param out Stream to write to.
+     * @throws IOException Thrown if the stream cannot be written.
+     */
+    private static void writeString(String string, DataOutputStream out) throws IOException {
+        byte[] bytes = string.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a length-prefixed UTF-8 string.
+     *
+     * @param in Buffer to read from.
+     * @return The string.
+     */
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        String string = new String(in.array(), in.arrayOffset() + in.position(), length, UTF_8);
+        in.position(in.position() + length);
+        return string;
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2018, The University of Memphis, MD2K Center of Excellence
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.md2k.datakitapi.datatype;
+
+import android.os.Parcel;
+
+/**
+ * Columnar block of samples with long values, convertible to and from <code>DataTypeLong</code> and
+ * <code>DataTypeLongArray</code>.
+ */
+public class LongBlock extends SampleBlock {
+
+    /** Values of the samples, <code>width</code> per sample, row after row. */
+    final long[] values;
+
+    /**
+     * Constructor
+     *
+     * @param timestamps Timestamps of the samples.
+     * @param offset Time zone offset of every sample.
+     * @param width Number of values per sample.
+     * @param values Values of the samples, <code>width</code> per sample, row after row.
+     */
+    public LongBlock(long[] timestamps, long offset, int width, long[] values) {
+        this(timestamps, offset, null, width, false, values);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param timestamps Timestamps of the samples.
+     * @param offset Time zone offset of every sample, used when <code>offsets</code> is null.
+     * @param offsets Time zone offset of each sample, or null if they are all <code>offset</code>.
+     * @param width Number of values per sample.
+     * @param scalar Whether the samples convert to <code>DataTypeLong</code>.
+     * @param values Values of the samples, <code>width</code> per sample, row after row.
+     */
+    LongBlock(long[] timestamps, long offset, long[] offsets, int width, boolean scalar, long[] values) {
+        super(timestamps, offset, offsets, width, scalar);
+        if (values.length != timestamps.length * width)
+            throw new IllegalArgumentException("values do not match timestamps and width");
+        this.values = values;
+    }
+
+    /**
+     * Constructs a <code>LongBlock</code> object from a <code>Parcel</code>.
+     *
+     * @param in Parceled <code>LongBlock</code> object.
+     */
+    protected LongBlock(Parcel in) {
+        super(in);
+        values = in.createLongArray();
+    }
+
+    /**
+     * Writes the <code>LongBlock</code> to a parcel.
+     *
+     * @param dest The parcel to which the application should be written.
+     * @param flags Additional flags about how the object should be written.
+     */
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        super.writeToParcel(dest, flags);
+        dest.writeLongArray(values);
+    }
+
+    /**
+     * Builds a block from samples of the same width.
+     *
+     * @param dataTypes <code>DataTypeLong</code> or <code>DataTypeLongArray</code> samples, not mixed.
+     * @return The block.
+     * @throws IllegalArgumentException Thrown when the samples are of another type or differ in width.
+     */
+    public static LongBlock of(DataType[] dataTypes) {
+        boolean scalar = dataTypes.length > 0 && dataTypes[0] instanceof DataTypeLong;
+        int width = scalar ? 1 : dataTypes.length == 0 ? 0 : sampleOf(dataTypes[0]).length;
+        long[] values = new long[dataTypes.length * width];
+        for (int i = 0; i < dataTypes.length; i++) {
+            if (scalar) {
+                if (!(dataTypes[i] instanceof DataTypeLong))
+                    throw new IllegalArgumentException("Sample " + i + " is not a DataTypeLong");
+                values[i] = ((DataTypeLong) dataTypes[i]).sample;
+            } else {
+                long[] sample = sampleOf(dataTypes[i]);
+                if (sample.length != width)
+                    throw new IllegalArgumentException("Sample " + i + " has width " + sample.length);
+                System.arraycopy(sample, 0, values, i * width, width);
+            }
+        }
+        return new LongBlock(timestampsOf(dataTypes), offsetOf(dataTypes), offsetsOf(dataTypes), width,
+                scalar, values);
+    }
+
+    /**
+     * @param dataType Sample expected to be a <code>DataTypeLongArray</code>.
+     * @return The values of the sample.
+     */
+    private static long[] sampleOf(DataType dataType) {
+        if (!(dataType instanceof DataTypeLongArray))
+            throw new IllegalArgumentException("Sample is not a DataTypeLongArray");
+        return ((DataTypeLongArray) dataType).sample;
+    }
+
+    /**
+     * @param index Index of the sample.
+     * @param column Index of the value within the sample.
+     * @return The value.
+     */
+    public long getValue(int index, int column) {
+        return values[index * width + column];
+    }
+
+    /**
+     * @return The values of the samples, <code>width</code> per sample, row after row. The array is
+     *         shared with the block.
+     */
+    public long[] getValues() {
+        return values;
+    }
+
+    /**
+     * Copies the values of one sample.
+     *
+     * @param index Index of the sample.
+     * @return The values of the sample.
+     */
+    public long[] getRow(int index) {
+        long[] row = new long[width];
+        System.arraycopy(values, index * width, row, 0, width);
+        return row;
+    }
+
+    /**
+     * Copies one column, such as one axis of a 3-axis sensor.
+     *
+     * @param column Index of the value within each sample.
+     * @return The column.
+     */
+    public long[] getColumn(int column) {
+        long[] result = new long[size()];
+        for (int i = 0; i < result.length; i++)
+            result[i] = values[i * width + column];
+        return result;
+    }
+
+    /**
+     * Converts one sample to a new <code>DataTypeLong</code> or <code>DataTypeLongArray</code>.
+     *
+     * @param index Index of the sample.
+     * @return The sample.
+     */
+    @Override
+    public DataType get(int index) {
+        if (scalar)
+            return stamp(new DataTypeLong(timestamps[index], values[index]), index);
+        return stamp(new DataTypeLongArray(timestamps[index], getRow(index)), index);
+    }
+
+    /**
+     * <code>Creator</code> for <code>LongBlock</code> objects.
+     */
+    public static final Creator<LongBlock> CREATOR = new Creator<LongBlock>() {
+
+        /**
+         * Creates a new <code>LongBlock</code> object from a <code>Parcel</code>.
+         *
+         * @param in The parcel holding the block.
+         * @return The constructed <code>LongBlock</code> object
+         */
+        @Override
+        public LongBlock createFromParcel(Parcel in) {
+            return new LongBlock(in);
+        }
+
+        /**
+         * Creates a new array of the specified size for <code>LongBlock</code> objects.
+         *
+         * @param size The size of the new <code>LongBlock</code> array.
+         * @return The <code>LongBlock</code> array.
+         */
+        @Override
+        public LongBlock[] newArray(int size) {
+            return new LongBlock[size];
+        }
+    };
+}
@@ -30,11 +30,12 @@ package org.md2k.datakitapi.datatype;
 import android.os.Parcel;
 import android.os.Parcelable;
 
-import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
 
 import org.json.JSONObject;
 
+import java.util.ArrayList;
+import java.util.List;
+
 
 /**
  * Object representing a row from the <code>DataKit</code>database.
@@ -107,34 +108,26 @@ public class RowObject implements Parcelable{
      * @return The resulting <code>DataType</code> object.
      */
     public DataType toArrayForm() {
-        if (this.data instanceof DataTypeBoolean) {
-            return new DataTypeBooleanArray(this.data.getDateTime(), new boolean[]{((DataTypeBoolean) this.data).getSample()});
-        }
-        if (this.data instanceof DataTypeByte) {
-            return new DataTypeByteArray(this.data.getDateTime(), new byte[]{((DataTypeByte) this.data).getSample()});
-        }
-        if (this.data instanceof DataTypeDouble) {
-            return new DataTypeDoubleArray(this.data.getDateTime(), new double[]{((DataTypeDouble) this.data).getSample()});
-        }
-        if (this.data instanceof DataTypeFloat) {
-            return new DataTypeFloatArray(this.data.getDateTime(), new float[]{((DataTypeFloat) this.data).getSample()});
-        }
-        if (this.data instanceof DataTypeInt) {
-            return new DataTypeIntArray(this.data.getDateTime(), new int[]{((DataTypeInt) this.data).getSample()});
-        }
-        if (this.data instanceof DataTypeLong) {
-            return new DataTypeLongArray(this.data.getDateTime(), new long[]{((DataTypeLong) this.data).getSample()});
-        }
-        if (this.data instanceof DataTypeString) {
-            return new DataTypeStringArray(this.data.getDateTime(), new String[]{((DataTypeString) this.data).getSample()});
-        }
-        if (this.data instanceof DataTypeJSONObject) {
+        return DataTypeCodec.forType(this.data).toArrayForm(this.data);
+    }
 
-            JsonArray jo = new JsonArray();
-            jo.add(((DataTypeJSONObject) this.data).getSample());
-            return new DataTypeJSONObjectArray(this.data.getDateTime(), jo);
-        }
-        return this.data;
+    /**
+     * Converts the data of each row to its array form, looking the conversion up once per run of
+     * rows of the same type.
+     *
+     * @param rowObjects The rows.
+     * @return The array forms, in the order of the rows.
+     */
+    public static ArrayList<DataType> toArrayForm(List<RowObject> rowObjects) {
+        ArrayList<DataType> dataTypes = new ArrayList<>(rowObjects.size());
+        DataTypeCodec codec = null;
+        for (int i = 0; i < rowObjects.size(); i++) {
+            DataType data = rowObjects.get(i).data;
+            if (codec == null || !codec.accepts(data))
+                codec = DataTypeCodec.forType(data);
+            dataTypes.add(codec.toArrayForm(data));
+        }
+        return dataTypes;
     }
 
     /**
@@ -143,82 +136,9 @@ public class RowObject implements Parcelable{
      * @return The resulting string.
      */
     public String csvString() {
-        String result = String.valueOf(this.data.getDateTime());
-        result += "," + String.valueOf(this.data.offset);
-        
-        if (this.data instanceof DataTypeBoolean) {
-            result += "," + String.valueOf(((DataTypeBoolean) this.data).getSample());
-        }
-        if (this.data instanceof DataTypeBooleanArray) {
-            DataTypeBooleanArray d = (DataTypeBooleanArray) this.data;
-            for (boolean i : d.getSample()) {
-                result += "," + String.valueOf(i);    
-            }
-        }
-        if (this.data instanceof DataTypeByte) {
-            result += "," + String.format("%02X", ((DataTypeByte) this.data).getSample());
-        }
-        if (this.data instanceof DataTypeByteArray) {
-            DataTypeByteArray d = (DataTypeByteArray) this.data;
-            for (byte i : d.getSample()) {
-                result += "," + String.format("%02X", i);
-            }
-        }
-        if (this.data instanceof DataTypeDouble) {
-            result += "," + String.valueOf(((DataTypeDouble) this.data).getSample());
-        }
-        if (this.data instanceof DataTypeDoubleArray) {
-            DataTypeDoubleArray d = (DataTypeDoubleArray) this.data;
-            for (double i : d.getSample()) {
-                result += "," + String.valueOf(i);
-            }
-        }
-        if (this.data instanceof DataTypeFloat) {
-            result += "," + String.valueOf(((DataTypeFloat) this.data).getSample());
-        }
-        if (this.data instanceof DataTypeFloatArray) {
-            DataTypeFloatArray d = (DataTypeFloatArray) this.data;
-            for (float i : d.getSample()) {
-                result += "," + String.valueOf(i);
-            }
-        }
-        if (this.data instanceof DataTypeInt) {
-            result += "," + String.valueOf(((DataTypeInt) this.data).getSample());
-        }
-        if (this.data instanceof DataTypeIntArray) {
-            DataTypeIntArray d = (DataTypeIntArray) this.data;
-            for (int i : d.getSample()) {
-                result += "," + String.valueOf(i);
-            }
-        }
-        if (this.data instanceof DataTypeLong) {
-            result += "," + String.valueOf(((DataTypeLong) this.data).getSample());
-        }
-        if (this.data instanceof DataTypeLongArray) {
-            DataTypeLongArray d = (DataTypeLongArray) this.data;
-            for (long i : d.getSample()) {
-                result += "," + String.valueOf(i);
-            }
-        }
-        if (this.data instanceof DataTypeString) {
-            result += "," + ((DataTypeString) this.data).getSample();
-        }
-        if (this.data instanceof DataTypeStringArray) {
-            DataTypeStringArray d = (DataTypeStringArray) this.data;
-            for (String i : d.getSample()) {
-                result += "," + i;
-            }
-        }
-        if (this.data instanceof DataTypeJSONObject) {
-            result += "," + ((DataTypeJSONObject) this.data).getSample().toString();
-        }
-        if (this.data instanceof DataTypeJSONObjectArray) {
-            DataTypeJSONObjectArray d = (DataTypeJSONObjectArray) this.data;
-            for (JsonElement i : d.getSample()) {
-                result += "," + i.toString();
-            }
-        }
-        return result;
+        StringBuilder result = new StringBuilder(64);
+        DataTypeCodec.forType(this.data).appendCsv(this.data, result);
+        return result.toString();
     }
 
     /**
@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) 2018, The University of Memphis, MD2K Center of Excellence
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.md2k.datakitapi.datatype;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/**
+ * Base class of columnar blocks of samples.
+ *
+ * <p>
+ *     A block holds <code>size()</code> samples of <code>getWidth()</code> values each in flat
+ *     primitive arrays: one array of timestamps and one array of values, row after row. The time
+ *     zone offset is stored once when it is the same for every sample, which is the usual case.
+ *     Compared to one <code>DataType</code> object per sample this removes the per-sample object
+ *     headers, array headers and references, and the block is parceled with a few bulk array writes.
+ * </p>
+ *
+ * <p>
+ *     Blocks are built from the matching <code>DataType</code> classes with the static
+ *     <code>of()</code> method of each subclass and converted back with <code>get()</code> or
+ *     <code>toDataTypes()</code>.
+ * </p>
+ */
+public abstract class SampleBlock implements Parcelable {
+
+    /** Timestamps of the samples. */
+    final long[] timestamps;
+
+    /** Time zone offset of every sample, used when <code>offsets</code> is null. */
+    final long offset;
+
+    /** Time zone offset of each sample, or null if they are all <code>offset</code>. */
+    final long[] offsets;
+
+    /** Number of values per sample. */
+    final int width;
+
+    /** Whether the samples came from a scalar <code>DataType</code> rather than an array one. */
+    final boolean scalar;
+
+    /**
+     * Constructor
+     *
+     * @param timestamps Timestamps of the samples.
+     * @param offset Time zone offset of every sample, used when <code>offsets</code> is null.
+     * @param offsets Time zone offset of each sample, or null if they are all <code>offset</code>.
+     * @param width Number of values per sample.
+     * @param scalar Whether the samples convert to a scalar <code>DataType</code>.
+     */
+    SampleBlock(long[] timestamps, long offset, long[] offsets, int width, boolean scalar) {
+        if (offsets != null && offsets.length != timestamps.length)
+            throw new IllegalArgumentException("offsets and timestamps differ in length");
+        if (scalar && width != 1)
+            throw new IllegalArgumentException("scalar samples must have a width of 1");
+        this.timestamps = timestamps;
+        this.offset = offset;
+        this.offsets = offsets;
+        this.width = width;
+        this.scalar = scalar;
+    }
+
+    /**
+     * Constructs a <code>SampleBlock</code> object from a <code>Parcel</code>.
+     *
+     * @param in Parceled <code>SampleBlock</code> object.
+     */
+    protected SampleBlock(Parcel in) {
+        width = in.readInt();
+        scalar = in.readInt() != 0;
+        offset = in.readLong();
+        timestamps = in.createLongArray();
+        offsets = in.createLongArray();
+    }
+
+    /**
+     * Writes the <code>SampleBlock</code> to a parcel.
+     *
+     * @param dest The parcel to which the application should be written.
+     * @param flags Additional flags about how the object should be written.
+     */
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeInt(width);
+        dest.writeInt(scalar ? 1 : 0);
+        dest.writeLong(offset);
+        dest.writeLongArray(timestamps);
+        dest.writeLongArray(offsets);
+    }
+
+    /**
+     * @return Always returns 0.
+     */
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    /**
+     * @return Number of samples in the block.
+     */
+    public int size() {
+        return timestamps.length;
+    }
+
+    /**
+     * @return Number of values per sample.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return Whether the samples convert to a scalar <code>DataType</code> such as
+     *         <code>DataTypeDouble</code> rather than an array one.
+     */
+    public boolean isScalar() {
+        return scalar;
+    }
+
+    /**
+     * @param index Index of the sample.
+     * @return Timestamp of the sample.
+     */
+    public long getTimestamp(int index) {
+        return timestamps[index];
+    }
+
+    /**
+     * @param index Index of the sample.
+     * @return Time zone offset of the sample.
+     */
+    public long getOffset(int index) {
+        return offsets == null ? offset : offsets[index];
+    }
+
+    /**
+     * @return The timestamps of the samples. The array is shared with the block.
+     */
+    public long[] getTimestamps() {
+        return timestamps;
+    }
+
+    /**
+     * Converts one sample to a new <code>DataType</code>.
+     *
+     * @param index Index of the sample.
+     * @return The sample as a <code>DataType</code>.
+     */
+    public abstract DataType get(int index);
+
+    /**
+     * Converts every sample to a new <code>DataType</code>.
+     *
+     * @return The samples as <code>DataType</code> objects.
+     */
+    public DataType[] toDataTypes() {
+        DataType[] dataTypes = new DataType[size()];
+        for (int i = 0; i < dataTypes.length; i++)
+            dataTypes[i] = get(i);
+        return dataTypes;
+    }
+
+    /**
+     * Sets the timestamp and time zone offset of a converted sample.
+     *
+     * @param dataType The converted sample.
+     * @param index Index of the sample.
+     * @return <code>dataType</code>
+     */
+    DataType stamp(DataType dataType, int index) {
+        dataType.dateTime = timestamps[index];
+        dataType.offset = getOffset(index);
+        return dataType;
+    }
+
+    /**
+     * @param dataTypes Samples to take the timestamps of.
+     * @return The timestamps of the samples.
+     */
+    static long[] timestampsOf(DataType[] dataTypes) {
+        long[] timestamps = new long[dataTypes.length];
+        for (int i = 0; i < dataTypes.length; i++)
+            timestamps[i] = dataTypes[i].dateTime;
+        return timestamps;
+    }
+
+    /**
+     * @param dataTypes Samples to take the time zone offsets of.
+     * @return The offset of each sample, or null if they are all the same as the first.
+     */
+    static long[] offsetsOf(DataType[] dataTypes) {
+        for (int i = 1; i < dataTypes.length; i++) {
+            if (dataTypes[i].offset != dataTypes[0].offset) {
+                long[] offsets = new long[dataTypes.length];
+                for (int j = 0; j < dataTypes.length; j++)
+                    offsets[j] = dataTypes[j].offset;
+                return offsets;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param dataTypes Samples to take the time zone offset of.
+     * @return The offset of the first sample, 0 if there is none.
+     */
+    static long offsetOf(DataType[] dataTypes) {
+        return dataTypes.length == 0 ? 0 : dataTypes[0].offset;
+    }
+}
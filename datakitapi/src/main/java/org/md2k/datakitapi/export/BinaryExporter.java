@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2018, The University of Memphis, MD2K Center of Excellence
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.md2k.datakitapi.export;
+
+import org.md2k.datakitapi.datatype.DataTypeBinary;
+import org.md2k.datakitapi.datatype.RowObject;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Exports rows in the <code>DataTypeBinary</code> format, which <code>DataTypeCursor</code> reads back.
+ */
+public class BinaryExporter extends Exporter {
+
+    /** Stream the rows are written to. */
+    private final OutputStream out;
+
+    /** Encoder of the rows. */
+    private final DataTypeBinary binary;
+
+    /**
+     * Constructor
+     *
+     * @param out Stream to write to.
+     * @param gzip Whether to compress the output with gzip.
+     * @throws IOException Thrown if the output cannot be written.
+     */
+    public BinaryExporter(OutputStream out, boolean gzip) throws IOException {
+        this.out = new BufferedOutputStream(compress(out, gzip), BUFFER_SIZE);
+        binary = new DataTypeBinary(this.out);
+    }
+
+    /**
+     * Creates an exporter writing to a file, replacing its contents.
+     *
+     * @param file File to write to.
+     * @param gzip Whether to compress the output with gzip.
+     * @return The exporter.
+     * @throws IOException Thrown if the file cannot be opened.
+     */
+    public static BinaryExporter toFile(File file, boolean gzip) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            return new BinaryExporter(out, gzip);
+        } catch (IOException | RuntimeException e) {
+            closeAfterFailure(out, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Creates an exporter writing to a channel.
+     *
+     * @param channel Channel to write to, such as a <code>FileChannel</code>.
+     * @param gzip Whether to compress the output with gzip.
+     * @return The exporter.
+     * @throws IOException Thrown if the output cannot be written.
+     */
+    public static BinaryExporter toChannel(WritableByteChannel channel, boolean gzip) throws IOException {
+        return new BinaryExporter(Channels.newOutputStream(channel), gzip);
+    }
+
+    /**
+     * Writes one row.
+     *
+     * @param rowObject The row.
+     * @throws IOException Thrown if the output cannot be written.
+     */
+    @Override
+    void writeRow(RowObject rowObject) throws IOException {
+        binary.write(rowObject.rowKey, rowObject.data);
+    }
+
+    /**
+     * Flushes the output.
+     *
+     * @throws IOException Thrown if the output cannot be written.
+     */
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Writes the end of the stream and closes the output.
+     *
+     * @throws IOException Thrown if the output cannot be written.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            binary.finish();
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2018, The University of Memphis, MD2K Center of Excellence
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.md2k.datakitapi.export;
+
+import org.md2k.datakitapi.datatype.DataTypeCodec;
+import org.md2k.datakitapi.datatype.RowObject;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Exports rows as CSV lines in the format of <code>RowObject.csvString()</code>.
+ *
+ * <p>
+ *     The codec for a data type is looked up once and kept while rows keep that type. Each line
+ *     is built in one reused <code>StringBuilder</code> and copied through one reused
+ *     <code>char[]</code> into the writer, so no string is created per row or per value and bytes
+ *     are written as hexadecimal from a lookup table.
+ * </p>
+ */
+public class CsvExporter extends Exporter {
+
+    /** Writer the lines are written to. */
+    private final Writer writer;
+
+    /** Line being built. */
+    private final StringBuilder line = new StringBuilder(256);
+
+    /** Characters of the line being written. */
+    private char[] chars = new char[256];
+
+    /** Codec of the current data type. */
+    private DataTypeCodec codec;
+
+    /**
+     * Constructor
+     *
+     * @param writer Writer to write the lines to. It should be buffered.
+     */
+    public CsvExporter(Writer writer) {
+        this.writer = writer;
+    }
+
+    /**
+     * Creates an exporter writing UTF-8 to a stream.
+     *
+     * @param out Stream to write to.
+     * @param gzip Whether to compress the output with gzip.
+     * @return The exporter.
+     * @throws IOException Thrown if the output cannot be written.
+     */
+    public static CsvExporter toStream(OutputStream out, boolean gzip) throws IOException {
+        return new CsvExporter(new BufferedWriter(new OutputStreamWriter(compress(out, gzip),
+                Charset.forName("UTF-8")), BUFFER_SIZE));
+    }
+
+    /**
+     * Creates an exporter writing UTF-8 to a file, replacing its contents.
+     *
+     * @param file File to write to.
+     * @param gzip Whether to compress the output with gzip.
+     * @return The exporter.
+     * @throws IOException Thrown if the file cannot be opened.
+     */
+    public static CsvExporter toFile(File file, boolean gzip) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            return toStream(out, gzip);
+        } catch (IOException | RuntimeException e) {
+            closeAfterFailure(out, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Creates an exporter writing UTF-8 to a channel.
+     *
+     * @param channel Channel to write to, such as a <code>FileChannel</code>.
+     * @param gzip Whether to compress the output with gzip.
+     * @return The exporter.
+     * @throws IOException Thrown if the output cannot be written.
+     */
+    public static CsvExporter toChannel(WritableByteChannel channel, boolean gzip) throws IOException {
+        return toStream(Channels.newOutputStream(channel), gzip);
+    }
+
+    /**
+     * Writes one row as a CSV line.
+     *
+     * @param rowObject The row.
+     * @throws IOException Thrown if the output cannot be written.
+     */
+    @Override
+    void writeRow(RowObject rowObject) throws IOException {
+        if (codec == null || !codec.accepts(rowObject.data))
+            codec = DataTypeCodec.forType(rowObject.data);
+        line.setLength(0);
+        codec.appendCsv(rowObject.data, line);
+        line.append('\n');
+        int length = line.length();
+        if (chars.length < length)
+            chars = new char[Math.max(length, chars.length * 2)];
+        line.getChars(0, length, chars, 0);
+        writer.write(chars, 0, length);
+    }
+
+    /**
+     * Flushes the output.
+     *
+     * @throws IOException Thrown if the output cannot be written.
+     */
+    @Override
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    /**
+     * Flushes and closes the output.
+     *
+     * @throws IOException Thrown if the output cannot be written.
+     */
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
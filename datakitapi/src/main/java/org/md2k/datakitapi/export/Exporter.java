@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2018, The University of Memphis, MD2K Center of Excellence
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.md2k.datakitapi.export;
+
+import org.md2k.datakitapi.PagedQuery;
+import org.md2k.datakitapi.datatype.RowObject;
+import org.md2k.datakitapi.exception.DataKitException;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Base class of exporters that stream rows into an output.
+ *
+ * <p>
+ *     Rows are written one at a time as they are read, so a query of any length is exported in
+ *     constant memory. Closing the exporter closes the output.
+ * </p>
+ */
+public abstract class Exporter implements Closeable, Flushable {
+
+    /** Size in bytes of the output buffers. */
+    static final int BUFFER_SIZE = 1 << 16;
+
+    /** Number of rows written so far. */
+    private long rowCount;
+
+    /**
+     * Writes one row.
+     *
+     * @param rowObject The row.
+     * @throws IOException Thrown if the output cannot be written.
+     */
+    public void write(RowObject rowObject) throws IOException {
+        writeRow(rowObject);
+        rowCount++;
+    }
+
+    /**
+     * Writes a list of rows, such as a page returned by <code>queryFromPrimaryKey</code>.
+     *
+     * @param rowObjects The rows.
+     * @throws IOException Thrown if the output cannot be written.
+     */
+    public void write(List<RowObject> rowObjects) throws IOException {
+        for (int i = 0; i < rowObjects.size(); i++)
+            write(rowObjects.get(i));
+    }
+
+    /**
+     * Writes every remaining row of a paged query. The next page is fetched while the current one
+     * is being written. The query is closed when this returns or throws, discarding a page still
+     * in flight.
+     *
+     * @param pagedQuery The query.
+     * @return Number of rows written.
+     * @throws DataKitException Thrown when a page could not be fetched.
+     * @throws IOException Thrown if the output cannot be written.
+     */
+    public long export(PagedQuery pagedQuery) throws DataKitException, IOException {
+        long count = 0;
+        try {
+            while (pagedQuery.hasNext()) {
+                write(pagedQuery.next());
+                count++;
+            }
+        } finally {
+            pagedQuery.close();
+        }
+        return count;
+    }
+
+    /**
+     * @return Number of rows written so far.
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Writes one row to the output.
+     *
+     * @param rowObject The row.
+     * @throws IOException Thrown if the output cannot be written.
+     */
+    abstract void writeRow(RowObject rowObject) throws IOException;
+
+    /**
+     * Wraps an output in a gzip stream if asked to.
+     *
+     * @param out The output.
+     * @param gzip Whether to compress.
+     * @return <code>out</code> or a gzip stream writing to it.
+     * @throws IOException Thrown if the gzip header cannot be written.
+     */
+    static OutputStream compress(OutputStream out, boolean gzip) throws IOException {
+        return gzip ? new GZIPOutputStream(out, BUFFER_SIZE) : out;
+    }
+
+    /**
+     * Closes an output opened for an exporter that could not be created.
+     *
+     * @param out The output.
+     * @param failure Why the exporter could not be created. Errors closing the output are added to it.
+     */
+    static void closeAfterFailure(Closeable out, Throwable failure) {
+        try {
+            out.close();
+        } catch (IOException e) {
+            failure.addSuppressed(e);
+        }
+    }
+}
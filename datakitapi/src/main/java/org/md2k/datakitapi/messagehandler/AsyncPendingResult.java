@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2018, The University of Memphis, MD2K Center of Excellence
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.md2k.datakitapi.messagehandler;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A <code>PendingResult</code> whose result can also be waited for with a time limit, or delivered
+ * to a <code>ResultCallback</code> without blocking the calling thread.
+ *
+ * <p>
+ *     It is returned as soon as its request has been sent. A failed or timed out request yields a
+ *     null result.
+ * </p>
+ *
+ * @param <R> Generic result.
+ */
+public interface AsyncPendingResult<R> extends PendingResult<R> {
+
+    /**
+     * Blocks until the result is available or the given time has passed.
+     *
+     * @param time Maximum time to wait.
+     * @param unit Unit of <code>time</code>.
+     * @return The result, or null if it did not arrive in time.
+     */
+    R await(long time, TimeUnit unit);
+
+    /**
+     * @return Whether the result is available.
+     */
+    boolean isDone();
+
+    /**
+     * Sets the callback to run when the result is available.
+     *
+     * <p>
+     *     The callback runs on the thread that receives replies from <code>DataKit</code>, so it
+     *     should not block. If the result is already available, it runs immediately on the calling thread.
+     * </p>
+     *
+     * @param callback Callback receiving the result.
+     */
+    void setResultCallback(ResultCallback<R> callback);
+
+    /**
+     * Sets the callback to run on the given executor when the result is available.
+     *
+     * @param callback Callback receiving the result.
+     * @param executor Executor the callback is run on.
+     */
+    void setResultCallback(ResultCallback<R> callback, Executor executor);
+
+    /**
+     * Returns an <code>AsyncPendingResult</code> holding this result transformed by the given function.
+     *
+     * <p>
+     *     The transform runs when this result is available, on the same thread a callback would run on.
+     * </p>
+     *
+     * @param transform Function applied to the result.
+     * @param <T> Type of the transformed result.
+     * @return The transformed pending result.
+     */
+    <T> AsyncPendingResult<T> map(ResultTransform<R, T> transform);
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2018, The University of Memphis, MD2K Center of Excellence
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.md2k.datakitapi.messagehandler;
+
+/**
+ * Defines integer value constants used to denote the state of the connection to <code>DataKit</code>.
+ *
+ * <p>
+ *     States are:
+ *     <ul>
+ *         <li><code>DISCONNECTED</code></li>
+ *         <li><code>CONNECTING</code></li>
+ *         <li><code>CONNECTED</code></li>
+ *         <li><code>RECONNECTING</code></li>
+ *     </ul>
+ * </p>
+ */
+public class ConnectionState {
+
+    /** Default is 0
+     *
+     * <p>
+     *     Not connected, and not trying to connect.
+     * </p>
+     */
+    public static final int DISCONNECTED = 0;
+
+    /** Default is 1
+     *
+     * <p>
+     *     <code>connect()</code> was called and the service is being bound.
+     * </p>
+     */
+    public static final int CONNECTING = 1;
+
+    /** Default is 2
+     *
+     * <p>
+     *     Connected, with data sources and subscriptions in place.
+     * </p>
+     */
+    public static final int CONNECTED = 2;
+
+    /** Default is 3
+     *
+     * <p>
+     *     The connection was lost. The service is being bound again, after which data sources are
+     *     registered and listeners subscribed again.
+     * </p>
+     */
+    public static final int RECONNECTING = 3;
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2018, The University of Memphis, MD2K Center of Excellence
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.md2k.datakitapi.messagehandler;
+
+/**
+ * Defines integer value constants for what happens when a subscriber's delivery queue is full.
+ *
+ * <p>
+ *     Policies are:
+ *     <ul>
+ *         <li><code>BLOCK</code></li>
+ *         <li><code>DROP_OLDEST</code></li>
+ *         <li><code>DROP_NEWEST</code></li>
+ *         <li><code>COALESCE</code></li>
+ *     </ul>
+ * </p>
+ */
+public class DeliveryPolicy {
+
+    /** Default is 0
+     *
+     * <p>
+     *     Waits for the listener to take its queue. While the queue is full the samples of every
+     *     subscription wait in a bounded intake queue; replies to requests are not affected. Samples
+     *     are only lost once the intake queue is full as well, so a listener that may fall behind
+     *     for long should use a dropping policy instead.
+     * </p>
+     */
+    public static final int BLOCK = 0;
+
+    /** Default is 1
+     *
+     * <p>
+     *     Drops the oldest queued sample to make room.
+     * </p>
+     */
+    public static final int DROP_OLDEST = 1;
+
+    /** Default is 2
+     *
+     * <p>
+     *     Drops the incoming sample.
+     * </p>
+     */
+    public static final int DROP_NEWEST = 2;
+
+    /** Default is 3
+     *
+     * <p>
+     *     Keeps only the latest sample, so the listener always sees the most recent value. The
+     *     queue capacity is not used.
+     * </p>
+     */
+    public static final int COALESCE = 3;
+
+    /**
+     * @param policy Policy to check.
+     * @return Whether <code>policy</code> is one of the delivery policies.
+     */
+    public static boolean isValid(int policy) {
+        return policy >= BLOCK && policy <= COALESCE;
+    }
+}
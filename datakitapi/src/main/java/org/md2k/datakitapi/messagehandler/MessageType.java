@@ -47,6 +47,12 @@ package org.md2k.datakitapi.messagehandler;
  *         <li><code>INSERT_HIGH_FREQUENCY</code></li>
  *         <li><code>QUERYSIZE</code></li>
  *         <li><code>SUMMARY</code></li>
+ *         <li><code>INSERT_HIGH_FREQUENCY_PACKED</code></li>
+ *         <li><code>QUERY_CURSOR</code></li>
+ *         <li><code>QUERYPRIMARYKEY_CURSOR</code></li>
+ *         <li><code>DATASOURCE_CHANGED</code></li>
+ *         <li><code>QUERY_AGGREGATE</code></li>
+ *         <li><code>QUERY_DOWNSAMPLE</code></li>
  *     </ul>
  * </p>
  */
@@ -96,4 +102,93 @@ public class MessageType {
 
     /** Default is 15 */
     public static final int SUMMARY = 15;
+
+    /** Default is 16
+     *
+     * <p>
+     *     High-frequency batch sent as one packed frame of columns instead of an array of
+     *     <code>DataTypeDoubleArray</code> objects. See <code>HFFrame</code>.
+     * </p>
+     */
+    public static final int INSERT_HIGH_FREQUENCY_PACKED = 16;
+
+    /** Default is 17
+     *
+     * <p>
+     *     Same as <code>QUERY</code> with a time frame, but the rows are streamed back through a file
+     *     descriptor in the <code>DataTypeBinary</code> format instead of being parceled.
+     * </p>
+     */
+    public static final int QUERY_CURSOR = 17;
+
+    /** Default is 18
+     *
+     * <p>
+     *     Same as <code>QUERYPRIMARYKEY</code>, but the rows are streamed back through a file
+     *     descriptor in the <code>DataTypeBinary</code> format instead of being parceled.
+     * </p>
+     */
+    public static final int QUERYPRIMARYKEY_CURSOR = 18;
+
+    /** Default is 19
+     *
+     * <p>
+     *     Sent by <code>DataKit</code> without a request when data sources were registered,
+     *     unregistered or changed. Carries <code>RC_DSID</code> if only one data source changed.
+     *     Clears the cached results of <code>register</code> and <code>find</code>.
+     * </p>
+     */
+    public static final int DATASOURCE_CHANGED = 19;
+
+    /** Default is 20
+     *
+     * <p>
+     *     Same as <code>QUERY</code> with a time frame, but replies with the count, minimum, maximum
+     *     and mean of every value per <code>RC_BUCKET</code> milliseconds as one
+     *     <code>AggregateBlock</code> instead of the samples.
+     * </p>
+     */
+    public static final int QUERY_AGGREGATE = 20;
+
+    /** Default is 21
+     *
+     * <p>
+     *     Same as <code>QUERY</code> with a time frame, but replies with at most <code>RC_POINTS</code>
+     *     samples chosen by <code>Downsampling.downsample()</code> as one <code>DoubleBlock</code>.
+     * </p>
+     */
+    public static final int QUERY_DOWNSAMPLE = 21;
+
+    /**
+     * Returns the name of a message type, such as <code>"INSERT"</code>.
+     *
+     * @param messageType The message type.
+     * @return The name of the constant, or the number if there is none.
+     */
+    public static String toString(int messageType) {
+        switch (messageType) {
+            case CONNECT: return "CONNECT";
+            case DISCONNECT: return "DISCONNECT";
+            case REGISTER: return "REGISTER";
+            case UNREGISTER: return "UNREGISTER";
+            case SUBSCRIBE: return "SUBSCRIBE";
+            case UNSUBSCRIBE: return "UNSUBSCRIBE";
+            case INSERT: return "INSERT";
+            case QUERY: return "QUERY";
+            case FIND: return "FIND";
+            case SUBSCRIBED_DATA: return "SUBSCRIBED_DATA";
+            case INTERNAL_ERROR: return "INTERNAL_ERROR";
+            case QUERYPRIMARYKEY: return "QUERYPRIMARYKEY";
+            case INSERT_HIGH_FREQUENCY: return "INSERT_HIGH_FREQUENCY";
+            case QUERYSIZE: return "QUERYSIZE";
+            case SUMMARY: return "SUMMARY";
+            case INSERT_HIGH_FREQUENCY_PACKED: return "INSERT_HIGH_FREQUENCY_PACKED";
+            case QUERY_CURSOR: return "QUERY_CURSOR";
+            case QUERYPRIMARYKEY_CURSOR: return "QUERYPRIMARYKEY_CURSOR";
+            case DATASOURCE_CHANGED: return "DATASOURCE_CHANGED";
+            case QUERY_AGGREGATE: return "QUERY_AGGREGATE";
+            case QUERY_DOWNSAMPLE: return "QUERY_DOWNSAMPLE";
+            default: return String.valueOf(messageType);
+        }
+    }
 }
@@ -35,7 +35,7 @@ package org.md2k.datakitapi.messagehandler;
 public interface ResultCallback<R> {
 
     /**
-     * @param result
+     * @param result The result, or null if the request failed or timed out.
      */
     void onResult(R result);
 }
@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2018, The University of Memphis, MD2K Center of Excellence
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.md2k.datakitapi.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Depth and flushes of the high-frequency buffer of one data source.
+ */
+public class BufferMetrics {
+
+    /** Data source identifier. */
+    private final int ds_id;
+
+    /** Number of samples in the buffer. */
+    private final AtomicLong depth = new AtomicLong();
+
+    /** Largest number of samples the buffer held. */
+    private final AtomicLong maxDepth = new AtomicLong();
+
+    /** Size of the values sent in bytes. */
+    private final AtomicLong bytes = new AtomicLong();
+
+    /** Number of samples of each batch sent. */
+    private final Histogram flushSamples = new Histogram();
+
+    /** Number of samples dropped because their batch could not be sent and there was no spool. */
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * Constructor
+     *
+     * @param ds_id Data source identifier.
+     */
+    BufferMetrics(int ds_id) {
+        this.ds_id = ds_id;
+    }
+
+    /**
+     * Records the number of samples in the buffer.
+     *
+     * @param samples Number of samples.
+     */
+    public void onDepth(int samples) {
+        depth.set(samples);
+        long current = maxDepth.get();
+        while (samples > current && !maxDepth.compareAndSet(current, samples))
+            current = maxDepth.get();
+    }
+
+    /**
+     * Records a batch sent from the buffer, which leaves it empty.
+     *
+     * @param samples Number of samples in the batch.
+     * @param size Size of the values in the batch in bytes.
+     */
+    public void onFlush(int samples, int size) {
+        flushSamples.record(samples);
+        bytes.addAndGet(size);
+        depth.set(0);
+    }
+
+    /**
+     * Records a batch that could not be sent and was dropped.
+     *
+     * @param samples Number of samples in the batch.
+     */
+    public void onDrop(int samples) {
+        dropped.addAndGet(samples);
+    }
+
+    /**
+     * @return Data source identifier.
+     */
+    public int getDs_id() {
+        return ds_id;
+    }
+
+    /**
+     * @return Number of samples in the buffer.
+     */
+    public long getDepth() {
+        return depth.get();
+    }
+
+    /**
+     * @return Largest number of samples the buffer held.
+     */
+    public long getMaxDepth() {
+        return maxDepth.get();
+    }
+
+    /**
+     * @return Size of the values sent in bytes.
+     */
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    /**
+     * @return Number of samples of each batch sent. Its count is the number of batches.
+     */
+    public Histogram getFlushSamples() {
+        return flushSamples;
+    }
+
+    /**
+     * @return Number of samples dropped because their batch could not be sent and there was no spool.
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Clears the counters. The current depth is kept.
+     */
+    public void reset() {
+        maxDepth.set(depth.get());
+        bytes.set(0);
+        flushSamples.reset();
+        dropped.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "HF ds_id=" + ds_id + " depth=" + depth.get() + " maxDepth=" + maxDepth.get()
+                + " flushes=" + flushSamples.getCount() + " bytes=" + bytes.get() + " dropped=" + dropped.get()
+                + " flushSamples.p50=" + flushSamples.getValueAtPercentile(50)
+                + " flushSamples.max=" + flushSamples.getMax();
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2018, The University of Memphis, MD2K Center of Excellence
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.md2k.datakitapi.metrics;
+
+import android.util.Log;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+/**
+ * Appends the metrics to a file.
+ *
+ * <p>
+ *     Every export appends a line with the wall clock time in milliseconds, followed by the same
+ *     lines <code>LogcatMetricsExporter</code> writes, and an empty line.
+ * </p>
+ */
+public class FileMetricsExporter implements MetricsExporter {
+    private static final String TAG = FileMetricsExporter.class.getSimpleName();
+
+    /** File the metrics are appended to. */
+    private final File file;
+
+    /**
+     * Constructor
+     *
+     * @param file File the metrics are appended to, such as one under <code>getFilesDir()</code>.
+     */
+    public FileMetricsExporter(File file) {
+        this.file = file;
+    }
+
+    /**
+     * @param metricsRegistry The metrics.
+     */
+    @Override
+    public synchronized void export(MetricsRegistry metricsRegistry) {
+        try {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true),
+                    Charset.forName("UTF-8")));
+            try {
+                writer.write(String.valueOf(System.currentTimeMillis()));
+                writer.write('\n');
+                for (OperationMetrics operationMetrics : metricsRegistry.getOperations())
+                    writer.write(operationMetrics.toString() + '\n');
+                for (BufferMetrics bufferMetrics : metricsRegistry.getBuffers())
+                    writer.write(bufferMetrics.toString() + '\n');
+                writer.write('\n');
+            } finally {
+                writer.close();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Could not write " + file, e);
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2018, The University of Memphis, MD2K Center of Excellence
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.md2k.datakitapi.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of non-negative values, such as latencies in nanoseconds.
+ *
+ * <p>
+ *     Values are counted in buckets whose width doubles with every power of two and which are split
+ *     into <code>SUB_BUCKETS</code> equal parts, the way HdrHistogram does. Every value from 0 to
+ *     <code>Long.MAX_VALUE</code> is covered in a fixed array of counters, and a reported percentile
+ *     is at most 1/<code>SUB_BUCKETS</code> above the true value. Recording takes no lock and
+ *     allocates nothing, so it is cheap enough for every call.
+ * </p>
+ */
+public class Histogram {
+
+    /** Number of bits of a value kept below its most significant bit. */
+    private static final int SUB_BUCKET_BITS = 5;
+
+    /** Number of buckets each power of two is split into. */
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /** Count of each bucket. */
+    private final AtomicLongArray counts = new AtomicLongArray((64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS);
+
+    /** Number of recorded values. */
+    private final AtomicLong count = new AtomicLong();
+
+    /** Sum of the recorded values. */
+    private final AtomicLong sum = new AtomicLong();
+
+    /** Largest recorded value. */
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a value. Negative values are recorded as 0.
+     *
+     * @param value The value.
+     */
+    public void record(long value) {
+        if (value < 0)
+            value = 0;
+        counts.incrementAndGet(index(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value))
+            current = max.get();
+    }
+
+    /**
+     * @return Number of recorded values.
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return Largest recorded value, or 0 if there is none.
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @return Mean of the recorded values, or 0 if there is none.
+     */
+    public double getMean() {
+        long n = count.get();
+        return n == 0 ? 0 : sum.get() / (double) n;
+    }
+
+    /**
+     * Returns the value at the given percentile.
+     *
+     * @param percentile Percentile between 0 and 100.
+     * @return Upper end of the bucket holding that percentile, at most <code>getMax()</code>,
+     * or 0 if there is no value.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long n = count.get();
+        if (n == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * n));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= rank)
+                return Math.min(upperBound(i), max.get());
+        }
+        return max.get();
+    }
+
+    /**
+     * Clears every recorded value.
+     */
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++)
+            counts.set(i, 0);
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    /**
+     * @param value A non-negative value.
+     * @return Index of the bucket counting the value.
+     */
+    static int index(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return ((shift + 1) << SUB_BUCKET_BITS) + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    /**
+     * @param index Index of a bucket.
+     * @return Largest value counted in the bucket.
+     */
+    static long upperBound(int index) {
+        if (index < SUB_BUCKETS)
+            return index;
+        int shift = (index >> SUB_BUCKET_BITS) - 1;
+        long lowest = (long) ((index & (SUB_BUCKETS - 1)) | SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
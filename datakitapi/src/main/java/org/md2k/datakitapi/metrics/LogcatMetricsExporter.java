@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2018, The University of Memphis, MD2K Center of Excellence
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.md2k.datakitapi.metrics;
+
+import android.util.Log;
+
+/**
+ * Writes the metrics to logcat, one line per message type and per high-frequency buffer.
+ */
+public class LogcatMetricsExporter implements MetricsExporter {
+
+    /** Tag of the log lines. */
+    private final String tag;
+
+    /**
+     * Constructor
+     *
+     * @param tag Tag of the log lines.
+     */
+    public LogcatMetricsExporter(String tag) {
+        this.tag = tag;
+    }
+
+    /**
+     * @param metricsRegistry The metrics.
+     */
+    @Override
+    public void export(MetricsRegistry metricsRegistry) {
+        for (OperationMetrics operationMetrics : metricsRegistry.getOperations())
+            Log.i(tag, operationMetrics.toString());
+        for (BufferMetrics bufferMetrics : metricsRegistry.getBuffers())
+            Log.i(tag, bufferMetrics.toString());
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2018, The University of Memphis, MD2K Center of Excellence
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.md2k.datakitapi.metrics;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Metrics of the calls <code>DataKitAPI</code> makes to <code>DataKit</code>.
+ *
+ * <p>
+ *     Keeps an <code>OperationMetrics</code> per <code>MessageType</code> and a
+ *     <code>BufferMetrics</code> per high-frequency buffer. They are updated as calls are made,
+ *     without locks, and can be read at any time. <code>MetricsExporter</code>s receive them on
+ *     <code>export()</code>, or every period while <code>startExporting()</code> is in effect.
+ * </p>
+ * <p>
+ *     Counting bytes marshals every message one more time, so it is off by default.
+ * </p>
+ */
+public class MetricsRegistry {
+    private static final String TAG = MetricsRegistry.class.getSimpleName();
+
+    /** Metrics of each message type. */
+    private final ConcurrentMap<Integer, OperationMetrics> operations = new ConcurrentHashMap<>();
+
+    /** Metrics of each high-frequency buffer, keyed by data source identifier. */
+    private final ConcurrentMap<Integer, BufferMetrics> buffers = new ConcurrentHashMap<>();
+
+    /** Exporters receiving the metrics. */
+    private final CopyOnWriteArrayList<MetricsExporter> exporters = new CopyOnWriteArrayList<>();
+
+    /** Whether the size of marshalled messages is counted. */
+    private volatile boolean countBytes;
+
+    /** Runs the periodic exports, or null while they are off. Guarded by <code>this</code>. */
+    private Timer timer;
+
+    /**
+     * Returns the metrics of a message type, creating them on first use.
+     *
+     * @param messageType The <code>MessageType</code>.
+     * @return The metrics of the message type.
+     */
+    public OperationMetrics getOperation(int messageType) {
+        OperationMetrics operationMetrics = operations.get(messageType);
+        if (operationMetrics == null) {
+            OperationMetrics created = new OperationMetrics(messageType);
+            operationMetrics = operations.putIfAbsent(messageType, created);
+            if (operationMetrics == null)
+                operationMetrics = created;
+        }
+        return operationMetrics;
+    }
+
+    /**
+     * @return Metrics of every message type used so far, ordered by message type.
+     */
+    public List<OperationMetrics> getOperations() {
+        ArrayList<OperationMetrics> list = new ArrayList<>(operations.values());
+        Collections.sort(list, new Comparator<OperationMetrics>() {
+            @Override
+            public int compare(OperationMetrics a, OperationMetrics b) {
+                return a.getMessageType() < b.getMessageType() ? -1 : a.getMessageType() == b.getMessageType() ? 0 : 1;
+            }
+        });
+        return list;
+    }
+
+    /**
+     * Returns the metrics of the high-frequency buffer of a data source, creating them on first use.
+     *
+     * @param ds_id Data source identifier.
+     * @return The metrics of the buffer.
+     */
+    public BufferMetrics getBuffer(int ds_id) {
+        BufferMetrics bufferMetrics = buffers.get(ds_id);
+        if (bufferMetrics == null) {
+            BufferMetrics created = new BufferMetrics(ds_id);
+            bufferMetrics = buffers.putIfAbsent(ds_id, created);
+            if (bufferMetrics == null)
+                bufferMetrics = created;
+        }
+        return bufferMetrics;
+    }
+
+    /**
+     * @return Metrics of every high-frequency buffer, ordered by data source identifier.
+     */
+    public List<BufferMetrics> getBuffers() {
+        ArrayList<BufferMetrics> list = new ArrayList<>(buffers.values());
+        Collections.sort(list, new Comparator<BufferMetrics>() {
+            @Override
+            public int compare(BufferMetrics a, BufferMetrics b) {
+                return a.getDs_id() < b.getDs_id() ? -1 : a.getDs_id() == b.getDs_id() ? 0 : 1;
+            }
+        });
+        return list;
+    }
+
+    /**
+     * Sets whether the size of marshalled messages is counted.
+     *
+     * @param countBytes Whether to count bytes.
+     */
+    public void setCountBytes(boolean countBytes) {
+        this.countBytes = countBytes;
+    }
+
+    /**
+     * @return Whether the size of marshalled messages is counted.
+     */
+    public boolean isCountBytes() {
+        return countBytes;
+    }
+
+    /**
+     * Adds an exporter.
+     *
+     * @param metricsExporter The exporter.
+     */
+    public void addExporter(MetricsExporter metricsExporter) {
+        exporters.addIfAbsent(metricsExporter);
+    }
+
+    /**
+     * Removes an exporter.
+     *
+     * @param metricsExporter The exporter.
+     */
+    public void removeExporter(MetricsExporter metricsExporter) {
+        exporters.remove(metricsExporter);
+    }
+
+    /**
+     * Hands the metrics to every exporter on the calling thread. An exporter that fails does not
+     * keep the others from running.
+     */
+    public void export() {
+        for (MetricsExporter metricsExporter : exporters) {
+            try {
+                metricsExporter.export(this);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Exporter failed", e);
+            }
+        }
+    }
+
+    /**
+     * Exports the metrics every period on the <code>"datakit-metrics"</code> thread, replacing any
+     * earlier period.
+     *
+     * @param periodMillis Period in milliseconds.
+     */
+    public synchronized void startExporting(long periodMillis) {
+        stopExporting();
+        timer = new Timer("datakit-metrics", true);
+        timer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                export();
+            }
+        }, periodMillis, periodMillis);
+    }
+
+    /**
+     * Stops the periodic exports.
+     */
+    public synchronized void stopExporting() {
+        if (timer != null) {
+            timer.cancel();
+            timer = null;
+        }
+    }
+
+    /**
+     * Clears every counter and histogram.
+     */
+    public void reset() {
+        for (OperationMetrics operationMetrics : operations.values())
+            operationMetrics.reset();
+        for (BufferMetrics bufferMetrics : buffers.values())
+            bufferMetrics.reset();
+    }
+}
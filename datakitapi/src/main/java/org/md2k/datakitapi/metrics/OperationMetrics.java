@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2018, The University of Memphis, MD2K Center of Excellence
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.md2k.datakitapi.metrics;
+
+import org.md2k.datakitapi.messagehandler.MessageType;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and latencies of one <code>MessageType</code>.
+ *
+ * <p>
+ *     A call is counted for every message sent, and for every message received that is not a reply.
+ *     A request ends in exactly one of: a reply, which records its latency; a timeout; or an error,
+ *     when it could not be sent. A reply that arrives after its request timed out is counted as late,
+ *     which tells a slow <code>DataKit</code> from one that drops replies. Bytes are only counted while
+ *     <code>MetricsRegistry.setCountBytes(true)</code> is in effect. Latencies are in nanoseconds.
+ * </p>
+ */
+public class OperationMetrics {
+
+    /** <code>MessageType</code> the counters belong to. */
+    private final int messageType;
+
+    /** Number of messages. */
+    private final AtomicLong calls = new AtomicLong();
+
+    /** Number of requests that got no reply in time. */
+    private final AtomicLong timeouts = new AtomicLong();
+
+    /** Number of messages that could not be sent or handled. */
+    private final AtomicLong errors = new AtomicLong();
+
+    /** Number of replies that arrived after their request timed out. */
+    private final AtomicLong lateReplies = new AtomicLong();
+
+    /** Size of the marshalled messages in bytes. */
+    private final AtomicLong bytes = new AtomicLong();
+
+    /** Time from sending a request to its reply. */
+    private final Histogram latency = new Histogram();
+
+    /**
+     * Constructor
+     *
+     * @param messageType <code>MessageType</code> the counters belong to.
+     */
+    OperationMetrics(int messageType) {
+        this.messageType = messageType;
+    }
+
+    /**
+     * Counts a message.
+     */
+    public void onCall() {
+        calls.incrementAndGet();
+    }
+
+    /**
+     * Records the reply to a request.
+     *
+     * @param nanos Time since the request was sent.
+     */
+    public void onReply(long nanos) {
+        latency.record(nanos);
+    }
+
+    /**
+     * Counts a request that got no reply in time.
+     */
+    public void onTimeout() {
+        timeouts.incrementAndGet();
+    }
+
+    /**
+     * Counts a message that could not be sent or handled.
+     */
+    public void onError() {
+        errors.incrementAndGet();
+    }
+
+    /**
+     * Counts a reply that arrived after its request timed out.
+     */
+    public void onLateReply() {
+        lateReplies.incrementAndGet();
+    }
+
+    /**
+     * Counts the size of a marshalled message.
+     *
+     * @param size Size in bytes.
+     */
+    public void onBytes(long size) {
+        bytes.addAndGet(size);
+    }
+
+    /**
+     * @return <code>MessageType</code> the counters belong to.
+     */
+    public int getMessageType() {
+        return messageType;
+    }
+
+    /**
+     * @return Number of messages.
+     */
+    public long getCalls() {
+        return calls.get();
+    }
+
+    /**
+     * @return Number of requests that got no reply in time.
+     */
+    public long getTimeouts() {
+        return timeouts.get();
+    }
+
+    /**
+     * @return Number of messages that could not be sent or handled.
+     */
+    public long getErrors() {
+        return errors.get();
+    }
+
+    /**
+     * @return Number of replies that arrived after their request timed out.
+     */
+    public long getLateReplies() {
+        return lateReplies.get();
+    }
+
+    /**
+     * @return Size of the marshalled messages in bytes.
+     */
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    /**
+     * @return Time from sending a request to its reply, in nanoseconds.
+     */
+    public Histogram getLatency() {
+        return latency;
+    }
+
+    /**
+     * Clears the counters and latencies.
+     */
+    public void reset() {
+        calls.set(0);
+        timeouts.set(0);
+        errors.set(0);
+        lateReplies.set(0);
+        bytes.set(0);
+        latency.reset();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(MessageType.toString(messageType))
+                .append(" calls=").append(calls.get())
+                .append(" timeouts=").append(timeouts.get())
+                .append(" errors=").append(errors.get())
+                .append(" late=").append(lateReplies.get())
+                .append(" bytes=").append(bytes.get());
+        if (latency.getCount() > 0) {
+            builder.append(" replies=").append(latency.getCount())
+                    .append(" p50=").append(latency.getValueAtPercentile(50) / 1000).append("us")
+                    .append(" p99=").append(latency.getValueAtPercentile(99) / 1000).append("us")
+                    .append(" max=").append(latency.getMax() / 1000).append("us");
+        }
+        return builder.toString();
+    }
+}
@@ -50,6 +50,9 @@ public class AbstractObject implements Parcelable{
     /** HashMap of the object's metadata. */
     protected HashMap<String, String> metadata = null;
 
+    /** Identity of the object, computed on first use. */
+    private transient volatile SourceIdentity identity;
+
 
     /**
      * Constructor
@@ -108,6 +111,45 @@ public class AbstractObject implements Parcelable{
         return metadata;
     }
 
+    /**
+     * Returns the interned identity of the object, made of its class, type and id.
+     *
+     * <p>
+     *     Objects with the same identity return the same <code>SourceIdentity</code> instance, which
+     *     can be used as a hash map key. Metadata is not part of the identity.
+     * </p>
+     *
+     * @return The identity of the object.
+     */
+    public SourceIdentity getIdentity() {
+        SourceIdentity current = identity;
+        if (current == null)
+            identity = current = createIdentity();
+        return current;
+    }
+
+    /**
+     * Computes the identity of the object. Subclasses that refer to other objects add their identities.
+     *
+     * @return The identity of the object.
+     */
+    protected SourceIdentity createIdentity() {
+        return createIdentity(null, null, null);
+    }
+
+    /**
+     * Computes the identity of the object from its class, type and id and the given nested identities.
+     *
+     * @param platform Identity of the platform, may be null.
+     * @param platformApp Identity of the platform app, may be null.
+     * @param application Identity of the application, may be null.
+     * @return The identity of the object.
+     */
+    protected final SourceIdentity createIdentity(SourceIdentity platform, SourceIdentity platformApp,
+                                                  SourceIdentity application) {
+        return SourceIdentity.of(getClass().getName(), type, id, platform, platformApp, application);
+    }
+
     /**
      * Creates a new <code>DataSourceBuilder</code> object.
      *
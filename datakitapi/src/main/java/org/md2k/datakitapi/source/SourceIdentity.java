@@ -0,0 +1,257 @@
+/*
+ * Copyright (c) 2018, The University of Memphis, MD2K Center of Excellence
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.md2k.datakitapi.source;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Immutable, interned identity of an <code>AbstractObject</code>.
+ *
+ * <p>
+ *     The identity is made of the kind of the object (its class), its type and id and, for a
+ *     <code>DataSource</code>, the identities of its platform, platform app and application.
+ *     Metadata is not part of it. A 64-bit hash is computed once when the identity is created.
+ * </p>
+ * <p>
+ *     Identities are interned, so two objects with the same identity return the same instance from
+ *     <code>AbstractObject.getIdentity()</code> and can be compared with <code>==</code>. Identities
+ *     can be used as keys of hash maps, for example to look up the <code>ds_id</code> of a data
+ *     source. The pool holds one entry per distinct identity created in the process.
+ * </p>
+ */
+public final class SourceIdentity {
+
+    /** Offset basis of the 64-bit FNV-1a hash. */
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+    /** Prime of the 64-bit FNV-1a hash. */
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /** Mixed in after each string, outside the range of <code>char</code>. */
+    private static final int END = 0x10000;
+
+    /** Mixed in for an absent value, outside the range of <code>char</code>. */
+    private static final int ABSENT = 0x20000;
+
+    /** Interned identities. */
+    private static final ConcurrentMap<SourceIdentity, SourceIdentity> INTERNED = new ConcurrentHashMap<>();
+
+    /** Class name of the object. */
+    private final String kind;
+
+    /** Type of the object, may be null. */
+    private final String type;
+
+    /** Id of the object, may be null. */
+    private final String id;
+
+    /** Identity of the platform of a data source, may be null. */
+    private final SourceIdentity platform;
+
+    /** Identity of the platform app of a data source, may be null. */
+    private final SourceIdentity platformApp;
+
+    /** Identity of the application of a data source, may be null. */
+    private final SourceIdentity application;
+
+    /** 64-bit hash of all of the above. */
+    private final long hash64;
+
+    /**
+     * Constructor
+     *
+     * @param kind Class name of the object.
+     * @param type Type of the object, may be null.
+     * @param id Id of the object, may be null.
+     * @param platform Identity of the platform of a data source, may be null.
+     * @param platformApp Identity of the platform app of a data source, may be null.
+     * @param application Identity of the application of a data source, may be null.
+     */
+    private SourceIdentity(String kind, String type, String id, SourceIdentity platform,
+                           SourceIdentity platformApp, SourceIdentity application) {
+        this.kind = kind;
+        this.type = type;
+        this.id = id;
+        this.platform = platform;
+        this.platformApp = platformApp;
+        this.application = application;
+        long hash = FNV_OFFSET;
+        hash = mix(hash, kind);
+        hash = mix(hash, type);
+        hash = mix(hash, id);
+        hash = mix(hash, platform);
+        hash = mix(hash, platformApp);
+        hash = mix(hash, application);
+        this.hash64 = hash;
+    }
+
+    /**
+     * Returns the interned identity with the given parts.
+     *
+     * @param kind Class name of the object.
+     * @param type Type of the object, may be null.
+     * @param id Id of the object, may be null.
+     * @param platform Identity of the platform of a data source, may be null.
+     * @param platformApp Identity of the platform app of a data source, may be null.
+     * @param application Identity of the application of a data source, may be null.
+     * @return The interned identity.
+     */
+    static SourceIdentity of(String kind, String type, String id, SourceIdentity platform,
+                             SourceIdentity platformApp, SourceIdentity application) {
+        SourceIdentity candidate = new SourceIdentity(kind, type, id, platform, platformApp, application);
+        SourceIdentity interned = INTERNED.putIfAbsent(candidate, candidate);
+        return interned == null ? candidate : interned;
+    }
+
+    /**
+     * @return Class name of the object.
+     */
+    public String getKind() {
+        return kind;
+    }
+
+    /**
+     * @return Type of the object, may be null.
+     */
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * @return Id of the object, may be null.
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @return Identity of the platform of a data source, may be null.
+     */
+    public SourceIdentity getPlatform() {
+        return platform;
+    }
+
+    /**
+     * @return Identity of the platform app of a data source, may be null.
+     */
+    public SourceIdentity getPlatformApp() {
+        return platformApp;
+    }
+
+    /**
+     * @return Identity of the application of a data source, may be null.
+     */
+    public SourceIdentity getApplication() {
+        return application;
+    }
+
+    /**
+     * @return 64-bit hash of the identity.
+     */
+    public long hash64() {
+        return hash64;
+    }
+
+    /**
+     * Compares the hashes first and the parts only if they match. Interned identities are equal
+     * only to themselves.
+     *
+     * @param o Object to compare with.
+     * @return Whether <code>o</code> is the same identity.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof SourceIdentity))
+            return false;
+        SourceIdentity other = (SourceIdentity) o;
+        return hash64 == other.hash64 && kind.equals(other.kind) && equal(type, other.type)
+                && equal(id, other.id) && equal(platform, other.platform)
+                && equal(platformApp, other.platformApp) && equal(application, other.application);
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (hash64 ^ (hash64 >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(kind.substring(kind.lastIndexOf('.') + 1));
+        builder.append('{').append(type).append(", ").append(id);
+        if (platform != null)
+            builder.append(", platform=").append(platform);
+        if (platformApp != null)
+            builder.append(", platformApp=").append(platformApp);
+        if (application != null)
+            builder.append(", application=").append(application);
+        return builder.append('}').toString();
+    }
+
+    /**
+     * @param a First value, may be null.
+     * @param b Second value, may be null.
+     * @return Whether both are null or equal.
+     */
+    private static boolean equal(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * Mixes a string into the hash.
+     *
+     * @param hash Hash so far.
+     * @param value The string, may be null.
+     * @return The new hash.
+     */
+    private static long mix(long hash, String value) {
+        if (value == null)
+            return (hash ^ ABSENT) * FNV_PRIME;
+        for (int i = 0; i < value.length(); i++)
+            hash = (hash ^ value.charAt(i)) * FNV_PRIME;
+        return (hash ^ END) * FNV_PRIME;
+    }
+
+    /**
+     * Mixes the hash of a nested identity into the hash.
+     *
+     * @param hash Hash so far.
+     * @param identity The nested identity, may be null.
+     * @return The new hash.
+     */
+    private static long mix(long hash, SourceIdentity identity) {
+        if (identity == null)
+            return (hash ^ ABSENT) * FNV_PRIME;
+        long value = identity.hash64;
+        for (int shift = 0; shift < 64; shift += 16)
+            hash = (hash ^ ((value >>> shift) & 0xffff)) * FNV_PRIME;
+        return (hash ^ END) * FNV_PRIME;
+    }
+}
@@ -33,6 +33,7 @@ import android.os.Parcelable;
 import com.bluelinelabs.logansquare.annotation.JsonObject;
 
 import org.md2k.datakitapi.source.AbstractObject;
+import org.md2k.datakitapi.source.SourceIdentity;
 import org.md2k.datakitapi.source.application.Application;
 import org.md2k.datakitapi.source.platform.Platform;
 import org.md2k.datakitapi.source.platformapp.PlatformApp;
@@ -169,6 +170,19 @@ public class DataSource extends AbstractObject implements Parcelable {
         return application;
     }
 
+    /**
+     * Computes the identity of the data source, which includes the identities of its platform,
+     * platform app and application.
+     *
+     * @return The identity of the data source.
+     */
+    @Override
+    protected SourceIdentity createIdentity() {
+        return createIdentity(platform == null ? null : platform.getIdentity(),
+                platformApp == null ? null : platformApp.getIdentity(),
+                application == null ? null : application.getIdentity());
+    }
+
     /**
      * @return Whether the data source is persistent or not.
      */
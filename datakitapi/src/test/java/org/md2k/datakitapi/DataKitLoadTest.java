@@ -0,0 +1,483 @@
+/*
+ * Copyright (c) 2018, The University of Memphis, MD2K Center of Excellence
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.md2k.datakitapi;
+
+import android.app.Application;
+import android.os.Looper;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.md2k.datakitapi.datatype.DataType;
+import org.md2k.datakitapi.datatype.DataTypeDoubleArray;
+import org.md2k.datakitapi.datatype.DataTypeCursor;
+import org.md2k.datakitapi.datatype.DataTypeLong;
+import org.md2k.datakitapi.datatype.RowObject;
+import org.md2k.datakitapi.exception.DataKitException;
+import org.md2k.datakitapi.messagehandler.OnConnectionListener;
+import org.md2k.datakitapi.messagehandler.OnReceiveBatchListener;
+import org.md2k.datakitapi.source.datasource.DataSourceBuilder;
+import org.md2k.datakitapi.source.datasource.DataSourceClient;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.LooperMode;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Load test of <code>DataKitAPI</code> against the <code>FakeDataKitService</code>.
+ *
+ * <p>
+ *     Runs only when the <code>datakit.benchmark</code> system property is true:
+ *     <pre>./gradlew :datakitapi:testDebugUnitTest --tests '*DataKitLoadTest' -Ddatakit.benchmark=true</pre>
+ *     <code>datakit.benchmark.threads</code> sets the number of client threads, 4 by default. Each
+ *     thread has a data source of its own. The phases are, one after the other:
+ *     <ul>
+ *         <li>inserts/sec of <code>insert()</code> batches, counted until the service has stored them</li>
+ *         <li>inserts/sec of <code>insertHighFrequency()</code>, flushed every <code>HF_FLUSH_SAMPLES</code></li>
+ *         <li>inserts/sec of acknowledged <code>insert()</code> batches, counted until acknowledged</li>
+ *         <li>p50, p99 and maximum latency of <code>query()</code> round trips</li>
+ *         <li>p50, p99 and maximum latency of <code>queryFromPrimaryKeyCursor()</code> round trips,
+ *         reading every row, after checking both cursor queries against their parcel counterparts</li>
+ *         <li>p50, p99 and maximum latency from <code>insert()</code> to a subscribed listener</li>
+ *     </ul>
+ * </p>
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28, manifest = Config.NONE)
+@LooperMode(LooperMode.Mode.PAUSED)
+public class DataKitLoadTest {
+
+    /** Time in milliseconds each phase generates load. */
+    private static final long PHASE_MILLIS = 3000;
+
+    /** Maximum time in milliseconds to wait for the service to catch up after a phase. */
+    private static final long DRAIN_MILLIS = 60000;
+
+    /** Number of samples per <code>insert()</code> call. */
+    private static final int BATCH = 16;
+
+    /** Number of high-frequency samples after which a buffer is flushed. */
+    private static final int HF_FLUSH_SAMPLES = 256;
+
+    /** Maximum number of unacknowledged batches per data source while inserts are acknowledged. */
+    private static final int ACK_WINDOW = 64;
+
+    /** Number of rows read per cursor query. */
+    private static final int CURSOR_ROWS = 1000;
+
+    /** Number of client threads. */
+    private final int threads = Integer.getInteger("datakit.benchmark.threads", 4);
+
+    /** The service under load. */
+    private FakeDataKitService service;
+
+    /** The client. */
+    private DataKitAPI dataKitAPI;
+
+    /** One data source per client thread. */
+    private DataSourceClient[] dataSourceClients;
+
+    @Before
+    public void setUp() throws Exception {
+        Assume.assumeTrue("Set -Ddatakit.benchmark=true to run", Boolean.getBoolean("datakit.benchmark"));
+        Application application = RuntimeEnvironment.application;
+        service = new FakeDataKitService();
+        service.install(application);
+
+        dataKitAPI = DataKitAPI.getInstance(application);
+        final CountDownLatch connected = new CountDownLatch(1);
+        dataKitAPI.connect(new OnConnectionListener() {
+            @Override
+            public void onConnected() {
+                connected.countDown();
+            }
+        });
+        shadowOf(Looper.getMainLooper()).idle();
+        assertTrue("Not connected", connected.await(10, TimeUnit.SECONDS));
+
+        dataSourceClients = new DataSourceClient[threads];
+        for (int i = 0; i < threads; i++)
+            dataSourceClients[i] = dataKitAPI.register(new DataSourceBuilder().setType("LOAD").setId(String.valueOf(i)));
+    }
+
+    @After
+    public void tearDown() {
+        if (dataKitAPI != null)
+            dataKitAPI.disconnect();
+        if (service != null)
+            service.quit();
+    }
+
+    @Test
+    public void load() throws Exception {
+        System.out.println(String.format(Locale.US, "%d client threads, %d ms per phase", threads, PHASE_MILLIS));
+        insertThroughput();
+        insertHighFrequencyThroughput();
+        acknowledgedInsertThroughput();
+        queryLatency();
+        cursorLatency();
+        fanOutLatency();
+    }
+
+    /**
+     * Measures how many samples per second <code>insert()</code> gets stored.
+     */
+    private void insertThroughput() throws Exception {
+        long before = service.getStored();
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(PHASE_MILLIS);
+        final AtomicLong sent = new AtomicLong();
+        long start = System.nanoTime();
+        run(new ClientTask() {
+            @Override
+            public void run(DataSourceClient dataSourceClient, Latencies latencies) throws DataKitException {
+                DataType[] batch = new DataType[BATCH];
+                long count = 0;
+                while (System.nanoTime() < deadline) {
+                    for (int i = 0; i < BATCH; i++)
+                        batch[i] = new DataTypeLong(System.currentTimeMillis(), count + i);
+                    dataKitAPI.insert(dataSourceClient, batch);
+                    count += BATCH;
+                }
+                sent.addAndGet(count);
+            }
+        });
+        assertTrue("Inserts not stored", service.awaitStored(before + sent.get(), DRAIN_MILLIS));
+        report("insert", sent.get(), System.nanoTime() - start);
+    }
+
+    /**
+     * Measures how many samples per second <code>insertHighFrequency()</code> gets stored.
+     */
+    private void insertHighFrequencyThroughput() throws Exception {
+        for (DataSourceClient dataSourceClient : dataSourceClients)
+            dataKitAPI.setHFFlushPolicy(dataSourceClient,
+                    new HFFlushPolicy(TimeUnit.MINUTES.toMillis(10), Integer.MAX_VALUE, HF_FLUSH_SAMPLES, false));
+        long before = service.getStored();
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(PHASE_MILLIS);
+        final AtomicLong sent = new AtomicLong();
+        long start = System.nanoTime();
+        run(new ClientTask() {
+            @Override
+            public void run(DataSourceClient dataSourceClient, Latencies latencies) throws DataKitException {
+                long count = 0;
+                while (System.nanoTime() < deadline) {
+                    for (int i = 0; i < HF_FLUSH_SAMPLES; i++)
+                        dataKitAPI.insertHighFrequency(dataSourceClient, new DataTypeDoubleArray(
+                                System.currentTimeMillis(), new double[]{i, -i, 9.81}));
+                    count += HF_FLUSH_SAMPLES;
+                }
+                sent.addAndGet(count);
+            }
+        });
+        assertTrue("High-frequency inserts not stored", service.awaitStored(before + sent.get(), DRAIN_MILLIS));
+        report("insertHighFrequency", sent.get(), System.nanoTime() - start);
+    }
+
+    /**
+     * Measures how many samples per second acknowledged <code>insert()</code> gets acknowledged.
+     */
+    private void acknowledgedInsertThroughput() throws Exception {
+        dataKitAPI.setAcknowledgedInserts(ACK_WINDOW);
+        long before = dataKitAPI.getAcknowledgedSamples();
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(PHASE_MILLIS);
+        final AtomicLong sent = new AtomicLong();
+        long start = System.nanoTime();
+        run(new ClientTask() {
+            @Override
+            public void run(DataSourceClient dataSourceClient, Latencies latencies) throws DataKitException {
+                DataType[] batch = new DataType[BATCH];
+                long count = 0;
+                while (System.nanoTime() < deadline) {
+                    for (int i = 0; i < BATCH; i++)
+                        batch[i] = new DataTypeLong(System.currentTimeMillis(), count + i);
+                    dataKitAPI.insert(dataSourceClient, batch);
+                    count += BATCH;
+                }
+                sent.addAndGet(count);
+            }
+        });
+        long drainDeadline = System.currentTimeMillis() + DRAIN_MILLIS;
+        while (dataKitAPI.getAcknowledgedSamples() < before + sent.get() && System.currentTimeMillis() < drainDeadline)
+            Thread.sleep(1);
+        assertTrue("Inserts not acknowledged", dataKitAPI.getAcknowledgedSamples() >= before + sent.get());
+        report("insert acknowledged", sent.get(), System.nanoTime() - start);
+        dataKitAPI.setAcknowledgedInserts(0);
+    }
+
+    /**
+     * Measures the round trip time of <code>query()</code> for the latest sample.
+     */
+    private void queryLatency() throws Exception {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(PHASE_MILLIS);
+        Latencies latencies = run(new ClientTask() {
+            @Override
+            public void run(DataSourceClient dataSourceClient, Latencies latencies) throws DataKitException {
+                while (System.nanoTime() < deadline) {
+                    long start = System.nanoTime();
+                    dataKitAPI.query(dataSourceClient, 1);
+                    latencies.add(System.nanoTime() - start);
+                }
+            }
+        });
+        report("query", latencies);
+    }
+
+    /**
+     * Checks that the cursor queries return the same rows as <code>queryFromPrimaryKey()</code>
+     * and <code>query()</code>, then measures the round trip time of
+     * <code>queryFromPrimaryKeyCursor()</code> including reading every row.
+     */
+    private void cursorLatency() throws Exception {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(PHASE_MILLIS);
+        Latencies latencies = run(new ClientTask() {
+            @Override
+            public void run(DataSourceClient dataSourceClient, Latencies latencies) throws DataKitException {
+                ArrayList<RowObject> expected = dataKitAPI.queryFromPrimaryKey(dataSourceClient, 0, CURSOR_ROWS);
+                if (expected.isEmpty())
+                    throw new DataKitException("No rows stored");
+                long start = expected.get(0).data.getDateTime();
+                long end = expected.get(expected.size() - 1).data.getDateTime();
+                int inFrame = dataKitAPI.query(dataSourceClient, start, end).size();
+                if (readAll(dataKitAPI.queryCursor(dataSourceClient, start, end), null) != inFrame)
+                    throw new DataKitException("queryCursor does not match query");
+                while (System.nanoTime() < deadline) {
+                    long started = System.nanoTime();
+                    readAll(dataKitAPI.queryFromPrimaryKeyCursor(dataSourceClient, 0, CURSOR_ROWS), expected);
+                    latencies.add(System.nanoTime() - started);
+                }
+            }
+        });
+        report("queryCursor", latencies);
+    }
+
+    /**
+     * Reads a cursor to its end and closes it.
+     *
+     * @param cursor The cursor.
+     * @param expected Rows the cursor must return, in order, or null to only count them.
+     * @return Number of rows read.
+     * @throws DataKitException Thrown when the stream fails or the rows differ.
+     */
+    private static int readAll(DataTypeCursor cursor, ArrayList<RowObject> expected) throws DataKitException {
+        int rows = 0;
+        try {
+            try {
+                while (cursor.moveToNext()) {
+                    if (expected != null && (rows >= expected.size()
+                            || cursor.getRowKey() != expected.get(rows).rowKey
+                            || cursor.getDateTime() != expected.get(rows).data.getDateTime()))
+                        throw new DataKitException("Row " + rows + " does not match");
+                    rows++;
+                }
+            } finally {
+                cursor.close();
+            }
+        } catch (IOException e) {
+            throw new DataKitException(e);
+        }
+        if (expected != null && rows != expected.size())
+            throw new DataKitException("Read " + rows + " of " + expected.size() + " rows");
+        return rows;
+    }
+
+    /**
+     * Measures the time from <code>insert()</code> to a subscribed listener.
+     */
+    private void fanOutLatency() throws Exception {
+        final Latencies received = new Latencies();
+        for (DataSourceClient dataSourceClient : dataSourceClients) {
+            dataKitAPI.subscribe(dataSourceClient, new OnReceiveBatchListener() {
+                @Override
+                public void onReceived(DataType[] dataTypes) {
+                    long now = System.nanoTime();
+                    synchronized (received) {
+                        for (DataType dataType : dataTypes)
+                            received.add(now - ((DataTypeLong) dataType).getSample());
+                        received.notifyAll();
+                    }
+                }
+            });
+        }
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(PHASE_MILLIS);
+        final AtomicLong sent = new AtomicLong();
+        run(new ClientTask() {
+            @Override
+            public void run(DataSourceClient dataSourceClient, Latencies latencies) throws DataKitException {
+                long count = 0;
+                while (System.nanoTime() < deadline) {
+                    dataKitAPI.insert(dataSourceClient, new DataTypeLong(System.currentTimeMillis(), System.nanoTime()));
+                    count++;
+                }
+                sent.addAndGet(count);
+            }
+        });
+        long drainDeadline = System.currentTimeMillis() + DRAIN_MILLIS;
+        synchronized (received) {
+            while (received.size() < sent.get() && System.currentTimeMillis() < drainDeadline)
+                received.wait(Math.max(1, drainDeadline - System.currentTimeMillis()));
+            assertTrue("Subscribed samples missing", received.size() >= sent.get());
+            report("subscription", received);
+        }
+        for (DataSourceClient dataSourceClient : dataSourceClients)
+            dataKitAPI.unsubscribe(dataSourceClient);
+    }
+
+    /**
+     * Runs a task on every client thread, each with its own data source, and waits for all of them.
+     *
+     * @param task The task.
+     * @return The latencies recorded by all threads.
+     */
+    private Latencies run(final ClientTask task) throws Exception {
+        final Latencies[] latencies = new Latencies[threads];
+        final Exception[] failures = new Exception[threads];
+        Thread[] clients = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final int index = i;
+            latencies[i] = new Latencies();
+            clients[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        task.run(dataSourceClients[index], latencies[index]);
+                    } catch (Exception e) {
+                        failures[index] = e;
+                    }
+                }
+            }, "load-client-" + i);
+            clients[i].start();
+        }
+        Latencies all = new Latencies();
+        for (int i = 0; i < threads; i++) {
+            clients[i].join();
+            if (failures[i] != null)
+                throw failures[i];
+            all.addAll(latencies[i]);
+        }
+        return all;
+    }
+
+    /**
+     * Prints a throughput.
+     *
+     * @param name Name of the phase.
+     * @param samples Number of samples stored.
+     * @param nanos Time from the start of the phase until the last sample was stored.
+     */
+    private static void report(String name, long samples, long nanos) {
+        System.out.println(String.format(Locale.US, "%-20s %12d samples %14.0f samples/s",
+                name, samples, samples * 1e9 / nanos));
+    }
+
+    /**
+     * Prints a latency distribution.
+     *
+     * @param name Name of the phase.
+     * @param latencies The latencies.
+     */
+    private static void report(String name, Latencies latencies) {
+        System.out.println(String.format(Locale.US, "%-20s %12d calls    p50 %8.1f us  p99 %8.1f us  max %8.1f us",
+                name, latencies.size(), latencies.percentile(50) / 1e3, latencies.percentile(99) / 1e3,
+                latencies.percentile(100) / 1e3));
+    }
+
+    /**
+     * Work done on each client thread.
+     */
+    private interface ClientTask {
+
+        /**
+         * @param dataSourceClient Data source of the thread.
+         * @param latencies Latencies recorded by the thread.
+         * @throws DataKitException Thrown when a call fails.
+         */
+        void run(DataSourceClient dataSourceClient, Latencies latencies) throws DataKitException;
+    }
+
+    /**
+     * Growable list of latencies in nanoseconds. Not thread safe.
+     */
+    private static class Latencies {
+
+        /** The latencies. */
+        private long[] values = new long[1024];
+
+        /** Number of latencies. */
+        private int size;
+
+        /**
+         * @param nanos A latency.
+         */
+        void add(long nanos) {
+            if (size == values.length)
+                values = Arrays.copyOf(values, size * 2);
+            values[size++] = nanos;
+        }
+
+        /**
+         * @param other Latencies to append.
+         */
+        void addAll(Latencies other) {
+            for (int i = 0; i < other.size; i++)
+                add(other.values[i]);
+        }
+
+        /**
+         * @return Number of latencies.
+         */
+        int size() {
+            return size;
+        }
+
+        /**
+         * @param percent Percentile between 0 and 100.
+         * @return The latency at that percentile, or 0 if there are none.
+         */
+        long percentile(double percent) {
+            if (size == 0)
+                return 0;
+            long[] sorted = Arrays.copyOf(values, size);
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(percent / 100 * size) - 1;
+            return sorted[Math.max(0, Math.min(size - 1, index))];
+        }
+    }
+}
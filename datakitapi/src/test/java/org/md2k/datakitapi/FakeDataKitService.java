@@ -0,0 +1,734 @@
+/*
+ * Copyright (c) 2018, The University of Memphis, MD2K Center of Excellence
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.md2k.datakitapi;
+
+import android.app.Application;
+import android.content.ComponentName;
+import android.content.pm.PackageInfo;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Messenger;
+import android.os.Parcel;
+import android.os.ParcelFileDescriptor;
+import android.os.Parcelable;
+import android.os.RemoteException;
+import android.util.Log;
+
+import org.md2k.datakitapi.datatype.AggregateBlock;
+import org.md2k.datakitapi.datatype.DataType;
+import org.md2k.datakitapi.datatype.DataTypeBinary;
+import org.md2k.datakitapi.datatype.DataTypeDoubleArray;
+import org.md2k.datakitapi.datatype.DataTypeLong;
+import org.md2k.datakitapi.datatype.DoubleBlock;
+import org.md2k.datakitapi.datatype.Downsampling;
+import org.md2k.datakitapi.datatype.RowObject;
+import org.md2k.datakitapi.messagehandler.MessageType;
+import org.md2k.datakitapi.source.AbstractObject;
+import org.md2k.datakitapi.source.datasource.DataSource;
+import org.md2k.datakitapi.source.datasource.DataSourceClient;
+import org.md2k.datakitapi.status.Status;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * In-process stand-in for <code>org.md2k.datakit.ServiceDataKit</code>, backed by memory.
+ *
+ * <p>
+ *     <code>install()</code> makes <code>DataKitAPI.connect()</code> bind this service instead of the
+ *     real one. It answers <code>REGISTER</code>, <code>UNREGISTER</code>, <code>FIND</code>,
+ *     <code>INSERT</code>, <code>INSERT_HIGH_FREQUENCY</code>, <code>INSERT_HIGH_FREQUENCY_PACKED</code>,
+ *     <code>QUERY</code>, <code>QUERY_AGGREGATE</code>, <code>QUERY_DOWNSAMPLE</code>,
+ *     <code>QUERYPRIMARYKEY</code>, <code>QUERY_CURSOR</code>, <code>QUERYPRIMARYKEY_CURSOR</code>,
+ *     <code>QUERYSIZE</code>, <code>SUBSCRIBE</code>, <code>UNSUBSCRIBE</code> and
+ *     <code>SUMMARY</code> the way <code>DataKit</code> does, echoing <code>arg1</code> and
+ *     <code>arg2</code> in every reply, and sends <code>SUBSCRIBED_DATA</code> to the subscribers of
+ *     every inserted batch. The rows of a cursor query are written to a file in the
+ *     <code>DataTypeBinary</code> format and its descriptor is sent back.
+ * </p>
+ * <p>
+ *     Inserts carrying <code>RC_SEQUENCE</code> are acknowledged the way <code>InsertWindow</code>
+ *     expects: a batch whose sequence number was already stored for its stream and data source is
+ *     dropped, and the highest stored sequence number is sent back. Acknowledgements are sent once
+ *     the requests already queued have been handled, so a burst of inserts gets one of them.
+ * </p>
+ * <p>
+ *     Every request and every reply is written to a <code>Parcel</code> and read back, so that the
+ *     marshalling Binder would do is part of what is measured. Replies carrying a file descriptor are
+ *     the exception, since Binder duplicates the descriptor instead of copying data. All state is
+ *     confined to the thread of the service.
+ * </p>
+ */
+class FakeDataKitService {
+    private static final String TAG = FakeDataKitService.class.getSimpleName();
+
+    /** Runs the service. */
+    private final HandlerThread thread;
+
+    /** Receives the requests. */
+    private final Messenger messenger;
+
+    /** Registered data sources keyed by data source identifier. */
+    private final HashMap<Integer, DataSource> dataSources = new HashMap<>();
+
+    /** Stored rows of each data source, in insertion order. */
+    private final HashMap<Integer, ArrayList<RowObject>> rows = new HashMap<>();
+
+    /** Latest summary of each data source. */
+    private final HashMap<Integer, DataType> summaries = new HashMap<>();
+
+    /** Subscribers of each data source. */
+    private final HashMap<Integer, ArrayList<Subscriber>> subscribers = new HashMap<>();
+
+    /** Highest stored sequence number, keyed by insert stream and data source identifier. */
+    private final HashMap<String, Long> sequences = new HashMap<>();
+
+    /** Acknowledgements waiting to be sent. */
+    private final ArrayList<Acknowledgement> acknowledgements = new ArrayList<>();
+
+    /** Whether sending the acknowledgements is posted. */
+    private boolean acknowledgementsPosted;
+
+    /** Identifier given to the next registered data source. */
+    private int nextDs_id = 1;
+
+    /** Primary key of the next stored row. */
+    private long nextRowKey = 1;
+
+    /** Number of samples stored so far. Guarded by <code>this</code>. */
+    private long stored;
+
+    /**
+     * Constructor. Starts the thread of the service.
+     */
+    FakeDataKitService() {
+        thread = new HandlerThread("fake-datakit");
+        thread.start();
+        messenger = new Messenger(new ServiceHandler(thread.getLooper()));
+    }
+
+    /**
+     * Makes <code>DataKit</code> look installed and has binding it return this service.
+     *
+     * @param application The application under test.
+     */
+    void install(Application application) {
+        PackageInfo packageInfo = new PackageInfo();
+        packageInfo.packageName = Constants.PACKAGE_NAME;
+        shadowOf(application.getPackageManager()).installPackage(packageInfo);
+        shadowOf(application).setComponentNameAndServiceForBindService(
+                new ComponentName(Constants.PACKAGE_NAME, Constants.SERVICE_NAME), messenger.getBinder());
+    }
+
+    /**
+     * Stops the thread of the service.
+     */
+    void quit() {
+        thread.quitSafely();
+    }
+
+    /**
+     * @return Number of samples stored so far.
+     */
+    synchronized long getStored() {
+        return stored;
+    }
+
+    /**
+     * Waits until the given number of samples has been stored.
+     *
+     * @param count Number of samples.
+     * @param timeoutMillis Maximum time to wait in milliseconds.
+     * @return Whether that many samples were stored in time.
+     * @throws InterruptedException Thrown if the wait is interrupted.
+     */
+    synchronized boolean awaitStored(long count, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (stored < count) {
+            long left = deadline - System.currentTimeMillis();
+            if (left <= 0)
+                return false;
+            wait(left);
+        }
+        return true;
+    }
+
+    /**
+     * Writes a bundle to a parcel and reads it back, as sending it over Binder would.
+     *
+     * @param bundle The bundle.
+     * @return The copy read back.
+     */
+    private static Bundle marshal(Bundle bundle) {
+        Parcel parcel = Parcel.obtain();
+        try {
+            parcel.writeBundle(bundle);
+            parcel.setDataPosition(0);
+            Bundle copy = parcel.readBundle(FakeDataKitService.class.getClassLoader());
+            copy.setClassLoader(FakeDataKitService.class.getClassLoader());
+            return copy;
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    /**
+     * Sends a message to a client.
+     *
+     * @param replyTo Messenger of the client.
+     * @param messageType <code>MessageType</code> of the message.
+     * @param sessionId Session identifier of the client.
+     * @param requestId Request identifier the message answers, or 0.
+     * @param bundle Payload of the message.
+     * @return Whether the message could be sent.
+     */
+    private static boolean send(Messenger replyTo, int messageType, int sessionId, int requestId, Bundle bundle) {
+        Message message = Message.obtain(null, messageType, sessionId, requestId);
+        message.setData(marshal(bundle));
+        try {
+            replyTo.send(message);
+            return true;
+        } catch (RemoteException e) {
+            Log.e(TAG, "Could not reach client", e);
+            return false;
+        }
+    }
+
+    /**
+     * @param query The value searched for, or null to match anything.
+     * @param value The value of a data source.
+     * @return Whether the value matches the query.
+     */
+    private static boolean matches(String query, String value) {
+        return query == null || query.equals(value);
+    }
+
+    /**
+     * @param query The object searched for, or null to match anything.
+     * @param value The object of a data source.
+     * @return Whether type and identifier of the object match the query.
+     */
+    private static boolean matches(AbstractObject query, AbstractObject value) {
+        return query == null || value != null && matches(query.getType(), value.getType())
+                && matches(query.getId(), value.getId());
+    }
+
+    /**
+     * @param query Data source with the fields searched for. Null fields match anything.
+     * @param dataSource A registered data source.
+     * @return Whether the data source matches the query.
+     */
+    private static boolean matches(DataSource query, DataSource dataSource) {
+        return matches(query.getType(), dataSource.getType()) && matches(query.getId(), dataSource.getId())
+                && matches(query.getPlatform(), dataSource.getPlatform())
+                && matches(query.getPlatformApp(), dataSource.getPlatformApp())
+                && matches(query.getApplication(), dataSource.getApplication());
+    }
+
+    /**
+     * @param a A data source.
+     * @param b Another data source.
+     * @return Whether both describe the same data source, the way <code>DataKit</code> compares them.
+     */
+    private static boolean same(DataSource a, DataSource b) {
+        return matches(a, b) && matches(b, a);
+    }
+
+    /**
+     * Stores a batch of samples and sends it to the subscribers of the data source.
+     *
+     * @param ds_id Data source identifier.
+     * @param dataTypes The samples.
+     */
+    private void store(int ds_id, DataType[] dataTypes) {
+        if (dataTypes == null || !dataSources.containsKey(ds_id))
+            return;
+        ArrayList<RowObject> stored = rows.get(ds_id);
+        if (stored == null) {
+            stored = new ArrayList<>();
+            rows.put(ds_id, stored);
+        }
+        for (DataType dataType : dataTypes)
+            stored.add(new RowObject(nextRowKey++, dataType));
+        synchronized (this) {
+            this.stored += dataTypes.length;
+            notifyAll();
+        }
+        ArrayList<Subscriber> subscribed = subscribers.get(ds_id);
+        if (subscribed == null)
+            return;
+        Bundle bundle = new Bundle();
+        bundle.putParcelableArray(DataType.class.getSimpleName(), dataTypes);
+        bundle.putInt(Constants.RC_DSID, ds_id);
+        Iterator<Subscriber> iterator = subscribed.iterator();
+        while (iterator.hasNext()) {
+            Subscriber subscriber = iterator.next();
+            if (!send(subscriber.replyTo, MessageType.SUBSCRIBED_DATA, subscriber.sessionId, 0, bundle))
+                iterator.remove();
+        }
+    }
+
+    /**
+     * @param parcelables Samples read from a bundle.
+     * @return The samples as an array of <code>DataType</code>.
+     */
+    private static DataType[] toDataTypes(Parcelable[] parcelables) {
+        if (parcelables == null)
+            return null;
+        DataType[] dataTypes = new DataType[parcelables.length];
+        for (int i = 0; i < parcelables.length; i++)
+            dataTypes[i] = (DataType) parcelables[i];
+        return dataTypes;
+    }
+
+    /**
+     * An acknowledgement waiting to be sent.
+     */
+    private static class Acknowledgement {
+
+        /** Messenger of the client. */
+        final Messenger replyTo;
+
+        /** Data source identifier. */
+        final int ds_id;
+
+        /** Session identifier of the client. */
+        int sessionId;
+
+        /** <code>MessageType</code> of the latest acknowledged insert. */
+        int messageType;
+
+        /** Highest stored sequence number. */
+        long sequence;
+
+        /**
+         * Constructor
+         *
+         * @param replyTo Messenger of the client.
+         * @param ds_id Data source identifier.
+         */
+        Acknowledgement(Messenger replyTo, int ds_id) {
+            this.replyTo = replyTo;
+            this.ds_id = ds_id;
+        }
+    }
+
+    /**
+     * A client subscribed to a data source.
+     */
+    private static class Subscriber {
+
+        /** Messenger of the client. */
+        final Messenger replyTo;
+
+        /** Session identifier of the client. */
+        final int sessionId;
+
+        /** Package name of the client. */
+        final String packageName;
+
+        /**
+         * Constructor
+         *
+         * @param replyTo Messenger of the client.
+         * @param sessionId Session identifier of the client.
+         * @param packageName Package name of the client.
+         */
+        Subscriber(Messenger replyTo, int sessionId, String packageName) {
+            this.replyTo = replyTo;
+            this.sessionId = sessionId;
+            this.packageName = packageName;
+        }
+    }
+
+    /**
+     * Handles the requests on the thread of the service.
+     */
+    private class ServiceHandler extends Handler {
+
+        /**
+         * Constructor
+         *
+         * @param looper Looper of the service thread.
+         */
+        ServiceHandler(Looper looper) {
+            super(looper);
+        }
+
+        /**
+         * Answers a request.
+         *
+         * @param msg The request.
+         */
+        @Override
+        public void handleMessage(Message msg) {
+            Bundle data = marshal(msg.getData());
+            Bundle reply = new Bundle();
+            int ds_id = data.getInt(Constants.RC_DSID, -1);
+            switch (msg.what) {
+                case MessageType.REGISTER:
+                    reply.putParcelable(DataSourceClient.class.getSimpleName(),
+                            register((DataSource) data.getParcelable(DataSource.class.getSimpleName())));
+                    break;
+
+                case MessageType.UNREGISTER:
+                    int status = dataSources.remove(ds_id) == null ? Status.DATASOURCE_NOT_EXIST : Status.SUCCESS;
+                    subscribers.remove(ds_id);
+                    reply.putParcelable(Status.class.getSimpleName(), new Status(status));
+                    break;
+
+                case MessageType.FIND:
+                    DataSource query = data.getParcelable(DataSource.class.getSimpleName());
+                    ArrayList<DataSourceClient> found = new ArrayList<>();
+                    for (Map.Entry<Integer, DataSource> entry : dataSources.entrySet()) {
+                        if (matches(query, entry.getValue()))
+                            found.add(new DataSourceClient(entry.getKey(), entry.getValue(), new Status(Status.SUCCESS)));
+                    }
+                    reply.putParcelableArrayList(DataSourceClient.class.getSimpleName(), found);
+                    break;
+
+                case MessageType.INSERT:
+                    insert(msg, data, ds_id, toDataTypes(data.getParcelableArray(DataType.class.getSimpleName())));
+                    return;
+
+                case MessageType.INSERT_HIGH_FREQUENCY:
+                    insert(msg, data, ds_id, toDataTypes(data.getParcelableArray(DataTypeDoubleArray.class.getSimpleName())));
+                    return;
+
+                case MessageType.INSERT_HIGH_FREQUENCY_PACKED:
+                    insert(msg, data, ds_id, HFFrame.read(data));
+                    return;
+
+                case MessageType.SUMMARY:
+                    DataSourceClient dataSourceClient = data.getParcelable(Constants.RC_DATASOURCE_CLIENT);
+                    if (dataSourceClient != null)
+                        summaries.put(dataSourceClient.getDs_id(), (DataType) data.getParcelable(DataType.class.getSimpleName()));
+                    return;
+
+                case MessageType.QUERY:
+                    reply.putParcelableArrayList(DataType.class.getSimpleName(), query(ds_id, data));
+                    break;
+
+                case MessageType.QUERY_AGGREGATE:
+                    try {
+                        DataType[] samples = query(ds_id, data).toArray(new DataType[0]);
+                        reply.putParcelable(AggregateBlock.class.getSimpleName(), Downsampling.aggregate(samples,
+                                data.getLong(Constants.RC_STARTTIMESTAMP), data.getLong(Constants.RC_BUCKET)));
+                    } catch (IllegalArgumentException e) {
+                        Log.w(TAG, "Could not aggregate " + ds_id, e);
+                    }
+                    break;
+
+                case MessageType.QUERY_DOWNSAMPLE:
+                    try {
+                        DataType[] samples = query(ds_id, data).toArray(new DataType[0]);
+                        reply.putParcelable(DoubleBlock.class.getSimpleName(), Downsampling.downsample(samples,
+                                data.getInt(Constants.RC_POINTS), data.getInt(Constants.RC_COLUMN)));
+                    } catch (IllegalArgumentException e) {
+                        Log.w(TAG, "Could not downsample " + ds_id, e);
+                    }
+                    break;
+
+                case MessageType.QUERYPRIMARYKEY:
+                    reply.putParcelableArrayList(RowObject.class.getSimpleName(),
+                            queryFromPrimaryKey(ds_id, data.getLong(Constants.RC_LAST_KEY), data.getInt(Constants.RC_LIMIT)));
+                    break;
+
+                case MessageType.QUERY_CURSOR:
+                    sendCursor(msg, queryRows(ds_id, data));
+                    return;
+
+                case MessageType.QUERYPRIMARYKEY_CURSOR:
+                    sendCursor(msg, queryFromPrimaryKey(ds_id, data.getLong(Constants.RC_LAST_KEY), data.getInt(Constants.RC_LIMIT)));
+                    return;
+
+                case MessageType.QUERYSIZE:
+                    reply.putParcelable(DataTypeLong.class.getSimpleName(),
+                            new DataTypeLong(System.currentTimeMillis(), nextRowKey - 1));
+                    break;
+
+                case MessageType.SUBSCRIBE:
+                    reply.putParcelable(Status.class.getSimpleName(),
+                            subscribe(ds_id, msg.replyTo, msg.arg1, data.getString(Constants.PACKAGE_NAME)));
+                    break;
+
+                case MessageType.UNSUBSCRIBE:
+                    reply.putParcelable(Status.class.getSimpleName(),
+                            unsubscribe(ds_id, data.getString(Constants.PACKAGE_NAME)));
+                    break;
+
+                default:
+                    return;
+            }
+            if (msg.replyTo != null)
+                send(msg.replyTo, msg.what, msg.arg1, msg.arg2, reply);
+        }
+
+        /**
+         * Stores an insert, dropping it if its sequence number shows it was stored before, and
+         * queues its acknowledgement if it has one.
+         *
+         * @param msg The request.
+         * @param data Payload of the request.
+         * @param ds_id Data source identifier.
+         * @param dataTypes The samples.
+         */
+        private void insert(Message msg, Bundle data, int ds_id, DataType[] dataTypes) {
+            if (!data.containsKey(Constants.RC_SEQUENCE)) {
+                store(ds_id, dataTypes);
+                return;
+            }
+            long sequence = data.getLong(Constants.RC_SEQUENCE);
+            String key = data.getLong(Constants.RC_INSERT_STREAM) + ":" + ds_id;
+            Long last = sequences.get(key);
+            if (last == null || sequence > last) {
+                store(ds_id, dataTypes);
+                sequences.put(key, sequence);
+                last = sequence;
+            }
+            if (msg.replyTo != null)
+                acknowledge(msg.replyTo, msg.arg1, msg.what, ds_id, last);
+        }
+
+        /**
+         * Queues an acknowledgement, replacing an earlier one of the same client and data source.
+         *
+         * @param replyTo Messenger of the client.
+         * @param sessionId Session identifier of the client.
+         * @param messageType <code>MessageType</code> of the insert.
+         * @param ds_id Data source identifier.
+         * @param sequence Highest stored sequence number.
+         */
+        private void acknowledge(Messenger replyTo, int sessionId, int messageType, int ds_id, long sequence) {
+            Acknowledgement acknowledgement = null;
+            for (Acknowledgement queued : acknowledgements) {
+                if (queued.ds_id == ds_id && queued.replyTo.equals(replyTo))
+                    acknowledgement = queued;
+            }
+            if (acknowledgement == null) {
+                acknowledgement = new Acknowledgement(replyTo, ds_id);
+                acknowledgements.add(acknowledgement);
+            }
+            acknowledgement.sessionId = sessionId;
+            acknowledgement.messageType = messageType;
+            acknowledgement.sequence = sequence;
+            if (!acknowledgementsPosted) {
+                acknowledgementsPosted = true;
+                post(new Runnable() {
+                    @Override
+                    public void run() {
+                        acknowledgementsPosted = false;
+                        for (Acknowledgement acknowledgement : acknowledgements) {
+                            Bundle bundle = new Bundle();
+                            bundle.putInt(Constants.RC_DSID, acknowledgement.ds_id);
+                            bundle.putLong(Constants.RC_SEQUENCE, acknowledgement.sequence);
+                            send(acknowledgement.replyTo, acknowledgement.messageType, acknowledgement.sessionId, 0, bundle);
+                        }
+                        acknowledgements.clear();
+                    }
+                });
+            }
+        }
+
+        /**
+         * @param dataSource The data source to register.
+         * @return The registered data source, with <code>DATASOURCE_EXIST</code> if it was registered before.
+         */
+        private DataSourceClient register(DataSource dataSource) {
+            if (dataSource == null)
+                return new DataSourceClient(-1, null, new Status(Status.DATASOURCE_INVALID));
+            for (Map.Entry<Integer, DataSource> entry : dataSources.entrySet()) {
+                if (same(dataSource, entry.getValue()))
+                    return new DataSourceClient(entry.getKey(), entry.getValue(), new Status(Status.DATASOURCE_EXIST));
+            }
+            int ds_id = nextDs_id++;
+            dataSources.put(ds_id, dataSource);
+            return new DataSourceClient(ds_id, dataSource, new Status(Status.SUCCESS));
+        }
+
+        /**
+         * @param ds_id Data source identifier.
+         * @param data The request, with either a time frame or a number of latest samples.
+         * @return The matching samples, oldest first.
+         */
+        private ArrayList<DataType> query(int ds_id, Bundle data) {
+            ArrayList<DataType> result = new ArrayList<>();
+            for (RowObject rowObject : queryRows(ds_id, data))
+                result.add(rowObject.data);
+            return result;
+        }
+
+        /**
+         * @param ds_id Data source identifier.
+         * @param data Payload of the request, with either <code>RC_LAST_N_SAMPLE</code> or a time frame.
+         * @return The matching rows in insertion order.
+         */
+        private ArrayList<RowObject> queryRows(int ds_id, Bundle data) {
+            ArrayList<RowObject> result = new ArrayList<>();
+            ArrayList<RowObject> stored = rows.get(ds_id);
+            if (stored == null)
+                return result;
+            if (data.containsKey(Constants.RC_LAST_N_SAMPLE)) {
+                int n = data.getInt(Constants.RC_LAST_N_SAMPLE);
+                result.addAll(stored.subList(Math.max(0, stored.size() - n), stored.size()));
+                return result;
+            }
+            long start = data.getLong(Constants.RC_STARTTIMESTAMP);
+            long end = data.getLong(Constants.RC_ENDTIMESTAMP);
+            for (RowObject rowObject : stored) {
+                long dateTime = rowObject.data.getDateTime();
+                if (dateTime >= start && dateTime <= end)
+                    result.add(rowObject);
+            }
+            return result;
+        }
+
+        /**
+         * Writes rows to a file in the <code>DataTypeBinary</code> format and sends its descriptor
+         * as the reply. The file is deleted once opened, so it goes away when the client closes
+         * the descriptor. The reply has no descriptor if the file could not be written.
+         *
+         * @param msg The request.
+         * @param result The rows.
+         */
+        private void sendCursor(Message msg, ArrayList<RowObject> result) {
+            Bundle reply = new Bundle();
+            try {
+                File file = File.createTempFile("cursor", ".bin");
+                try {
+                    OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+                    try {
+                        DataTypeBinary binary = new DataTypeBinary(out);
+                        for (RowObject rowObject : result)
+                            binary.write(rowObject.rowKey, rowObject.data);
+                        binary.finish();
+                    } finally {
+                        out.close();
+                    }
+                    reply.putParcelable(Constants.RC_FILE_DESCRIPTOR,
+                            ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY));
+                } finally {
+                    if (!file.delete())
+                        Log.w(TAG, "Could not delete " + file);
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Could not write cursor", e);
+            }
+            if (msg.replyTo == null)
+                return;
+            Message message = Message.obtain(null, msg.what, msg.arg1, msg.arg2);
+            message.setData(reply);
+            try {
+                msg.replyTo.send(message);
+            } catch (RemoteException e) {
+                Log.e(TAG, "Could not reach client", e);
+            }
+        }
+
+        /**
+         * @param ds_id Data source identifier.
+         * @param lastKey Rows with this key or lower are skipped.
+         * @param limit Maximum number of rows.
+         * @return The matching rows in key order.
+         */
+        private ArrayList<RowObject> queryFromPrimaryKey(int ds_id, long lastKey, int limit) {
+            ArrayList<RowObject> result = new ArrayList<>();
+            ArrayList<RowObject> stored = rows.get(ds_id);
+            if (stored == null)
+                return result;
+            for (RowObject rowObject : stored) {
+                if (result.size() >= limit)
+                    break;
+                if (rowObject.rowKey > lastKey)
+                    result.add(rowObject);
+            }
+            return result;
+        }
+
+        /**
+         * @param ds_id Data source identifier.
+         * @param replyTo Messenger of the client.
+         * @param sessionId Session identifier of the client.
+         * @param packageName Package name of the client.
+         * @return Status of the subscription.
+         */
+        private Status subscribe(int ds_id, Messenger replyTo, int sessionId, String packageName) {
+            if (!dataSources.containsKey(ds_id) || replyTo == null)
+                return new Status(Status.DATASOURCE_NOT_EXIST);
+            ArrayList<Subscriber> subscribed = subscribers.get(ds_id);
+            if (subscribed == null) {
+                subscribed = new ArrayList<>();
+                subscribers.put(ds_id, subscribed);
+            }
+            removeSubscriber(subscribed, packageName);
+            subscribed.add(new Subscriber(replyTo, sessionId, packageName));
+            return new Status(Status.SUCCESS);
+        }
+
+        /**
+         * @param ds_id Data source identifier.
+         * @param packageName Package name of the client.
+         * @return Status of the removal.
+         */
+        private Status unsubscribe(int ds_id, String packageName) {
+            ArrayList<Subscriber> subscribed = subscribers.get(ds_id);
+            if (subscribed == null || !removeSubscriber(subscribed, packageName))
+                return new Status(Status.DATASOURCE_NOT_EXIST);
+            return new Status(Status.SUCCESS);
+        }
+
+        /**
+         * @param subscribed Subscribers of a data source.
+         * @param packageName Package name of the client.
+         * @return Whether the client was subscribed.
+         */
+        private boolean removeSubscriber(ArrayList<Subscriber> subscribed, String packageName) {
+            Iterator<Subscriber> iterator = subscribed.iterator();
+            while (iterator.hasNext()) {
+                Subscriber subscriber = iterator.next();
+                if (subscriber.packageName == null ? packageName == null : subscriber.packageName.equals(packageName)) {
+                    iterator.remove();
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,378 @@
+/*
+ * Copyright (c) 2018, The University of Memphis, MD2K Center of Excellence
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.md2k.datakitapi;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.md2k.datakitapi.datatype.DataType;
+import org.md2k.datakitapi.datatype.DataTypeDoubleArray;
+import org.md2k.datakitapi.exception.DataKitException;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Append, compaction, replay and reopening of <code>InsertSpool</code> segments.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28, manifest = Config.NONE)
+public class InsertSpoolTest {
+
+    /** Data source the samples are spooled for. */
+    private static final int DS_ID = 7;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /** Directory of the spool files. */
+    private File directory;
+
+    /** Size in bytes of the row of one sample. */
+    private int rowSize;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = folder.newFolder();
+        File scratch = folder.newFolder();
+        InsertSpool spool = new InsertSpool(scratch, 4096, 4096);
+        spool.append(DS_ID, InsertSpool.KIND_INSERT, samples(0, 1));
+        rowSize = (int) spool.getBacklog();
+    }
+
+    /**
+     * @param first Value of the first sample, also its timestamp.
+     * @param count Number of samples.
+     * @return Samples with consecutive values.
+     */
+    private static DataType[] samples(int first, int count) {
+        DataTypeDoubleArray[] samples = new DataTypeDoubleArray[count];
+        for (int i = 0; i < count; i++)
+            samples[i] = new DataTypeDoubleArray(first + i, new double[]{first + i});
+        return samples;
+    }
+
+    /**
+     * @param rows Number of rows the segment holds.
+     * @return Segment size holding exactly that many rows.
+     */
+    private int segmentSize(int rows) {
+        return InsertSpool.HEADER_SIZE + rows * rowSize;
+    }
+
+    @Test
+    public void replaysBatchesOfEachKindInOrder() throws Exception {
+        InsertSpool spool = new InsertSpool(directory, 4096, 4096);
+        spool.append(DS_ID, InsertSpool.KIND_INSERT, samples(0, 3));
+        spool.append(DS_ID, InsertSpool.KIND_HIGH_FREQUENCY, samples(3, 2));
+        spool.append(DS_ID, InsertSpool.KIND_INSERT, samples(5, 1));
+        RecordingSender sender = new RecordingSender();
+
+        assertTrue(spool.replayAll(sender));
+
+        assertEquals("I0,1,2 H3,4 I5", sender.toString());
+        assertEquals(0, spool.getBacklog());
+    }
+
+    @Test
+    public void splitsLongBacklogsIntoReplayBatches() throws Exception {
+        InsertSpool spool = new InsertSpool(directory, 1 << 20, 1 << 20);
+        spool.append(DS_ID, InsertSpool.KIND_INSERT, samples(0, InsertSpool.REPLAY_BATCH + 1));
+        RecordingSender sender = new RecordingSender();
+
+        spool.replayAll(sender);
+
+        assertEquals(2, sender.batches.size());
+        assertEquals(InsertSpool.REPLAY_BATCH, sender.batches.get(0).size());
+        assertEquals(InsertSpool.REPLAY_BATCH, (int) sender.values().get(InsertSpool.REPLAY_BATCH));
+    }
+
+    @Test
+    public void deletesSegmentOnceReplayed() throws Exception {
+        InsertSpool spool = new InsertSpool(directory, 4096, 4096);
+        spool.append(DS_ID, InsertSpool.KIND_INSERT, samples(0, 2));
+        File file = new File(directory, "ds_" + DS_ID + ".spool");
+        assertTrue(file.exists());
+
+        spool.replayAll(new RecordingSender());
+
+        assertFalse(file.exists());
+        assertEquals(0, spool.getSize());
+
+        spool.append(DS_ID, InsertSpool.KIND_INSERT, samples(2, 1));
+        assertTrue(file.exists());
+        assertEquals(rowSize, spool.getBacklog(DS_ID));
+    }
+
+    @Test
+    public void takesOnlyWhatIsNeededWhileConnected() throws Exception {
+        InsertSpool spool = new InsertSpool(directory, 4096, 4096);
+
+        assertFalse(spool.offer(DS_ID, InsertSpool.KIND_INSERT, samples(0, 1), true));
+        assertTrue(spool.offer(DS_ID, InsertSpool.KIND_INSERT, samples(0, 1), false));
+        assertTrue(spool.offer(DS_ID, InsertSpool.KIND_INSERT, samples(1, 1), true));
+        assertEquals(2 * rowSize, spool.getBacklog(DS_ID));
+    }
+
+    @Test
+    public void dropsSamplesThatDoNotFit() throws Exception {
+        InsertSpool spool = new InsertSpool(directory, segmentSize(3), segmentSize(3));
+        spool.append(DS_ID, InsertSpool.KIND_INSERT, samples(0, 2));
+        spool.append(DS_ID, InsertSpool.KIND_INSERT, samples(2, 2));
+        spool.append(DS_ID, InsertSpool.KIND_INSERT, samples(4, 1));
+
+        assertEquals(2, spool.getDropped());
+        RecordingSender sender = new RecordingSender();
+        spool.replayAll(sender);
+        assertEquals("I0,1,4", sender.toString());
+    }
+
+    @Test
+    public void limitsTheTotalSize() throws Exception {
+        InsertSpool spool = new InsertSpool(directory, segmentSize(4), 2L * segmentSize(4));
+        spool.append(1, InsertSpool.KIND_INSERT, samples(0, 1));
+        spool.append(2, InsertSpool.KIND_INSERT, samples(1, 1));
+        spool.append(3, InsertSpool.KIND_INSERT, samples(2, 3));
+
+        assertEquals(3, spool.getDropped());
+        assertEquals(2L * segmentSize(4), spool.getSize());
+        assertTrue(spool.offer(3, InsertSpool.KIND_INSERT, samples(5, 1), false));
+        assertEquals(4, spool.getDropped());
+
+        spool.replayAll(new RecordingSender());
+        spool.append(3, InsertSpool.KIND_INSERT, samples(6, 1));
+        assertEquals(rowSize, spool.getBacklog(3));
+        assertEquals(4, spool.getDropped());
+    }
+
+    @Test
+    public void compactsWhileReplaying() throws Exception {
+        final InsertSpool spool = new InsertSpool(directory, segmentSize(6), segmentSize(6));
+        for (int i = 0; i < 6; i++)
+            spool.append(DS_ID, i % 2 == 0 ? InsertSpool.KIND_INSERT : InsertSpool.KIND_HIGH_FREQUENCY, samples(i, 1));
+        RecordingSender sender = new RecordingSender() {
+            @Override
+            void onBatch() {
+                if (batches.size() == 4)
+                    spool.append(DS_ID, InsertSpool.KIND_HIGH_FREQUENCY, samples(6, 1));
+            }
+        };
+
+        spool.replayAll(sender);
+
+        assertEquals(0, spool.getDropped());
+        assertEquals("I0 H1 I2 H3 I4 H5,6", sender.toString());
+    }
+
+    @Test
+    public void doesNotCompactOverRowsStillReferenced() throws Exception {
+        final InsertSpool spool = new InsertSpool(directory, segmentSize(6), segmentSize(6));
+        for (int i = 0; i < 6; i++)
+            spool.append(DS_ID, i % 2 == 0 ? InsertSpool.KIND_INSERT : InsertSpool.KIND_HIGH_FREQUENCY, samples(i, 1));
+        RecordingSender sender = new RecordingSender() {
+            @Override
+            void onBatch() {
+                if (batches.size() == 2)
+                    spool.append(DS_ID, InsertSpool.KIND_INSERT, samples(6, 1));
+            }
+        };
+
+        spool.replayAll(sender);
+
+        assertEquals(1, spool.getDropped());
+        assertEquals("I0 H1 I2 H3 I4 H5", sender.toString());
+    }
+
+    @Test
+    public void reopensBacklogLeftByEarlierProcess() throws Exception {
+        InsertSpool first = new InsertSpool(directory, 4096, 4096);
+        first.append(DS_ID, InsertSpool.KIND_INSERT, samples(0, 2));
+        first.append(DS_ID, InsertSpool.KIND_HIGH_FREQUENCY, samples(2, 2));
+
+        InsertSpool second = new InsertSpool(directory, 4096, 4096);
+        assertEquals(4 * rowSize, second.getBacklog(DS_ID));
+        RecordingSender sender = new RecordingSender();
+        second.replayAll(sender);
+        assertEquals("I0,1 H2,3", sender.toString());
+    }
+
+    @Test
+    public void resumesAfterFailedReplay() throws Exception {
+        InsertSpool spool = new InsertSpool(directory, 4096, 4096);
+        spool.append(DS_ID, InsertSpool.KIND_INSERT, samples(0, 2));
+        spool.append(DS_ID, InsertSpool.KIND_HIGH_FREQUENCY, samples(2, 1));
+        spool.append(DS_ID, InsertSpool.KIND_INSERT, samples(3, 1));
+        RecordingSender failing = new RecordingSender();
+        failing.failAt = 2;
+
+        assertFalse(spool.replayAll(failing));
+        assertEquals("I0,1", failing.toString());
+        assertEquals(2 * rowSize, spool.getBacklog(DS_ID));
+
+        InsertSpool reopened = new InsertSpool(directory, 4096, 4096);
+        RecordingSender sender = new RecordingSender();
+        assertTrue(reopened.replayAll(sender));
+        assertEquals("H2 I3", sender.toString());
+    }
+
+    @Test
+    public void replaysWhileConnectedAfterAFailedSend() throws Exception {
+        InsertSpool spool = new InsertSpool(directory, 4096, 4096);
+        RecordingSender sender = new RecordingSender();
+        sender.failAt = 1;
+
+        spool.append(DS_ID, InsertSpool.KIND_INSERT, samples(0, 2), sender);
+        assertTrue(spool.offer(DS_ID, InsertSpool.KIND_INSERT, samples(2, 1), true));
+
+        long deadline = System.currentTimeMillis() + 10 * InsertSpool.RETRY_DELAY;
+        while (spool.getBacklog() > 0 && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertEquals(0, spool.getBacklog());
+        assertEquals("[0, 1, 2]", sender.values().toString());
+        assertFalse(spool.offer(DS_ID, InsertSpool.KIND_INSERT, samples(3, 1), true));
+    }
+
+    @Test
+    public void doesNotReplayWhenDisconnected() throws Exception {
+        InsertSpool spool = new InsertSpool(directory, 4096, 4096);
+        RecordingSender sender = new RecordingSender();
+        sender.connected = false;
+
+        spool.append(DS_ID, InsertSpool.KIND_INSERT, samples(0, 2), sender);
+        Thread.sleep(100);
+
+        assertEquals(2 * rowSize, spool.getBacklog(DS_ID));
+        assertEquals(0, sender.values().size());
+    }
+
+    @Test
+    public void deletesEmptySegmentsWhenOpening() throws Exception {
+        InsertSpool first = new InsertSpool(directory, segmentSize(1), segmentSize(1));
+        first.append(DS_ID, InsertSpool.KIND_INSERT, samples(0, 2));
+        File file = new File(directory, "ds_" + DS_ID + ".spool");
+        assertTrue(file.exists());
+
+        InsertSpool reopened = new InsertSpool(directory, segmentSize(1), segmentSize(1));
+
+        assertFalse(file.exists());
+        assertEquals(0, reopened.getSize());
+    }
+
+    /**
+     * Records the batches of a replay.
+     */
+    private static class RecordingSender implements InsertSpool.Sender {
+
+        /** Batches received, each prefixed with its kind. */
+        final ArrayList<ArrayList<Integer>> batches = new ArrayList<>();
+
+        /** Kind of each batch, <code>I</code> or <code>H</code>. */
+        final StringBuilder kinds = new StringBuilder();
+
+        /** Number of the attempt that fails, counting from 1, or 0 if none does. */
+        int failAt;
+
+        /** Number of batches attempted so far. */
+        private int attempts;
+
+        /** Whether <code>DataKit</code> is reported as connected. */
+        volatile boolean connected = true;
+
+        @Override
+        public void insert(int ds_id, DataType[] dataTypes) throws DataKitException {
+            record('I', dataTypes);
+        }
+
+        @Override
+        public void insertHighFrequency(int ds_id, DataTypeDoubleArray[] dataTypes) throws DataKitException {
+            record('H', dataTypes);
+        }
+
+        @Override
+        public boolean isConnected() {
+            return connected;
+        }
+
+        /**
+         * @param kind Kind of the batch.
+         * @param dataTypes Samples of the batch.
+         * @throws DataKitException Thrown when this batch is the one to fail.
+         */
+        private synchronized void record(char kind, DataType[] dataTypes) throws DataKitException {
+            if (++attempts == failAt)
+                throw new DataKitException("failed");
+            ArrayList<Integer> batch = new ArrayList<>();
+            for (DataType dataType : dataTypes)
+                batch.add((int) ((DataTypeDoubleArray) dataType).getSample()[0]);
+            batches.add(batch);
+            kinds.append(kind);
+            onBatch();
+        }
+
+        /**
+         * Called after each batch, while the replay has not yet advanced past it.
+         */
+        void onBatch() {
+        }
+
+        /**
+         * @return Values of every sample received, in order.
+         */
+        synchronized ArrayList<Integer> values() {
+            ArrayList<Integer> values = new ArrayList<>();
+            for (ArrayList<Integer> batch : batches)
+                values.addAll(batch);
+            return values;
+        }
+
+        /**
+         * @return The batches as <code>kind values</code>, such as <code>"I0,1 H2"</code>.
+         */
+        @Override
+        public synchronized String toString() {
+            StringBuilder out = new StringBuilder();
+            for (int i = 0; i < batches.size(); i++) {
+                if (i > 0)
+                    out.append(' ');
+                out.append(kinds.charAt(i));
+                for (int j = 0; j < batches.get(i).size(); j++)
+                    out.append(j == 0 ? "" : ",").append(batches.get(i).get(j));
+            }
+            return out.toString();
+        }
+    }
+}
@@ -0,0 +1,385 @@
+/*
+ * Copyright (c) 2018, The University of Memphis, MD2K Center of Excellence
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.md2k.datakitapi;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.md2k.datakitapi.datatype.DataType;
+import org.md2k.datakitapi.datatype.DataTypeBoolean;
+import org.md2k.datakitapi.datatype.DataTypeBooleanArray;
+import org.md2k.datakitapi.datatype.DataTypeByte;
+import org.md2k.datakitapi.datatype.DataTypeByteArray;
+import org.md2k.datakitapi.datatype.DataTypeDouble;
+import org.md2k.datakitapi.datatype.DataTypeDoubleArray;
+import org.md2k.datakitapi.datatype.DataTypeFloat;
+import org.md2k.datakitapi.datatype.DataTypeFloatArray;
+import org.md2k.datakitapi.datatype.DataTypeInt;
+import org.md2k.datakitapi.datatype.DataTypeIntArray;
+import org.md2k.datakitapi.datatype.DataTypeJSONObject;
+import org.md2k.datakitapi.datatype.DataTypeJSONObjectArray;
+import org.md2k.datakitapi.datatype.DataTypeLong;
+import org.md2k.datakitapi.datatype.DataTypeLongArray;
+import org.md2k.datakitapi.datatype.DataTypeString;
+import org.md2k.datakitapi.datatype.DataTypeStringArray;
+import org.md2k.datakitapi.datatype.RowObject;
+import org.md2k.datakitapi.source.application.ApplicationBuilder;
+import org.md2k.datakitapi.source.datasource.DataSource;
+import org.md2k.datakitapi.source.datasource.DataSourceBuilder;
+import org.md2k.datakitapi.source.datasource.DataSourceClient;
+import org.md2k.datakitapi.source.platform.PlatformBuilder;
+import org.md2k.datakitapi.source.platformapp.PlatformAppBuilder;
+import org.md2k.datakitapi.status.Status;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Measures <code>writeToParcel</code> and <code>createFromParcel</code> of every <code>DataType</code>,
+ * <code>RowObject</code>, <code>DataSource</code> and <code>DataSourceClient</code> on the JVM.
+ *
+ * <p>
+ *     The benchmark only runs when the <code>datakit.benchmark</code> system property is true:
+ *     <pre>./gradlew :datakitapi:testDebugUnitTest --tests '*ParcelBenchmark' -Ddatakit.benchmark=true</pre>
+ *     Set <code>datakit.benchmark.report</code> to a file name to also get the results as CSV.
+ * </p>
+ * <p>
+ *     Every case is warmed up, then timed over <code>ROUNDS</code> rounds that each run for about
+ *     <code>ROUND_MILLIS</code>. The median time per operation is reported together with the median
+ *     absolute deviation across rounds, the bytes allocated per operation where the JVM can tell, and
+ *     the size of the parcel. Sample data comes from a fixed seed, so runs are comparable. The
+ *     parcel is Robolectric's, so the numbers compare wire formats and client code with each other,
+ *     not with a device.
+ * </p>
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28, manifest = Config.NONE)
+public class ParcelBenchmark {
+
+    /** Time in milliseconds each case is run before it is measured. */
+    private static final long WARMUP_MILLIS = 500;
+
+    /** Number of measured rounds per case. */
+    private static final int ROUNDS = 10;
+
+    /** Approximate duration of one round in milliseconds. */
+    private static final long ROUND_MILLIS = 100;
+
+    /** Array lengths the array types are measured with. */
+    private static final int[] SIZES = {1, 16, 256, 4096};
+
+    /** Timestamp of every sample. */
+    private static final long TIMESTAMP = 1546300800000L;
+
+    /** Results consumed so that the JIT cannot drop the work. */
+    private static volatile Object sink;
+
+    /** Source of the sample data. */
+    private final Random random = new Random(42);
+
+    @Test
+    public void benchmark() throws IOException {
+        Assume.assumeTrue("Set -Ddatakit.benchmark=true to run", Boolean.getBoolean("datakit.benchmark"));
+
+        List<String> lines = new ArrayList<>();
+        lines.add("case,operation,ns_per_op,mad_ns,ops_per_sec,alloc_bytes_per_op,parcel_bytes");
+        System.out.println(String.format(Locale.US, "%-36s %-6s %12s %10s %14s %12s %8s",
+                "case", "op", "ns/op", "+/-", "ops/s", "alloc B/op", "size"));
+        for (Case benchmarkCase : cases()) {
+            lines.add(run(benchmarkCase, true));
+            lines.add(run(benchmarkCase, false));
+        }
+
+        String report = System.getProperty("datakit.benchmark.report", "");
+        if (!report.isEmpty()) {
+            PrintWriter writer = new PrintWriter(new FileWriter(report));
+            try {
+                for (String line : lines)
+                    writer.println(line);
+            } finally {
+                writer.close();
+            }
+        }
+    }
+
+    /**
+     * Measures one direction of one case and prints the result.
+     *
+     * @param benchmarkCase The case.
+     * @param write Whether to measure <code>writeToParcel</code> rather than <code>createFromParcel</code>.
+     * @return The result as a CSV line.
+     */
+    private String run(Case benchmarkCase, boolean write) {
+        Parcel parcel = Parcel.obtain();
+        try {
+            benchmarkCase.value.writeToParcel(parcel, 0);
+            int size = parcel.dataSize();
+
+            long deadline = System.nanoTime() + WARMUP_MILLIS * 1000000L;
+            int batch = 1;
+            while (System.nanoTime() < deadline) {
+                long start = System.nanoTime();
+                operate(benchmarkCase, parcel, write, batch);
+                if (System.nanoTime() - start < ROUND_MILLIS * 1000000L / 10)
+                    batch *= 2;
+            }
+            long start = System.nanoTime();
+            operate(benchmarkCase, parcel, write, batch);
+            long elapsed = Math.max(System.nanoTime() - start, 1);
+            int operations = (int) Math.max(1, Math.min(Integer.MAX_VALUE, batch * (ROUND_MILLIS * 1000000L) / elapsed));
+
+            double[] nanosPerOp = new double[ROUNDS];
+            long allocated = 0;
+            for (int round = 0; round < ROUNDS; round++) {
+                long before = allocatedBytes();
+                start = System.nanoTime();
+                operate(benchmarkCase, parcel, write, operations);
+                nanosPerOp[round] = (System.nanoTime() - start) / (double) operations;
+                long after = allocatedBytes();
+                allocated = before < 0 || after < 0 || allocated < 0 ? -1 : allocated + after - before;
+            }
+            double median = median(nanosPerOp);
+            double[] deviations = new double[ROUNDS];
+            for (int round = 0; round < ROUNDS; round++)
+                deviations[round] = Math.abs(nanosPerOp[round] - median);
+            double mad = median(deviations);
+            double allocPerOp = allocated < 0 ? -1 : allocated / ((double) operations * ROUNDS);
+            String operation = write ? "write" : "read";
+
+            System.out.println(String.format(Locale.US, "%-36s %-6s %12.1f %10.1f %14.0f %12.1f %8d",
+                    benchmarkCase.name, operation, median, mad, 1e9 / median, allocPerOp, size));
+            return String.format(Locale.US, "%s,%s,%.1f,%.1f,%.0f,%.1f,%d",
+                    benchmarkCase.name, operation, median, mad, 1e9 / median, allocPerOp, size);
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    /**
+     * Writes or reads the value of a case the given number of times.
+     *
+     * @param benchmarkCase The case.
+     * @param parcel Parcel holding the written value.
+     * @param write Whether to write rather than read.
+     * @param operations Number of operations.
+     */
+    private static void operate(Case benchmarkCase, Parcel parcel, boolean write, int operations) {
+        Object result = null;
+        for (int i = 0; i < operations; i++) {
+            parcel.setDataPosition(0);
+            if (write) {
+                parcel.setDataSize(0);
+                benchmarkCase.value.writeToParcel(parcel, 0);
+            } else {
+                result = benchmarkCase.creator.createFromParcel(parcel);
+            }
+        }
+        sink = result;
+    }
+
+    /**
+     * @return Bytes allocated by the current thread so far, or -1 if the JVM cannot tell.
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        try {
+            Method method = threadMXBean.getClass().getMethod("getThreadAllocatedBytes", long.class);
+            method.setAccessible(true);
+            return (Long) method.invoke(threadMXBean, Thread.currentThread().getId());
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @param values The values, reordered by this call.
+     * @return The median.
+     */
+    private static double median(double[] values) {
+        Arrays.sort(values);
+        int middle = values.length / 2;
+        return values.length % 2 == 1 ? values[middle] : (values[middle - 1] + values[middle]) / 2;
+    }
+
+    /**
+     * @return Every case, with realistic sizes for the array types.
+     */
+    private List<Case> cases() {
+        List<Case> cases = new ArrayList<>();
+        cases.add(new Case("DataType", new DataType(TIMESTAMP), DataType.CREATOR));
+        cases.add(new Case("DataTypeBoolean", new DataTypeBoolean(TIMESTAMP, true), DataTypeBoolean.CREATOR));
+        cases.add(new Case("DataTypeByte", new DataTypeByte(TIMESTAMP, (byte) 7), DataTypeByte.CREATOR));
+        cases.add(new Case("DataTypeInt", new DataTypeInt(TIMESTAMP, random.nextInt()), DataTypeInt.CREATOR));
+        cases.add(new Case("DataTypeLong", new DataTypeLong(TIMESTAMP, random.nextLong()), DataTypeLong.CREATOR));
+        cases.add(new Case("DataTypeFloat", new DataTypeFloat(TIMESTAMP, random.nextFloat()), DataTypeFloat.CREATOR));
+        cases.add(new Case("DataTypeDouble", new DataTypeDouble(TIMESTAMP, random.nextDouble()), DataTypeDouble.CREATOR));
+        cases.add(new Case("DataTypeString[32]", new DataTypeString(TIMESTAMP, string(32)), DataTypeString.CREATOR));
+
+        for (int size : SIZES) {
+            boolean[] booleans = new boolean[size];
+            byte[] bytes = new byte[size];
+            int[] ints = new int[size];
+            long[] longs = new long[size];
+            float[] floats = new float[size];
+            double[] doubles = new double[size];
+            for (int i = 0; i < size; i++) {
+                booleans[i] = random.nextBoolean();
+                bytes[i] = (byte) random.nextInt();
+                ints[i] = random.nextInt();
+                longs[i] = random.nextLong();
+                floats[i] = random.nextFloat();
+                doubles[i] = random.nextGaussian();
+            }
+            cases.add(new Case("DataTypeBooleanArray[" + size + "]", new DataTypeBooleanArray(TIMESTAMP, booleans), DataTypeBooleanArray.CREATOR));
+            cases.add(new Case("DataTypeByteArray[" + size + "]", new DataTypeByteArray(TIMESTAMP, bytes), DataTypeByteArray.CREATOR));
+            cases.add(new Case("DataTypeIntArray[" + size + "]", new DataTypeIntArray(TIMESTAMP, ints), DataTypeIntArray.CREATOR));
+            cases.add(new Case("DataTypeLongArray[" + size + "]", new DataTypeLongArray(TIMESTAMP, longs), DataTypeLongArray.CREATOR));
+            cases.add(new Case("DataTypeFloatArray[" + size + "]", new DataTypeFloatArray(TIMESTAMP, floats), DataTypeFloatArray.CREATOR));
+            cases.add(new Case("DataTypeDoubleArray[" + size + "]", new DataTypeDoubleArray(TIMESTAMP, doubles), DataTypeDoubleArray.CREATOR));
+        }
+        for (int size : new int[]{1, 16, 256}) {
+            String[] strings = new String[size];
+            for (int i = 0; i < size; i++)
+                strings[i] = string(16);
+            cases.add(new Case("DataTypeStringArray[" + size + "]", new DataTypeStringArray(TIMESTAMP, strings), DataTypeStringArray.CREATOR));
+            cases.add(new Case("DataTypeJSONObject[" + size + "]", new DataTypeJSONObject(TIMESTAMP, json(size)), DataTypeJSONObject.CREATOR));
+            JsonArray array = new JsonArray();
+            for (int i = 0; i < size; i++)
+                array.add(json(8));
+            cases.add(new Case("DataTypeJSONObjectArray[" + size + "]", new DataTypeJSONObjectArray(TIMESTAMP, array), DataTypeJSONObjectArray.CREATOR));
+        }
+
+        cases.add(new Case("RowObject<DataTypeDoubleArray[3]>", new RowObject(1234567L,
+                new DataTypeDoubleArray(TIMESTAMP, new double[]{0.1, 0.2, 0.3})), RowObject.CREATOR));
+        cases.add(new Case("RowObject<DataTypeJSONObject[8]>", new RowObject(1234567L,
+                new DataTypeJSONObject(TIMESTAMP, json(8))), RowObject.CREATOR));
+        DataSource dataSource = dataSource();
+        cases.add(new Case("DataSource", dataSource, DataSource.CREATOR));
+        cases.add(new Case("DataSourceClient", new DataSourceClient(42, dataSource, new Status(Status.SUCCESS)),
+                DataSourceClient.CREATOR));
+        return cases;
+    }
+
+    /**
+     * @return A data source with platform, platform app, application, metadata and three data descriptors.
+     */
+    private static DataSource dataSource() {
+        ArrayList<HashMap<String, String>> dataDescriptors = new ArrayList<>();
+        for (String axis : new String[]{"X", "Y", "Z"}) {
+            HashMap<String, String> dataDescriptor = new HashMap<>();
+            dataDescriptor.put("NAME", "Accelerometer " + axis);
+            dataDescriptor.put("UNIT", "meter/second^2");
+            dataDescriptor.put("DATA_TYPE", "double");
+            dataDescriptors.add(dataDescriptor);
+        }
+        return new DataSourceBuilder()
+                .setType("ACCELEROMETER")
+                .setId("WRIST")
+                .setPlatform(new PlatformBuilder().setType("MOTION_SENSE_HRV").setId("LEFT_WRIST")
+                        .setMetadata("DEVICE_ID", "F1:2C:8A:00:11:22").build())
+                .setPlatformApp(new PlatformAppBuilder().setType("MOTION_SENSE").setId("0").build())
+                .setApplication(new ApplicationBuilder().setType("org.md2k.motionsense").setId("org.md2k.motionsense")
+                        .setMetadata("VERSION_NAME", "1.0.0").build())
+                .setMetadata("FREQUENCY", "25.0 Hz")
+                .setMetadata("NAME", "Accelerometer")
+                .setDataDescriptors(dataDescriptors)
+                .build();
+    }
+
+    /**
+     * @param fields Number of fields.
+     * @return A JSON object with alternating number and string fields.
+     */
+    private JsonObject json(int fields) {
+        JsonObject jsonObject = new JsonObject();
+        for (int i = 0; i < fields; i++) {
+            if (i % 2 == 0)
+                jsonObject.addProperty("field" + i, random.nextDouble());
+            else
+                jsonObject.addProperty("field" + i, string(12));
+        }
+        return jsonObject;
+    }
+
+    /**
+     * @param length Number of characters.
+     * @return A random lower case string.
+     */
+    private String string(int length) {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++)
+            chars[i] = (char) ('a' + random.nextInt(26));
+        return new String(chars);
+    }
+
+    /**
+     * A value to marshal together with the creator that reads it back.
+     */
+    private static class Case {
+
+        /** Name in the report. */
+        final String name;
+
+        /** Value written to the parcel. */
+        final Parcelable value;
+
+        /** Creator reading the value back. */
+        final Parcelable.Creator<?> creator;
+
+        /**
+         * Constructor
+         *
+         * @param name Name in the report.
+         * @param value Value written to the parcel.
+         * @param creator Creator reading the value back.
+         */
+        Case(String name, Parcelable value, Parcelable.Creator<?> creator) {
+            this.name = name;
+            this.value = value;
+            this.creator = creator;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2018, The University of Memphis, MD2K Center of Excellence
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.md2k.datakitapi;
+
+import android.os.Parcelable;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.md2k.datakitapi.datatype.DataType;
+import org.md2k.datakitapi.datatype.DataTypeLong;
+import org.md2k.datakitapi.messagehandler.DeliveryPolicy;
+import org.md2k.datakitapi.messagehandler.MessageType;
+import org.md2k.datakitapi.messagehandler.OnReceiveBatchListener;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Hand-off of subscribed data from the receiving thread by <code>SubscriptionDispatcher</code>.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28, manifest = Config.NONE)
+public class SubscriptionDispatcherTest {
+
+    /** Data source the samples are subscribed for. */
+    private static final int DS_ID = 3;
+
+    /** The dispatcher under test. */
+    private final SubscriptionDispatcher dispatcher = new SubscriptionDispatcher();
+
+    /** Released to let the slow listener return. */
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    /** Values received by the slow listener, in order. */
+    private final ArrayList<Long> received = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        dispatcher.clear();
+    }
+
+    /**
+     * @param first Value of the first sample.
+     * @param count Number of samples.
+     * @return Samples with consecutive values, as they arrive from <code>DataKit</code>.
+     */
+    private static Parcelable[] samples(long first, int count) {
+        Parcelable[] samples = new Parcelable[count];
+        for (int i = 0; i < count; i++)
+            samples[i] = new DataTypeLong(first + i, first + i);
+        return samples;
+    }
+
+    /**
+     * Subscribes a listener that records its samples and then waits for <code>release</code>.
+     *
+     * @param capacity Maximum number of samples queued for the listener.
+     */
+    private void subscribeSlowListener(int capacity) {
+        dispatcher.subscribe(DS_ID, new OnReceiveBatchListener() {
+            @Override
+            public void onReceived(DataType[] dataTypes) {
+                synchronized (received) {
+                    for (DataType dataType : dataTypes)
+                        received.add(((DataTypeLong) dataType).getSample());
+                    received.notifyAll();
+                }
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, capacity, DeliveryPolicy.BLOCK);
+    }
+
+    /**
+     * @param count Number of samples to wait for.
+     * @return Whether the listener received that many samples in time.
+     */
+    private boolean awaitReceived(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        synchronized (received) {
+            while (received.size() < count && System.currentTimeMillis() < deadline)
+                received.wait(Math.max(1, deadline - System.currentTimeMillis()));
+            return received.size() >= count;
+        }
+    }
+
+    @Test
+    public void slowBlockListenerDoesNotHoldBackReplies() throws Exception {
+        subscribeSlowListener(1);
+        final PendingRequest<Long> query = new PendingRequest<>(1, MessageType.QUERYSIZE, 5000);
+        Thread receiving = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 20; i++)
+                    dispatcher.dispatch(DS_ID, samples(i * 4, 4));
+                query.complete(42L);
+            }
+        }, "receiving");
+
+        receiving.start();
+
+        assertEquals(Long.valueOf(42), query.await(2, TimeUnit.SECONDS));
+        receiving.join(2000);
+        assertTrue(awaitReceived(1));
+        assertTrue(received.size() < 80);
+    }
+
+    @Test
+    public void deliversEverySampleInOrderOnceTheListenerCatchesUp() throws Exception {
+        subscribeSlowListener(4);
+        for (int i = 0; i < 20; i++)
+            dispatcher.dispatch(DS_ID, samples(i * 4, 4));
+
+        release.countDown();
+
+        assertTrue(awaitReceived(80));
+        for (int i = 0; i < 80; i++)
+            assertEquals(Long.valueOf(i), received.get(i));
+        assertEquals(0, dispatcher.getDropped());
+    }
+
+    @Test
+    public void dropsBatchesOnceTheIntakeQueueIsFull() throws Exception {
+        subscribeSlowListener(1);
+        dispatcher.dispatch(DS_ID, samples(0, 2));
+        assertTrue(awaitReceived(1));
+
+        long start = System.nanoTime();
+        for (int i = 0; i < SubscriptionDispatcher.INTAKE_CAPACITY + 10; i++)
+            dispatcher.dispatch(DS_ID, samples(2 + i, 1));
+
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+        assertTrue(dispatcher.getDropped() > 0);
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2018, The University of Memphis, MD2K Center of Excellence
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.md2k.datakitapi.datatype;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Round trips of every type tag from <code>DataTypeBinary</code> through <code>DataTypeCursor</code>.
+ */
+public class DataTypeCursorTest {
+
+    /**
+     * @return One sample of every type, in the order of their type tags.
+     */
+    private static DataType[] everyType() {
+        JsonObject object = new JsonObject();
+        object.addProperty("name", "caf\u00e9");
+        object.addProperty("count", 3);
+        JsonArray array = new JsonArray();
+        array.add(object);
+        array.add(new JsonObject());
+        return new DataType[]{
+                new DataType(1000, 3600000),
+                new DataTypeBoolean(1001, true),
+                new DataTypeBooleanArray(1002, new boolean[]{true, false}),
+                new DataTypeByte(1003, (byte) -7),
+                new DataTypeByteArray(1004, new byte[]{0, 1, -128, 127}),
+                new DataTypeDouble(1005, -0.5),
+                new DataTypeDoubleArray(1006, new double[]{1.5, Double.MAX_VALUE, -1e-300}),
+                new DataTypeFloat(1007, 2.25f),
+                new DataTypeFloatArray(1008, new float[]{-1f, Float.MIN_VALUE}),
+                new DataTypeInt(1009, Integer.MIN_VALUE),
+                new DataTypeIntArray(1010, new int[]{1, -2, Integer.MAX_VALUE}),
+                new DataTypeLong(1011, Long.MAX_VALUE),
+                new DataTypeLongArray(1012, new long[]{Long.MIN_VALUE, 0}),
+                new DataTypeString(1013, "a,b \u2764"),
+                new DataTypeStringArray(1014, new String[]{"", "x"}),
+                new DataTypeJSONObject(1015, object),
+                new DataTypeJSONObjectArray(1016, array)};
+    }
+
+    /**
+     * @param dataTypes Samples to write, keyed by their index times 10.
+     * @param finish Whether to write the end tag.
+     * @return The encoded rows.
+     */
+    private static byte[] encode(DataType[] dataTypes, boolean finish) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataTypeBinary binary = new DataTypeBinary(bytes);
+        for (int i = 0; i < dataTypes.length; i++)
+            binary.write(i * 10, dataTypes[i]);
+        if (finish)
+            binary.finish();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @param dataType The sample.
+     * @return The sample as a CSV line.
+     */
+    private static String csv(DataType dataType) {
+        StringBuilder out = new StringBuilder();
+        DataTypeCodec.forType(dataType).appendCsv(dataType, out);
+        return out.toString();
+    }
+
+    @Test
+    public void roundTripsEveryTypeTag() throws IOException {
+        DataType[] dataTypes = everyType();
+        assertEquals(DataTypeBinary.JSON_OBJECT_ARRAY, dataTypes.length);
+        DataTypeCursor cursor = new DataTypeCursor(new ByteArrayInputStream(encode(dataTypes, true)));
+
+        for (int i = 0; i < dataTypes.length; i++) {
+            assertTrue(cursor.moveToNext());
+            assertEquals(i + 1, cursor.getTypeTag());
+            assertEquals(i * 10, cursor.getRowKey());
+            assertEquals(dataTypes[i].getDateTime(), cursor.getDateTime());
+            assertEquals(dataTypes[i].offset, cursor.getOffset());
+            DataType decoded = cursor.getDataType();
+            assertSame(dataTypes[i].getClass(), decoded.getClass());
+            assertEquals(csv(dataTypes[i]), csv(decoded));
+        }
+        assertFalse(cursor.moveToNext());
+        assertFalse(cursor.moveToNext());
+        cursor.close();
+    }
+
+    @Test
+    public void readsNumericValuesInPlace() throws IOException {
+        DataType[] dataTypes = {
+                new DataTypeIntArray(1, new int[]{4, -5}),
+                new DataTypeBoolean(2, true),
+                new DataTypeString(3, "x")};
+        DataTypeCursor cursor = new DataTypeCursor(new ByteArrayInputStream(encode(dataTypes, true)));
+
+        assertTrue(cursor.moveToNext());
+        assertEquals(2, cursor.getWidth());
+        assertEquals(-5, cursor.getDouble(1), 0);
+        assertTrue(cursor.moveToNext());
+        assertEquals(1, cursor.getWidth());
+        assertEquals(1, cursor.getDouble(0), 0);
+        assertTrue(cursor.moveToNext());
+        assertEquals(0, cursor.getWidth());
+        assertFalse(cursor.moveToNext());
+    }
+
+    @Test
+    public void readsAnEmptyResult() throws IOException {
+        DataTypeCursor cursor = new DataTypeCursor(new ByteArrayInputStream(encode(new DataType[0], true)));
+
+        assertFalse(cursor.moveToNext());
+    }
+
+    @Test(expected = EOFException.class)
+    public void failsWhenTheEndTagIsMissing() throws IOException {
+        DataTypeCursor cursor = new DataTypeCursor(new ByteArrayInputStream(encode(everyType(), false)));
+
+        while (cursor.moveToNext())
+            cursor.getDataType();
+    }
+
+    @Test(expected = EOFException.class)
+    public void failsWhenARowIsCutShort() throws IOException {
+        byte[] bytes = encode(new DataType[]{new DataTypeDoubleArray(1, new double[]{1, 2, 3})}, true);
+        DataTypeCursor cursor = new DataTypeCursor(new ByteArrayInputStream(Arrays.copyOf(bytes, bytes.length - 5)));
+
+        cursor.moveToNext();
+    }
+}
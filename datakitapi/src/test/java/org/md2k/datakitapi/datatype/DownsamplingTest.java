@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2018, The University of Memphis, MD2K Center of Excellence
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.md2k.datakitapi.datatype;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Buckets and kept samples of <code>Downsampling</code>, checked against values worked out by hand.
+ */
+public class DownsamplingTest {
+
+    /** Time zone offset of the samples. */
+    private static final long OFFSET = 3600000;
+
+    /**
+     * @param timestamps Timestamps of the samples.
+     * @param values One value per sample.
+     * @return Scalar samples.
+     */
+    private static DataType[] doubles(long[] timestamps, double[] values) {
+        DataType[] dataTypes = new DataType[timestamps.length];
+        for (int i = 0; i < timestamps.length; i++)
+            dataTypes[i] = new DataTypeDouble(timestamps[i], values[i]);
+        return dataTypes;
+    }
+
+    /**
+     * y = 0, 5, 1, 0, 9, 2, 0 at x = 0..6, reduced to 4 points. The two inner buckets are [1, 3) and
+     * [3, 6). From the first, sample 1 forms the largest triangle with sample 0 and the mean (4, 11/3)
+     * of the next bucket: area 49/3 against 10/3 for sample 2. From the second, sample 4 forms the
+     * largest with sample 1 and sample 6: area 35 against 15 and 5.
+     */
+    private static final double[] SHAPE = {0, 5, 1, 0, 9, 2, 0};
+
+    @Test
+    public void aggregateSummarizesEachBucketAndSkipsEmptyOnes() {
+        AggregateBlock block = Downsampling.aggregate(doubles(new long[]{0, 9, 10, 19, 35},
+                new double[]{1, 3, 5, 7, 2}), 0, 10);
+
+        assertEquals(3, block.size());
+        assertArrayEquals(new long[]{0, 10, 30}, block.getTimestamps());
+        assertArrayEquals(new int[]{2, 2, 1}, block.getCounts());
+        assertEquals(1, block.getMin(0, 0), 0);
+        assertEquals(3, block.getMax(0, 0), 0);
+        assertEquals(2, block.getMean(0, 0), 0);
+        assertEquals(5, block.getMin(1, 0), 0);
+        assertEquals(7, block.getMax(1, 0), 0);
+        assertEquals(6, block.getMean(1, 0), 0);
+        assertEquals(2, block.getMean(2, 0), 0);
+        assertEquals(10, block.getBucket());
+        assertTrue(block.isScalar());
+    }
+
+    @Test
+    public void aggregatePutsSamplesBeforeTheStartIntoEarlierBuckets() {
+        AggregateBlock block = Downsampling.aggregate(doubles(new long[]{85, 90, 99, 100},
+                new double[]{1, 2, 4, 8}), 100, 10);
+
+        assertArrayEquals(new long[]{80, 90, 100}, block.getTimestamps());
+        assertArrayEquals(new int[]{1, 2, 1}, block.getCounts());
+        assertEquals(3, block.getMean(1, 0), 0);
+    }
+
+    @Test
+    public void aggregateKeepsEveryValueOfArraySamples() {
+        DataType[] dataTypes = {
+                new DataTypeDoubleArray(0, new double[]{1, 10}),
+                new DataTypeDoubleArray(5, new double[]{3, 20}),
+                new DataTypeDoubleArray(12, new double[]{-1, 0})};
+
+        AggregateBlock block = Downsampling.aggregate(dataTypes, 0, 10);
+
+        assertEquals(2, block.getWidth());
+        assertFalse(block.isScalar());
+        assertArrayEquals(new int[]{2, 1}, block.getCounts());
+        assertEquals(1, block.getMin(0, 0), 0);
+        assertEquals(10, block.getMin(0, 1), 0);
+        assertEquals(3, block.getMax(0, 0), 0);
+        assertEquals(20, block.getMax(0, 1), 0);
+        assertArrayEquals(new double[]{2, 15}, block.getMeans(0), 0);
+        assertArrayEquals(new double[]{-1, 0}, block.getMeans(1), 0);
+        assertArrayEquals(new double[]{2, 15}, ((DataTypeDoubleArray) block.get(0)).getSample(), 0);
+    }
+
+    @Test
+    public void aggregateOfNoSamplesIsEmpty() {
+        assertEquals(0, Downsampling.aggregate(new DataType[0], 0, 10).size());
+    }
+
+    @Test
+    public void aggregateConvertsIntegerSamples() {
+        DataType[] dataTypes = {new DataTypeInt(0, 4), new DataTypeInt(1, -2)};
+
+        AggregateBlock block = Downsampling.aggregate(dataTypes, 0, 10);
+
+        assertEquals(-2, block.getMin(0, 0), 0);
+        assertEquals(4, block.getMax(0, 0), 0);
+        assertEquals(1, block.getMean(0, 0), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void aggregateRejectsSamplesOfDifferentWidth() {
+        Downsampling.aggregate(new DataType[]{new DataTypeDoubleArray(0, new double[]{1, 2}),
+                new DataTypeDoubleArray(1, new double[]{1, 2, 3})}, 0, 10);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void aggregateRejectsSamplesThatAreNotNumeric() {
+        Downsampling.aggregate(new DataType[]{new DataTypeString(0, "a")}, 0, 10);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void aggregateRejectsAnEmptyBucket() {
+        Downsampling.aggregate(new DataType[0], 0, 0);
+    }
+
+    @Test
+    public void downsampleKeepsTheLargestTriangles() {
+        DoubleBlock block = Downsampling.downsample(doubles(new long[]{0, 1, 2, 3, 4, 5, 6}, SHAPE), 4, 0);
+
+        assertArrayEquals(new long[]{0, 1, 4, 6}, block.getTimestamps());
+        assertArrayEquals(new double[]{0, 5, 9, 0}, block.getValues(), 0);
+    }
+
+    @Test
+    public void downsampleAlwaysKeepsTheFirstAndLastSamples() {
+        double[] values = new double[100];
+        long[] timestamps = new long[100];
+        for (int i = 0; i < values.length; i++) {
+            timestamps[i] = 1000 + i;
+            values[i] = i == 0 || i == 99 ? 0 : 50 + i % 7;
+        }
+
+        DoubleBlock block = Downsampling.downsample(doubles(timestamps, values), 10, 0);
+
+        assertEquals(10, block.size());
+        assertEquals(1000, block.getTimestamp(0));
+        assertEquals(1099, block.getTimestamp(9));
+        for (int i = 1; i < block.size(); i++)
+            assertTrue(block.getTimestamp(i) > block.getTimestamp(i - 1));
+    }
+
+    @Test
+    public void downsampleReturnsEverySampleWhenThereAreNoMoreThanPoints() {
+        DoubleBlock block = Downsampling.downsample(doubles(new long[]{0, 1, 2}, new double[]{3, 1, 2}), 3, 0);
+
+        assertArrayEquals(new long[]{0, 1, 2}, block.getTimestamps());
+        assertArrayEquals(new double[]{3, 1, 2}, block.getValues(), 0);
+    }
+
+    @Test
+    public void downsampleSelectsOnOneColumnAndKeepsWholeRows() {
+        DataType[] dataTypes = new DataType[SHAPE.length];
+        for (int i = 0; i < SHAPE.length; i++)
+            dataTypes[i] = new DataTypeDoubleArray(i, OFFSET + i, new double[]{100 + i, SHAPE[i]});
+
+        DoubleBlock block = Downsampling.downsample(dataTypes, 4, 1);
+
+        assertEquals(2, block.getWidth());
+        assertArrayEquals(new long[]{0, 1, 4, 6}, block.getTimestamps());
+        assertArrayEquals(new double[]{100, 0, 101, 5, 104, 9, 106, 0}, block.getValues(), 0);
+        assertEquals(OFFSET + 4, block.getOffset(2));
+        assertEquals(OFFSET + 6, block.getOffset(3));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void downsampleRejectsAColumnOutOfRange() {
+        Downsampling.downsample(new DataType[]{new DataTypeDoubleArray(0, new double[]{1, 2})}, 3, 2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void downsampleRejectsSamplesOfDifferentWidth() {
+        Downsampling.downsample(new DataType[]{new DataTypeDoubleArray(0, new double[]{1, 2}),
+                new DataTypeDoubleArray(1, new double[]{1})}, 3, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void downsampleRejectsFewerThanThreePoints() {
+        Downsampling.downsample(new DataType[0], 2, 0);
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2018, The University of Memphis, MD2K Center of Excellence
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.md2k.datakitapi.datatype;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Round trips of JSON trees through <code>JsonBinary</code>.
+ */
+public class JsonBinaryTest {
+
+    /**
+     * @param element Tree to encode.
+     * @return The encoded tree.
+     */
+    private static byte[] encode(JsonElement element) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        JsonBinary.write(element, new DataOutputStream(bytes));
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @param element Tree to encode and decode.
+     * @return The decoded tree.
+     */
+    private static JsonElement roundTrip(JsonElement element) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(encode(element));
+        JsonElement decoded = JsonBinary.read(buffer);
+        assertFalse("bytes left after the tree", buffer.hasRemaining());
+        return decoded;
+    }
+
+    @Test
+    public void roundTripsEveryKindOfValue() throws IOException {
+        JsonObject object = new JsonObject();
+        object.addProperty("long", Long.MIN_VALUE);
+        object.addProperty("int", 42);
+        object.addProperty("double", -36.625);
+        object.addProperty("string", "h\u00e9llo \u2764 \"quoted\"\n");
+        object.addProperty("empty", "");
+        object.addProperty("true", true);
+        object.addProperty("false", false);
+        object.add("null", JsonNull.INSTANCE);
+        JsonArray array = new JsonArray();
+        array.add(1);
+        array.add("two");
+        array.add(new JsonArray());
+        array.add(new JsonObject());
+        object.add("array", array);
+        JsonObject nested = new JsonObject();
+        nested.add("inner", object.deepCopy());
+        object.add("nested", nested);
+
+        assertEquals(object, roundTrip(object));
+    }
+
+    @Test
+    public void roundTripsParsedText() throws IOException {
+        String text = "{\"hr\":72,\"temperature\":36.6,\"accuracy\":0.1,\"steps\":[1,2,3],"
+                + "\"name\":\"watch\",\"ok\":true,\"none\":null}";
+        JsonElement parsed = new JsonParser().parse(text);
+
+        assertEquals(parsed.toString(), roundTrip(parsed).toString());
+    }
+
+    @Test
+    public void encodesParsedIntegersAsLong() throws IOException {
+        JsonElement parsed = new JsonParser().parse("[72]").getAsJsonArray().get(0);
+        byte[] bytes = encode(parsed);
+
+        assertEquals(JsonBinary.LONG, bytes[0]);
+        assertEquals(72L, roundTrip(parsed).getAsLong());
+    }
+
+    @Test
+    public void encodesParsedDecimalsAsDouble() throws IOException {
+        for (String number : new String[]{"36.6", "0.1", "-0.5", "1e3", "6.02E23"}) {
+            JsonElement parsed = new JsonParser().parse("[" + number + "]").getAsJsonArray().get(0);
+
+            assertEquals(number, JsonBinary.DOUBLE, encode(parsed)[0]);
+            assertEquals(number, Double.parseDouble(number), roundTrip(parsed).getAsDouble(), 0);
+        }
+    }
+
+    @Test
+    public void keepsNumbersADoubleCannotHold() throws IOException {
+        String[] numbers = {"12345678901234567890", "0.1000000000000000055511151231257827", "1e400"};
+        for (String number : numbers) {
+            JsonElement parsed = new JsonParser().parse("[" + number + "]").getAsJsonArray().get(0);
+
+            assertEquals(number, JsonBinary.NUMBER, encode(parsed)[0]);
+            assertEquals(number, 0, new BigDecimal(number).compareTo(roundTrip(parsed).getAsBigDecimal()));
+        }
+    }
+
+    @Test
+    public void keepsBigNumbersExact() throws IOException {
+        JsonPrimitive big = new JsonPrimitive(new BigInteger("98765432109876543210"));
+
+        assertEquals(JsonBinary.NUMBER, encode(big)[0]);
+        assertEquals(big.getAsBigInteger(), roundTrip(big).getAsBigInteger());
+    }
+
+    @Test
+    public void checksDoubleExactness() {
+        assertTrue(JsonBinary.isExactDouble("2.5"));
+        assertTrue(JsonBinary.isExactDouble("0.1"));
+        assertFalse(JsonBinary.isExactDouble("9007199254740993.0"));
+        assertFalse(JsonBinary.isExactDouble("NaN"));
+        assertFalse(JsonBinary.isExactDouble("not a number"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownTags() {
+        JsonBinary.read(ByteBuffer.wrap(new byte[]{99}));
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2018, The University of Memphis, MD2K Center of Excellence
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.md2k.datakitapi.datatype;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+/**
+ * Ownership of the JSON trees of <code>DataTypeJSONObject</code> and
+ * <code>DataTypeJSONObjectArray</code>.
+ */
+public class JsonSampleTest {
+
+    /** Value of the samples as JSON text. */
+    private static final String OBJECT = "{\"a\":1,\"b\":[true,\"x\"]}";
+
+    /**
+     * @return A new tree of <code>OBJECT</code>.
+     */
+    private static JsonObject object() {
+        return new JsonParser().parse(OBJECT).getAsJsonObject();
+    }
+
+    /**
+     * @return A new array holding two trees of <code>OBJECT</code>.
+     */
+    private static JsonArray array() {
+        JsonArray array = new JsonArray();
+        array.add(object());
+        array.add(object());
+        return array;
+    }
+
+    @Test
+    public void objectSampleIsACopy() {
+        JsonObject input = object();
+        DataTypeJSONObject dataType = new DataTypeJSONObject(1, input);
+        input.addProperty("c", 2);
+
+        JsonObject sample = dataType.getSample();
+        sample.addProperty("d", 3);
+        ((JsonObject) DataTypeCodec.forType(dataType).toJson(dataType)).addProperty("e", 4);
+
+        assertNotSame(sample, dataType.getSample());
+        assertEquals(object(), dataType.getSample());
+        assertEquals(OBJECT, dataType.getRawSample());
+    }
+
+    @Test
+    public void arraySampleIsACopy() {
+        JsonArray input = array();
+        DataTypeJSONObjectArray dataType = new DataTypeJSONObjectArray(1, input);
+        input.add(object());
+
+        JsonArray sample = dataType.getSample();
+        sample.get(0).getAsJsonObject().addProperty("d", 3);
+        ((JsonArray) DataTypeCodec.forType(dataType).toJson(dataType)).add(object());
+
+        assertNotSame(sample, dataType.getSample());
+        assertEquals(array(), dataType.getSample());
+        assertEquals(array().toString(), dataType.getRawSample());
+    }
+
+    @Test
+    public void parsedTreesAreNotHandedOut() {
+        DataTypeJSONObject object = DataTypeJSONObject.ofTree(object());
+        DataTypeJSONObjectArray array = DataTypeJSONObjectArray.ofTree(array());
+
+        object.getSample().remove("a");
+        array.getSample().remove(0);
+
+        assertEquals(OBJECT, object.getRawSample());
+        assertEquals(array().toString(), array.getRawSample());
+    }
+}